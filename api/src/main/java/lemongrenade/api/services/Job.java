@@ -314,9 +314,15 @@ public class Job {
                 int active = 0;
                 try {
                     if (status == LGJob.STATUS_PROCESSING) { //only processing jobs have non-zero active_task_count
-                        ArrayList<Document> docs = new MongoDBStore().getTasksFromJob(id);
-                        JSONObject tasks = MongoDBStore.toJSON(docs);
-                        active = LGJob.getActiveTaskCount(tasks);
+                        Integer counted = LGJob.getTaskCount(mongoJob, LGTask.TASK_STATUS_PROCESSING);
+                        if (counted != null) {
+                            active = counted;
+                        }
+                        else { //job from before the task counters
+                            ArrayList<Document> docs = new MongoDBStore().getTasksFromJob(id);
+                            JSONObject tasks = MongoDBStore.toJSON(docs);
+                            active = LGJob.getActiveTaskCount(tasks);
+                        }
                     }
                 } catch (Exception e) {
                     log.debug("Couldn't fetch active task count for job:" + id + " Error:" + e.getMessage());
@@ -694,10 +700,12 @@ public class Job {
         JSONArray idPerTask      = new JSONArray();
         JSONArray adapterPerTask = new JSONArray();
         JSONArray errorPerTask   = new JSONArray();
+        JSONArray batchPerTask   = new JSONArray();
 
         JSONArray adapterPie      = new JSONArray();
         JSONArray adapterPieLabels= new JSONArray();
         HashMap<String, Integer> adapterPieCounters = new HashMap<String,Integer>();
+        HashSet<String> countedBatches = new HashSet<String>(); //tasks of a batch all carry the batch's changes
         for(LGJobHistory l: history) {
             if (l.getCommandType() == 1) {
                 LGTask t = tasks.get(l.getTaskId());
@@ -710,12 +718,15 @@ public class Job {
                     graphPerTask.put(graphChange);
                     idPerTask.put(l.getTaskId());
                     adapterPerTask.put(adapter);
-                    int count = graphChange;
-                    if (adapterPieCounters.containsKey(adapter)) {
-                        count = adapterPieCounters.get(adapter).intValue();
-                        count += graphChange;
+                    batchPerTask.put(l.getBatchId() == null ? "" : l.getBatchId());
+                    if (l.getBatchId() == null || countedBatches.add(l.getBatchId() + "/" + adapter)) {
+                        int count = graphChange;
+                        if (adapterPieCounters.containsKey(adapter)) {
+                            count = adapterPieCounters.get(adapter).intValue();
+                            count += graphChange;
+                        }
+                        adapterPieCounters.put(adapter,count);
                     }
-                    adapterPieCounters.put(adapter,count);
                     int error = 0;
                     if (t.getStatus() != t.TASK_STATUS_COMPLETE) {
                         error = 1;
@@ -736,6 +747,7 @@ public class Job {
         jobResult.put("id_per_task",idPerTask);
         jobResult.put("adapter_per_task",adapterPerTask);
         jobResult.put("error_per_task",errorPerTask);
+        jobResult.put("batch_per_task",batchPerTask);
         jobResult.put("adapter_pie_labels",adapterPieLabels);
         jobResult.put("adapter_pie",adapterPie);
 
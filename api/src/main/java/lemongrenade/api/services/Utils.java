@@ -4,10 +4,12 @@ import lemongrenade.api.services.Exceptions.HttpException;
 import lemongrenade.core.SubmitToRabbitMQ;
 import lemongrenade.core.coordinator.AdapterManager;
 import lemongrenade.core.coordinator.JobManager;
+import lemongrenade.core.database.blob.ClaimCheck;
 import lemongrenade.core.database.lemongraph.LemonGraph;
 import lemongrenade.core.database.mongo.MongoDBStore;
 import lemongrenade.core.models.LGJob;
 import lemongrenade.core.models.LGPayload;
+import lemongrenade.core.models.LGTask;
 import lemongrenade.core.util.JSONUtils;
 import lemongrenade.core.util.LGProperties;
 import lemongrenade.core.util.RequestResult;
@@ -773,9 +775,15 @@ public class Utils {
 
                 int active = 0;
                 if (jobStatus == LGJob.STATUS_PROCESSING) { //only processing jobs have non-zero active_task_count
-                    ArrayList<Document> docs = getMongoDBStore().getTasksFromJob(jobId);
-                    JSONObject tasks = MongoDBStore.toJSON(docs);
-                    active = LGJob.getActiveTaskCount(tasks);
+                    Integer counted = LGJob.getTaskCount(mongoJob, LGTask.TASK_STATUS_PROCESSING);
+                    if (counted != null) {
+                        active = counted;
+                    }
+                    else { //job from before the task counters
+                        ArrayList<Document> docs = getMongoDBStore().getTasksFromJob(jobId);
+                        JSONObject tasks = MongoDBStore.toJSON(docs);
+                        active = LGJob.getActiveTaskCount(tasks);
+                    }
                 }
 
                 JSONObject lgData = graphJob.getJSONObject("data");
@@ -1148,6 +1156,7 @@ public class Utils {
                 log.info("Deleted job:" + currentID + " from MongoDB");
                 getMongoDBStore().deleteTasksByJob(currentID);//delete the tasks from MongoDB
                 log.info("Deleted tasks for job:" + currentID + " from MongoDB");
+                ClaimCheck.deleteJob(currentID);//delete any payloads spilled to the blob store
                 deleted.add(currentID);
             } catch (Exception e) {
                 failed.add(currentID);
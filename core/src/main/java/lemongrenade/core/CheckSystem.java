@@ -1,10 +1,8 @@
 package lemongrenade.core;
 
 import com.mongodb.MongoClient;
-import com.rabbitmq.client.Channel;
-import com.rabbitmq.client.Connection;
-import com.rabbitmq.client.ConnectionFactory;
 import lemongrenade.core.database.lemongraph.LemonGraph;
+import lemongrenade.core.storm.RabbitConnectionManager;
 import lemongrenade.core.util.LGConstants;
 import lemongrenade.core.util.LGProperties;
 import org.apache.commons.cli.*;
@@ -16,7 +14,6 @@ import org.apache.storm.utils.Utils;
 
 import java.util.ArrayList;
 import java.util.Map;
-import java.util.concurrent.TimeoutException;
 
 /** */
 public class CheckSystem {
@@ -84,26 +81,16 @@ public class CheckSystem {
      * @return 'true' if connected to queue, 'false' otherwise
      * */
     public boolean testRabbit() {
-        ConnectionFactory factory;
-        Connection connection;
-        Channel channel;
         boolean connectedToQueue = false;
-        factory = new ConnectionFactory();
-        factory.setHost(LGProperties.get("rabbit.hostname"));
         try {
-            connection = factory.newConnection();
-            channel = connection.createChannel();
-            channel.queueDeclare(LGConstants.LEMONGRENADE_COORDINATORCMD, true, false, false, null);
+            RabbitConnectionManager.shared().withChannel(channel ->
+                    channel.queueDeclare(LGConstants.LEMONGRENADE_COORDINATORCMD, true, false, false, null));
             connectedToQueue = true;
         }
         catch (java.io.IOException e) {
             System.out.println("Unable to connect to rabbitmq "+LGConstants.LEMONGRENADE_COORDINATORCMD+ " "+e.getMessage());
             connectedToQueue = false;
         }
-        catch (TimeoutException e) {
-            System.out.println("Timeout connecting to rabbitmq "+LGConstants.LEMONGRENADE_COORDINATORCMD+ " "+e.getMessage());
-            connectedToQueue = false;
-        }
         return connectedToQueue;
     }
 
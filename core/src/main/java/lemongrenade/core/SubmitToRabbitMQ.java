@@ -3,14 +3,15 @@ package lemongrenade.core;
 import com.rabbitmq.client.AMQP;
 import com.rabbitmq.client.Channel;
 import com.rabbitmq.client.Connection;
-import com.rabbitmq.client.ConnectionFactory;
-import lemongrenade.core.coordinator.CoordinatorTopology;
+import lemongrenade.core.coordinator.CoordinatorShards;
 import lemongrenade.core.coordinator.JobManager;
 import lemongrenade.core.database.lemongraph.InvalidGraphException;
 import lemongrenade.core.database.lemongraph.LemonGraph;
 import lemongrenade.core.models.LGCommand;
 import lemongrenade.core.models.LGJob;
 import lemongrenade.core.models.LGPayload;
+import lemongrenade.core.storm.ConfirmingPublisher;
+import lemongrenade.core.storm.RabbitConnectionManager;
 import lemongrenade.core.util.LGConstants;
 import lemongrenade.core.util.LGProperties;
 import org.apache.commons.cli.Option;
@@ -23,10 +24,10 @@ import org.slf4j.LoggerFactory;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
-import java.util.concurrent.TimeoutException;
 
 /**
  * Submits a job to command queue LGConstants.LEMONGRENADE_COORDINATORCMD
@@ -42,44 +43,42 @@ import java.util.concurrent.TimeoutException;
  */
 public class SubmitToRabbitMQ {
     private final static Logger log = LoggerFactory.getLogger(SubmitToRabbitMQ.class);
-    static private ConnectionFactory factory;
-    static private Connection connection;
-    static private Channel channel;
-
-    static {
-        try {
-            factory = new ConnectionFactory();
-            factory.setHost(LGProperties.get("rabbit.hostname"));
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-    }
+    //Commands are sent with publisher confirms, every send returns only once the broker has the command
+    static private ConfirmingPublisher publisher;
 
     public SubmitToRabbitMQ() {}
 
     public void openConnections() throws Exception {
-        if(connection == null || !connection.isOpen() || channel == null || !channel.isOpen() ) {
+        if(publisher == null || publisher != ConfirmingPublisher.shared()) {
             try {
-                log.info("Opening RabbitMQ connection and COORDINATORCMD channel.");
-                connection = factory.newConnection();
-                channel = connection.createChannel();
-                channel.queueDeclare(LGConstants.LEMONGRENADE_COORDINATORCMD, true, false, false, CoordinatorTopology.queueArgs);
+                log.info("Opening RabbitMQ publisher and declaring COORDINATOR queues.");
+                publisher = ConfirmingPublisher.shared();
+                RabbitConnectionManager.shared().withChannel(channel -> {
+                    CoordinatorShards.declare(channel);
+                    return null;
+                });
             } catch (java.io.IOException e) {
                 log.error("Unable to connect to rabbitmq " + LGConstants.LEMONGRENADE_COORDINATORCMD + " " + e.getMessage());
-            } catch (TimeoutException e) {
-                log.error("Timeout connecting to rabbitmq " + LGConstants.LEMONGRENADE_COORDINATORCMD + " " + e.getMessage());
             }
         } else {
-            log.debug("Connection and Channel are open.");
+            log.debug("Publisher is open.");
         }
     }
 
-    /** Closes RabbitMQ connection, COORDINATORCMD channel, and LemonGraph
+    //Commands for a job always go to the coordinator (shard) that owns the job, see CoordinatorShards
+    private void sendCommand(LGCommand cmd, int priority) throws IOException {
+        publisher.publishAndWait(CoordinatorShards.exchange(LGConstants.LEMONGRENADE_COORDINATORCMD)
+                , CoordinatorShards.routingKey(LGConstants.LEMONGRENADE_COORDINATORCMD, cmd.getJobId())
+                , new AMQP.BasicProperties.Builder().priority(priority).build()
+                , cmd.toByteArray());
+    }
+
+    /** Closes the shared RabbitMQ connection and LemonGraph
      * @throws Exception If the connection cannot be closed
      */
     public void close() throws Exception {
-        closeChannel(channel);
-        closeConnection(connection);
+        log.info("Closing RabbitMQ connection.");
+        RabbitConnectionManager.shared().close();
         log.info("Closing connection to LemonGraph.");
         LemonGraph.close();
         JobManager.close();
@@ -132,9 +131,7 @@ public class SubmitToRabbitMQ {
 
         seedPayload.setJobId(jobId);
         LGCommand cmd = new LGCommand(LGCommand.COMMAND_TYPE_ADD, jobId, ttl, 255, approvedAdapters, seedPayload);
-        channel.basicPublish("", LGConstants.LEMONGRENADE_COORDINATORCMD
-                , new AMQP.BasicProperties.Builder().priority(LGConstants.QUEUE_PRIORITY_NEW_JOB).build()
-                , cmd.toByteArray());
+        sendCommand(cmd, LGConstants.QUEUE_PRIORITY_NEW_JOB);
     }
 
     /**
@@ -153,9 +150,7 @@ public class SubmitToRabbitMQ {
 
         seedPayload.setJobId(jobId);
         LGCommand cmd = new LGCommand(LGCommand.COMMAND_TYPE_POST_ACTION, jobId, ttl, 255, approvedAdapters, seedPayload);
-        channel.basicPublish("", LGConstants.LEMONGRENADE_COORDINATORCMD
-                , new AMQP.BasicProperties.Builder().priority(LGConstants.QUEUE_PRIORITY_NEW_JOB).build()
-                , cmd.toByteArray());
+        sendCommand(cmd, LGConstants.QUEUE_PRIORITY_NEW_JOB);
     }
 
     /**
@@ -171,9 +166,7 @@ public class SubmitToRabbitMQ {
         jobConfig.put(LGConstants.LG_RESET_REASON, reason);
         cmdPayload.setJobConfig(jobConfig);
         LGCommand cmd = new LGCommand(LGCommand.COMMAND_TYPE_RESET, jobId, 100, 255, approvedAdapters, cmdPayload);
-        channel.basicPublish("", LGConstants.LEMONGRENADE_COORDINATORCMD
-                , new AMQP.BasicProperties.Builder().priority(LGConstants.QUEUE_PRIORITY_COMMAND).build()
-                , cmd.toByteArray());
+        sendCommand(cmd, LGConstants.QUEUE_PRIORITY_COMMAND);
     }
 
     /**
@@ -194,11 +187,7 @@ public class SubmitToRabbitMQ {
         jobConfig.put("tasks", tasks);
         cmdPayload.setJobConfig(jobConfig);
         LGCommand cmd = new LGCommand(LGCommand.COMMAND_TYPE_RETRY_FAILED_TASKS, jobId, 100, 255, approvedAdapters, cmdPayload);
-        channel.basicPublish(
-                "" //exchange
-                , LGConstants.LEMONGRENADE_COORDINATORCMD //routing key
-                , new AMQP.BasicProperties.Builder().priority(LGConstants.QUEUE_PRIORITY_COMMAND).build()
-                , cmd.toByteArray());
+        sendCommand(cmd, LGConstants.QUEUE_PRIORITY_COMMAND);
     }
 
     public LGJob sendNewJobToCommandController(ArrayList<String> approvedAdapters, LGPayload seedPayload) throws Exception {
@@ -242,9 +231,7 @@ public class SubmitToRabbitMQ {
 
 
         LGCommand cmd = new LGCommand(LGCommand.COMMAND_TYPE_NEW, jobId, ttl, 255, approvedAdapters, seedPayload);
-        channel.basicPublish("", LGConstants.LEMONGRENADE_COORDINATORCMD
-                , new AMQP.BasicProperties.Builder().priority(LGConstants.QUEUE_PRIORITY_NEW_JOB).build()
-                , cmd.toByteArray());
+        sendCommand(cmd, LGConstants.QUEUE_PRIORITY_NEW_JOB);
         return job;
     }
 
@@ -340,9 +327,7 @@ public class SubmitToRabbitMQ {
         ArrayList approvedAdapters = new ArrayList<String>();
         LGPayload seedPayload = new LGPayload(jobId);
         LGCommand cmd = new LGCommand(LGCommand.COMMAND_TYPE_STOP, jobId, 100, 255, approvedAdapters, seedPayload);
-        channel.basicPublish("", LGConstants.LEMONGRENADE_COORDINATORCMD
-                , new AMQP.BasicProperties.Builder().priority(LGConstants.QUEUE_PRIORITY_COMMAND).build()
-                , cmd.toByteArray());
+        sendCommand(cmd, LGConstants.QUEUE_PRIORITY_COMMAND);
     }
 
     public void printSubmitJobUsage() {
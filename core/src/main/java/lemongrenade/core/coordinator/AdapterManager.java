@@ -129,13 +129,23 @@ public class AdapterManager {
         return lgAdapter.getName();
     }
 
-    /** TODO: it would be better to call adapter.getQueueName()
+    /**
      * @param adapterId The adapter ID to get queue name from
-     * @return String name of adapter
+     * @return String queue for the adapter's tasks. With shared dispatch, the queue of its adapter type.
      * */
     public static String getAdapterQueueNameById(String adapterId) {
         LGAdapterModel lgAdapter = getAdapterById(adapterId);
-        return lgAdapter.getUniqueName();
+        return lgAdapter.getQueueName();
+    }
+
+    /**
+     * @param adapter LGAdapterModel
+     * @param now current time in ms
+     * @return true if the adapter isn't offline and has sent a heartbeat within max_adapter_heartbeat_time seconds
+     */
+    public static boolean isAlive(LGAdapterModel adapter, long now) {
+        return adapter.getStatus() != LGAdapterModel.STATUS_OFFLINE
+                && now - adapter.getLastHeartBeat() <= MAX_ADAPTER_HEARTBEAT_TIME * 1000L;
     }
 
     /**
@@ -280,11 +290,15 @@ public class AdapterManager {
      * @param adapterId String of adapter ID to increment task count
      */
     public static void incrementTaskCount(String adapterId) {
-        LGAdapterModel lgAdapter = ADAPTER_DAO.getById(adapterId);
-        int tc = lgAdapter.getTaskCount();
-        tc++;
-        lgAdapter.setTaskCount(tc);
-        ADAPTER_DAO.save(lgAdapter);
+        incrementTaskCount(adapterId, 1);
+    }
+
+    /**
+     * @param adapterId String of adapter ID to increment task count
+     * @param count number of tasks sent to the adapter
+     */
+    public static void incrementTaskCount(String adapterId, int count) {
+        ADAPTER_DAO.incrementTaskCount(adapterId, count);
     }
 
     /**
@@ -294,10 +308,12 @@ public class AdapterManager {
      */
     private void checkAdapterHeartBeat() {
         List<LGAdapterModel> adapters = ADAPTER_DAO.getAll();
+        long now = System.currentTimeMillis();
         for(LGAdapterModel adapter : adapters) {
-           long diffTime = System.currentTimeMillis() - adapter.getLastHeartBeat();
-            if (diffTime > MAX_ADAPTER_HEARTBEAT_TIME) {
-                log.error("Adapter has gone over max heartbeat time "+diffTime+"/"+MAX_ADAPTER_HEARTBEAT_TIME);
+            if (!isAlive(adapter, now)) {
+                long diffTime = now - adapter.getLastHeartBeat();
+                log.error("Adapter has gone over max heartbeat time "+diffTime+"ms/"+MAX_ADAPTER_HEARTBEAT_TIME+"s");
+                // With shared dispatch its tasks aren't stranded, the other instances keep draining the shared queue
                 // TODO: update status? what to do here?
             } else {
                 // TODO f status is HB_FAILED, see if heartbeat is back and then set the status back
@@ -317,10 +333,20 @@ public class AdapterManager {
      * @return String adapterId
      */
     public static String findBestAdapterByAdapterName(String adapterName) {
+        return findBestAdapterByAdapterName(adapterName, ADAPTER_DAO.getAll());
+    }
+
+    /**
+     * Same as findBestAdapterByAdapterName(adapterName), picking from a list of adapters already read from the
+     * "lemongrenade.adapters" table, so one read can serve several names.
+     * @param adapterName - the "name" or "type" of the adapter we are looking
+     * @param adapters every registered adapter
+     * @return String adapterId
+     */
+    public static String findBestAdapterByAdapterName(String adapterName, List<LGAdapterModel> adapters) {
         // Loop through the lemongrenade.adapters table, building a list of ALL
         // lemongrenade.adapters IDs that have the name 'adapterName'
         ArrayList<String> matchingAdapterList = new ArrayList<String>();
-        List<LGAdapterModel> adapters = ADAPTER_DAO.getAll();
         for(LGAdapterModel a : adapters) {
             if (adapterName.equalsIgnoreCase(a.getName())) {
                 if (a.getStatus() != LGAdapterModel.STATUS_OFFLINE) {
@@ -329,6 +355,13 @@ public class AdapterManager {
             }
         }
 
+        // With shared dispatch every instance takes tasks from the same queue, so the id is only used for bookkeeping.
+        // Prefer a live instance so task counts land on adapters that are actually running. If none are alive the
+        // task still waits in the durable shared queue for the next instance to start.
+        if (LGAdapterModel.SHARED_DISPATCH && matchingAdapterList.size() > 1) {
+            return pickLiveAdapter(adapters, matchingAdapterList);
+        }
+
         // TODO: No matches, what do we do?
         if (matchingAdapterList.size() == 0) {
             // TODO: throw exception?
@@ -346,6 +379,19 @@ public class AdapterManager {
     }
 
 
+    //Live adapter in the list with the fewest tasks sent to it, or the first in the list if none are alive
+    private static String pickLiveAdapter(List<LGAdapterModel> adapters, List<String> candidates) {
+        long now = System.currentTimeMillis();
+        LGAdapterModel best = null;
+        for (LGAdapterModel a : adapters) {
+            if (candidates.contains(a.getId()) && isAlive(a, now)
+                    && (best == null || a.getTaskCount() < best.getTaskCount())) {
+                best = a;
+            }
+        }
+        return best != null ? best.getId() : candidates.get(0);
+    }
+
     //  Take the graphquery given by the adapter writer and append depth if we have it.
     //  Eg.  query = "n(status~/new/)"  and depth =3
     //       "n(status~/new/),1(depth<=3)"
@@ -364,10 +410,20 @@ public class AdapterManager {
             log.error("Unable to find graphQuery for adapter ["+adapterId+"]");
             return "";
         }
+        return getGraphQueryForAdapter(lgAdapter, job.getJobConfigAsJSON(), applyDepth);
+    }
+
+    /**
+     * @param lgAdapter LGAdapterModel
+     * @param config job config, parsed once by the caller
+     * @param applyDepth boolean. 'true' to apply depth
+     * @return Returns graph query
+     */
+    public static String getGraphQueryForAdapter(LGAdapterModel lgAdapter, JSONObject config, boolean applyDepth) {
         // Append depth to the query if we have it (and if we are told to do so)
         int graphDepth = lgAdapter.getGraphDepth(); //only apply depth for adapters with positive graph depth
         if (applyDepth && graphDepth >= 0) {
-            int depth = findDepth(adapterId, job);
+            int depth = findDepth(lgAdapter, config);
             if (depth >= 0) {
                 String rQuery = lgAdapter.getGraphQuery() + ",1(depth<=" + depth + ")";
                 return rQuery;
@@ -393,24 +449,18 @@ public class AdapterManager {
      *          // don't append a depth
      *          no_depth
      *
-     * @param adapterId
-     * @param job
+     * @param lgAdapter
+     * @param config
      * @return
      */
-    private static int findDepth(String adapterId, LGJob job) {
-        LGAdapterModel lgAdapter = getAdapterById(adapterId);
-        JSONObject config = job.getJobConfigAsJSON();
-        if (lgAdapter == null) {
-            log.warn("Unable to find adapter in findDepth for adapterId:"+adapterId);
-        } else {
-            // Check for job_config { adapters : adaptername: { depth = 3 } }
-            if ((config != null) && (config.has("adapters"))) {
-                JSONObject adapters = config.getJSONObject("adapters");
-                if (adapters.has(lgAdapter.getName())) {
-                    JSONObject adapter = adapters.getJSONObject(lgAdapter.getName());
-                    if (adapter.has("depth")) {
-                        return adapter.getInt("depth");
-                    }
+    private static int findDepth(LGAdapterModel lgAdapter, JSONObject config) {
+        // Check for job_config { adapters : adaptername: { depth = 3 } }
+        if ((config != null) && (config.has("adapters"))) {
+            JSONObject adapters = config.getJSONObject("adapters");
+            if (adapters.has(lgAdapter.getName())) {
+                JSONObject adapter = adapters.getJSONObject(lgAdapter.getName());
+                if (adapter.has("depth")) {
+                    return adapter.getInt("depth");
                 }
             }
         }
@@ -421,11 +471,9 @@ public class AdapterManager {
         }
 
         // If the adapter writer gave us a depth, we use it
-        if (lgAdapter != null) {
-            int d = lgAdapter.getGraphDepth();
-            if (d >= 1) {
-                return d;
-            }
+        int d = lgAdapter.getGraphDepth();
+        if (d >= 1) {
+            return d;
         }
 
         // return a NO_DEPTH values
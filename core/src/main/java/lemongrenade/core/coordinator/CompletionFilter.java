@@ -0,0 +1,151 @@
+package lemongrenade.core.coordinator;
+
+import lemongrenade.core.util.LGProperties;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Lets through only the first adapter response for each task.
+ *
+ * A redelivery, a worker crash or a retry can get the same response to the coordinator more than once, and every
+ * copy would be posted to the graph again and fan out into duplicate tasks. A response is only let through if its
+ * executor claims the task: one conditional update on the task document that leases a PROCESSING task to the executor
+ * without changing its status (JobManager.claimTask). Copies that reach another executor, topology or shard while the
+ * lease holds are dropped, and so are responses naming a task of another job, as the claim only matches a task of the
+ * response's job. The task is only written COMPLETE/FAILED once its graph work is done; if that work fails
+ * the claim is released (finish()), and a lease left behind by a worker that died runs out after
+ * 'coordinator.claim.lease.ms', so a Storm replay is processed again. An executor may always claim its own tasks again,
+ * which covers a restarted worker getting its replays right away.
+ *
+ * Copies arriving at this executor while its response is in flight are dropped from memory. So are copies of the last
+ * 'coordinator.dedup.recent' tasks found finished in the database, so further copies cost no database call.
+ * Payloads for unknown tasks (seeds) are always let through.
+ *
+ * Used from one bolt thread at a time.
+ */
+public class CompletionFilter {
+    public enum Claim {
+        CLAIMED,  //the task is leased to this executor now
+        HELD,     //another executor holds an unexpired lease on the task
+        FINISHED, //the task isn't PROCESSING any more
+        FOREIGN,  //the task belongs to another job
+        UNKNOWN   //there is no such task, e.g. a seed payload
+    }
+
+    public interface Claims {
+        Claim claim(String jobId, String taskId);
+
+        //Ends this executor's lease on a task that is still PROCESSING
+        void release(String taskId);
+    }
+
+    private final Claims claims;
+    private final Set<String> inFlight = new HashSet<>();
+    private final LinkedHashMap<String, Boolean> recent;
+    private long duplicates = 0;
+    private long held = 0;
+    private long released = 0;
+    private long foreign = 0;
+
+    public CompletionFilter(Claims claims, int capacity) {
+        this.claims = claims;
+        this.recent = new LinkedHashMap<String, Boolean>(16, 0.75f, false) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * @param owner key of the coordinator executor, the same after a restart
+     * @return CompletionFilter claiming tasks in mongo
+     */
+    public static CompletionFilter fromProperties(String owner) {
+        long leaseMs = LGProperties.getInteger("coordinator.claim.lease.ms", 60000);
+        return new CompletionFilter(new Claims() {
+            @Override public Claim claim(String jobId, String taskId) {
+                return JobManager.claimTask(jobId, taskId, owner, leaseMs);
+            }
+
+            @Override public void release(String taskId) {
+                JobManager.releaseTask(taskId, owner);
+            }
+        }, LGProperties.getInteger("coordinator.dedup.recent", 100000));
+    }
+
+    /**
+     * @param jobId job the response is for
+     * @param taskId task the response is for
+     * @return true if the response should be processed, false if it is a duplicate or not for a task of the job. Call
+     * finish() once a processed response is done with.
+     */
+    public boolean accept(String jobId, String taskId) {
+        if (taskId == null || taskId.isEmpty()) {
+            return true;
+        }
+        if (inFlight.contains(taskId) || recent.containsKey(taskId)) {
+            duplicates++;
+            return false;
+        }
+        switch (claims.claim(jobId, taskId)) {
+            case CLAIMED:
+                inFlight.add(taskId);
+                return true;
+            case UNKNOWN:
+                return true;
+            case HELD:
+                held++;
+                duplicates++;
+                return false;
+            case FOREIGN: //not remembered, the recent set is by task id only
+                foreign++;
+                return false;
+            default:
+                recent.put(taskId, Boolean.TRUE);
+                duplicates++;
+                return false;
+        }
+    }
+
+    /**
+     * Ends the in flight mark of an accepted response. Later copies are checked against the database again.
+     * @param taskId task the response was for
+     * @param processed false if the response's processing failed before its task was written finished; the claim is
+     * released so another copy can be processed without waiting for the lease to run out
+     */
+    public void finish(String taskId, boolean processed) {
+        if (taskId == null || !inFlight.remove(taskId)) {
+            return;
+        }
+        if (!processed) {
+            claims.release(taskId);
+            released++;
+        }
+    }
+
+    public long getDuplicates() {
+        return duplicates;
+    }
+
+    //Metric value: duplicates dropped, how many of them were held by another executor, responses for tasks of other
+    //jobs and claims released since the last call
+    public Map<String, Object> getValueAndReset() {
+        Map<String, Object> value = new HashMap<>();
+        value.put("duplicates", duplicates);
+        value.put("held", held);
+        value.put("released", released);
+        value.put("foreign", foreign);
+        value.put("inFlight", inFlight.size());
+        value.put("recent", recent.size());
+        duplicates = 0;
+        held = 0;
+        released = 0;
+        foreign = 0;
+        return value;
+    }
+}
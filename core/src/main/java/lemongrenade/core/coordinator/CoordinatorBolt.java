@@ -8,6 +8,9 @@ import lemongrenade.core.models.*;
 import lemongrenade.core.util.JSONUtils;
 import lemongrenade.core.util.LGConstants;
 import lemongrenade.core.util.LGProperties;
+import org.apache.storm.Config;
+import org.apache.storm.Constants;
+import org.apache.storm.metric.api.IMetric;
 import org.apache.storm.task.OutputCollector;
 import org.apache.storm.task.TopologyContext;
 import org.apache.storm.topology.OutputFieldsDeclarer;
@@ -37,6 +40,64 @@ public class CoordinatorBolt extends BaseRichBolt {
             "max_processing_jobs_per_coordinator", DEFAULT_MAX_PROCESSING_JOBS_PER_COORDINATOR);
     //Maximum number of activities that a graph can have before we issue a stop commnand
     private final static int MAX_GRAPH_SIZE = LGProperties.getInteger("max_graph_size",DEFAULT_MAX_GRAPH_SIZE);
+    //How often parked tasks are checked for room in their adapter queue
+    private final static int BACKPRESSURE_RELEASE_SECS = LGProperties.getInteger("backpressure.release.secs", 1);
+    //How often graph activity recorded in memory is written to the jobs
+    private final static int GRAPH_ACTIVITY_FLUSH_SECS = LGProperties.getInteger("graph.activity.flush.secs", 5);
+    //Most adapter responses of one job posted to LemonGraph together; 1 or less posts each response on its own
+    private final static int RESPONSE_BATCH_SIZE = LGProperties.getInteger("coordinator.response.batch.size", 50);
+    private final static int METRICS_INTERVAL = LGProperties.getInteger("rabbit.metrics.interval", 60);
+    protected transient DispatchBackpressure<ParkedTask> backpressure;
+    protected transient CompletionFilter completions;
+    protected transient JobStateCache<LGJob> jobs;
+    protected transient GraphActivity activity;
+    protected transient ResponseBatcher<PendingResponse> responses;
+    protected transient InFlightWindow graphCalls;
+    protected transient DispatchPlanCache plans;
+    //Key tasks parked by this executor are marked with in mongo, and the start shared by this bolt's executors
+    protected transient String parkedBy;
+    protected transient String parkedByPrefix;
+    private transient int taskIndex;
+    private transient int taskCount;
+    private transient boolean recoverParked = false;
+
+    //A task held back by DispatchBackpressure. Already recorded on its job, waiting to be emitted.
+    protected static class ParkedTask {
+        final String jobId;
+        final String taskId;
+        final LGPayload payload;
+
+        ParkedTask(String jobId, String taskId, LGPayload payload) {
+            this.jobId = jobId;
+            this.taskId = taskId;
+            this.payload = payload;
+        }
+    }
+
+    //A task built from a LemonGraph result, sent with the rest of its batch by sendTasksToAdapters
+    protected static class NewTask {
+        final LGTask task;
+        final LGPayload payload;
+
+        NewTask(LGTask task, LGPayload payload) {
+            this.task = task;
+            this.payload = payload;
+        }
+    }
+
+    //An adapter response waiting in ResponseBatcher. Its tuple is acked once the batch has been handled.
+    protected static class PendingResponse {
+        final Tuple tuple;
+        final LGPayload payload;
+        final String taskId; //kept, the payload's is stripped once the response is processed
+        boolean accepted;    //not a duplicate, so the task is claimed by this executor until the tuple is acked
+
+        PendingResponse(Tuple tuple, LGPayload payload) {
+            this.tuple = tuple;
+            this.payload = payload;
+            this.taskId = payload.getTaskId();
+        }
+    }
 
     protected void close() {
         try {
@@ -94,20 +155,222 @@ public class CoordinatorBolt extends BaseRichBolt {
         oc = outputCollector;
         boltId = topologyContext.getThisTaskId();
         graphStoreMode = getGraphStore();
+        if (graphStoreMode == GRAPH_STORE_LEMONGRAPH) {
+            graphCalls = InFlightWindow.fromProperties();
+            if (graphCalls != null) {
+                LemonGraph.openConnection(); //the asynchronous calls don't open it
+                graphCalls.open("lemongraph-callbacks-" + boltId);
+                registerMetric(topologyContext, "lemongraph-inflight", graphCalls::getValueAndReset);
+            }
+        }
+        backpressure = DispatchBackpressure.fromProperties();
+        if (backpressure.isEnabled()) {
+            registerMetric(topologyContext, "dispatch-backpressure", backpressure::getValueAndReset);
+        }
+        //Storm hands the same task index to this executor when its worker restarts, so it can pick up what it parked
+        parkedByPrefix = LGProperties.getInteger("coordinator.shard", 0) + ":" + topologyContext.getThisComponentId() + ":";
+        taskIndex = topologyContext.getThisTaskIndex();
+        taskCount = topologyContext.getComponentTasks(topologyContext.getThisComponentId()).size();
+        parkedBy = parkedByPrefix + taskIndex;
+        recoverParked = true;
+        completions = CompletionFilter.fromProperties(parkedBy); //same key after a restart, so it can reclaim its tasks
+        registerMetric(topologyContext, "duplicate-responses", completions::getValueAndReset);
+        jobs = JobStateCache.fromProperties();
+        if (jobs != null) {
+            registerMetric(topologyContext, "job-cache", jobs::getValueAndReset);
+        }
+        activity = GraphActivity.fromProperties();
+        registerMetric(topologyContext, "graph-activity", activity::getValueAndReset);
+        plans = DispatchPlanCache.fromProperties();
+        if (plans != null) {
+            registerMetric(topologyContext, "dispatch-plans", plans::getValueAndReset);
+        }
+        if (graphStoreMode == GRAPH_STORE_LEMONGRAPH) {
+            responses = ResponseBatcher.fromProperties();
+            if (responses != null) {
+                registerMetric(topologyContext, "response-batches", responses::getValueAndReset);
+            }
+        }
     }
 
+    //Metrics are read on the executor thread outside execute(). With LemonGraph callbacks running on the
+    //InFlightWindow's thread, they take the window's lock like execute() does.
+    private void registerMetric(TopologyContext topologyContext, String name, IMetric metric) {
+        InFlightWindow lock = graphCalls;
+        if (lock == null) {
+            topologyContext.registerMetric(name, metric, METRICS_INTERVAL);
+            return;
+        }
+        topologyContext.registerMetric(name, () -> {
+            synchronized (lock) {
+                return metric.getValueAndReset();
+            }
+        }, METRICS_INTERVAL);
+    }
+
+    @Override public void cleanup() {
+        if (graphCalls == null) {
+            finishWork();
+            return;
+        }
+        synchronized (graphCalls) {
+            finishWork();
+            graphCalls.close();
+        }
+    }
+
+    //Processes the responses waiting in the ResponseBatcher, waits for LemonGraph calls in flight and writes the graph
+    //activity recorded in memory
+    private void finishWork() {
+        if (responses != null) {
+            for (Map.Entry<String, List<PendingResponse>> batch : responses.drain().entrySet()) {
+                processResponses(batch.getKey(), batch.getValue());
+            }
+        }
+        if (graphCalls != null) {
+            try {
+                if (!graphCalls.awaitIdle(LGProperties.getInteger("coordinator.lemongraph.shutdown.ms", 10000))) {
+                    log.warn("LemonGraph calls still in flight at shutdown, their tuples will be replayed.");
+                }
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (activity != null) {
+            activity.flushAll();
+        }
+    }
+
+    //Ticks release parked tasks, flush graph activity and flush waiting responses, as often as the most frequent needs
+    @Override public Map<String, Object> getComponentConfiguration() {
+        int secs = GRAPH_ACTIVITY_FLUSH_SECS;
+        if (BACKPRESSURE_RELEASE_SECS > 0 && LGProperties.getInteger("backpressure.high.watermark", 10000) > 0) {
+            secs = secs > 0 ? Math.min(secs, BACKPRESSURE_RELEASE_SECS) : BACKPRESSURE_RELEASE_SECS;
+        }
+        if (RESPONSE_BATCH_SIZE > 1) {
+            secs = 1;
+        }
+        if (secs <= 0) {
+            return null;
+        }
+        Config conf = new Config();
+        conf.put(Config.TOPOLOGY_TICK_TUPLE_FREQ_SECS, secs);
+        return conf;
+    }
+
+    protected boolean isTickTuple(Tuple tuple) {
+        return tuple.getSourceComponent().equals(Constants.SYSTEM_COMPONENT_ID)
+                && tuple.getSourceStreamId().equals(Constants.SYSTEM_TICK_STREAM_ID);
+    }
+
+    //With an InFlightWindow, LemonGraph callbacks run on the window's thread as calls complete. Tuples are handled
+    //holding the window's lock, so the two never run at the same time.
     public void execute(Tuple tuple) {
+        if (graphCalls == null) {
+            executeTuple(tuple);
+            return;
+        }
+        synchronized (graphCalls) {
+            executeTuple(tuple);
+        }
+    }
+
+    private void executeTuple(Tuple tuple) {
+        if (recoverParked) {
+            try {
+                recoverParkedTasks();
+            }
+            catch(Exception e) {
+                log.error("Error recovering parked tasks:" + e.getMessage());
+            }
+        }
+        if (isTickTuple(tuple)) {
+            try {
+                releaseParkedTasks();
+            }
+            catch(Exception e) {
+                log.error("Error releasing parked tasks:" + e.getMessage());
+            }
+            try {
+                if (activity != null) {
+                    activity.flush(System.currentTimeMillis());
+                }
+            }
+            catch(Exception e) {
+                log.error("Error writing graph activity:" + e.getMessage());
+            }
+            flushResponses(System.currentTimeMillis());
+            oc.ack(tuple);
+            return;
+        }
+        if (tuple.getSourceStreamId().equals(JobStateCache.INVALIDATE_STREAM)) {
+            String jobId = tuple.getStringByField(LGConstants.LG_JOB_ID);
+            if (jobs != null) {
+                jobs.invalidate(jobId);
+            }
+            if (plans != null) {
+                plans.invalidate(jobId);
+            }
+            oc.ack(tuple);
+            return;
+        }
         String job_id = null;
+        LGPayload payload;
         try {
-            LGPayload payload = (LGPayload) tuple.getValueByField(LGConstants.LG_PAYLOAD);
+            payload = (LGPayload) tuple.getValueByField(LGConstants.LG_PAYLOAD);
             job_id = payload.getJobId();
+            if (isBatchable(payload)) {
+                long now = System.currentTimeMillis();
+                if (responses == null) {
+                    processResponses(job_id, Collections.singletonList(new PendingResponse(tuple, payload)));
+                }
+                else {
+                    List<PendingResponse> batch = responses.add(job_id, new PendingResponse(tuple, payload), now);
+                    if (batch != null) {
+                        processResponses(job_id, batch);
+                    }
+                }
+                flushResponses(now);
+                return; //acked with its batch
+            }
+            flushResponses(System.currentTimeMillis());
+        }
+        catch(Exception e) {
+            log.error("Error caught while processing tuple for jobId:" + job_id + ". Error:" + e.getMessage());
+            e.printStackTrace();
+            oc.ack(tuple);
+            return;
+        }
+        if (graphCalls != null && graphCalls.isBusy(job_id)) { //after whatever the job has in flight
+            graphCalls.submit(job_id, () -> executeAndAck(tuple, payload));
+        }
+        else {
+            executeAndAck(tuple, payload);
+        }
+    }
+
+    private void executeAndAck(Tuple tuple, LGPayload payload) {
+        String job_id = payload.getJobId();
+        String taskId = payload.getTaskId();
+        if (isDuplicateResponse(payload)) {
+            log.info("Dropping duplicate response for job:" + job_id + " task:" + taskId);
+            oc.ack(tuple);
+            return;
+        }
+        boolean processed = false;
+        try {
             execute(payload);
-            log.info("Acknowledging tuple. job:" + job_id + " task:" + payload.getTaskId());// Success, so ack the tuple
+            processed = true;
+            log.info("Acknowledging tuple. job:" + job_id + " task:" + taskId);// Success, so ack the tuple
         }
         catch(Exception e) {
             log.error("Error caught while processing tuple for jobId:" + job_id + ". Error:" + e.getMessage());
             e.printStackTrace();
         }
+        if (completions != null) {
+            completions.finish(taskId, processed);
+        }
         oc.ack(tuple);
     }
 
@@ -120,13 +383,13 @@ public class CoordinatorBolt extends BaseRichBolt {
         log.info("EXECUTE job_id: " + job_id + " task_id:" + tmpTaskId + " coord_id:" + boltId);
 
         // Does job exist, if not, error out
-        if (!JobManager.doesJobExist(job_id)) {
+        LGJob job = lookupJob(payload);
+        if (job == null) {
             log.error("Unable to find Job [" + job_id + "] in CoordinatorBolt");
             return;
         }
 
         // Set Job Information
-        LGJob job = JobManager.getJob(job_id); //Get job from Mongo
         job.setCoordinatorId(boltId);
 
         // Look for payloads that are marked as internal_processing commands (handled differently than normal job
@@ -150,6 +413,295 @@ public class CoordinatorBolt extends BaseRichBolt {
         }
     }
 
+    //Successful adapter responses go through processResponses, waiting in the ResponseBatcher if there is one
+    protected boolean isBatchable(LGPayload payload) {
+        return (responses != null || graphCalls != null)
+                && payload.getPayloadType().equalsIgnoreCase(LGConstants.LG_PAYLOAD_TYPE_ADAPTERRESPONSE)
+                && !payload.getJobConfig().has(LGConstants.LG_INTERNAL_OP)
+                && payload.getTaskId() != null && !payload.getTaskId().isEmpty();
+    }
+
+    //Handles the batches that have waited 'coordinator.response.batch.ms'
+    protected void flushResponses(long now) {
+        if (responses == null) {
+            return;
+        }
+        for (Map.Entry<String, List<PendingResponse>> batch : responses.due(now).entrySet()) {
+            processResponses(batch.getKey(), batch.getValue());
+        }
+    }
+
+    //The responses of a batch that are processed, with the job they are for
+    protected static class ResponseBatch {
+        final LGJob job;
+        final List<String> taskIds = new ArrayList<>();
+        final List<LGPayload> payloads = new ArrayList<>();
+
+        ResponseBatch(LGJob job) {
+            this.job = job;
+        }
+
+        String lastTaskId() {
+            return taskIds.get(taskIds.size() - 1);
+        }
+
+        int size() {
+            return taskIds.size();
+        }
+    }
+
+    /**
+     * Handles a batch of adapter responses for one job the way execute(LGPayload) handles one, with a single
+     * LemonGraph post and query for the whole batch. Duplicates are dropped first; the tuples are acked at the end.
+     * With an InFlightWindow the LemonGraph calls are made asynchronously, see processResponsesAsync.
+     * @param jobId String for job ID
+     * @param batch responses for the job, in the order they arrived
+     */
+    protected void processResponses(String jobId, List<PendingResponse> batch) {
+        if (graphCalls != null) {
+            graphCalls.submit(jobId, () -> processResponsesAsync(jobId, batch));
+            return;
+        }
+        boolean processed = false;
+        try {
+            ResponseBatch responseBatch = prepareResponses(jobId, batch);
+            if (responseBatch != null) {
+                if (graphProcessing(responseBatch.job, responseBatch.payloads, responseBatch.taskIds)) {
+                    log.error("Error occurred processing responses. job:" + jobId + " tasks:" + responseBatch.taskIds);
+                }
+                processed = true;
+            }
+        }
+        catch(Exception e) {
+            log.error("Error caught while processing responses for jobId:" + jobId + ". Error:" + e.getMessage());
+            e.printStackTrace();
+        }
+        finally {
+            ack(batch, processed);
+        }
+    }
+
+    /**
+     * Drops duplicates, finds the job and strips the task ids of the rest.
+     * @return the responses to process, null if there are none or the job doesn't exist
+     */
+    private ResponseBatch prepareResponses(String jobId, List<PendingResponse> batch) {
+        List<PendingResponse> accepted = new ArrayList<>();
+        for (PendingResponse response : batch) {
+            if (isDuplicateResponse(response.payload)) {
+                log.info("Dropping duplicate response for job:" + jobId + " task:" + response.payload.getTaskId());
+            }
+            else {
+                response.accepted = true;
+                accepted.add(response);
+            }
+        }
+        if (accepted.isEmpty()) {
+            return null;
+        }
+        log.info("EXECUTE job_id: " + jobId + " responses:" + accepted.size() + " coord_id:" + boltId);
+        LGJob job = lookupJob(accepted.get(0).payload);
+        if (job == null) {
+            log.error("Unable to find Job [" + jobId + "] in CoordinatorBolt");
+            return null;
+        }
+        job.setCoordinatorId(boltId);
+        ResponseBatch responseBatch = new ResponseBatch(job);
+        for (PendingResponse response : accepted) {
+            responseBatch.taskIds.add(response.payload.getTaskId());
+            response.payload.delTaskId();// Strip task Id of out the payload because the task is 'done'
+            responseBatch.payloads.add(response.payload);
+        }
+        return responseBatch;
+    }
+
+    /**
+     * processResponses with the LemonGraph post and query made through the InFlightWindow. Runs as the job's work,
+     * so nothing else for the job runs until the batch is done; the steps after each call run in its callback, which
+     * holds the window's lock like execute(). Same outcome as graphProcessing for the batch.
+     */
+    private void processResponsesAsync(String jobId, List<PendingResponse> batch) {
+        boolean started = false;
+        boolean processed = false;
+        try {
+            ResponseBatch responseBatch = prepareResponses(jobId, batch);
+            if (responseBatch == null) {
+                return;
+            }
+            LGJob job = responseBatch.job;
+            //If job has stopped, we shouldn't do any more processing. This assures a job can be deleted.
+            if (job.getStatus() == job.STATUS_STOPPED || maxGraphActivity(job, responseBatch.lastTaskId())) {
+                for (String taskId : responseBatch.taskIds) {
+                    JobManager.updateTaskToDropped(job, taskId);//drop the task for STOPPED job
+                }
+                JobManager.updateJobIfFinished(job);//sets job to finished if active task count is 0
+                processed = true;
+                return;
+            }
+            if (!LemonGraph.isConnected()) { //the asynchronous calls don't open it
+                LemonGraph.openConnection();
+            }
+            graphCalls.start(jobId, () -> LemonGraph.postToGraphAsync(jobId, responseBatch.payloads),
+                    (lgr, error) -> afterGraphPost(responseBatch, batch, lgr, error));
+            started = true;
+        }
+        catch(Exception e) {
+            log.error("Error caught while processing responses for jobId:" + jobId + ". Error:" + e.getMessage());
+            e.printStackTrace();
+        }
+        finally {
+            if (!started) {
+                ack(batch, processed);
+            }
+        }
+    }
+
+    //Second step of processResponsesAsync: checks the post and starts the query
+    private void afterGraphPost(ResponseBatch responseBatch, List<PendingResponse> batch, LemonGraphResponse lgr,
+                                Throwable error) {
+        LGJob job = responseBatch.job;
+        String jobId = job.getJobId();
+        boolean started = false;
+        boolean processed = false;
+        try {
+            MetricData md;
+            try {
+                if (error != null) {
+                    throw new JobFailureException("Error trying to post new data to graph for job:" + jobId + " task:"
+                            + responseBatch.lastTaskId() + " " + error.getMessage());
+                }
+                md = handlePostResponse(job, lgr, responseBatch.lastTaskId());
+            }
+            catch (JobFailureException e) {
+                if (responseBatch.size() < 2) {
+                    throw e;
+                }
+                //Rare, so the responses are posted one at a time with synchronous calls, like the synchronous path does
+                log.warn("Posting " + responseBatch.size() + " responses together failed for job:" + jobId
+                        + ", posting them one at a time. " + e.getMessage());
+                processSeparately(job, responseBatch);
+                processed = true;
+                return;
+            }
+            if (shouldQueryGraph(job, md, responseBatch.lastTaskId())) {
+                DispatchPlan plan = getDispatchPlan(job);
+                graphCalls.start(jobId, () -> LemonGraph.queryBasedOnPatternsAsync(jobId, plan.getQueries(), md.currentGraphId),
+                        (resultdata, queryError) -> afterGraphQuery(responseBatch, batch, md, plan, resultdata, queryError));
+                started = true;
+            }
+            else {
+                finishResponses(responseBatch, md);
+            }
+            processed = true;
+        }
+        catch(Exception e) {
+            failTasks(job, responseBatch.taskIds, e);
+            processed = true;
+            JobManager.updateJobIfFinished(job);//sets job to finished if active task count is 0
+        }
+        finally {
+            if (!started) {
+                ack(batch, processed);
+            }
+        }
+    }
+
+    //Processes each response of a batch on its own. A response that fails only fails its own task.
+    private void processSeparately(LGJob job, ResponseBatch responseBatch) {
+        int newTasks = 0;
+        try {
+            newTasks = lemongraphProcessingSeparately(job, responseBatch.payloads, responseBatch.taskIds)
+                    .numberOfNewTasksGenerated;
+        }
+        catch (Exception e) {//every task was failed by lemongraphProcessing
+            log.error("Every response of the batch failed for job:" + job.getJobId() + " " + e.getMessage());
+        }
+        if (newTasks == 0) {
+            JobManager.updateJobIfFinished(job);//sets job to finished if active task count is 0
+        }
+    }
+
+    //Last step of processResponsesAsync: builds the new tasks from the query result
+    private void afterGraphQuery(ResponseBatch responseBatch, List<PendingResponse> batch, MetricData md,
+                                 DispatchPlan plan, JSONObject resultdata, Throwable error) {
+        boolean processed = false;
+        try {
+            if (error != null) {
+                throw new JobFailureException("Error querying graph for job:" + responseBatch.job.getJobId() + " task:"
+                        + responseBatch.lastTaskId() + " " + error.getMessage());
+            }
+            md.numberOfNewTasksGenerated = handleQueryResult(responseBatch.job, responseBatch.taskIds,
+                    plan, resultdata, md);
+            finishResponses(responseBatch, md);
+            processed = true;
+        }
+        catch(Exception e) {
+            failTasks(responseBatch.job, responseBatch.taskIds, e);
+            processed = true;
+            JobManager.updateJobIfFinished(responseBatch.job);//sets job to finished if active task count is 0
+        }
+        finally {
+            ack(batch, processed);
+        }
+    }
+
+    private void finishResponses(ResponseBatch responseBatch, MetricData md) {
+        completeTasks(responseBatch.job, responseBatch.taskIds, md);
+        if (md.numberOfNewTasksGenerated == 0) {
+            JobManager.updateJobIfFinished(responseBatch.job);//sets job to finished if active task count is 0
+        }
+    }
+
+    //Acks the batch's tuples. processed is false if the accepted responses' tasks may not have been written finished,
+    //so their claims are released.
+    private void ack(List<PendingResponse> batch, boolean processed) {
+        for (PendingResponse response : batch) {
+            if (completions != null && response.accepted) {
+                completions.finish(response.taskId, processed);
+            }
+            oc.ack(response.tuple);
+        }
+    }
+
+    /**
+     * Adapter responses are served from the job cache. Anything else (seeds, commands, failures) can follow changes
+     * made outside this bolt, so the job is read from mongo and the cache refreshed with it. Post actions replace the
+     * config of their job object, so that object is never cached. Only commands read the job's taskMap; that a response
+     * is for a task of the job is checked against the task document when its task is claimed (isDuplicateResponse).
+     * @param payload incoming LGPayload
+     * @return LGJob or null if the job doesn't exist
+     */
+    protected LGJob lookupJob(LGPayload payload) {
+        String jobId = payload.getJobId();
+        if (payload.getJobConfig().has(LGConstants.LG_INTERNAL_OP)) {
+            if (jobs != null) {
+                jobs.invalidate(jobId);
+            }
+            return JobManager.getJob(jobId);
+        }
+        if (jobs == null) {
+            return JobManager.getJobWithoutTasks(jobId);
+        }
+        long now = System.currentTimeMillis();
+        if (!payload.getPayloadType().equalsIgnoreCase(LGConstants.LG_PAYLOAD_TYPE_ADAPTERRESPONSE)) {
+            return jobs.load(jobId, now);
+        }
+        return jobs.get(jobId, now);
+    }
+
+    //Only the first response for a task is processed; redelivered and retried copies are dropped before any graph work.
+    //An accepted response's task is claimed by this executor until its tuple is acked, see CompletionFilter.
+    protected boolean isDuplicateResponse(LGPayload payload) {
+        if (completions == null || payload.getJobConfig().has(LGConstants.LG_INTERNAL_OP)) {
+            return false;
+        }
+        if (!payload.getPayloadType().equalsIgnoreCase(LGConstants.LG_PAYLOAD_TYPE_ADAPTERRESPONSE)
+                && !payload.getPayloadType().equalsIgnoreCase(LGConstants.LG_PAYLOAD_TYPE_ADAPTERRESPONSE_FAILURE)) {
+            return false;
+        }
+        return !completions.accept(payload.getJobId(), payload.getTaskId());
+    }
+
     //All graph processing is done here. The proper graph processing calls are made from here
     public Boolean graphProcessing(LGJob job, LGPayload payload, String taskId) {
         String jobId = job.getJobId();
@@ -213,6 +765,39 @@ public class CoordinatorBolt extends BaseRichBolt {
         return errorProcessingTuple;
     }
 
+    /**
+     * graphProcessing for a batch of successful adapter responses of one job, LemonGraph store only.
+     * @param job LGJob
+     * @param payloads LGPayloads of the responses, task ids already stripped
+     * @param taskIds ids of the tasks the responses are for, in the same order
+     * @return true if processing failed
+     */
+    public Boolean graphProcessing(LGJob job, List<LGPayload> payloads, List<String> taskIds) {
+        String lastTaskId = taskIds.get(taskIds.size() - 1);
+        int newTasksGenerated = 0;
+        Boolean errorProcessingTuple = false;
+
+        //If job has stopped, we shouldn't do any more processing. This assures a job can be deleted.
+        if(!(job.getStatus() == job.STATUS_STOPPED || maxGraphActivity(job, lastTaskId))) { //job hasn't stopped, continue
+            try {
+                MetricData md = lemongraphProcessing(job, payloads, taskIds);
+                newTasksGenerated = md.numberOfNewTasksGenerated;
+            } catch (Exception e) {
+                errorProcessingTuple = true;
+            }
+        }
+        else {
+            for (String taskId : taskIds) {
+                JobManager.updateTaskToDropped(job, taskId);//drop the task for STOPPED job
+            }
+        }
+
+        if(newTasksGenerated == 0) {
+            JobManager.updateJobIfFinished(job);//sets job to finished if active task count is 0
+        }
+        return errorProcessingTuple;
+    }
+
     /**
      * If we want to assure that jobs end up on the exact same lemongrenade.core.coordinator instance,
      * look up "fieldsGrouping"
@@ -232,8 +817,8 @@ public class CoordinatorBolt extends BaseRichBolt {
     public MetricData lemongraphProcessing(LGJob job, LGPayload payload, String taskId) throws Exception {
         String jobId = job.getJobId();
         try {
-            MetricData md = handleLemonGraphProcessingBatch(job, payload, taskId);
-            JobManager.updateGraphActivity(job, md.maxGraphId);
+            MetricData md = handleLemonGraphProcessingBatch(job, Collections.singletonList(payload), taskId);
+            recordGraphActivity(job, md.maxGraphId);
             JobManager.updateJobHistorySuccess(job, taskId, md);
             JobManager.updateTaskToCompleted(job, taskId);
             return md;
@@ -252,29 +837,135 @@ public class CoordinatorBolt extends BaseRichBolt {
         }
     }
 
+    /**
+     * lemongraphProcessing for a batch of responses: one post and one query for all of them. The new tasks are
+     * children of the last task of the batch. Every task of the batch records the batch's graph changes and new
+     * tasks in the job history, with the batch id and size. If the combined post fails, the responses are posted one
+     * at a time instead, so only a bad response fails; if the query fails, every task in the batch is failed.
+     * @param job LGJob
+     * @param payloads LGPayloads of the responses
+     * @param taskIds ids of the tasks the responses are for, in the same order
+     * @throws Exception Throws an exception for job failure.
+     * @return MetricData for the whole batch
+     */
+    public MetricData lemongraphProcessing(LGJob job, List<LGPayload> payloads, List<String> taskIds) throws Exception {
+        if (payloads.size() == 1) {
+            return lemongraphProcessing(job, payloads.get(0), taskIds.get(0));
+        }
+        String lastTaskId = taskIds.get(taskIds.size() - 1);
+        MetricData md;
+        try {
+            md = postResponses(job, payloads, lastTaskId);
+        } catch (Exception e) {
+            log.warn("Posting " + payloads.size() + " responses together failed for job:" + job.getJobId()
+                    + ", posting them one at a time. " + e.getMessage());
+            return lemongraphProcessingSeparately(job, payloads, taskIds);
+        }
+        try {
+            queryForNewTasks(job, taskIds, md);
+            completeTasks(job, taskIds, md);
+            return md;
+        } catch (Exception e) {// There was an error processing the incoming tuples
+            failTasks(job, taskIds, e);
+            throw e;
+        }
+    }
+
+    //Processes each response on its own, in order. Throws only if every one of them failed.
+    private MetricData lemongraphProcessingSeparately(LGJob job, List<LGPayload> payloads, List<String> taskIds)
+            throws Exception {
+        MetricData total = new MetricData(0, 0, 0, 0);
+        Exception failure = null;
+        int processed = 0;
+        for (int i = 0; i < payloads.size(); i++) {
+            try {
+                MetricData md = lemongraphProcessing(job, payloads.get(i), taskIds.get(i));
+                processed++;
+                total.graphChanges += md.graphChanges;
+                total.maxGraphId = Math.max(total.maxGraphId, md.maxGraphId);
+                total.numberOfNewTasksGenerated += md.numberOfNewTasksGenerated;
+            } catch (Exception e) {//the task was failed by lemongraphProcessing
+                failure = e;
+            }
+        }
+        if (processed == 0) {
+            throw failure;
+        }
+        return total;
+    }
+
+    //Records a processed batch on its job: history, with the batch's totals, id and size on every task, and COMPLETE
+    //tasks
+    private void completeTasks(LGJob job, List<String> taskIds, MetricData md) {
+        String batchId = taskIds.size() > 1 ? UUID.randomUUID().toString() : null;
+        for (String taskId : taskIds) {
+            JobManager.updateJobHistorySuccess(job, taskId, md, batchId, taskIds.size());
+            JobManager.updateTaskToCompleted(job, taskId);
+        }
+    }
+
+    private void failTasks(LGJob job, List<String> taskIds, Exception e) {
+        log.error("Fatal Job Failure  job:" + job.getJobId() + " tasks:" + taskIds + " " + e.toString());
+        for (String taskId : taskIds) {
+            JobManager.updateTaskToFailed(job, taskId);
+        }
+    }
+
     /** Helper method for execute()
      * Uses LemonGraph to store and process data
      *
      * @param job   job we are processing
+     * @param payloads payloads whose response nodes and edges are posted together
      * @param taskId current task for job
      * @return MetricData The amount of graph changes that occurred during the postgraph to LemonGraph
      */
-    private MetricData handleLemonGraphProcessingBatch(LGJob job, LGPayload payload, String taskId) throws Exception {
-        int numberOfNewTasksGenerated = 0;
+    private MetricData handleLemonGraphProcessingBatch(LGJob job, List<LGPayload> payloads, String taskId) throws Exception {
+        MetricData metrics = postResponses(job, payloads, taskId);
+        queryForNewTasks(job, Collections.singletonList(taskId), metrics);
+        return metrics;
+    }
+
+    //Posts the payloads' nodes and edges to LemonGraph. Throws if the post failed.
+    private MetricData postResponses(LGJob job, List<LGPayload> payloads, String taskId) throws Exception {
         LemonGraphResponse lgr;
-        String jobId = payload.getJobId();
+        String jobId = job.getJobId();
         try {
             //Add new items to Lemongraph
-            lgr = LemonGraph.postToGraph(payload);
-            if (lgr.getResponseCode() == 404) {
-                // LemonGraph doesn't know about our GRAPH
-                throw new JobFailureException("LemonGraph doesn't know about graph :"+jobId+ " task:"+taskId);
-            }
+            lgr = payloads.size() == 1 ? LemonGraph.postToGraph(payloads.get(0)) : LemonGraph.postToGraph(jobId, payloads);
         } catch (InvalidGraphException e) {
             log.error("Unable to communicate with Lemongraph and post graph data!");
             throw new Exception("Error trying to post new data to graph for job:"+jobId+" task:"
                     + taskId+" "+e.getMessage());
         }
+        return handlePostResponse(job, lgr, taskId);
+    }
+
+    //Queries the part of the graph a post added and sends the new tasks, recording them in metrics. taskIds are the
+    //tasks whose responses were posted, the parents of the new tasks.
+    private void queryForNewTasks(LGJob job, List<String> taskIds, MetricData metrics) throws Exception {
+        String jobId = job.getJobId();
+        String taskId = taskIds.get(taskIds.size() - 1);
+        // Query lemongraph for each adapter that we are interested in
+        if (shouldQueryGraph(job, metrics, taskId)) {
+            DispatchPlan plan = getDispatchPlan(job);
+
+            // Send all Queries to LemonGraph, each distinct query once
+            JSONObject resultdata = LemonGraph.queryBasedOnPatterns(jobId, plan.getQueries(), metrics.currentGraphId);
+            metrics.numberOfNewTasksGenerated = handleQueryResult(job, taskIds, plan, resultdata, metrics);
+        }
+    }
+
+    /**
+     * Checks LemonGraph's answer to a post and records the graph activity it reports.
+     * @return MetricData for the post, no new tasks yet
+     * @throws JobFailureException if the post failed
+     */
+    private MetricData handlePostResponse(LGJob job, LemonGraphResponse lgr, String taskId) throws JobFailureException {
+        String jobId = job.getJobId();
+        if (lgr.getResponseCode() == 404) {
+            // LemonGraph doesn't know about our GRAPH
+            throw new JobFailureException("LemonGraph doesn't know about graph :"+jobId+ " task:"+taskId);
+        }
 
         // If LemonGraph errors out, we need to handle that and not try to query LemonGraph any further on this cycle.
         if (!lgr.getSuccess()) {
@@ -288,30 +979,63 @@ public class CoordinatorBolt extends BaseRichBolt {
 
         // Store metrics
         MetricData metrics = new MetricData(lgr.getUpdateCount(),maxGraphId,0, currentId);
+        recordGraphActivity(job, maxGraphId); //so max_graph_size is enforced before any tasks are built from this graph
+        return metrics;
+    }
 
-        // Query lemongraph for each adapter that we are interested in
-        if(!(job.getStatus() == job.STATUS_STOPPED || maxGraphActivity(job, taskId))) { //job hasn't stopped, continue
-            HashMap<String, String> adapterQueryMap = getAdapterQueryMap(job);
-            int maxNodes = LGProperties.getInteger("max_nodes_per_task", 0);
+    //Whether the part of the graph a post added should be queried for new tasks
+    private boolean shouldQueryGraph(LGJob job, MetricData metrics, String taskId) {
+        // Nothing new in the graph, so no pattern can match anything new
+        if (metrics.graphChanges == 0) {
+            log.info("No graph changes for job:" + job.getJobId() + " task:" + taskId + ". Skipping query.");
+            return false;
+        }
+        if (job.getStatus() == job.STATUS_STOPPED || maxGraphActivity(job, taskId)) {
+            log.info("job:" + job.getJobId() + " has STOPPED. Dropping new tasks.");
+            return false;
+        }
+        return true;
+    }
 
-            // Send all Queries to LemonGraph
-            JSONObject resultdata = LemonGraph.queryBasedOnPatterns(jobId, adapterQueryMap, currentId);
+    /**
+     * Parses a LemonGraph pattern query result, builds the new tasks and sends them.
+     * @param parentTaskIds tasks whose responses were posted; every one is recorded as a parent of the new tasks
+     * @return int number of tasks we created
+     */
+    private int handleQueryResult(LGJob job, List<String> parentTaskIds, DispatchPlan plan,
+                                  JSONObject resultdata, MetricData metrics) {
+        String taskId = parentTaskIds.get(parentTaskIds.size() - 1);
+        int numberOfNewTasksGenerated = 0;
+        int maxNodes = LGProperties.getInteger("max_nodes_per_task", 0);
 
-            // Parse LemonGraphResult and generate new tasks as needed
-            HashMap<String, JSONArray> resultMap = LemonGraph.parseLemonGraphResult(resultdata);
-            Set<Map.Entry<String, JSONArray>> entrySet = resultMap.entrySet();
-            for (Map.Entry<String, JSONArray> entry : entrySet) {
-                String query = entry.getKey();
-                JSONArray nodes = entry.getValue();
-                int tasksGenerated = handleLemonGraphProcessingBatchHelper(job, taskId, adapterQueryMap, query, nodes, maxNodes, currentId, maxGraphId, null);
-                numberOfNewTasksGenerated += tasksGenerated;
-            }
-            metrics.numberOfNewTasksGenerated = numberOfNewTasksGenerated;
+        // Parse LemonGraphResult and generate new tasks as needed
+        HashMap<String, JSONArray> resultMap = LemonGraph.parseLemonGraphResult(resultdata);
+        Set<Map.Entry<String, JSONArray>> entrySet = resultMap.entrySet();
+        List<NewTask> batch = new ArrayList<>();
+        for (Map.Entry<String, JSONArray> entry : entrySet) {
+            String query = entry.getKey();
+            JSONArray nodes = entry.getValue();
+            int tasksGenerated = handleLemonGraphProcessingBatchHelper(job, taskId, plan, query, nodes, maxNodes,
+                    metrics.currentGraphId, metrics.maxGraphId, null, batch);
+            numberOfNewTasksGenerated += tasksGenerated;
         }
-        else {
-            log.info("job:" + job.getJobId() + " has STOPPED. Dropping new tasks.");
+        setParents(batch, parentTaskIds);
+        sendTasksToAdapters(job, batch);
+        return numberOfNewTasksGenerated;
+    }
+
+    private static void setParents(List<NewTask> batch, List<String> parentTaskIds) {
+        for (NewTask newTask : batch) {
+            newTask.task.setParentTaskIds(parentTaskIds);
         }
-        return metrics;
+    }
+
+    //The job's DispatchPlan, from the plan cache unless it is turned off
+    protected DispatchPlan getDispatchPlan(LGJob job) {
+        if (plans != null) {
+            return plans.get(job, System.currentTimeMillis());
+        }
+        return DispatchPlan.build(job, new AdapterManager().getAll());
     }
 
     //Takes an LGJob and returns a map of adapter IDs to lemongraph queries
@@ -361,46 +1085,64 @@ public class CoordinatorBolt extends BaseRichBolt {
      */
     protected int handleLemonGraphProcessingBatchHelper(LGJob job, String currentTaskId,  HashMap<String, String> adapterQueryMap
             , String query, JSONArray nodes, int maxNodesPerTask, int currentGraphId, int maxGraphId, Integer nodeIndex) {
+        List<NewTask> batch = new ArrayList<>();
+        int numberOfNewTasksGenerated = handleLemonGraphProcessingBatchHelper(job, currentTaskId, adapterQueryMap, query,
+                nodes, maxNodesPerTask, currentGraphId, maxGraphId, nodeIndex, batch);
+        sendTasksToAdapters(job, batch);
+        return numberOfNewTasksGenerated;
+    }
+
+    /**
+     * Same as above, but the tasks are only built and added to 'batch'. Callers send the whole batch with
+     * sendTasksToAdapters once every query result has been handled.
+     * @param batch List the new tasks are added to
+     * @return int number of tasks we created
+     */
+    protected int handleLemonGraphProcessingBatchHelper(LGJob job, String currentTaskId,  HashMap<String, String> adapterQueryMap
+            , String query, JSONArray nodes, int maxNodesPerTask, int currentGraphId, int maxGraphId, Integer nodeIndex
+            , List<NewTask> batch) {
+        return handleLemonGraphProcessingBatchHelper(job, currentTaskId, DispatchPlan.fromQueryMap(adapterQueryMap), query,
+                nodes, maxNodesPerTask, currentGraphId, maxGraphId, nodeIndex, batch);
+    }
+
+    /**
+     * Same as above, with the adapters that asked for 'query' looked up in the job's DispatchPlan.
+     * @param plan DispatchPlan the queries were sent from
+     * @param batch List the new tasks are added to
+     * @return int number of tasks we created
+     */
+    protected int handleLemonGraphProcessingBatchHelper(LGJob job, String currentTaskId, DispatchPlan plan
+            , String query, JSONArray nodes, int maxNodesPerTask, int currentGraphId, int maxGraphId, Integer nodeIndex
+            , List<NewTask> batch) {
         int numberOfNewTasksGenerated = 0;
         if(!(job.getStatus() == job.STATUS_STOPPED || maxGraphActivity(job, currentTaskId))) { //job hasn't stopped, continue
+            List<DispatchPlan.Target> targets = plan.getTargets(query);
+            if (targets.isEmpty()) {
+                return 0;
+            }
             JSONArray splitNodes = JSONUtils.splitJsonArray(maxNodesPerTask, nodes); //split nodes into arrays <= maxNodesPerTask
-            for (Map.Entry<String, String> entry2 : adapterQueryMap.entrySet()) {
-                String adapterId = entry2.getKey();
-                Object adapterQuery = entry2.getValue();
-                LGAdapterModel a = AdapterManager.getAdapterById(adapterId);
-                if (adapterQuery.equals(query)) {
-                    // If adapter has an override for maxNodesPerTask (>0) we use that instead
-                    // Which makes our lives much more difficult. So, deal with the first (ideal) case where an adapter
-                    // DOES NOT have a maxNodesPerTask setting (==0)
-                    // Very important that you don't split when there's only 1 node - we allow the adapter to override
-                    // this because there's some adapters that can only handle one node at at time
-                    if ((a.getMaxNodesPerTask() == 0) || (nodes.length() == 1)) {
-                        for (int n = 0; n < splitNodes.length(); n++) {
-                            if (nodeIndex == null || n == nodeIndex) {
-                                JSONArray taskNodes = splitNodes.getJSONArray(n);
-                                LGTask newTask = new LGTask(job, adapterId, a.getName(), taskNodes.length(), currentTaskId, currentGraphId, maxGraphId, n);
-                                LGPayload payload = new LGPayload(job.getJobId(), newTask.getTaskId(), job.getJobConfigAsJSON());
-                                payload.addRequestNodes(taskNodes);
-                                sendTaskToAdapter(job, newTask, payload);
-                                numberOfNewTasksGenerated++;
-                            }
-                        }
-                    }
-                    else {
-                        // Nothing is easy, first log a warning
-                        log.warn("Adapter " + a.getName() + " has an individual max_nodes_per_task setting, parsing tasks");
-                        int max_nodes = a.getMaxNodesPerTask();
-                        JSONArray splitNodesForAdapterSetting = JSONUtils.splitJsonArray(max_nodes, nodes);
-                        for (int n = 0; n < splitNodesForAdapterSetting.length(); n++) {
-                            if (nodeIndex == null || n == nodeIndex) {
-                                JSONArray taskNodes = splitNodesForAdapterSetting.getJSONArray(n);
-                                LGTask newTask = new LGTask(job, adapterId, a.getName(), taskNodes.length(), currentTaskId, currentGraphId, maxGraphId, n);
-                                LGPayload payload = new LGPayload(job.getJobId(), newTask.getTaskId(), job.getJobConfigAsJSON());
-                                payload.addRequestNodes(taskNodes);
-                                sendTaskToAdapter(job, newTask, payload);
-                                numberOfNewTasksGenerated++;
-                            }
-                        }
+            for (DispatchPlan.Target a : targets) {
+                // If adapter has an override for maxNodesPerTask (>0) we use that instead
+                // Which makes our lives much more difficult. So, deal with the first (ideal) case where an adapter
+                // DOES NOT have a maxNodesPerTask setting (==0)
+                // Very important that you don't split when there's only 1 node - we allow the adapter to override
+                // this because there's some adapters that can only handle one node at at time
+                JSONArray adapterNodes = splitNodes;
+                if ((a.getMaxNodesPerTask() != 0) && (nodes.length() != 1)) {
+                    // Nothing is easy, first log a warning
+                    log.warn("Adapter " + a.getAdapterName() + " has an individual max_nodes_per_task setting, parsing tasks");
+                    adapterNodes = JSONUtils.splitJsonArray(a.getMaxNodesPerTask(), nodes);
+                }
+                for (int n = 0; n < adapterNodes.length(); n++) {
+                    if (nodeIndex == null || n == nodeIndex) {
+                        JSONArray taskNodes = adapterNodes.getJSONArray(n);
+                        LGTask newTask = new LGTask(job, a.getAdapterId(), a.getAdapterName(), taskNodes.length(), currentTaskId, currentGraphId, maxGraphId, n);
+                        LGPayload payload = new LGPayload(job.getJobId());
+                        payload.setTaskId(newTask.getTaskId());
+                        JobConfigCache.setJobConfig(payload, job);
+                        payload.addRequestNodes(taskNodes);
+                        batch.add(new NewTask(newTask, payload));
+                        numberOfNewTasksGenerated++;
                     }
                 }
             }
@@ -421,6 +1163,7 @@ public class CoordinatorBolt extends BaseRichBolt {
         String job_id = payload.getJobId();
         int numberOfNewTasksGenerated = 0;
         String taskId = payload.getTaskId();
+        List<NewTask> batch = new ArrayList<>();
 
         // First iterate over the edges and extract the nodes
         // Add them to the nodes we want to process
@@ -447,9 +1190,11 @@ public class CoordinatorBolt extends BaseRichBolt {
                     if (newTasks.size() > 0) {
                         log.info("Built new tasks list for job [" + job.getJobId() + "] taskList: " + newTasks.toString());
                         for (LGTask t : newTasks) {
-                            LGPayload newPayload = new LGPayload(payload.getJobId(), payload.getTaskId(), payload.getJobConfig());
+                            LGPayload newPayload = new LGPayload(payload.getJobId());
+                            newPayload.setTaskId(payload.getTaskId());
+                            JobConfigCache.setJobConfig(newPayload, job);
                             newPayload.addRequestNode(updatedVersion);
-                            sendTaskToAdapter(job, t, newPayload);
+                            batch.add(new NewTask(t, newPayload));
                             numberOfNewTasksGenerated++;
                         }
                     }
@@ -457,6 +1202,8 @@ public class CoordinatorBolt extends BaseRichBolt {
             }
         }
 
+        sendTasksToAdapters(job, batch);
+
         // Now that all the nodes exist, process the edges
         for (JSONArray edge : payload.getResponseEdges()) {
             JSONObject edgeInfo = edge.getJSONObject(1);
@@ -551,7 +1298,7 @@ public class CoordinatorBolt extends BaseRichBolt {
 
         if(!jobConfig.has("roles")) { //post action sent without roles, add previously used roles, if there are any
             try {
-                LGJob oldJob = JobManager.getJob(job.getJobId());
+                LGJob oldJob = JobManager.getJobWithoutTasks(job.getJobId());
                 JSONObject oldJobConfig = oldJob.getJobConfigAsJSON();
                 if(oldJobConfig.has("roles")) {
                     jobConfig.put("roles", oldJobConfig.getJSONObject("roles"));
@@ -602,18 +1349,29 @@ public class CoordinatorBolt extends BaseRichBolt {
             // Parse LemonGraphResult and generated new tasks as needed
             Set<Map.Entry<String, JSONArray>> entrySet = resultMap.entrySet();
             int newTasksGenerated = 0;
+            List<NewTask> batch = new ArrayList<>();
 
             for (Map.Entry<String, JSONArray> entry : entrySet) {
                 String query = entry.getKey();
                 JSONArray queryNodes = entry.getValue();
                 // Helper will possibly split results into smaller tasks if a payload is too big
-                newTasksGenerated += handleLemonGraphProcessingBatchHelper(job, "", adapterQueryMap, query, queryNodes, maxNodes, 0, 0, null);
+                newTasksGenerated += handleLemonGraphProcessingBatchHelper(job, "", adapterQueryMap, query, queryNodes, maxNodes, 0, 0, null, batch);
             }
+            sendTasksToAdapters(job, batch);
 
             JobManager.updateJobIfFinished(job);//sets job finished items if no active tasks remain
         }
     }//end of postAction
 
+    //Records the graph activity LemonGraph reported for the job. Written to mongo by the next flush.
+    protected void recordGraphActivity(LGJob job, int graphActivity) {
+        if (activity == null) {
+            JobManager.updateGraphActivity(job, graphActivity);
+            return;
+        }
+        job.setGraphActivity(activity.record(job.getJobId(), Math.max(graphActivity, job.getGraphActivity())));
+    }
+
     //Checks of graph activity is > MAX_GRAPH_SIZE. Updates the job status to STOPPED and returns true, if so.
     public Boolean maxGraphActivity(LGJob job, String taskId) {
         if(MAX_GRAPH_SIZE <= 0)//ignore for MAX_GRAPH_SIZE <=0
@@ -621,14 +1379,20 @@ public class CoordinatorBolt extends BaseRichBolt {
 
         Boolean errorCheck = false;
         // Check to see if GraphActivity exceeds threshold; if so, issue STOP command for this job
-        int graphActivity = JobManager.getJob(job.getJobId()).getGraphActivity();
+        // Graph activity is recorded in memory by the coordinator that owns the job, no need to read the job again
+        int graphActivity = activity != null ? activity.get(job.getJobId(), job.getGraphActivity())
+                : JobManager.getJobWithoutTasks(job.getJobId()).getGraphActivity();
 
         if (graphActivity > MAX_GRAPH_SIZE && MAX_GRAPH_SIZE > 0) { //ignore for MAX_GRAPH_SIZE <=0
+            if (activity != null) {
+                activity.flush(job.getJobId());
+            }
             JobManager.setStatus(job, LGJob.STATUS_STOPPED, "Exceeded MAX_GRAPH_SIZE", true);
             String msg = "job:"+job.getJobId()+" GraphActivity:"+graphActivity+" exceeds the MAX_GRAPH_SIZE:" + MAX_GRAPH_SIZE;
             log.warn(msg);
             LGTask task = JobManager.getTask(taskId);
-            LGJobError error = new LGJobError(job.getJobId(), taskId, "Job Error", task.getAdapterId(), msg);
+            String adapterId = task == null ? "" : task.getAdapterId(); //seeds and tasks not yet saved have none
+            LGJobError error = new LGJobError(job.getJobId(), taskId, "Job Error", adapterId, msg);
             JobManager.updateMaxGraphSizeErrorsForJob(job.getJobId(), error);
             errorCheck = true;
         }
@@ -645,26 +1409,205 @@ public class CoordinatorBolt extends BaseRichBolt {
      * @param lgp LGPayload
      * */
     protected void sendTaskToAdapter(LGJob job, LGTask task, LGPayload lgp) {// Don't emit a task for a stopped adapter
-        if(!(job.getStatus() == job.STATUS_STOPPED || maxGraphActivity(job, task.getTaskId()))) { //job hasn't stopped, continue
+        sendTasksToAdapters(job, Collections.singletonList(new NewTask(task, lgp)));
+    }
+
+    /**
+     * Sends a batch of new tasks of one job to their adapters. All of the task documents are written with one bulk
+     * insert and the job with one update, and every adapter's task count is incremented once for all of its tasks, so
+     * a fan-out of thousands of tasks costs a handful of mongo calls.
+     * @param job LGJob
+     * @param tasks NewTasks built for the job
+     */
+    protected void sendTasksToAdapters(LGJob job, List<NewTask> tasks) {
+        if (tasks.isEmpty()) {
+            return;
+        }
+        if(job.getStatus() == job.STATUS_STOPPED || maxGraphActivity(job, tasks.get(0).task.getTaskId())) {
+            log.info("Job:" + job.getJobId() + " has STOPPED. Dropping " + tasks.size() + " new task(s).");
+            return;
+        }
+        List<LGTask> records = new ArrayList<>(tasks.size());
+        for (NewTask newTask : tasks) {
+            records.add(newTask.task);
+        }
+        Boolean statusUpdated = JobManager.setStatus(job, LGJob.STATUS_PROCESSING);  // There's no fear of race condition here
+        if (!statusUpdated) { //Don't emit new tasks if the status couldn't be changed. This prevents STOPPED tasks from receiving additional tasks to process.
+            log.info("Couldn't update status for job:" + job.getJobId() + ". Dropping " + tasks.size() + " new task(s).");
+            for (LGTask task : records) {
+                task.setStatus(LGTask.TASK_STATUS_DROPPED);
+            }
+            JobManager.addTasksToJob(job, records);
+            return;
+        }
+        //Parked tasks are marked when they are inserted, so the executor can send them again after a restart
+        long now = System.currentTimeMillis();
+        String[] queues = new String[tasks.size()];
+        boolean[] parked = new boolean[tasks.size()];
+        for (int i = 0; i < tasks.size(); i++) {
+            LGTask task = records.get(i);
+            queues[i] = AdapterManager.getAdapterQueueNameById(task.getAdapterId());
+            parked[i] = backpressure != null && !backpressure.tryAcquire(queues[i], now);
+            if (parked[i]) {
+                task.setParkedBy(parkedBy);
+            }
+        }
+        List<LGTask> added = JobManager.addTasksToJob(job, records);
+        Set<String> notAdded = new HashSet<>(); //couldn't be inserted, so they aren't sent
+        if (added.size() < records.size()) {
+            for (LGTask task : records) {
+                notAdded.add(task.getTaskId());
+            }
+            for (LGTask task : added) {
+                notAdded.remove(task.getTaskId());
+            }
+        }
+        Map<String, Integer> perAdapter = new HashMap<>();
+        for (LGTask task : added) {
+            perAdapter.merge(task.getAdapterId(), 1, Integer::sum);
+        }
+        for (Map.Entry<String, Integer> entry : perAdapter.entrySet()) {
+            AdapterManager.incrementTaskCount(entry.getKey(), entry.getValue());
+        }
+        for (int i = 0; i < tasks.size(); i++) {
+            LGTask task = tasks.get(i).task;
+            LGPayload lgp = tasks.get(i).payload;
+            if (notAdded.contains(task.getTaskId())) {
+                continue;
+            }
             log.info("Sending Task:" + task.getTaskId()
-                    + " to Adapter:" + AdapterManager.getAdapterNameById(task.getAdapterId()) + " [" + task.getAdapterId() + "]"
+                    + " to Adapter:" + task.getAdapterName() + " [" + task.getAdapterId() + "]"
                     + " Job:" + job.getJobId()
                     + " Status:" + job.getStatusString(job.getStatus()));
-            JobManager.addTaskToJob(job, task);
             lgp.setTaskId(task.getTaskId());
-            AdapterManager.incrementTaskCount(task.getAdapterId());
-            Boolean statusUpdated = JobManager.setStatus(job, LGJob.STATUS_PROCESSING);  // There's no fear of race condition here
-            if (statusUpdated) { //Don't emit a new task if the status couldn't be changed. This prevents STOPPED tasks from receiving additional tasks to process.
-                oc.emit(new Values(job.getJobId(), lgp, AdapterManager.getAdapterQueueNameById(task.getAdapterId())));
-            } else {
-                log.info("Couldn't update status for job:" + job.getJobId() + " task:" + task.getTaskId() + ". Dropping task.");
+            String queue = queues[i];
+            if (!parked[i]) {
+                oc.emit(new Values(job.getJobId(), lgp, queue));
+            }
+            else {
+                log.info("Adapter queue " + queue + " is full. Parking task:" + task.getTaskId() + " job:" + job.getJobId());
+                backpressure.park(queue, job.getJobId(), new ParkedTask(job.getJobId(), task.getTaskId(), lgp));
+            }
+        }
+    }
+
+    //Emits parked tasks whose adapter queues have drained, dropping those of jobs that were stopped meanwhile
+    protected void releaseParkedTasks() {
+        if (backpressure == null || backpressure.getParked() == 0) {
+            return;
+        }
+        Map<String, List<ParkedTask>> ready = backpressure.release(System.currentTimeMillis());
+        Map<String, LGJob> loaded = new HashMap<>();
+        List<String> sent = new ArrayList<>();
+        for (Map.Entry<String, List<ParkedTask>> entry : ready.entrySet()) {
+            for (ParkedTask parked : entry.getValue()) {
+                LGJob job = loaded.computeIfAbsent(parked.jobId, this::reloadJob);
+                if (job == null) {
+                    backpressure.removeJob(parked.jobId);
+                    continue;
+                }
+                if (job.getStatus() == LGJob.STATUS_STOPPED) {
+                    log.info("Job:" + parked.jobId + " has STOPPED. Dropping parked task:" + parked.taskId);
+                    JobManager.updateTaskToDropped(job, parked.taskId);
+                    for (ParkedTask rest : backpressure.removeJob(parked.jobId)) {
+                        JobManager.updateTaskToDropped(job, rest.taskId);
+                    }
+                    continue;
+                }
+                oc.emit(new Values(parked.jobId, parked.payload, entry.getKey()));
+                sent.add(parked.taskId);
+            }
+        }
+        JobManager.unparkTasks(sent);
+    }
+
+    /**
+     * Sends the tasks a previous run of this executor parked and never sent. Their payloads were lost with the
+     * worker, so like RETRY_FAILED_TASKS each one is marked REPLAYED and its nodes are read back from LemonGraph and
+     * sent as a new task. Executor 0 also takes over the tasks of executors that no longer exist after a rebalance.
+     * Runs on the first tuple after prepare, and again on the next tuple if it fails.
+     */
+    protected void recoverParkedTasks() {
+        List<LGTask> orphans = new ArrayList<>();
+        for (LGTask task : JobManager.getParkedTasks(parkedByPrefix)) {
+            int owner;
+            try {
+                owner = Integer.parseInt(task.getParkedBy().substring(parkedByPrefix.length()));
+            }
+            catch (NumberFormatException e) {
+                continue;
+            }
+            if (owner == taskIndex || (taskIndex == 0 && owner >= taskCount)) {
+                orphans.add(task);
+            }
+        }
+        recoverParked = false;
+        if (orphans.isEmpty()) {
+            return;
+        }
+        log.info("Recovering " + orphans.size() + " parked task(s) left by a previous run of " + parkedBy);
+        Map<String, LGJob> loaded = new HashMap<>();
+        for (LGTask task : orphans) {
+            LGJob job = loaded.computeIfAbsent(task.getJobId(), this::reloadJob);
+            if (job == null) {
+                continue;
+            }
+            if (job.getStatus() == LGJob.STATUS_STOPPED) {
+                log.info("Job:" + job.getJobId() + " has STOPPED. Dropping parked task:" + task.getTaskId());
                 JobManager.updateTaskToDropped(job, task.getTaskId());
+                continue;
             }
+            if (graphStoreMode != GRAPH_STORE_LEMONGRAPH) {
+                log.warn("Parked task:" + task.getTaskId() + " of job:" + job.getJobId()
+                        + " can't be rebuilt without LemonGraph. Marking it FAILED.");
+                JobManager.updateTaskToFailed(job, task.getTaskId());
+                continue;
+            }
+            JobManager.updateJobTaskStatus(job, task.getTaskId(), LGTask.TASK_STATUS_REPLAYED);
+            resendTask(job, task, task.getParentTaskIds());
         }
-        else {
-            log.info("Job:"+job.getJobId()+" has STOPPED. Dropping task:"+task.getTaskId());
-            JobManager.updateTaskToDropped(job, task.getTaskId());
+    }
+
+    /**
+     * Queries LemonGraph for the data a task was sent (its adapter's query over the task's graph ids) and sends the
+     * same page of nodes again as a new task.
+     * @param job LGJob
+     * @param oldTask LGTask to send again, already marked REPLAYED
+     * @param parentTaskIds parent task IDs of the new task, empty for none
+     */
+    protected void resendTask(LGJob job, LGTask oldTask, List<String> parentTaskIds) {
+        String jobId = job.getJobId();
+        String adapterId = AdapterManager.findBestAdapterByAdapterName(oldTask.getAdapterName());
+        HashMap<String, String> adapterQueryMap = new HashMap<String, String>();
+        if (adapterId.equals("")) {
+            log.warn("Unknown or disabled adapter requested ["+oldTask.getAdapterName()+"] inside jobid ["+jobId+"] ignoring request.");
+        } else {
+            String adapterGraphQuery = AdapterManager.getGraphQueryForAdapter(adapterId, job, true);
+            if (!adapterGraphQuery.equals("")) {
+                adapterQueryMap.put(adapterId, adapterGraphQuery);
+            }
+        }
+
+        int maxNodes = LGProperties.getInteger("max_nodes_per_task",0);
+
+        // Send all Queries to LemonGraph
+        JSONObject resultdata = LemonGraph.queryBasedOnPatterns(jobId, adapterQueryMap, oldTask.getCurrenGraphId(), oldTask.getMaxGraphId());
+        // Parse LemonGraphResult and generated new tasks as needed
+        HashMap<String, JSONArray> resultMap = LemonGraph.parseLemonGraphResult(resultdata);
+        String parentTaskId = parentTaskIds.isEmpty() ? "" : parentTaskIds.get(parentTaskIds.size() - 1);
+        List<NewTask> batch = new ArrayList<>();
+        for (Map.Entry<String, JSONArray> entry : resultMap.entrySet()) {
+            // Helper will possibly split results into smaller tasks if a payload is too big
+            handleLemonGraphProcessingBatchHelper(job, parentTaskId, adapterQueryMap, entry.getKey(), entry.getValue(),
+                    maxNodes, oldTask.getCurrenGraphId(), oldTask.getMaxGraphId(), oldTask.getNodePageIndex(), batch);
         }
+        setParents(batch, parentTaskIds);
+        sendTasksToAdapters(job, batch);
+    }
+
+    //Reads the job from mongo, a STOP may have come in while its tasks were parked
+    private LGJob reloadJob(String jobId) {
+        return jobs != null ? jobs.load(jobId, System.currentTimeMillis()) : JobManager.getJobWithoutTasks(jobId);
     }
 
     /**
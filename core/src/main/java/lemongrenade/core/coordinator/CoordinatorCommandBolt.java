@@ -1,19 +1,20 @@
 package lemongrenade.core.coordinator;
 
 import com.rabbitmq.client.AMQP;
-import com.rabbitmq.client.Channel;
-import com.rabbitmq.client.Connection;
-import com.rabbitmq.client.ConnectionFactory;
 import lemongrenade.core.database.lemongraph.InvalidGraphException;
 import lemongrenade.core.database.lemongraph.LemonGraph;
 import lemongrenade.core.models.*;
+import lemongrenade.core.storm.ConfirmedTuples;
+import lemongrenade.core.storm.ConfirmingPublisher;
+import lemongrenade.core.storm.RabbitConnectionManager;
 import lemongrenade.core.util.LGConstants;
-import lemongrenade.core.util.LGProperties;
+import org.apache.storm.Config;
 import org.apache.storm.task.OutputCollector;
 import org.apache.storm.task.TopologyContext;
 import org.apache.storm.topology.OutputFieldsDeclarer;
 import org.apache.storm.tuple.Fields;
 import org.apache.storm.tuple.Tuple;
+import org.apache.storm.tuple.Values;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
@@ -22,7 +23,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.TimeoutException;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Commands supported or will be supported: NEW,ADD,STOP,RESET,CHANGE_PRIORITY
@@ -35,14 +36,18 @@ public class CoordinatorCommandBolt extends CoordinatorBolt {
     }
 
     //Fields that won't be serialized need to be marked transient
-    transient Channel channel = null;
-    transient Connection connection = null;
-    transient ConnectionFactory factory = null;
+    transient ConfirmingPublisher publisher = null;
+    //Confirm of the message published by the tuple currently in execute(), if any
+    transient CompletableFuture<Void> pendingConfirm = null;
+    //Tuples waiting on their confirm, acked from execute()
+    transient ConfirmedTuples<Tuple> confirmed = null;
 
     public void init() {
-        if(factory == null) {
-            factory = new ConnectionFactory();
-            factory.setHost(LGProperties.get("rabbit.hostname"));
+        if(confirmed == null) {
+            confirmed = new ConfirmedTuples<>();
+        }
+        if(publisher == null) {
+            publisher = ConfirmingPublisher.shared();
             openConnection();
         }
     }
@@ -54,47 +59,48 @@ public class CoordinatorCommandBolt extends CoordinatorBolt {
         init();
     }
 
-    //Attempts to open a RabbitMQ connection to COORDINATOR channel, if one isn't already open
+    //Makes sure the COORDINATOR queues exist. The shared publisher opens its connection and channels itself.
     public void openConnection() {
-        if(connection == null || !connection.isOpen() || channel == null || !channel.isOpen() ) {
-            try {
-                log.info("Opening RabbitMQ connection and COORDINATOR channel.");
-                connection = factory.newConnection();
-                channel = connection.createChannel();
-                channel.queueDeclare(LGConstants.LEMONGRENADE_COORDINATOR, true, false, false, CoordinatorTopology.queueArgs);
-            } catch (java.io.IOException e) {
-                log.error("Unable to connect to rabbitmq " + LGConstants.LEMONGRENADE_COORDINATOR + " " + e.getMessage());
-            } catch (TimeoutException e) {
-                log.error("Timeout connecting to rabbitmq " + LGConstants.LEMONGRENADE_COORDINATOR + " " + e.getMessage());
-            }
-        } else {
-            log.debug("Connection and Channel are open.");
+        try {
+            log.info("Declaring RabbitMQ COORDINATOR queues.");
+            RabbitConnectionManager.shared().withChannel(channel -> {
+                CoordinatorShards.declare(channel);
+                return null;
+            });
+        } catch (IOException e) {
+            log.error("Unable to connect to rabbitmq " + LGConstants.LEMONGRENADE_COORDINATOR + " " + e.getMessage());
+        }
+    }
+
+    //Sends a payload to the coordinator. The tuple is acked once the broker confirms it (see ackWhenConfirmed).
+    private void publishToCoordinator(LGPayload lgp) throws IOException {
+        pendingConfirm = publisher.publish(CoordinatorShards.exchange(LGConstants.LEMONGRENADE_COORDINATOR)
+                , CoordinatorShards.routingKey(LGConstants.LEMONGRENADE_COORDINATOR, lgp.getJobId())
+                , new AMQP.BasicProperties.Builder().priority(LGConstants.QUEUE_PRIORITY_NEW_JOB).build()
+                , lgp.toByteArray());
+    }
+
+    //Acks the tuple once the broker confirms what it published. The ack itself happens on this thread, in drainConfirms.
+    private void ackWhenConfirmed(Tuple tuple) {
+        CompletableFuture<Void> confirm = pendingConfirm;
+        pendingConfirm = null;
+        if(confirm == null) {
+            oc.ack(tuple);
+            return;
         }
+        confirmed.track(tuple, confirm);
+    }
+
+    private void drainConfirms() {
+        confirmed.drain(oc::ack, (tuple, error) -> {
+            log.error("Publish to coordinator queue was not confirmed, failing tuple. " + error.getMessage());
+            oc.fail(tuple);
+        });
     }
 
-    //closes connections possibly left open
+    //The shared publisher outlives the bolt, it is closed with the JVM
     public void cleanup() {
         super.cleanup();
-        if(channel != null && channel.isOpen()) {
-            try {
-                channel.close();
-            } catch (IOException e) {
-                e.printStackTrace();
-            } catch (TimeoutException e) {
-                e.printStackTrace();
-            } catch(com.rabbitmq.client.AlreadyClosedException e) {
-                log.info(LGConstants.LEMONGRENADE_COORDINATOR+" channel already closed.");
-            }
-        }
-        if(connection != null && connection.isOpen()) {
-            try {
-                connection.close();
-            } catch (IOException e) {
-                e.printStackTrace();
-            } catch(com.rabbitmq.client.AlreadyClosedException e) {
-                log.info(LGConstants.LEMONGRENADE_COORDINATOR+" connection already closed.");
-            }
-        }
         log.info("Closing connection to LemonGraph.");
         LemonGraph.close();
     }
@@ -149,10 +155,7 @@ public class CoordinatorCommandBolt extends CoordinatorBolt {
 
         // Send job to the coordinator for processing
         try {
-            openConnection();
-            channel.basicPublish("", LGConstants.LEMONGRENADE_COORDINATOR
-                    , new AMQP.BasicProperties.Builder().priority(LGConstants.QUEUE_PRIORITY_NEW_JOB).build()
-                    , lgp.toByteArray());
+            publishToCoordinator(lgp);
             //log.info("Sending incoming payload to " + LGConstants.LEMONGRENADE_COORDINATOR.toString());
         } catch (IOException e) {
             log.error("Unable to publish job to coordinator queue !" + e.getMessage());
@@ -191,10 +194,7 @@ public class CoordinatorCommandBolt extends CoordinatorBolt {
         JobManager.updateJobHistory(job, lgHistory);
 
         try {
-            openConnection();
-            channel.basicPublish("", LGConstants.LEMONGRENADE_COORDINATOR
-                    , new AMQP.BasicProperties.Builder().priority(LGConstants.QUEUE_PRIORITY_NEW_JOB).build()
-                    , lgp.toByteArray());
+            publishToCoordinator(lgp);
             log.info("Sending incoming Post Action payload to " + LGConstants.LEMONGRENADE_COORDINATOR);
         } catch (IOException e) {
             log.error("Unable to publish job to coordinator queue !" + e.getMessage());
@@ -345,30 +345,7 @@ public class CoordinatorCommandBolt extends CoordinatorBolt {
             job = JobManager.getJob(jobId);
 
             // Query LemonGraph and ask for the data at that point in time (data for original graph query)
-            String adapterId = AdapterManager.findBestAdapterByAdapterName(oldTask.getAdapterName());
-            HashMap<String, String> adapterQueryMap = new HashMap<String, String>();
-            if (adapterId.equals("")) {
-                log.warn("Unknown or disabled adapter requested ["+oldTask.getAdapterName()+"] inside jobid ["+jobId+"] ignoring request.");
-            } else {
-                String adapterGraphQuery = AdapterManager.getGraphQueryForAdapter(adapterId, job, true);
-                if (!adapterGraphQuery.equals("")) {
-                    adapterQueryMap.put(adapterId, adapterGraphQuery);
-                }
-            }
-
-            int maxNodes = LGProperties.getInteger("max_nodes_per_task",0);
-
-            // Send all Queries to LemonGraph
-            JSONObject resultdata = LemonGraph.queryBasedOnPatterns(jobId, adapterQueryMap, oldTask.getCurrenGraphId(), oldTask.getMaxGraphId());
-            // Parse LemonGraphResult and generated new tasks as needed
-            HashMap<String, JSONArray> resultMap = LemonGraph.parseLemonGraphResult(resultdata);
-            for (Map.Entry<String, JSONArray> entry2 : resultMap.entrySet()) {
-                String    query = entry2.getKey();
-                JSONArray nodes = entry2.getValue();
-                // Helper will possibly split results into smaller tasks if a payload is too big
-                int tasksGenerated = handleLemonGraphProcessingBatchHelper(job, "", adapterQueryMap, query, nodes, maxNodes, oldTask.getCurrenGraphId(), oldTask.getMaxGraphId(), oldTask.getNodePageIndex());
-
-            }
+            resendTask(job, oldTask, new ArrayList<>());
            // metrics.numberOfNewTasksGenerated = numberOfNewTasksGenerated;
 
         }
@@ -396,16 +373,14 @@ public class CoordinatorCommandBolt extends CoordinatorBolt {
         }
         // New Job would already be labeled seed or not by the submitting user
         LGPayload lgp = incomingCmd.getSeedPayload();
+        JobConfigCache.invalidate(jobId);//ADD may come with a new config, make sure we re-read it
         LGJob job = new LGJob(jobId, incomingCmd.getAdapterList(), lgp.getJobConfig());
         LGJobHistory lgHistory = new LGJobHistory(LGJobHistory.LGHISTORY_TYPE_COMMAND, "Add", "",
                 "Add command received",System.currentTimeMillis(), 0, 0, 0 , 0, 0);
         JobManager.updateJobHistory(job, lgHistory);
         JobManager.setStatus(job, LGJob.STATUS_PROCESSING);
         try {
-            openConnection();
-            channel.basicPublish("", LGConstants.LEMONGRENADE_COORDINATOR
-                    , new AMQP.BasicProperties.Builder().priority(LGConstants.QUEUE_PRIORITY_NEW_JOB).build()
-                    , lgp.toByteArray());
+            publishToCoordinator(lgp);
             log.info("Sending add to job "+jobId+" payload to " + LGConstants.LEMONGRENADE_COORDINATOR);
         } catch (IOException e) {
             log.error("Unable to publish job to coordinator queue !" + e.getMessage());
@@ -437,10 +412,21 @@ public class CoordinatorCommandBolt extends CoordinatorBolt {
         }
     }
 
+    //Commands never dispatch tasks, so ticks only ack tuples whose publishes were confirmed
+    @Override public Map<String, Object> getComponentConfiguration() {
+        Config conf = new Config();
+        conf.put(Config.TOPOLOGY_TICK_TUPLE_FREQ_SECS, 1);
+        return conf;
+    }
+
     /**
      * @param tuple Tuple containing LGCommand
      */
     public void execute(Tuple tuple) {
+        drainConfirms();
+        if (isTickTuple(tuple)) {
+            return;
+        }
         try {
             LGCommand incomingCmd = (LGCommand) tuple.getValueByField(LGConstants.LG_COMMAND);
             log.info("EXECUTE Job Command:     " + incomingCmd.toString());
@@ -482,9 +468,12 @@ public class CoordinatorCommandBolt extends CoordinatorBolt {
                 default:
                     log.error("Invalid Job Command received from queue " + incomingCmd.getCmdString());
             }
-            // Always ack the tuple
-            oc.ack(tuple);
+            // Coordinators holding the job drop their cached copy and read it again with the command's changes
+            oc.emit(JobStateCache.INVALIDATE_STREAM, new Values(incomingCmd.getJobId()));
+            // Always ack the tuple, after the broker has confirmed anything it published
+            ackWhenConfirmed(tuple);
         } catch (Exception e) {
+            pendingConfirm = null;
             log.error("Error processing tuple");
             e.printStackTrace();
             oc.fail(tuple);
@@ -493,6 +482,7 @@ public class CoordinatorCommandBolt extends CoordinatorBolt {
 
     public void declareOutputFields(OutputFieldsDeclarer outputFieldsDeclarer) {
         outputFieldsDeclarer.declare(new Fields(LGConstants.LG_JOB_ID, LGConstants.LG_COMMAND, "destination"));
+        outputFieldsDeclarer.declareStream(JobStateCache.INVALIDATE_STREAM, new Fields(LGConstants.LG_JOB_ID));
     }
 
 }
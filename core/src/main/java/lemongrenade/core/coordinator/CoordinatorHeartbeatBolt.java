@@ -1,6 +1,7 @@
 package lemongrenade.core.coordinator;
 
 import lemongrenade.core.SubmitToRabbitMQ;
+import lemongrenade.core.database.blob.ClaimCheck;
 import lemongrenade.core.database.lemongraph.LemonGraph;
 import lemongrenade.core.database.mongo.MongoDBStore;
 import lemongrenade.core.models.LGAdapterModel;
@@ -124,6 +125,12 @@ public class CoordinatorHeartbeatBolt extends BaseBasicBolt {
             catch(Exception e) {
                 e.printStackTrace();
             }
+            try {
+                ClaimCheck.deleteJob(jobId);
+            }
+            catch(Exception e) {
+                e.printStackTrace();
+            }
         }
     }
 
@@ -192,9 +199,16 @@ public class CoordinatorHeartbeatBolt extends BaseBasicBolt {
         int maxJobIdleTime       = LGProperties.getInteger("max_job_idle_seconds",30);//Only use if max_job_idle_seconds > 0
         int maxJobRunTimeSeconds = LGProperties.getInteger("max_job_run_time_seconds",0);//Only use max_job_run_time if > 0
 
-        // Get list of all jobs PROCESSING jobs
-        List<LGJob> jobs = JOB_MANAGER.getAllProcessing();
+        // Get list of all jobs PROCESSING jobs. Their task counters say how many tasks are active, so the taskMaps
+        // aren't read; a job from before the counters has to be read whole to count its taskMap.
+        List<LGJob> jobs = JOB_MANAGER.getAllProcessingWithoutTasks();
         for(LGJob job : jobs) {
+            if (!job.hasTaskCounts()) {
+                job = JOB_MANAGER.getJob(job.getJobId());
+                if (job == null) {
+                    continue;
+                }
+            }
             long secondsSinceLastTask = (System.currentTimeMillis() - job.getLastTaskTime())/LGJob.SECOND;
             long currentRunningTimeSeconds = job.calculateCurrentRunningTimeSeconds();
             if ((maxJobIdleTime > 0 && job.getActiveTaskCount() == 0) && (secondsSinceLastTask > maxJobIdleTime)) {
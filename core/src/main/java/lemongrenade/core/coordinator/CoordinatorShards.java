@@ -0,0 +1,74 @@
+package lemongrenade.core.coordinator;
+
+import com.rabbitmq.client.Channel;
+import lemongrenade.core.util.LGConstants;
+import lemongrenade.core.util.LGProperties;
+
+import java.io.IOException;
+
+/**
+ * Routing of messages to the coordinator queues (LEMONGRENADE_COORDINATOR and LEMONGRENADE_COORDINATORCMD).
+ *
+ * With 'coordinator.shards' > 1 each of the two queues is split into that many shard queues ({queue}-shard-{n}) bound
+ * to a consistent-hash exchange ({queue}-hash, needs the rabbitmq_consistent_hash_exchange plugin). Everything sent
+ * to a coordinator uses the job id as the routing key, so all responses and commands for a job land on the same shard
+ * in the order they were sent. Each coordinator topology consumes the shard set by 'coordinator.shard'. With one
+ * shard (the default) messages go straight to the unsharded queues through the default exchange.
+ *
+ * The shard count must be the same on every coordinator, adapter and API server.
+ */
+public class CoordinatorShards {
+    public static final int SHARDS = Math.max(1, LGProperties.getInteger("coordinator.shards", 1));
+    public static final int SHARD = LGProperties.getInteger("coordinator.shard", 0);
+
+    public static boolean isSharded() {
+        return SHARDS > 1;
+    }
+
+    /**
+     * @param queue LGConstants.LEMONGRENADE_COORDINATOR or LEMONGRENADE_COORDINATORCMD
+     * @return exchange to publish to
+     */
+    public static String exchange(String queue) {
+        return isSharded() ? queue + "-hash" : "";
+    }
+
+    /**
+     * @param queue LGConstants.LEMONGRENADE_COORDINATOR or LEMONGRENADE_COORDINATORCMD
+     * @param jobId job the message is for
+     * @return routing key to publish with
+     */
+    public static String routingKey(String queue, String jobId) {
+        return isSharded() ? jobId : queue;
+    }
+
+    public static String shardQueue(String queue, int shard) {
+        return isSharded() ? queue + "-shard-" + shard : queue;
+    }
+
+    //Queue this coordinator consumes
+    public static String consumeQueue(String queue) {
+        return shardQueue(queue, SHARD);
+    }
+
+    //Declares the coordinator queues and, when sharded, the hash exchanges and every shard queue
+    public static void declare(Channel channel) throws IOException {
+        declare(channel, LGConstants.LEMONGRENADE_COORDINATOR);
+        declare(channel, LGConstants.LEMONGRENADE_COORDINATORCMD);
+    }
+
+    private static void declare(Channel channel, String queue) throws IOException {
+        if (!isSharded()) {
+            channel.queueDeclare(queue, true, false, false, CoordinatorTopology.queueArgs);
+            channel.exchangeDeclare(queue, "fanout");
+            channel.queueBind(queue, queue, "");
+            return;
+        }
+        channel.exchangeDeclare(exchange(queue), "x-consistent-hash", true);
+        for (int shard = 0; shard < SHARDS; shard++) {
+            String name = shardQueue(queue, shard);
+            channel.queueDeclare(name, true, false, false, CoordinatorTopology.queueArgs);
+            channel.queueBind(name, exchange(queue), "1"); //equal weight for every shard
+        }
+    }
+}
@@ -1,12 +1,12 @@
 package lemongrenade.core.coordinator;
 
-import com.rabbitmq.client.Channel;
-import com.rabbitmq.client.Connection;
 import com.rabbitmq.client.ConnectionFactory;
-import io.latent.storm.rabbitmq.RabbitMQBolt;
 import io.latent.storm.rabbitmq.config.*;
 import lemongrenade.core.storm.AdapterSinkScheme;
 import lemongrenade.core.storm.CommandSinkScheme;
+import lemongrenade.core.storm.ConfirmingRabbitMQBolt;
+import lemongrenade.core.storm.LGKryo;
+import lemongrenade.core.storm.RabbitConnectionManager;
 import lemongrenade.core.storm.RabbitMQSpout;
 import lemongrenade.core.templates.LGAdapter;
 import lemongrenade.core.util.LGConstants;
@@ -59,27 +59,16 @@ public class CoordinatorTopology extends LGAdapter {
 
         //The LGRabbitMQSpout creates the queue/exchange on open if it doesn't already exist
         try {
-            ConnectionFactory factory = new ConnectionFactory();
-            factory.setHost(LGProperties.get("rabbit.hostname"));
-            Connection connection = factory.newConnection();
-            Channel channel = connection.createChannel();
-
-            //Add Dead letter queue
-            channel.exchangeDeclare(LGConstants.DEADLETTER_QUEUE, "fanout", true);
-            channel.queueDeclare(LGConstants.DEADLETTER_QUEUE, true, false, false, null);
-            channel.queueBind(LGConstants.DEADLETTER_QUEUE, LGConstants.DEADLETTER_QUEUE, "");
-
-            channel.queueDeclare(LGConstants.LEMONGRENADE_COORDINATOR, true, false, false, CoordinatorTopology.queueArgs);
-            channel.exchangeDeclare(LGConstants.LEMONGRENADE_COORDINATOR, "fanout");
-            channel.queueBind(LGConstants.LEMONGRENADE_COORDINATOR, LGConstants.LEMONGRENADE_COORDINATOR, "");
-
-            //Creates the COORDINATORCMD rabbit queue
-            channel.queueDeclare(LGConstants.LEMONGRENADE_COORDINATORCMD, true, false, false, CoordinatorTopology.queueArgs);
-            channel.exchangeDeclare(LGConstants.LEMONGRENADE_COORDINATORCMD, "fanout");
-            channel.queueBind(LGConstants.LEMONGRENADE_COORDINATORCMD, LGConstants.LEMONGRENADE_COORDINATORCMD, "");
-
-            channel.close();
-            connection.close();
+            RabbitConnectionManager.shared().withChannel(channel -> {
+                //Add Dead letter queue
+                channel.exchangeDeclare(LGConstants.DEADLETTER_QUEUE, "fanout", true);
+                channel.queueDeclare(LGConstants.DEADLETTER_QUEUE, true, false, false, null);
+                channel.queueBind(LGConstants.DEADLETTER_QUEUE, LGConstants.DEADLETTER_QUEUE, "");
+
+                //Creates the COORDINATOR and COORDINATORCMD rabbit queues, or their shards
+                CoordinatorShards.declare(channel);
+                return null;
+            });
         } catch (Exception ex){
             //TODO: Actually handle this when the code is moved
             ex.printStackTrace();
@@ -93,7 +82,7 @@ public class CoordinatorTopology extends LGAdapter {
                 10); // host, port, username, password, virtualHost, heartBeat
 
         ConsumerConfig spoutConfig = new ConsumerConfigBuilder().connection(connectionConfig)
-                .queue(LGConstants.LEMONGRENADE_COORDINATOR)
+                .queue(CoordinatorShards.consumeQueue(LGConstants.LEMONGRENADE_COORDINATOR))
                 .prefetch(LGProperties.getInteger("rabbit.prefetch.messages", 250))
                 .requeueOnFail()
                 .build();
@@ -102,7 +91,7 @@ public class CoordinatorTopology extends LGAdapter {
 
         /* Build CoordinatorCommandSpout */
         ConsumerConfig spoutConfigCommand = new ConsumerConfigBuilder().connection(connectionConfig)
-                .queue(LGConstants.LEMONGRENADE_COORDINATORCMD)
+                .queue(CoordinatorShards.consumeQueue(LGConstants.LEMONGRENADE_COORDINATORCMD))
                 .prefetch(LGProperties.getInteger("rabbit.prefetch.messages", 250))
                 .requeueOnFail()
                 .build();
@@ -122,8 +111,10 @@ public class CoordinatorTopology extends LGAdapter {
         builder.setBolt(LGConstants.LEMONGRENADE_COORDINATOR, new CoordinatorBolt(), executors)
                 .setNumTasks(tasks)
                 .fieldsGrouping("input",
+                new Fields(LGConstants.LG_JOB_ID))
+                .fieldsGrouping(LGConstants.LEMONGRENADE_COORDINATORCMD, JobStateCache.INVALIDATE_STREAM,
                 new Fields(LGConstants.LG_JOB_ID));
-        builder.setBolt("rabbitmq-sink", new RabbitMQBolt(new AdapterSinkScheme()), LGProperties.getInteger("rabbit.sink.threads", 1))
+        builder.setBolt("rabbitmq-sink", new ConfirmingRabbitMQBolt(new AdapterSinkScheme()), LGProperties.getInteger("rabbit.sink.threads", 1))
                 .addConfigurations(sinkConfig.asMap())
                 .shuffleGrouping(LGConstants.LEMONGRENADE_COORDINATOR);
 
@@ -140,12 +131,14 @@ public class CoordinatorTopology extends LGAdapter {
         builder.setBolt(LGConstants.LEMONGRENADE_COORDINATORCMD, COMMAND_BOLT,
                 LGProperties.getInteger("coordinator.command.threads", 10)).fieldsGrouping("command-input", new Fields("job_id"
         ));
-        builder.setBolt("cmd-rabbitmq-sink", new RabbitMQBolt(new CommandSinkScheme()))
+        builder.setBolt("cmd-rabbitmq-sink", new ConfirmingRabbitMQBolt(new CommandSinkScheme()))
                 .addConfigurations(sinkConfig.asMap())
                 .shuffleGrouping(LGConstants.LEMONGRENADE_COORDINATORCMD);
 
         /* Add heartbeat bolt */
         builder.setBolt("heartbeat", new CoordinatorHeartbeatBolt());
+        //Tuples carry LGPayload/LGCommand between workers; serialize them with kryo instead of java serialization
+        LGKryo.register(getConfig());
         TOPOLOGY = builder.createTopology();
         return TOPOLOGY;
     }
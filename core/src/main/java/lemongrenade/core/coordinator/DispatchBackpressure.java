@@ -0,0 +1,214 @@
+package lemongrenade.core.coordinator;
+
+import com.rabbitmq.client.ShutdownSignalException;
+import lemongrenade.core.storm.RabbitConnectionManager;
+import lemongrenade.core.util.LGProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Holds back tasks for adapter queues that are already deep.
+ *
+ * The depth of each adapter queue is sampled (passive declare) at most every 'backpressure.sample.ms' and the tasks
+ * sent to it since the sample are added on top, so a burst between two samples is counted too. Once a queue reaches
+ * 'backpressure.high.watermark' messages new tasks for it are parked here instead of sent, until it drains to
+ * 'backpressure.low.watermark'. Parked tasks are kept per queue and per job, and are released a job at a time in
+ * turn so one big job doesn't hold back every other job using the same adapter. A high watermark of 0 turns this off.
+ *
+ * Parked tasks (with their payloads) are held in memory. The coordinator also marks them in mongo with the executor
+ * that parked them and clears the mark once they are sent, so when a worker dies its executors find their unsent tasks
+ * again after the restart and rebuild them from LemonGraph (see CoordinatorBolt.recoverParkedTasks).
+ *
+ * Used from one bolt thread only.
+ *
+ * @param <T> a parked task
+ */
+public class DispatchBackpressure<T> {
+    private static final Logger log = LoggerFactory.getLogger(DispatchBackpressure.class);
+
+    public interface DepthSampler {
+        long depth(String queue) throws IOException;
+    }
+
+    private final DepthSampler sampler;
+    private final long high;
+    private final long low;
+    private final long sampleMs;
+    private final Map<String, QueueState> queues = new HashMap<>();
+    private int parked = 0;
+    private long deferrals = 0;
+    private long released = 0;
+
+    private class QueueState {
+        long sampled = 0;
+        long sampledAt = Long.MIN_VALUE;
+        long sentSinceSample = 0;
+        boolean blocked = false;
+        int parkedCount = 0;
+        final LinkedHashMap<String, ArrayDeque<T>> parkedByJob = new LinkedHashMap<>();
+
+        long estimate() {
+            return sampled + sentSinceSample;
+        }
+    }
+
+    public DispatchBackpressure(DepthSampler sampler, long high, long low, long sampleMs) {
+        this.sampler = sampler;
+        this.high = high;
+        this.low = Math.max(0, Math.min(low, high));
+        this.sampleMs = sampleMs;
+    }
+
+    public static <T> DispatchBackpressure<T> fromProperties() {
+        int high = LGProperties.getInteger("backpressure.high.watermark", 10000);
+        return new DispatchBackpressure<>(DispatchBackpressure::passiveDepth, high,
+                LGProperties.getInteger("backpressure.low.watermark", high / 2),
+                LGProperties.getInteger("backpressure.sample.ms", 1000));
+    }
+
+    //Message count of a queue, or 0 if it doesn't exist (yet)
+    private static long passiveDepth(String queue) throws IOException {
+        try {
+            return RabbitConnectionManager.shared().withChannel(channel -> channel.queueDeclarePassive(queue).getMessageCount());
+        }
+        catch (IOException e) {
+            if (e.getCause() instanceof ShutdownSignalException) { //404, queue not declared yet
+                return 0;
+            }
+            throw e;
+        }
+    }
+
+    public boolean isEnabled() {
+        return high > 0;
+    }
+
+    /**
+     * @return true if a task for this queue can be sent now, in which case it is counted as sent. False if it has to
+     * be parked, including while older tasks for the queue are still parked so tasks aren't sent out of turn.
+     */
+    public boolean tryAcquire(String queue, long now) {
+        if (!isEnabled()) {
+            return true;
+        }
+        QueueState state = state(queue);
+        if (state.parkedCount > 0 || !open(queue, state, now)) {
+            return false;
+        }
+        state.sentSinceSample++;
+        return true;
+    }
+
+    public void park(String queue, String jobId, T task) {
+        QueueState state = state(queue);
+        state.parkedByJob.computeIfAbsent(jobId, id -> new ArrayDeque<>()).add(task);
+        state.parkedCount++;
+        parked++;
+        deferrals++;
+    }
+
+    /**
+     * Takes parked tasks whose queues have room again, one job after another for each queue.
+     *
+     * @return parked tasks to send now, by queue
+     */
+    public Map<String, List<T>> release(long now) {
+        Map<String, List<T>> ready = new LinkedHashMap<>();
+        for (Map.Entry<String, QueueState> entry : queues.entrySet()) {
+            String queue = entry.getKey();
+            QueueState state = entry.getValue();
+            while (state.parkedCount > 0 && open(queue, state, now)) {
+                Iterator<Map.Entry<String, ArrayDeque<T>>> jobs = state.parkedByJob.entrySet().iterator();
+                Map.Entry<String, ArrayDeque<T>> next = jobs.next();
+                ArrayDeque<T> tasks = next.getValue();
+                ready.computeIfAbsent(queue, q -> new ArrayList<>()).add(tasks.poll());
+                jobs.remove();
+                if (!tasks.isEmpty()) { //to the back of the line
+                    state.parkedByJob.put(next.getKey(), tasks);
+                }
+                state.parkedCount--;
+                state.sentSinceSample++;
+                parked--;
+                released++;
+            }
+        }
+        return ready;
+    }
+
+    /**
+     * Forgets every task parked for a job, e.g. when it was stopped.
+     *
+     * @return the tasks that were parked
+     */
+    public List<T> removeJob(String jobId) {
+        List<T> removed = new ArrayList<>();
+        for (QueueState state : queues.values()) {
+            ArrayDeque<T> tasks = state.parkedByJob.remove(jobId);
+            if (tasks != null) {
+                removed.addAll(tasks);
+                state.parkedCount -= tasks.size();
+                parked -= tasks.size();
+            }
+        }
+        return removed;
+    }
+
+    //Samples the queue if the last sample is too old and updates whether it is blocked. Sampled at most once per ms so
+    //the tasks counted on top of a sample aren't forgotten within one release.
+    private boolean open(String queue, QueueState state, long now) {
+        if (state.sampledAt == Long.MIN_VALUE || (now > state.sampledAt && now - state.sampledAt >= sampleMs)) {
+            try {
+                state.sampled = sampler.depth(queue);
+                state.sentSinceSample = 0;
+            }
+            catch (IOException e) { //keep going on the estimate
+                log.warn("Unable to sample depth of queue " + queue + ": " + e.getMessage());
+            }
+            state.sampledAt = now;
+        }
+        long depth = state.estimate();
+        if (state.blocked && depth <= low) {
+            state.blocked = false;
+            log.info("Resuming dispatch to " + queue + " depth:" + depth + " parked:" + state.parkedCount);
+        }
+        else if (!state.blocked && depth >= high) {
+            state.blocked = true;
+            log.info("Holding back dispatch to " + queue + " depth:" + depth);
+        }
+        return !state.blocked;
+    }
+
+    private QueueState state(String queue) {
+        return queues.computeIfAbsent(queue, q -> new QueueState());
+    }
+
+    public int getParked() {
+        return parked;
+    }
+
+    public int getParked(String queue) {
+        QueueState state = queues.get(queue);
+        return state == null ? 0 : state.parkedCount;
+    }
+
+    //Metric values since the last call: parked tasks now, tasks parked and released, and queues held back
+    public Map<String, Object> getValueAndReset() {
+        Map<String, Object> value = new HashMap<>();
+        value.put("parked", parked);
+        value.put("deferrals", deferrals);
+        value.put("released", released);
+        int blocked = 0;
+        for (QueueState state : queues.values()) {
+            if (state.blocked) {
+                blocked++;
+            }
+        }
+        value.put("blocked_queues", blocked);
+        deferrals = 0;
+        released = 0;
+        return value;
+    }
+}
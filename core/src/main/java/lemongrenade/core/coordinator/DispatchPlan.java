@@ -0,0 +1,134 @@
+package lemongrenade.core.coordinator;
+
+import lemongrenade.core.models.LGAdapterModel;
+import lemongrenade.core.models.LGJob;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Which adapters a job's new graph data goes to, worked out once instead of for every adapter response.
+ *
+ * Holds the distinct graph queries of the job's approved adapters, already rendered with their depth, and for each
+ * query the adapters that asked for it with their max_nodes_per_task. Adapters with the same query share one entry, so
+ * LemonGraph is asked each query once and a query result is turned into tasks with a single lookup. A plan depends on
+ * the job config, the job's approved adapters and the registered adapters; DispatchPlanCache rebuilds it when one of
+ * them changes.
+ *
+ * Immutable.
+ */
+public class DispatchPlan {
+    private static final Logger log = LoggerFactory.getLogger(DispatchPlan.class);
+
+    //An adapter a query result is sent to
+    public static class Target {
+        final String adapterId;
+        final String adapterName;
+        final int maxNodesPerTask; //0 uses the global max_nodes_per_task
+
+        public Target(String adapterId, String adapterName, int maxNodesPerTask) {
+            this.adapterId = adapterId;
+            this.adapterName = adapterName;
+            this.maxNodesPerTask = maxNodesPerTask;
+        }
+
+        public String getAdapterId() { return adapterId; }
+        public String getAdapterName() { return adapterName; }
+        public int getMaxNodesPerTask() { return maxNodesPerTask; }
+    }
+
+    private final HashMap<String, String> queries = new HashMap<>(); //query -> query, for LemonGraph.queryBasedOnPatterns
+    private final Map<String, List<Target>> targets;
+
+    /**
+     * @param targets adapters to send the result of each query to
+     */
+    public DispatchPlan(Map<String, List<Target>> targets) {
+        this.targets = targets;
+        for (String query : targets.keySet()) {
+            queries.put(query, query);
+        }
+    }
+
+    /**
+     * Picks the best adapter for each of the job's approved adapter names and renders its query with depth.
+     * @param job LGJob
+     * @param adapters every registered adapter
+     * @return DispatchPlan for the job
+     */
+    public static DispatchPlan build(LGJob job, List<LGAdapterModel> adapters) {
+        JSONObject config = job.getJobConfigAsJSON(); //parsed once for every adapter
+        Map<String, LGAdapterModel> byId = new HashMap<>();
+        for (LGAdapterModel a : adapters) {
+            byId.put(a.getId(), a);
+        }
+        Map<String, List<Target>> targets = new HashMap<>();
+        Set<String> adapterIds = new HashSet<>();
+        for (String name : job.getApprovedAdapterSet()) {
+            String adapterId = AdapterManager.findBestAdapterByAdapterName(name, adapters);
+            if (adapterId.equals("")) {
+                log.warn("Unknown or disabled adapter requested [" + name + "]. Ignoring request.");
+                continue;
+            }
+            if (!adapterIds.add(adapterId)) {
+                continue; //same adapter approved under another case
+            }
+            LGAdapterModel a = byId.get(adapterId);
+            String query = AdapterManager.getGraphQueryForAdapter(a, config, true);
+            targets.computeIfAbsent(query, key -> new ArrayList<>())
+                    .add(new Target(adapterId, a.getName(), a.getMaxNodesPerTask()));
+        }
+        return new DispatchPlan(targets);
+    }
+
+    /**
+     * Plan for a map of adapter IDs to queries built by the caller, e.g. a post action or a retry.
+     * @param adapterQueryMap adapter ID to graph query
+     * @return DispatchPlan for the map
+     */
+    public static DispatchPlan fromQueryMap(Map<String, String> adapterQueryMap) {
+        Map<String, List<Target>> targets = new HashMap<>();
+        for (Map.Entry<String, String> entry : adapterQueryMap.entrySet()) {
+            LGAdapterModel a = AdapterManager.getAdapterById(entry.getKey());
+            if (a == null) {
+                log.warn("Unable to find adapter [" + entry.getKey() + "]. Ignoring its query.");
+                continue;
+            }
+            targets.computeIfAbsent(entry.getValue(), key -> new ArrayList<>())
+                    .add(new Target(entry.getKey(), a.getName(), a.getMaxNodesPerTask()));
+        }
+        return new DispatchPlan(targets);
+    }
+
+    /**
+     * @return the distinct queries, each mapped to itself. Only the values are sent to LemonGraph.
+     */
+    public HashMap<String, String> getQueries() {
+        return queries;
+    }
+
+    /**
+     * @param query query a LemonGraph result was returned for
+     * @return adapters to send the result to, empty if no adapter asked for the query
+     */
+    public List<Target> getTargets(String query) {
+        List<Target> list = targets.get(query);
+        return list != null ? list : Collections.<Target>emptyList();
+    }
+
+    public int getTargetCount() {
+        int count = 0;
+        for (List<Target> list : targets.values()) {
+            count += list.size();
+        }
+        return count;
+    }
+}
@@ -0,0 +1,163 @@
+package lemongrenade.core.coordinator;
+
+import lemongrenade.core.models.LGAdapterModel;
+import lemongrenade.core.models.LGJob;
+import lemongrenade.core.util.LGProperties;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Per-executor cache of the jobs' DispatchPlans.
+ *
+ * Building a plan reads every registered adapter and renders each approved adapter's query, which the coordinator
+ * used to do for every adapter response. Plans are kept here instead and handed out as long as the job's config
+ * string and approved adapters are the ones the plan was built from. The adapter registry is read at most once every
+ * 'coordinator.dispatch.plan.ttl.ms'; if an adapter was added or removed or changed its status, query, depth or
+ * max_nodes_per_task since the last read, every plan is rebuilt. An adapter's task count doesn't count as a change,
+ * so with shared dispatch the instance a job's tasks are booked against is picked when the plan is built, not for
+ * every response. At most 'coordinator.job.cache.size' plans are kept (LRU); a ttl of 0 turns the cache off.
+ *
+ * Used from one bolt thread only.
+ */
+public class DispatchPlanCache {
+    public interface Registry {
+        //every registered adapter
+        List<LGAdapterModel> getAll();
+    }
+
+    public interface Builder {
+        DispatchPlan build(LGJob job, List<LGAdapterModel> adapters);
+    }
+
+    private static class Entry {
+        final DispatchPlan plan;
+        final String jobConfig;
+        final Set<String> adapterNames;
+        final long registryVersion;
+
+        Entry(DispatchPlan plan, String jobConfig, Set<String> adapterNames, long registryVersion) {
+            this.plan = plan;
+            this.jobConfig = jobConfig;
+            this.adapterNames = adapterNames;
+            this.registryVersion = registryVersion;
+        }
+    }
+
+    private final Registry registry;
+    private final Builder builder;
+    private final long ttlMs;
+    private final LinkedHashMap<String, Entry> plans;
+    private List<LGAdapterModel> adapters = null;
+    private String fingerprint = null;
+    private long registryVersion = 0;
+    private long readAt = 0;
+    private long hits = 0;
+    private long builds = 0;
+    private long registryReads = 0;
+    private long registryChanges = 0;
+
+    public DispatchPlanCache(Registry registry, Builder builder, int capacity, long ttlMs) {
+        this.registry = registry;
+        this.builder = builder;
+        this.ttlMs = ttlMs;
+        this.plans = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    //null when turned off
+    public static DispatchPlanCache fromProperties() {
+        int ttlMs = LGProperties.getInteger("coordinator.dispatch.plan.ttl.ms", 5000);
+        if (ttlMs <= 0) {
+            return null;
+        }
+        AdapterManager adapterManager = new AdapterManager();
+        return new DispatchPlanCache(adapterManager::getAll, DispatchPlan::build,
+                Math.max(1, LGProperties.getInteger("coordinator.job.cache.size", 1000)), ttlMs);
+    }
+
+    /**
+     * @return the job's plan, built now if the job, its config, its approved adapters or the registry changed
+     */
+    public DispatchPlan get(LGJob job, long now) {
+        if (adapters == null || now - readAt >= ttlMs) {
+            readRegistry(now);
+        }
+        String jobConfig = job.getJobConfig();
+        Set<String> adapterNames = job.getApprovedAdapterSet();
+        Entry entry = plans.get(job.getJobId());
+        if (entry != null && entry.registryVersion == registryVersion && Objects.equals(entry.jobConfig, jobConfig)
+                && entry.adapterNames.equals(adapterNames)) {
+            hits++;
+            return entry.plan;
+        }
+        DispatchPlan plan = builder.build(job, adapters);
+        builds++;
+        plans.put(job.getJobId(), new Entry(plan, jobConfig, adapterNames, registryVersion));
+        return plan;
+    }
+
+    private void readRegistry(long now) {
+        List<LGAdapterModel> read = registry.getAll();
+        registryReads++;
+        readAt = now;
+        String current = fingerprint(read);
+        adapters = read;
+        if (!current.equals(fingerprint)) {
+            if (fingerprint != null) {
+                registryChanges++;
+            }
+            fingerprint = current;
+            registryVersion++;
+            plans.clear();
+        }
+    }
+
+    //Everything about the adapters a plan is built from, in a stable order
+    static String fingerprint(List<LGAdapterModel> adapters) {
+        List<LGAdapterModel> sorted = new ArrayList<>(adapters);
+        Collections.sort(sorted, Comparator.comparing(LGAdapterModel::getId, Comparator.nullsFirst(String::compareTo)));
+        StringBuilder sb = new StringBuilder();
+        for (LGAdapterModel a : sorted) {
+            sb.append(a.getId()).append('|').append(a.getName()).append('|').append(a.getStatus()).append('|')
+                    .append(a.getGraphQuery()).append('|').append(a.getGraphDepth()).append('|')
+                    .append(a.getMaxNodesPerTask()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    //Drops the job's plan, e.g. when a command may have changed the job
+    public void invalidate(String jobId) {
+        plans.remove(jobId);
+    }
+
+    public int size() {
+        return plans.size();
+    }
+
+    //Metric value: plans handed out and built and registry reads and changes since the last call
+    public Map<String, Object> getValueAndReset() {
+        Map<String, Object> value = new HashMap<>();
+        value.put("hits", hits);
+        value.put("builds", builds);
+        value.put("registryReads", registryReads);
+        value.put("registryChanges", registryChanges);
+        value.put("plans", plans.size());
+        hits = 0;
+        builds = 0;
+        registryReads = 0;
+        registryChanges = 0;
+        return value;
+    }
+}
@@ -0,0 +1,152 @@
+package lemongrenade.core.coordinator;
+
+import lemongrenade.core.util.LGProperties;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Per-executor graph activity of the jobs a coordinator is working on.
+ *
+ * Graph activity is the highest graph id LemonGraph has reported for a job, a relative measure of the graph's size
+ * that max_graph_size is enforced against. The coordinator records it as soon as a response has been posted to the
+ * graph, before any tasks are built from it, and checks the limit against memory. Every
+ * 'graph.activity.flush.secs' the values that moved are written to the job with an atomic $max (see
+ * JobManager.setGraphActivity), so the stored value, which the API shows, never goes backwards even if two
+ * coordinators write the same job. 0 writes every change right away. Values read from a job are folded in with get(),
+ * so a job reloaded from mongo before a flush doesn't lower the count.
+ *
+ * At most 'coordinator.job.cache.size' jobs are tracked (LRU); an evicted value that wasn't written yet is written
+ * first. Used from one bolt thread only.
+ */
+public class GraphActivity {
+    public interface Writer {
+        void write(String jobId, int activity);
+    }
+
+    private static class Counter {
+        int value;
+        boolean dirty;
+    }
+
+    private final Writer writer;
+    private final long flushMs;
+    private final LinkedHashMap<String, Counter> counters;
+    private long lastFlush;
+    private long writes = 0;
+
+    public GraphActivity(Writer writer, int capacity, long flushMs, long now) {
+        this.writer = writer;
+        this.flushMs = Math.max(0, flushMs);
+        this.lastFlush = now;
+        this.counters = new LinkedHashMap<String, Counter>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Counter> eldest) {
+                if (size() <= capacity) {
+                    return false;
+                }
+                if (eldest.getValue().dirty) {
+                    write(eldest.getKey(), eldest.getValue());
+                }
+                return true;
+            }
+        };
+    }
+
+    public static GraphActivity fromProperties() {
+        return new GraphActivity(JobManager::setGraphActivity,
+                Math.max(1, LGProperties.getInteger("coordinator.job.cache.size", 1000)),
+                LGProperties.getInteger("graph.activity.flush.secs", 5) * 1000L, System.currentTimeMillis());
+    }
+
+    /**
+     * @param activity graph activity reported for the job
+     * @return the job's graph activity, the highest value recorded or read so far
+     */
+    public int record(String jobId, int activity) {
+        Counter counter = counters.computeIfAbsent(jobId, key -> new Counter());
+        if (activity > counter.value) {
+            counter.value = activity;
+            counter.dirty = true;
+            if (flushMs == 0) {
+                write(jobId, counter);
+            }
+        }
+        return counter.value;
+    }
+
+    /**
+     * @param stored graph activity read from the job
+     * @return the higher of the stored value and the one recorded here
+     */
+    public int get(String jobId, int stored) {
+        Counter counter = counters.computeIfAbsent(jobId, key -> new Counter());
+        if (stored > counter.value) {
+            counter.value = stored;
+            counter.dirty = false; //already stored, nothing to write
+        }
+        return counter.value;
+    }
+
+    /**
+     * Writes the values that moved if 'graph.activity.flush.secs' passed since the last flush.
+     * @return number of jobs written
+     */
+    public int flush(long now) {
+        if (now - lastFlush < flushMs) {
+            return 0;
+        }
+        lastFlush = now;
+        return flushAll();
+    }
+
+    //Writes every value that moved since it was last written
+    public int flushAll() {
+        int written = 0;
+        Iterator<Map.Entry<String, Counter>> entries = counters.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<String, Counter> entry = entries.next();
+            if (entry.getValue().dirty) {
+                write(entry.getKey(), entry.getValue());
+                written++;
+            }
+        }
+        return written;
+    }
+
+    //Writes one job's value now, e.g. when the job is stopped for exceeding max_graph_size
+    public void flush(String jobId) {
+        Counter counter = counters.get(jobId);
+        if (counter != null && counter.dirty) {
+            write(jobId, counter);
+        }
+    }
+
+    private void write(String jobId, Counter counter) {
+        writer.write(jobId, counter.value);
+        counter.dirty = false;
+        writes++;
+    }
+
+    public int getDirty() {
+        int dirty = 0;
+        for (Counter counter : counters.values()) {
+            if (counter.dirty) {
+                dirty++;
+            }
+        }
+        return dirty;
+    }
+
+    //Metric value: writes since the last call and values waiting to be written
+    public Map<String, Object> getValueAndReset() {
+        Map<String, Object> value = new HashMap<>();
+        value.put("writes", writes);
+        value.put("dirty", getDirty());
+        value.put("jobs", counters.size());
+        writes = 0;
+        return value;
+    }
+}
@@ -0,0 +1,285 @@
+package lemongrenade.core.coordinator;
+
+import lemongrenade.core.util.LGProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+/**
+ * Lets one coordinator executor keep many asynchronous LemonGraph calls in flight without handling two things at once.
+ *
+ * Work for a job is submitted as a Runnable and runs on the executor thread. It may start() asynchronous calls. Their
+ * callbacks are queued when the call completes. Once open() was called, a thread of the window runs them right away,
+ * holding the window's lock; the bolt holds the same lock while it handles a tuple, so callbacks never run alongside
+ * it and a completed call doesn't wait for the next tuple. Without open() they run when drain() is called. A job is
+ * busy from the moment its work starts until it has no call in flight. Work submitted for a busy job waits behind it,
+ * so each job's work runs in the order it arrived. At most 'coordinator.lemongraph.inflight' calls are in flight;
+ * calls started beyond that wait for a free slot. At most 'coordinator.lemongraph.waiting' pieces of work wait behind
+ * busy jobs; submitting more waits for callbacks to run until one of them has started. 0 turns this off and the
+ * coordinator calls LemonGraph synchronously.
+ *
+ * Every method takes the window's lock.
+ */
+public class InFlightWindow {
+    private static final Logger log = LoggerFactory.getLogger(InFlightWindow.class);
+
+    private static class JobState {
+        final ArrayDeque<Runnable> waiting = new ArrayDeque<>();
+        int outstanding = 0; //calls started and not yet finished
+    }
+
+    private static class Call<T> {
+        final String jobId;
+        final Supplier<CompletableFuture<T>> call;
+        final BiConsumer<T, Throwable> done;
+
+        Call(String jobId, Supplier<CompletableFuture<T>> call, BiConsumer<T, Throwable> done) {
+            this.jobId = jobId;
+            this.call = call;
+            this.done = done;
+        }
+    }
+
+    private final int capacity;
+    private final int maxWaiting;
+    private final Map<String, JobState> jobs = new HashMap<>(); //busy jobs
+    private final ArrayDeque<Call<?>> ready = new ArrayDeque<>(); //calls waiting for a free slot
+    private final LinkedBlockingQueue<Runnable> completed = new LinkedBlockingQueue<>();
+    private int inFlight = 0;
+    private int waiting = 0; //work waiting behind busy jobs
+    private long calls = 0;
+    private long deferred = 0;
+    private long stalls = 0;
+    private Thread callbacks; //runs callbacks as calls complete, see open()
+
+    public InFlightWindow(int capacity, int maxWaiting) {
+        this.capacity = Math.max(1, capacity);
+        this.maxWaiting = Math.max(1, maxWaiting);
+    }
+
+    //null when turned off
+    public static InFlightWindow fromProperties() {
+        int capacity = LGProperties.getInteger("coordinator.lemongraph.inflight", 16);
+        return capacity > 0 ? new InFlightWindow(capacity, LGProperties.getInteger("coordinator.lemongraph.waiting", 1000))
+                : null;
+    }
+
+    /**
+     * Starts running callbacks on a thread of their own as soon as their calls complete, holding the window's lock.
+     * @param name name of the thread
+     */
+    public synchronized void open(String name) {
+        if (callbacks != null) {
+            return;
+        }
+        callbacks = new Thread(this::runCallbacks, name);
+        callbacks.setDaemon(true);
+        callbacks.start();
+    }
+
+    //Stops the thread started by open(). Callbacks of calls still in flight are left to drain().
+    public void close() {
+        Thread thread;
+        synchronized (this) {
+            thread = callbacks;
+            callbacks = null;
+        }
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    private void runCallbacks() {
+        while (!Thread.currentThread().isInterrupted()) {
+            Runnable callback;
+            try {
+                callback = completed.take();
+            }
+            catch (InterruptedException e) {
+                return;
+            }
+            synchronized (this) {
+                try {
+                    callback.run();
+                    drain();
+                }
+                catch (Exception e) {
+                    log.error("Error in LemonGraph callback. Error:" + e.getMessage());
+                }
+                notifyAll();
+            }
+        }
+    }
+
+    //Lets callbacks run for up to 'timeoutMs': waits for the callback thread if there is one, otherwise runs them here
+    private void awaitCallbacks(long timeoutMs) throws InterruptedException {
+        if (callbacks != null) {
+            wait(timeoutMs);
+            return;
+        }
+        Runnable callback = completed.poll(timeoutMs, TimeUnit.MILLISECONDS);
+        if (callback != null) {
+            callback.run();
+        }
+    }
+
+    /**
+     * Runs the work now if the job isn't busy, otherwise after the job's earlier work has finished. If too much work is
+     * waiting already, first lets callbacks of completed calls run until some of it has started. Only call from outside
+     * the work and callbacks of the window.
+     */
+    public synchronized void submit(String jobId, Runnable work) {
+        if (jobs.containsKey(jobId) && waiting >= maxWaiting) {
+            stalls++;
+            try {
+                while (waiting >= maxWaiting) {
+                    awaitCallbacks(1000);
+                }
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        JobState state = jobs.get(jobId);
+        if (state != null) {
+            state.waiting.add(work);
+            waiting++;
+            deferred++;
+            return;
+        }
+        state = new JobState();
+        jobs.put(jobId, state);
+        run(jobId, state, work);
+    }
+
+    /**
+     * Starts an asynchronous call for a job. Only call from the job's work or from the callback of one of its calls.
+     * @param call starts the call; run now, or once a slot is free
+     * @param done callback with the result or the error, run holding the window's lock
+     */
+    public synchronized <T> void start(String jobId, Supplier<CompletableFuture<T>> call, BiConsumer<T, Throwable> done) {
+        JobState state = jobs.get(jobId);
+        if (state == null) {
+            throw new IllegalStateException("Job " + jobId + " has no work running");
+        }
+        state.outstanding++;
+        Call<T> c = new Call<>(jobId, call, done);
+        if (inFlight < capacity) {
+            launch(c);
+        }
+        else {
+            ready.add(c);
+        }
+    }
+
+    private <T> void launch(Call<T> c) {
+        inFlight++;
+        calls++;
+        CompletableFuture<T> future;
+        try {
+            future = c.call.get();
+        }
+        catch (Exception e) {
+            future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+        }
+        future.whenComplete((result, error) -> completed.add(() -> finish(c, result, error)));
+    }
+
+    private <T> void finish(Call<T> c, T result, Throwable error) {
+        inFlight--;
+        JobState state = jobs.get(c.jobId);
+        state.outstanding--;
+        run(c.jobId, state, () -> c.done.accept(result, error));
+        while (inFlight < capacity && !ready.isEmpty()) {
+            launch(ready.poll());
+        }
+    }
+
+    //Runs work for the job, then whatever waited behind it, until a call is in flight or nothing is left
+    private void run(String jobId, JobState state, Runnable work) {
+        while (work != null) {
+            try {
+                work.run();
+            }
+            catch (Exception e) {
+                log.error("Error in work for job:" + jobId + " Error:" + e.getMessage());
+            }
+            if (state.outstanding > 0) {
+                return;
+            }
+            work = state.waiting.poll();
+            if (work != null) {
+                waiting--;
+            }
+        }
+        jobs.remove(jobId);
+    }
+
+    /**
+     * Runs the callbacks of the calls that completed since the last drain.
+     * @return callbacks run
+     */
+    public synchronized int drain() {
+        int count = 0;
+        Runnable callback;
+        while ((callback = completed.poll()) != null) {
+            callback.run();
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Waits for every job's work to finish, running callbacks as calls complete, e.g. when the bolt shuts down.
+     * @return true if all work finished in time
+     */
+    public synchronized boolean awaitIdle(long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (!jobs.isEmpty()) {
+            long wait = deadline - System.currentTimeMillis();
+            if (wait <= 0) {
+                return false;
+            }
+            awaitCallbacks(wait);
+        }
+        return true;
+    }
+
+    public synchronized boolean isBusy(String jobId) {
+        return jobs.containsKey(jobId);
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    public synchronized int getWaiting() {
+        return waiting;
+    }
+
+    //Metric value: calls started, work deferred behind a busy job and submits that had to wait for room since the last
+    //call, and what is waiting now
+    public synchronized Map<String, Object> getValueAndReset() {
+        Map<String, Object> value = new HashMap<>();
+        value.put("calls", calls);
+        value.put("deferred", deferred);
+        value.put("stalls", stalls);
+        value.put("inFlight", inFlight);
+        value.put("readyCalls", ready.size());
+        value.put("busyJobs", jobs.size());
+        value.put("waitingWork", waiting);
+        calls = 0;
+        deferred = 0;
+        stalls = 0;
+        return value;
+    }
+}
@@ -0,0 +1,254 @@
+package lemongrenade.core.coordinator;
+
+import lemongrenade.core.database.mongo.MongoDBStore;
+import lemongrenade.core.models.LGJob;
+import lemongrenade.core.models.LGPayload;
+import lemongrenade.core.util.JSONUtils;
+import lemongrenade.core.util.LGProperties;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Per-JVM cache of job configs.
+ *
+ * Task payloads carry a content hash of the job config instead of the config itself (see
+ * LGPayload.setJobConfigByReference). Workers resolve the hash here. Every version sent by reference is saved under
+ * its hash (the jobConfigs collection, deleted with the job) the first time this JVM sends it, so a task still
+ * resolves the config it was created with after the job's config changed. On a miss the saved version is read, or
+ * for payloads from coordinators that didn't save it the job's config if its hash still matches. Configs are keyed by
+ * content hash, so a changed config gets a new key and stale entries are never served for it. Entries are read-only (see
+ * JSONUtils.readOnly) and shared by every caller, so nobody pays for a copy.
+ *
+ * Sizes are bounded by 'job.config.cache.size' (LRU).
+ */
+public class JobConfigCache {
+    private static final Logger log = LoggerFactory.getLogger(JobConfigCache.class);
+    private static final int MAX_ENTRIES = LGProperties.getInteger("job.config.cache.size", 1000);
+
+    //Where config versions are kept by hash
+    public interface Store {
+        void save(String jobId, String hash, String config);
+        //null if the version was never saved
+        String load(String jobId, String hash);
+    }
+
+    private static Store STORE = new Store() {
+        @Override public void save(String jobId, String hash, String config) {
+            MongoDBStore.saveJobConfigVersion(jobId, hash, config);
+        }
+
+        @Override public String load(String jobId, String hash) {
+            return MongoDBStore.getJobConfigVersion(jobId, hash);
+        }
+    };
+
+    // content hash -> read-only config
+    private static final Map<String, JSONObject> CONFIGS = lru(MAX_ENTRIES);
+    // jobId -> newest config version seen for the job
+    private static final Map<String, Version> CURRENT = lru(MAX_ENTRIES);
+    // content hash + adapter name -> read-only adapter specific config
+    private static final Map<String, JSONObject> ADAPTER_VIEWS = lru(MAX_ENTRIES);
+
+    private static class Version {
+        final String raw; // config string as stored on the job
+        final String hash;
+        final JSONObject config;
+        volatile boolean saved = false; //written to the Store by this JVM
+
+        Version(String raw, String hash, JSONObject config) {
+            this.raw = raw;
+            this.hash = hash;
+            this.config = config;
+        }
+    }
+
+    private static <V> Map<String, V> lru(final int size) {
+        return Collections.synchronizedMap(new LinkedHashMap<String, V>(16, 0.75f, true) {
+            @Override protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+                return size() > size;
+            }
+        });
+    }
+
+    /**
+     * Sets the job config on a task payload by reference. Configs that were changed on the job object but never
+     * written to mongo (e.g. post actions) can't be resolved by other workers, so those are sent in full.
+     * @param payload LGPayload headed to an adapter
+     * @param job LGJob the payload belongs to
+     */
+    public static void setJobConfig(LGPayload payload, LGJob job) {
+        if (job.isJobConfigModified()) {
+            payload.setJobConfig(job.getJobConfigAsJSON());
+            return;
+        }
+        Version version = current(job);
+        if (!version.saved) {
+            STORE.save(job.getJobId(), version.hash, version.config.toString());
+            version.saved = true;
+        }
+        payload.setJobConfigByReference(version.hash, version.config);
+    }
+
+    /**
+     * @param job LGJob
+     * @return read-only job config for the job
+     */
+    public static JSONObject get(LGJob job) {
+        return current(job).config;
+    }
+
+    /**
+     * Resolves a job config by content hash, reading the saved version (or the job) from mongo on a miss.
+     * @param jobId String for job ID
+     * @param hash content hash carried by the payload
+     * @return read-only job config. Empty if the job no longer exists.
+     * @throws IllegalStateException if the version wasn't saved and the job's config has changed since
+     */
+    public static JSONObject get(String jobId, String hash) {
+        JSONObject config = CONFIGS.get(hash);
+        if (config != null) {
+            return config;
+        }
+        String saved = STORE.load(jobId, hash);
+        if (saved != null) {
+            config = JSONUtils.readOnly(new JSONObject(saved));
+            CONFIGS.put(hash, config);
+            return config;
+        }
+        LGJob job = JobManager.getJob(jobId);
+        if (job == null) {
+            log.warn("Unable to resolve job config " + hash + ". Job " + jobId + " doesn't exist.");
+            return JSONUtils.readOnly(new JSONObject());
+        }
+        Version version = current(job);
+        if (!version.hash.equals(hash)) {
+            throw new IllegalStateException("Job config " + hash + " of job " + jobId + " changed since the task was"
+                    + " created and the version it was sent with wasn't saved.");
+        }
+        return version.config;
+    }
+
+    //Returns the cached version of the job's config, parsing it only when the stored string changed
+    private static Version current(LGJob job) {
+        String raw = job.getJobConfig();
+        Version version = CURRENT.get(job.getJobId());
+        if (version != null && version.raw.equals(raw)) {
+            return version;
+        }
+        JSONObject parsed = job.getJobConfigAsJSON();
+        String hash = hash(parsed);
+        JSONObject config = CONFIGS.get(hash);
+        if (config == null) {
+            config = JSONUtils.readOnly(parsed);
+            CONFIGS.put(hash, config);
+        }
+        version = new Version(raw, hash, config);
+        CURRENT.put(job.getJobId(), version);
+        return version;
+    }
+
+    public static JSONObject getAdapterView(String hash, String adapterName) {
+        return ADAPTER_VIEWS.get(hash + "/" + adapterName);
+    }
+
+    public static JSONObject putAdapterView(String hash, String adapterName, JSONObject view) {
+        JSONObject readOnly = JSONUtils.readOnly(view);
+        ADAPTER_VIEWS.put(hash + "/" + adapterName, readOnly);
+        return readOnly;
+    }
+
+    /**
+     * Drops everything cached for a job. Called when a job's config may have changed (e.g. ADD command).
+     * @param jobId String for job ID
+     */
+    public static void invalidate(String jobId) {
+        Version version = CURRENT.remove(jobId);
+        if (version == null) {
+            return;
+        }
+        CONFIGS.remove(version.hash);
+        synchronized (ADAPTER_VIEWS) {
+            Iterator<String> keys = ADAPTER_VIEWS.keySet().iterator();
+            while (keys.hasNext()) {
+                if (keys.next().startsWith(version.hash + "/")) {
+                    keys.remove();
+                }
+            }
+        }
+    }
+
+    //Replaces where config versions are kept, e.g. in tests
+    public static void setStore(Store store) {
+        STORE = store;
+    }
+
+    public static void clear() {
+        CONFIGS.clear();
+        CURRENT.clear();
+        ADAPTER_VIEWS.clear();
+    }
+
+    /**
+     * Content hash of a config. Keys are sorted first, so equal configs hash the same regardless of key order.
+     * @param config JSONObject
+     * @return hex SHA-1
+     */
+    public static String hash(JSONObject config) {
+        StringBuilder sb = new StringBuilder();
+        canonical(config, sb);
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] bytes = digest.digest(sb.toString().getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(bytes.length * 2);
+            for (byte b : bytes) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void canonical(Object value, StringBuilder sb) {
+        if (value instanceof JSONObject) {
+            JSONObject obj = (JSONObject) value;
+            List<String> keys = new ArrayList<>(obj.keySet());
+            Collections.sort(keys);
+            sb.append('{');
+            for (String key : keys) {
+                sb.append(JSONObject.quote(key)).append(':');
+                canonical(obj.get(key), sb);
+                sb.append(',');
+            }
+            sb.append('}');
+        }
+        else if (value instanceof JSONArray) {
+            JSONArray arr = (JSONArray) value;
+            sb.append('[');
+            for (int i = 0; i < arr.length(); i++) {
+                canonical(arr.get(i), sb);
+                sb.append(',');
+            }
+            sb.append(']');
+        }
+        else if (value instanceof String) {
+            sb.append(JSONObject.quote((String) value));
+        }
+        else {
+            sb.append(value);
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package lemongrenade.core.coordinator;
 
+import com.mongodb.BasicDBObject;
 import com.mongodb.DBRef;
 import lemongrenade.core.database.mongo.*;
 import lemongrenade.core.models.*;
@@ -10,9 +11,11 @@ import org.slf4j.LoggerFactory;
 
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class JobManager {
     private static final Logger log = LoggerFactory.getLogger(JobManager.class);
@@ -67,6 +70,21 @@ public class JobManager {
         return JOB_DAO.getByJobId(jobId);
     }
 
+    /**
+     * Reads a job without its taskMap, for the coordinator's work on the job. Jobs without task counters are counted
+     * from their taskMap, so those are read whole.
+     * @param jobId String for job ID
+     * @return LGJob or null if the job doesn't exist
+     */
+    public static LGJob getJobWithoutTasks(String jobId) {
+        open();
+        LGJob job = JOB_DAO.getByJobIdWithoutTasks(jobId);
+        if (job != null && !job.hasTaskCounts()) {
+            job = JOB_DAO.getByJobId(jobId);
+        }
+        return job;
+    }
+
     public HashMap<String, LGJob> getJobs(JSONArray jobIds) {
         open();
         HashMap<String, LGJob> jobs = JOB_DAO.getByJobIds(jobIds);
@@ -115,6 +133,8 @@ public class JobManager {
         job.setJobConfig(config.toString());//updates the job config on LGJob object
         open();
         MONGO_DB_STORE.appendToJob(job.getJobId(), "jobConfig", config.toString());//updates the jobConfig in mongo
+        job.setJobConfigSaved();
+        JobConfigCache.invalidate(job.getJobId());
         return true;
     }
 
@@ -195,6 +215,12 @@ public class JobManager {
         return JOB_DAO.getAllProcessing();
     }
 
+    //PROCESSING jobs without their taskMap, for checks that only need the task counters
+    public List<LGJob> getAllProcessingWithoutTasks() {
+        open();
+        return JOB_DAO.getAllProcessingWithoutTasks();
+    }
+
     public List<LGJob> getAllNew() {
         open();
         return JOB_DAO.getAllNew();
@@ -279,6 +305,95 @@ public class JobManager {
                 .put(task.getTaskId(), taskRef)
                 ;
         MONGO_DB_STORE.insertToObject("jobs", task.getJobId(), "taskMap", taskEntry);
+        countTasks(job.getJobId(), Collections.singletonMap(task.getStatus(), 1));
+    }
+
+    /**
+     * Adds a batch of new tasks to a job: one bulk insert of the task documents and one update of the job's taskMap,
+     * lastTaskTime and task counters, however many tasks there are. Tasks that couldn't be inserted are left out of
+     * the job. Unlike addTaskToJob the job status isn't touched, callers set it once for the batch.
+     * @param job LGJob
+     * @param tasks new LGTasks of the job
+     * @return the tasks that were added, only these may be sent
+     */
+    public static List<LGTask> addTasksToJob(LGJob job, List<LGTask> tasks) {
+        if (tasks.isEmpty()) {
+            return tasks;
+        }
+        open();
+        List<LGTask> inserted = TASK_DAO.insertTasks(tasks);
+        if (inserted.size() < tasks.size()) {
+            log.error("Failed to insert " + (tasks.size() - inserted.size()) + " of " + tasks.size()
+                    + " new tasks for job:" + job.getJobId() + ". Dropping them.");
+        }
+        if (inserted.isEmpty()) {
+            return inserted;
+        }
+        JSONObject taskEntries = new JSONObject();
+        Map<Integer, Integer> counts = new HashMap<>();
+        for (LGTask task : inserted) {
+            job.addTask(task);//updates lastTaskTime, taskMap and taskCounts for LGJob
+            taskEntries.put(task.getTaskId(), new DBRef("tasks", task.getTaskId()));
+            counts.merge(task.getStatus(), 1, Integer::sum);
+        }
+        BasicDBObject update = MONGO_DB_STORE.createObject(taskEntries, "taskMap");
+        update.append("lastTaskTime", job.getLastTaskTime());
+        MONGO_DB_STORE.addTasksToJob(job.getJobId(), update, LGJob.TASK_COUNTS, counterDeltas(counts));
+        return inserted;
+    }
+
+    /**
+     * Adds to a job's task counters in mongo with one $inc. Jobs without counters (created before they existed) are
+     * left alone, they are counted from their taskMap until rebuildTaskCounts is run for them.
+     * @param jobId String for job ID
+     * @param deltas change in the number of tasks per LGTask status
+     */
+    private static void countTasks(String jobId, Map<Integer, Integer> deltas) {
+        MONGO_DB_STORE.incrementJobCounters(jobId, LGJob.TASK_COUNTS, counterDeltas(deltas));
+    }
+
+    //Changes per LGTask status, keyed by the names of the job's counters
+    private static Map<String, Integer> counterDeltas(Map<Integer, Integer> deltas) {
+        Map<String, Integer> inc = new HashMap<>();
+        for (Map.Entry<Integer, Integer> delta : deltas.entrySet()) {
+            if (delta.getValue() != 0) {
+                inc.merge(LGTask.getStatusString(delta.getKey()), delta.getValue(), Integer::sum);
+            }
+        }
+        return inc;
+    }
+
+    //One task moved from one status to another
+    private static void countTransition(String jobId, int from, int to) {
+        Map<Integer, Integer> deltas = new HashMap<>();
+        deltas.put(from, -1);
+        deltas.merge(to, 1, Integer::sum);
+        countTasks(jobId, deltas);
+    }
+
+    /**
+     * Recounts a job's tasks per status from the tasks collection and stores the result as the job's counters. Fixes
+     * counters that drifted and gives jobs created before the counters existed a set of their own.
+     * @param jobId String for job ID
+     * @return the stored counters, null if there is no such job
+     */
+    public static Map<String, Integer> rebuildTaskCounts(String jobId) {
+        open();
+        if (!doesJobExist(jobId)) {
+            return null;
+        }
+        Map<String, Integer> counts = LGJob.newTaskCounts();
+        for (Map.Entry<Integer, Integer> count : MONGO_DB_STORE.countTasksByStatus(jobId).entrySet()) {
+            counts.merge(LGTask.getStatusString(count.getKey()), count.getValue(), Integer::sum);
+        }
+        MONGO_DB_STORE.appendToJob(jobId, LGJob.TASK_COUNTS, new BasicDBObject(counts));
+        return counts;
+    }
+
+    //ids of every job, for tools that walk all of them
+    public static List<String> getJobIds() {
+        open();
+        return MONGO_DB_STORE.getJobIds();
     }
 
     public static void updateJobHistorySuccess(LGJob job, String taskId, CoordinatorBolt.MetricData md) {
@@ -286,6 +401,22 @@ public class JobManager {
     }
 
     public static void updateJobHistorySuccess(LGJob job, String taskId, int graphChanges, int maxGraphId, int numberOfNewTasksCreated, int currentId) {
+        updateJobHistorySuccess(job, taskId, graphChanges, maxGraphId, numberOfNewTasksCreated, currentId, null, 1);
+    }
+
+    /**
+     * History entry for a task whose response was posted to the graph together with others. The graph changes and new
+     * tasks are the batch's, recorded on every task of it.
+     * @param batchId String shared by the tasks of the batch, null if the response was posted on its own
+     * @param batchSize int number of responses in the batch
+     */
+    public static void updateJobHistorySuccess(LGJob job, String taskId, CoordinatorBolt.MetricData md, String batchId, int batchSize) {
+        updateJobHistorySuccess(job, taskId, md.graphChanges, md.maxGraphId, md.numberOfNewTasksGenerated, md.currentGraphId,
+                batchId, batchSize);
+    }
+
+    private static void updateJobHistorySuccess(LGJob job, String taskId, int graphChanges, int maxGraphId,
+                                                int numberOfNewTasksCreated, int currentId, String batchId, int batchSize) {
         if (job == null || (taskId == null) || (taskId.equals("") || job.getJobId().equals(""))){
             return;  // Most likely a seed job.?
         }
@@ -293,10 +424,17 @@ public class JobManager {
         LGTask lgt = TASK_DAO.getByTaskId(taskId);
         if (lgt == null) { return; }
 
+        String message = lgt.getAdapterName() + " completed task";
+        if (batchId != null) {
+            message += " in a batch of " + batchSize;
+        }
         LGJobHistory history = new LGJobHistory(LGJobHistory.LGHISTORY_TYPE_TASK, "adapter", taskId,
-                lgt.getAdapterName() + " completed task",
+                message,
                 lgt.getStartTime(), System.currentTimeMillis(), graphChanges, maxGraphId
                 , numberOfNewTasksCreated, currentId);
+        if (batchId != null) {
+            history.setBatch(batchId, batchSize);
+        }
         updateJobHistory(job, history);
     }
 
@@ -332,10 +470,19 @@ public class JobManager {
         if (job.getGraphActivity() < graphActivity) {
             open();
             job.setGraphActivity(graphActivity);
-            MONGO_DB_STORE.appendToJob(job.getJobId(), "graphActivity", graphActivity);
+            setGraphActivity(job.getJobId(), graphActivity);
         }
     }
 
+    /** Raises the stored graphActivity of a job to the given value, leaving it alone if it is already higher
+     * @param jobId String for job ID
+     * @param graphActivity Int graph activity
+     * */
+    public static void setGraphActivity(String jobId, int graphActivity) {
+        open();
+        MONGO_DB_STORE.maxToJob(jobId, "graphActivity", graphActivity);
+    }
+
     /**
      * @param jobId String job id
      * @param error LGJobError
@@ -430,13 +577,25 @@ public class JobManager {
                 return;
             }
 
-            job.updateTaskStatus(taskId, status);
+            //Move the stored task with a conditional update, so the counters get exactly one -1/+1 per change even
+            //when another bolt moves the same task. A task already in the new status was moved (and counted) by that
+            //bolt.
+            int from = lgt.getStatus();
+            while (from != status && !TASK_DAO.transition(taskId, from, status)) {
+                lgt = TASK_DAO.getByTaskId(taskId);
+                if (lgt == null) {
+                    return;
+                }
+                from = lgt.getStatus();
+            }
+            if (from != status) {
+                countTransition(jobId, from, status);
+                job.moveTask(taskId, from, status);
+            }
+
             lgt.setStatus(status);
-            long endTime = System.currentTimeMillis();
-            lgt.setEndTime(endTime);
+            lgt.setEndTime(System.currentTimeMillis());
             job.updateTask(lgt);
-            TASK_DAO.update(taskId, "status", status);
-            TASK_DAO.update(taskId, "endTime", endTime);
         }
         catch(Exception e) {
             log.error("Failed to update task status for job:" + jobId + " task:" + taskId + " to "+LGJob.getStatusString(status)+".");
@@ -472,6 +631,58 @@ public class JobManager {
         updateJobTaskStatus(job, taskId, LGTask.TASK_STATUS_DROPPED);
     }
 
+    /**
+     * Leases a PROCESSING task to one coordinator executor, see CompletionFilter. The task's status isn't changed.
+     * @param jobId String for the ID of the job the task has to belong to
+     * @param taskId String for task ID
+     * @param owner key of the claiming executor
+     * @param leaseMs age after which another executor's claim may be taken over
+     * @return CLAIMED if owner holds the task now, else why not
+     */
+    public static CompletionFilter.Claim claimTask(String jobId, String taskId, String owner, long leaseMs) {
+        open();
+        if (TASK_DAO.claim(taskId, jobId, owner, System.currentTimeMillis(), leaseMs) != null) {
+            return CompletionFilter.Claim.CLAIMED;
+        }
+        LGTask task = TASK_DAO.getByTaskId(taskId);
+        if (task == null) {
+            return CompletionFilter.Claim.UNKNOWN;
+        }
+        if (!jobId.equals(task.getJobId())) {
+            return CompletionFilter.Claim.FOREIGN;
+        }
+        return task.getStatus() == LGTask.TASK_STATUS_PROCESSING ? CompletionFilter.Claim.HELD
+                : CompletionFilter.Claim.FINISHED;
+    }
+
+    /**
+     * Ends owner's claim on a task whose response couldn't be processed.
+     * @param taskId String for task ID
+     * @param owner key of the executor that claimed the task
+     */
+    public static void releaseTask(String taskId, String owner) {
+        open();
+        TASK_DAO.unclaim(taskId, owner);
+    }
+
+    /**
+     * @param prefix start of the keys of the coordinator executors whose parked tasks are wanted
+     * @return PROCESSING tasks that were parked by those executors and not sent yet
+     */
+    public static List<LGTask> getParkedTasks(String prefix) {
+        open();
+        return TASK_DAO.getParked(prefix);
+    }
+
+    /**
+     * Clears the parked marker of tasks that have been sent to their adapters
+     * @param taskIds List of task IDs
+     */
+    public static void unparkTasks(List<String> taskIds) {
+        open();
+        TASK_DAO.unpark(taskIds);
+    }
+
     /**
      * @param taskId String for task ID
      * @return LGTask returned
@@ -0,0 +1,118 @@
+package lemongrenade.core.coordinator;
+
+import lemongrenade.core.models.LGJob;
+import lemongrenade.core.util.LGProperties;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Per-executor cache of the jobs a coordinator is working on.
+ *
+ * The coordinator is fields-grouped on job id, so every response for a job reaches the same executor, and the job's
+ * status, graph activity, task counters, approved adapters and config are changed through the LGJob object it loaded.
+ * That object is kept here between tuples instead of reading the job from mongo for every one. Jobs are read without
+ * their taskMap (JobManager.getJobWithoutTasks), the responses don't need it. Writes still go to mongo as they happen
+ * (JobManager updates the object and the document together), so the document is never behind the cache.
+ *
+ * What is changed outside the executor is picked up two ways: the command bolt sends an invalidation on
+ * INVALIDATE_STREAM for every command it handles, and entries older than 'coordinator.job.cache.ttl.ms' are reloaded.
+ * At most 'coordinator.job.cache.size' jobs are kept (LRU); 0 turns the cache off.
+ *
+ * Used from one bolt thread only.
+ */
+public class JobStateCache<J> {
+    public static final String INVALIDATE_STREAM = "job-invalidate";
+
+    public interface Loader<J> {
+        //the job, or null if there is no such job
+        J load(String jobId);
+    }
+
+    private static class Entry<J> {
+        final J job;
+        final long loadedAt;
+
+        Entry(J job, long loadedAt) {
+            this.job = job;
+            this.loadedAt = loadedAt;
+        }
+    }
+
+    private final Loader<J> loader;
+    private final long ttlMs;
+    private final LinkedHashMap<String, Entry<J>> entries;
+    private long hits = 0;
+    private long misses = 0;
+    private long invalidations = 0;
+
+    public JobStateCache(Loader<J> loader, int capacity, long ttlMs) {
+        this.loader = loader;
+        this.ttlMs = ttlMs;
+        this.entries = new LinkedHashMap<String, Entry<J>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry<J>> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    //null when turned off
+    public static JobStateCache<LGJob> fromProperties() {
+        int size = LGProperties.getInteger("coordinator.job.cache.size", 1000);
+        if (size <= 0) {
+            return null;
+        }
+        return new JobStateCache<>(JobManager::getJobWithoutTasks, size, LGProperties.getInteger("coordinator.job.cache.ttl.ms", 5000));
+    }
+
+    /**
+     * @return the cached job, loaded first if it isn't cached or its entry is older than the ttl. null if there is no
+     * such job.
+     */
+    public J get(String jobId, long now) {
+        Entry<J> entry = entries.get(jobId);
+        if (entry != null && now - entry.loadedAt < ttlMs) {
+            hits++;
+            return entry.job;
+        }
+        return load(jobId, now);
+    }
+
+    //Reads the job through the loader and caches it
+    public J load(String jobId, long now) {
+        misses++;
+        J job = loader.load(jobId);
+        if (job == null) {
+            entries.remove(jobId);
+        }
+        else {
+            entries.put(jobId, new Entry<>(job, now));
+        }
+        return job;
+    }
+
+    public void invalidate(String jobId) {
+        if (entries.remove(jobId) != null) {
+            invalidations++;
+        }
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    //Metric value: hits, misses and invalidations since the last call
+    public Map<String, Object> getValueAndReset() {
+        Map<String, Object> value = new HashMap<>();
+        value.put("hits", hits);
+        value.put("misses", misses);
+        value.put("invalidations", invalidations);
+        value.put("size", entries.size());
+        hits = 0;
+        misses = 0;
+        invalidations = 0;
+        return value;
+    }
+}
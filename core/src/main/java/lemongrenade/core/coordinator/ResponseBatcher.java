@@ -0,0 +1,125 @@
+package lemongrenade.core.coordinator;
+
+import lemongrenade.core.util.LGProperties;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Holds adapter responses per job so the coordinator can post them to LemonGraph together.
+ *
+ * Every response means a LemonGraph post and a pattern query. When many responses for one job arrive close together,
+ * the coordinator instead collects them here and handles each job's batch with one post of all their nodes and edges
+ * and one query. A job's batch is handed back as soon as it holds 'coordinator.response.batch.size' responses, or once
+ * its oldest response has waited 'coordinator.response.batch.ms' (checked on every tuple and on tick tuples, so a quiet
+ * job waits at most about a second longer). A size of 1 or less turns batching off. The tuples stay unacked until
+ * their batch has been handled.
+ *
+ * Used from one bolt thread only.
+ */
+public class ResponseBatcher<T> {
+    private static class Batch<T> {
+        final List<T> items = new ArrayList<>();
+        final long firstAt;
+
+        Batch(long firstAt) {
+            this.firstAt = firstAt;
+        }
+    }
+
+    private final int size;
+    private final long waitMs;
+    private final LinkedHashMap<String, Batch<T>> pending = new LinkedHashMap<>(); //oldest batch first
+    private int queued = 0;
+    private long batches = 0;
+    private long items = 0;
+    private long full = 0;
+
+    public ResponseBatcher(int size, long waitMs) {
+        this.size = size;
+        this.waitMs = Math.max(0, waitMs);
+    }
+
+    //null when turned off
+    public static <T> ResponseBatcher<T> fromProperties() {
+        int size = LGProperties.getInteger("coordinator.response.batch.size", 50);
+        if (size <= 1) {
+            return null;
+        }
+        return new ResponseBatcher<>(size, LGProperties.getInteger("coordinator.response.batch.ms", 200));
+    }
+
+    /**
+     * @return the job's batch if this response filled it, otherwise null and the response waits
+     */
+    public List<T> add(String jobId, T item, long now) {
+        Batch<T> batch = pending.computeIfAbsent(jobId, key -> new Batch<>(now));
+        batch.items.add(item);
+        queued++;
+        if (batch.items.size() < size) {
+            return null;
+        }
+        full++;
+        return take(jobId);
+    }
+
+    /**
+     * @return the batches whose oldest response has waited long enough, by job id, oldest first
+     */
+    public LinkedHashMap<String, List<T>> due(long now) {
+        LinkedHashMap<String, List<T>> due = new LinkedHashMap<>();
+        Iterator<Map.Entry<String, Batch<T>>> entries = pending.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<String, Batch<T>> entry = entries.next();
+            if (now - entry.getValue().firstAt < waitMs) {
+                break; //the rest came later
+            }
+            entries.remove();
+            due.put(entry.getKey(), done(entry.getValue()));
+        }
+        return due;
+    }
+
+    //Every waiting batch, e.g. when the bolt shuts down
+    public LinkedHashMap<String, List<T>> drain() {
+        LinkedHashMap<String, List<T>> all = new LinkedHashMap<>();
+        for (Map.Entry<String, Batch<T>> entry : pending.entrySet()) {
+            all.put(entry.getKey(), done(entry.getValue()));
+        }
+        pending.clear();
+        return all;
+    }
+
+    private List<T> take(String jobId) {
+        return done(pending.remove(jobId));
+    }
+
+    private List<T> done(Batch<T> batch) {
+        queued -= batch.items.size();
+        batches++;
+        items += batch.items.size();
+        return batch.items;
+    }
+
+    //Responses waiting to be handled
+    public int getQueued() {
+        return queued;
+    }
+
+    //Metric value: batches handed back since the last call, the responses in them and how many were full
+    public Map<String, Object> getValueAndReset() {
+        Map<String, Object> value = new HashMap<>();
+        value.put("batches", batches);
+        value.put("responses", items);
+        value.put("full", full);
+        value.put("queued", queued);
+        batches = 0;
+        items = 0;
+        full = 0;
+        return value;
+    }
+}
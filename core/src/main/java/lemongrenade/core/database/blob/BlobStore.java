@@ -0,0 +1,28 @@
+package lemongrenade.core.database.blob;
+
+import java.io.IOException;
+
+/**
+ * Stores message bodies too large to send through RabbitMQ (see ClaimCheck). Blobs are grouped by job so they can be
+ * dropped when the job is deleted or expires.
+ */
+public interface BlobStore {
+
+    /**
+     * @param jobId String for job ID the blob belongs to
+     * @param data bytes to store
+     * @return reference to pass to get()
+     * @throws IOException if the blob couldn't be written
+     */
+    String put(String jobId, byte[] data) throws IOException;
+
+    /**
+     * @param ref reference returned by put()
+     * @return stored bytes
+     * @throws IOException if the blob doesn't exist or couldn't be read
+     */
+    byte[] get(String ref) throws IOException;
+
+    //Deletes every blob stored for the job
+    void deleteJob(String jobId);
+}
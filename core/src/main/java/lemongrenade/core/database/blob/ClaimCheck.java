@@ -0,0 +1,86 @@
+package lemongrenade.core.database.blob;
+
+import lemongrenade.core.models.LGWireFormat;
+import lemongrenade.core.util.LGProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+
+/**
+ * Claim-check for oversized messages. Bodies of at least 'claim.check.threshold' bytes are written to the BlobStore
+ * selected by 'blob.store' (file or gridfs) and replaced by a small claim message holding the blob reference.
+ * LGWireFormat.decodePayload rehydrates claims transparently, so schemes and retry handling never see them.
+ *
+ * Blobs are kept until the job is deleted or expires, since a claim may be redelivered or retried several times.
+ */
+public class ClaimCheck {
+    private static final Logger log = LoggerFactory.getLogger(ClaimCheck.class);
+    private static final int THRESHOLD = LGProperties.getInteger("claim.check.threshold", 0); //0 disables
+    private static BlobStore STORE;
+
+    public static synchronized BlobStore getStore() {
+        if(STORE == null) {
+            String type = LGProperties.get("blob.store", "file");
+            if(type.equalsIgnoreCase("gridfs")) {
+                STORE = new GridFSBlobStore();
+            }
+            else {
+                STORE = new FileBlobStore(LGProperties.get("blob.store.path", "/opt/lemongrenade/blobs"));
+            }
+        }
+        return STORE;
+    }
+
+    //Override the configured store, e.g. for testing
+    public static synchronized void setStore(BlobStore store) {
+        STORE = store;
+    }
+
+    /**
+     * Spills a message body to the blob store if it is at least the configured threshold.
+     * @param jobId String for job ID the message belongs to
+     * @param data serialized message
+     * @return claim message, or data unchanged if it is small enough to send as is
+     */
+    public static byte[] spill(String jobId, byte[] data) {
+        return spill(jobId, data, THRESHOLD);
+    }
+
+    public static byte[] spill(String jobId, byte[] data, int threshold) {
+        if(threshold <= 0 || data.length < threshold || jobId == null) {
+            return data;
+        }
+        try {
+            String ref = getStore().put(jobId, data);
+            return LGWireFormat.encodeClaim(jobId, ref, data.length);
+        }
+        catch(IOException e) {
+            log.warn("Unable to spill " + data.length + " byte payload for job:" + jobId + ". Sending it whole.", e);
+            return data;
+        }
+    }
+
+    /**
+     * @param data message body
+     * @return the stored message if data is a claim, otherwise data
+     * @throws IllegalStateException if the blob can't be read
+     */
+    public static byte[] resolve(byte[] data) {
+        if(!LGWireFormat.isClaim(data)) {
+            return data;
+        }
+        String ref = LGWireFormat.decodeClaim(data);
+        try {
+            return getStore().get(ref);
+        }
+        catch(IOException e) {
+            throw new IllegalStateException("Unable to resolve claim-check blob:" + ref, e);
+        }
+    }
+
+    //Deletes every blob held for a job. Called when jobs are deleted or expired.
+    public static void deleteJob(String jobId) {
+        getStore().deleteJob(jobId);
+    }
+}
@@ -0,0 +1,74 @@
+package lemongrenade.core.database.blob;
+
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.UUID;
+
+/**
+ * BlobStore on a filesystem shared by every worker (e.g. an NFS mount). Blobs are stored as {root}/{jobId}/{uuid}.
+ */
+public class FileBlobStore implements BlobStore {
+    private static final Logger log = LoggerFactory.getLogger(FileBlobStore.class);
+    private final File root;
+
+    public FileBlobStore(String root) {
+        this.root = new File(root);
+    }
+
+    @Override
+    public String put(String jobId, byte[] data) throws IOException {
+        String ref = checkName(jobId) + "/" + UUID.randomUUID().toString();
+        File file = new File(root, ref);
+        Files.createDirectories(file.getParentFile().toPath());
+        //Write to a temp file first so readers never see a partial blob
+        Path temp = Files.createTempFile(file.getParentFile().toPath(), ".blob", ".tmp");
+        try {
+            Files.write(temp, data);
+            Files.move(temp, file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        }
+        finally {
+            Files.deleteIfExists(temp);
+        }
+        return ref;
+    }
+
+    @Override
+    public byte[] get(String ref) throws IOException {
+        int slash = ref.indexOf('/');
+        if(slash < 0) {
+            throw new IOException("Invalid blob reference:" + ref);
+        }
+        File file = new File(new File(root, checkName(ref.substring(0, slash))), checkName(ref.substring(slash + 1)));
+        return Files.readAllBytes(file.toPath());
+    }
+
+    @Override
+    public void deleteJob(String jobId) {
+        File dir = new File(root, checkName(jobId));
+        if(!dir.exists()) {
+            return;
+        }
+        try {
+            FileUtils.deleteDirectory(dir);
+            log.info("Deleted blobs for job:" + jobId);
+        }
+        catch(IOException e) {
+            log.error("Unable to delete blobs for job:" + jobId + " Error:" + e.getMessage());
+        }
+    }
+
+    //Keeps references from escaping the root directory
+    private static String checkName(String name) {
+        if(name == null || name.isEmpty() || name.contains("/") || name.contains("\\") || name.startsWith(".")) {
+            throw new IllegalArgumentException("Invalid blob path element:" + name);
+        }
+        return name;
+    }
+}
@@ -0,0 +1,73 @@
+package lemongrenade.core.database.blob;
+
+import com.mongodb.client.gridfs.GridFSBucket;
+import com.mongodb.client.gridfs.GridFSBuckets;
+import com.mongodb.client.gridfs.model.GridFSFile;
+import com.mongodb.client.gridfs.model.GridFSUploadOptions;
+import lemongrenade.core.database.mongo.MongoDBStore;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static com.mongodb.client.model.Filters.eq;
+
+/**
+ * BlobStore in the 'blobs' GridFS bucket of the lemongrenade mongo database. Useful when workers don't share a
+ * filesystem.
+ */
+public class GridFSBlobStore implements BlobStore {
+    private static final Logger log = LoggerFactory.getLogger(GridFSBlobStore.class);
+    private static final String BUCKET = "blobs";
+
+    private GridFSBucket bucket() {
+        MongoDBStore.open();
+        return GridFSBuckets.create(MongoDBStore.getDatabase(), BUCKET);
+    }
+
+    @Override
+    public String put(String jobId, byte[] data) throws IOException {
+        try {
+            GridFSUploadOptions options = new GridFSUploadOptions().metadata(new Document("jobId", jobId));
+            ObjectId id = bucket().uploadFromStream(jobId, new ByteArrayInputStream(data), options);
+            return id.toHexString();
+        }
+        catch(Exception e) {
+            throw new IOException("Unable to store blob for job:" + jobId, e);
+        }
+    }
+
+    @Override
+    public byte[] get(String ref) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            bucket().downloadToStream(new ObjectId(ref), out);
+            return out.toByteArray();
+        }
+        catch(Exception e) {
+            throw new IOException("Unable to read blob:" + ref, e);
+        }
+    }
+
+    @Override
+    public void deleteJob(String jobId) {
+        try {
+            GridFSBucket bucket = bucket();
+            int count = 0;
+            for(GridFSFile file : bucket.find(eq("metadata.jobId", jobId))) {
+                bucket.delete(file.getObjectId());
+                count++;
+            }
+            if(count > 0) {
+                log.info("Deleted " + count + " blobs for job:" + jobId);
+            }
+        }
+        catch(Exception e) {
+            log.error("Unable to delete blobs for job:" + jobId + " Error:" + e.getMessage());
+        }
+    }
+}
@@ -14,6 +14,8 @@ import org.apache.http.impl.client.DefaultHttpClient;
 import org.eclipse.jetty.client.HttpClient;
 import org.eclipse.jetty.client.api.ContentResponse;
 import org.eclipse.jetty.client.api.Request;
+import org.eclipse.jetty.client.api.Result;
+import org.eclipse.jetty.client.util.BufferingResponseListener;
 import org.eclipse.jetty.client.util.StringContentProvider;
 import org.eclipse.jetty.http.HttpMethod;
 import org.json.JSONArray;
@@ -27,6 +29,8 @@ import java.net.URLEncoder;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Handles communication layer to LemonGraph
@@ -53,6 +57,10 @@ public class LemonGraph {
     private final static int RETRY_SLEEP_TIME  = 5000;
     public static String restUrl = LGProperties.get("lemongraph_url");
     public static HttpClient client;
+    //Largest LemonGraph response the asynchronous calls buffer
+    private final static int MAX_ASYNC_RESPONSE_BYTES = LGProperties.getInteger("lemongraph.async.max.response.mb", 256) * 1024 * 1024;
+    //How long a post or asynchronous query may take before it fails, 0 waits as long as it takes
+    private final static int REQUEST_TIMEOUT_MS = LGProperties.getInteger("lemongraph.timeout.ms", 60000);
 
     static {
         if (!restUrl.endsWith("/")) {
@@ -164,38 +172,11 @@ public class LemonGraph {
      */
     public static JSONObject queryBasedOnPatterns(String jobId, HashMap<String, String> adapterPatterns, int startId) {
         JSONObject ret = new JSONObject();
-        StringBuilder params = new StringBuilder();
-        adapterPatterns.forEach((adapterId, adapterQuery) -> {
-            try {
-                String encodedAdapterPattern = URLEncoder.encode(adapterQuery, "UTF-8");
-                if (params.length() == 0) {
-                    params.append("q=");
-                } else {
-                    params.append("&q=");
-                }
-                params.append(encodedAdapterPattern);
-            } catch (UnsupportedEncodingException e) {
-                // TODO: throw exception?
-                log.error("Unable to URL Encode exception: " + e.getMessage());
-            }
-        });
-
-        String url = restUrl + "graph/" + jobId + "?" + params.toString() + "&start=" + startId;
+        String url = queryUrl(jobId, adapterPatterns, startId);
         try {
             openConnection();
             RequestResult result = Requests.get(url);
-            int status = result.status_code;
-            if ((status == 400) || (status == 404)) {
-                log.error("Received error code communicating to lemongraph ("+status+")");
-                return ret;
-            }
-            try {
-                String fixJson = "{ \"data\":"+ result.response_msg + "}";
-                ret = new JSONObject(fixJson);
-            }
-            catch (JSONException e) {
-                log.error("Caught JSON parse exception: "+e.getMessage());
-            }
+            ret = parseQueryResponse(result.status_code, result.response_msg);
         }
         catch (Exception e) {
             log.error("Exception trying to communicate to lemongraph: "+e.getMessage());
@@ -215,38 +196,11 @@ public class LemonGraph {
      */
     public static JSONObject queryBasedOnPatterns(String jobId, HashMap<String, String> adapterPatterns, int startId, int stopId) {
         JSONObject ret = new JSONObject();
-        StringBuilder params = new StringBuilder();
-        adapterPatterns.forEach((adapterId,adapterQuery) -> {
-            try {
-                String encodedAdapterPattern = URLEncoder.encode(adapterQuery, "UTF-8");
-                if (params.length() == 0) {
-                    params.append("q=");
-                } else {
-                    params.append("&q=");
-                }
-                params.append(encodedAdapterPattern);
-            } catch (UnsupportedEncodingException e) {
-                // TODO: throw exception?
-                log.error("Unable to URL Encode exception: " + e.getMessage());
-            }
-        });
-
-        String url = restUrl + "graph/" + jobId + "?" + params.toString() + "&start=" + startId + "&stop=" + stopId;
+        String url = queryUrl(jobId, adapterPatterns, startId) + "&stop=" + stopId;
         try {
             openConnection();
             RequestResult result = Requests.get(url);
-            int status = result.status_code;
-            if ((status == 400) || (status == 404)) {
-                log.error("Received error code communicating to lemongraph ("+status+")");
-                return ret;
-            }
-            try {
-                String fixJson = "{ \"data\":"+ result.response_msg + "}";
-                ret = new JSONObject(fixJson);
-            }
-            catch (JSONException e) {
-                log.error("Caught JSON parse exception: "+e.getMessage());
-            }
+            ret = parseQueryResponse(result.status_code, result.response_msg);
         }
         catch (Exception e) {
             log.error("Exception trying to communicate to lemongraph: "+e.getMessage());
@@ -264,22 +218,7 @@ public class LemonGraph {
      */
     public static JSONObject queryBasedOnPatterns(String jobId, HashMap<String, String> adapterPatterns) {
         JSONObject ret = new JSONObject();
-        StringBuilder params = new StringBuilder();
-        adapterPatterns.forEach((adapterId,adapterQuery) -> {
-            try {
-                String encodedAdapterPattern = URLEncoder.encode(adapterQuery, "UTF-8");
-                if (params.length() == 0) {
-                    params.append("q=");
-                } else {
-                    params.append("&q=");
-                }
-                params.append(encodedAdapterPattern);
-            } catch (UnsupportedEncodingException e) {
-                // TODO: throw exception?
-                log.error("Unable to URL Encode exception: " + e.getMessage());
-            }
-        });
-
+        String params = patternParams(adapterPatterns);
         if (params.length() <= 0) {
             log.info("No params for query. jobid:"+jobId);
             String fixJson = "{ \"data\": [] }";
@@ -287,22 +226,11 @@ public class LemonGraph {
             return ret;
         }
 
-        String url = restUrl + "graph/" + jobId + "?" + params.toString();
+        String url = restUrl + "graph/" + jobId + "?" + params;
         try {
             openConnection();
             RequestResult result = Requests.get(url);
-            int status = result.status_code;
-            if ((status == 400) || (status == 404)) {
-                log.error("Received error code communicating to lemongraph ("+status+")");
-                return ret;
-            }
-            try {
-                String fixJson = "{ \"data\":"+ result.response_msg + "}";
-                ret = new JSONObject(fixJson);
-            }
-            catch (JSONException e) {
-                log.error("Caught JSON parse exception: "+e.getMessage());
-            }
+            ret = parseQueryResponse(result.status_code, result.response_msg);
         }
         catch (Exception e) {
             log.error("Exception trying to communicate to lemongraph: "+e.getMessage());
@@ -311,6 +239,50 @@ public class LemonGraph {
         return ret;
     }
 
+    //q= parameter of each pattern, URL encoded
+    private static String patternParams(HashMap<String, String> adapterPatterns) {
+        StringBuilder params = new StringBuilder();
+        adapterPatterns.forEach((adapterId, adapterQuery) -> {
+            try {
+                params.append(params.length() == 0 ? "q=" : "&q=").append(URLEncoder.encode(adapterQuery, "UTF-8"));
+            } catch (UnsupportedEncodingException e) {
+                log.error("Unable to URL Encode exception: " + e.getMessage());
+            }
+        });
+        return params.toString();
+    }
+
+    //Query of the patterns over the graph ids from startId on
+    private static String queryUrl(String jobId, HashMap<String, String> adapterPatterns, int startId) {
+        return restUrl + "graph/" + jobId + "?" + patternParams(adapterPatterns) + "&start=" + startId;
+    }
+
+    //A query result wrapped as {'data': result}, or an empty JSONObject if LemonGraph returned an error
+    private static JSONObject parseQueryResponse(int status, String content) {
+        if ((status == 400) || (status == 404)) {
+            log.error("Received error code communicating to lemongraph ("+status+")");
+            return new JSONObject();
+        }
+        try {
+            return new JSONObject("{ \"data\":"+ content + "}");
+        }
+        catch (JSONException e) {
+            log.error("Caught JSON parse exception: "+e.getMessage());
+            return new JSONObject();
+        }
+    }
+
+    //Applies the request timeout, the request fails once it has passed
+    private static Request withTimeout(Request req) {
+        return REQUEST_TIMEOUT_MS > 0 ? req.timeout(REQUEST_TIMEOUT_MS, TimeUnit.MILLISECONDS) : req;
+    }
+
+    //Post of graph content, for postToGraph and postToGraphAsync
+    private static Request newPostRequest(String graphId, JSONObject content) {
+        Request req = client.POST(restUrl + "graph/" + graphId);
+        req.content(new StringContentProvider(content.toString()), "application/json");
+        return withTimeout(req);
+    }
 
     /**
      * This method takes results back from LemonGraph and builds a hashmap that is easy to process and send
@@ -523,11 +495,7 @@ public class LemonGraph {
         ContentResponse res = null;
         try {
             openConnection();
-            String url = restUrl + "graph/" + graphId;
-            Request req = client.POST(url);
-            JSONObject graphContent  = graph.get();
-            req.content(new StringContentProvider(graphContent.toString()), "application/json");
-            res = req.send();
+            res = newPostRequest(graphId, graph.get()).send();
             lgr.parseContentResponse(res);   // TODO: check responseCode to be 204?
         }
         catch (Exception e) {
@@ -549,6 +517,94 @@ public class LemonGraph {
         return postToGraph(payload.getJobId(), lgo);
     }
 
+    /**
+     * Adds the response nodes/edges of several payloads for the same graph into LEMONGRAPH with one post.
+     * @param graphId String for graph ID
+     * @param payloads LGPayloads for the graph
+     * @return Returns a LemonGraphResponse for the combined post
+     */
+    public static LemonGraphResponse postToGraph(String graphId, List<LGPayload> payloads) throws InvalidGraphException {
+        return postToGraph(graphId, buildLemonGraphFromPayloads(payloads));
+    }
+
+    /**
+     * postToGraph for several payloads without waiting for LemonGraph. The future completes on a client thread. The
+     * client isn't opened here, so the caller's thread never waits for it; open it with openConnection() first.
+     * @param graphId String for graph ID
+     * @param payloads LGPayloads for the graph
+     * @return future LemonGraphResponse, completed unsuccessful rather than exceptionally if the post fails or times out
+     */
+    public static CompletableFuture<LemonGraphResponse> postToGraphAsync(String graphId, List<LGPayload> payloads) {
+        LemonGraphObject lgo = buildLemonGraphFromPayloads(payloads);
+        CompletableFuture<LemonGraphResponse> future = new CompletableFuture<>();
+        try {
+            if (!isConnected()) {
+                throw new IllegalStateException("LemonGraph client isn't open");
+            }
+            newPostRequest(graphId, lgo.get()).send(new BufferingResponseListener(MAX_ASYNC_RESPONSE_BYTES) {
+                @Override
+                public void onComplete(Result result) {
+                    LemonGraphResponse lgr = new LemonGraphResponse();
+                    if (result.isFailed()) {
+                        log.error("Error trying to postToGraph "+result.getFailure().getMessage());
+                        lgr.setSuccess(false);
+                    }
+                    else {
+                        lgr.parseResponse(result.getResponse().getStatus(), result.getResponse().getHeaders(),
+                                getContentAsString());
+                    }
+                    future.complete(lgr);
+                }
+            });
+        }
+        catch (Exception e) {
+            log.error("Error trying to postToGraph "+e.getMessage());
+            LemonGraphResponse lgr = new LemonGraphResponse();
+            lgr.setSuccess(false);
+            future.complete(lgr);
+        }
+        return future;
+    }
+
+    /**
+     * queryBasedOnPatterns(jobId, adapterPatterns, startId) without waiting for LemonGraph. The future completes on a
+     * client thread, with an empty JSONObject wherever the synchronous call returns one or when the query times out. The
+     * client isn't opened here, open it with openConnection() first.
+     * @param jobId    - job/graph to parse
+     * @param adapterPatterns  Mash map of "pattern","adapter" to send to LemonGraph
+     * @param startId  - this is the starting id (usually currentGraphId)
+     * @return future JSONObject of items
+     */
+    public static CompletableFuture<JSONObject> queryBasedOnPatternsAsync(String jobId, HashMap<String, String> adapterPatterns, int startId) {
+        String url = queryUrl(jobId, adapterPatterns, startId);
+        CompletableFuture<JSONObject> future = new CompletableFuture<>();
+        try {
+            if (!isConnected()) {
+                throw new IllegalStateException("LemonGraph client isn't open");
+            }
+            withTimeout(client.newRequest(url).method(HttpMethod.GET)).send(new BufferingResponseListener(MAX_ASYNC_RESPONSE_BYTES) {
+                @Override
+                public void onComplete(Result result) {
+                    JSONObject ret = new JSONObject();
+                    if (result.isFailed()) {
+                        log.error("Exception trying to communicate to lemongraph: "+result.getFailure().getMessage());
+                        log.info("LEMONGRAPH Query Url:" + url);
+                    }
+                    else {
+                        ret = parseQueryResponse(result.getResponse().getStatus(), getContentAsString());
+                    }
+                    future.complete(ret);
+                }
+            });
+        }
+        catch (Exception e) {
+            log.error("Exception trying to communicate to lemongraph: "+e.getMessage());
+            log.info("LEMONGRAPH Query Url:" + url);
+            future.complete(new JSONObject());
+        }
+        return future;
+    }
+
     public static String getContent(String uri) throws InvalidGraphException {
             DefaultHttpClient client = new DefaultHttpClient();
             HttpGet httpGet = new HttpGet(uri);
@@ -647,6 +703,25 @@ public class LemonGraph {
         return (new LemonGraphObject(false, meta, newNodes, null, newChains));
     }
 
+    /**
+     * Build one Lemongraph object from the response nodes and edges of several payloads
+     * @param payloads LGPayloads for the same graph
+     * @return LemonGraphObject, a seed if any of the payloads is a command
+     */
+    public static LemonGraphObject buildLemonGraphFromPayloads(List<LGPayload> payloads) {
+        List<JSONObject> nodes = new ArrayList<>();
+        List<JSONArray> edges = new ArrayList<>();
+        boolean seed = false;
+        for (LGPayload payload : payloads) {
+            nodes.addAll(payload.getResponseNodes());
+            edges.addAll(payload.getResponseEdges());
+            seed |= payload.getPayloadType().equals(LGConstants.LG_PAYLOAD_TYPE_COMMAND);
+        }
+        LemonGraphObject lgo = buildLemonGraphFromPayloadNodesandEdges(nodes, edges);
+        if (seed) {lgo.setSeed(true);}
+        return lgo;
+    }
+
     /**
      * @param args Unused. Standard main args.
      */
@@ -74,15 +74,25 @@ public class LemonGraphResponse {
      * @param res ContentResponse
      */
     public void parseContentResponse(ContentResponse res) {
+        parseResponse(res.getStatus(), res.getHeaders(), res.getContentAsString());
+    }
+
+    /**
+     * Parse out information from a LemonGraph response read asynchronously
+     * @param status HTTP status
+     * @param headers HttpFields of headers
+     * @param body response content
+     */
+    public void parseResponse(int status, HttpFields headers, String body) {
         JSONObject ret = new JSONObject();
         try {
-            ret = new JSONObject(res.getContentAsString());
+            ret = new JSONObject(body);
         }
         catch (Exception e) {}
-        parseHeadersAndSetVariables(res.getHeaders());
+        parseHeadersAndSetVariables(headers);
         parseJobId(ret);
         setContent(ret);
-        setResponseCode(res.getStatus());
+        setResponseCode(status);
         setSuccess(true);
     }
 
@@ -8,4 +8,5 @@ import java.util.List;
 public interface LGAdapterDAO extends DAO<LGAdapterModel, ObjectId> {
     LGAdapterModel getById(String id);
     List<LGAdapterModel> getAll();
+    void incrementTaskCount(String id, int count);
 }
\ No newline at end of file
@@ -27,4 +27,10 @@ public class LGAdapterDAOImpl extends BasicDAO<LGAdapterModel, ObjectId>
     public List<LGAdapterModel> getAll() {
         return getDatastore().createQuery(LGAdapterModel.class).asList();
     }
+
+    //Adds to the task count in place, without reading the adapter first
+    public void incrementTaskCount(String id, int count) {
+        Query<LGAdapterModel> query = createQuery().field("_id").equal(id);
+        getDatastore().update(query, getDatastore().createUpdateOperations(LGAdapterModel.class).inc("taskCount", count));
+    }
 }
\ No newline at end of file
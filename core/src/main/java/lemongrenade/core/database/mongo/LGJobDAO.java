@@ -20,6 +20,8 @@ public interface LGJobDAO extends DAO<LGJob, ObjectId> {
     List<LGJob> getAllActive();
     void deleteTaskFromJob(LGJob jobIn, LGTask task);
     List<LGJob> getAllProcessing();
+    List<LGJob> getAllProcessingWithoutTasks();
+    LGJob getByJobIdWithoutTasks(String jobId);
     List<LGJob> getAllNew();
     List<LGJob> getAllError();
     HashMap<String, LGJob> getByJobIds(JSONArray jobIds);
@@ -28,6 +28,12 @@ implements LGJobDAO
         return job;
     }
 
+    //The job without its taskMap, which isn't read (nor are its tasks)
+    public LGJob getByJobIdWithoutTasks(String jobId) {
+        Query<LGJob> query = createQuery().field("_id").equal(jobId).retrievedFields(false, "taskMap");
+        return query.get();
+    }
+
     public HashMap<String, LGJob> getByJobIds(JSONArray jobIds) {
         Query<LGJob> query = createQuery().field("_id").hasAnyOf(jobIds);
         HashMap<String, LGJob> jobs = new HashMap<>();
@@ -164,6 +170,12 @@ implements LGJobDAO
         return q.asList();
     }
 
+    public List<LGJob> getAllProcessingWithoutTasks() {
+        Query<LGJob> q = getDatastore().createQuery(LGJob.class).retrievedFields(false, "taskMap");
+        q.field("status").equal(LGJob.STATUS_PROCESSING);
+        return q.asList();
+    }
+
     public List<LGJob> getAllNew() {
         Query<LGJob> q = getDatastore().createQuery(LGJob.class);
         q.field("status").equal(LGJob.STATUS_NEW);
@@ -4,10 +4,16 @@ import lemongrenade.core.models.LGTask;
 import org.bson.types.ObjectId;
 import org.mongodb.morphia.dao.DAO;
 
+import java.util.List;
+
 public interface LGTaskDAO extends DAO<LGTask, ObjectId> {
     public LGTask getByTaskId(String taskId);
     public void saveTask(LGTask lgTask);
+    public List<LGTask> insertTasks(List<LGTask> tasks);
     void update(String id, String var, boolean value);
     void update(String id, String var, long value);
     void update(String taskId, String var, String value);
+    boolean transition(String taskId, int from, int to);
+    LGTask claim(String taskId, String jobId, String owner, long now, long leaseMs);
+    void unclaim(String taskId, String owner);
 }
\ No newline at end of file
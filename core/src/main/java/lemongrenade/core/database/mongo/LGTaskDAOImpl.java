@@ -1,12 +1,22 @@
 package lemongrenade.core.database.mongo;
 
 import lemongrenade.core.models.LGTask;
+import com.mongodb.BulkWriteError;
+import com.mongodb.BulkWriteException;
+import com.mongodb.BulkWriteOperation;
 import org.bson.types.ObjectId;
 import org.mongodb.morphia.Datastore;
+import org.mongodb.morphia.FindAndModifyOptions;
 import org.mongodb.morphia.dao.BasicDAO;
+import org.mongodb.morphia.mapping.Mapper;
 import org.mongodb.morphia.query.Query;
 import org.mongodb.morphia.query.UpdateOperations;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
 public class LGTaskDAOImpl extends BasicDAO<LGTask, ObjectId>
 implements LGTaskDAO {
     public LGTaskDAOImpl(Class<LGTask> entityClass, Datastore ds) {
@@ -43,9 +53,86 @@ implements LGTaskDAO {
         getDatastore().update(query, ops);
     }
 
+    //Sets the status to 'to' only if it is still 'from'. Returns true if this call made the change.
+    public boolean transition(String taskId, int from, int to) {
+        Query<LGTask> query = createQuery().field("_id").equal(taskId).field("status").equal(from);
+        UpdateOperations<LGTask> ops = getDatastore().createUpdateOperations(LGTask.class)
+                .set("status", to).set("endTime", System.currentTimeMillis());
+        return getDatastore().update(query, ops).getUpdatedCount() == 1;
+    }
+
+    //Leases a PROCESSING task of job 'jobId' to 'owner' without changing its status. Succeeds if the task is unclaimed,
+    //already claimed by 'owner' or its lease is older than 'leaseMs'. Returns the claimed task, or null if nothing matched.
+    public LGTask claim(String taskId, String jobId, String owner, long now, long leaseMs) {
+        Query<LGTask> query = createQuery().field("_id").equal(taskId).field("jobId").equal(jobId)
+                .field("status").equal(LGTask.TASK_STATUS_PROCESSING);
+        query.or(query.criteria("claimedBy").doesNotExist(),
+                query.criteria("claimedBy").equal(owner),
+                query.criteria("claimedAt").lessThan(now - leaseMs));
+        UpdateOperations<LGTask> ops = getDatastore().createUpdateOperations(LGTask.class)
+                .set("claimedBy", owner).set("claimedAt", now);
+        return getDatastore().findAndModify(query, ops, new FindAndModifyOptions().returnNew(true).upsert(false));
+    }
+
+    //Ends owner's lease on a task that is still PROCESSING, so another copy of its response can claim it right away
+    public void unclaim(String taskId, String owner) {
+        Query<LGTask> query = createQuery().field("_id").equal(taskId).field("claimedBy").equal(owner)
+                .field("status").equal(LGTask.TASK_STATUS_PROCESSING);
+        UpdateOperations<LGTask> ops = getDatastore().createUpdateOperations(LGTask.class)
+                .unset("claimedBy").unset("claimedAt");
+        getDatastore().update(query, ops);
+    }
+
+    //PROCESSING tasks parked by a coordinator executor whose key starts with 'prefix'
+    public List<LGTask> getParked(String prefix) {
+        Query<LGTask> query = createQuery().field("parkedBy").startsWith(prefix)
+                .field("status").equal(LGTask.TASK_STATUS_PROCESSING);
+        return query.asList();
+    }
+
+    //Clears the parked marker of tasks that have been sent, with one update
+    public void unpark(List<String> taskIds) {
+        if (taskIds.isEmpty()) {
+            return;
+        }
+        Query<LGTask> query = createQuery().field("_id").in(taskIds);
+        UpdateOperations<LGTask> ops = getDatastore().createUpdateOperations(LGTask.class).unset("parkedBy");
+        getDatastore().update(query, ops);
+    }
+
     public void saveTask(LGTask lgTask) {
         getDatastore().save(lgTask);
     }
+
+    //Inserts new tasks with one unordered bulk insert. A task that can't be inserted doesn't stop the others.
+    //Returns the tasks that were inserted.
+    public List<LGTask> insertTasks(List<LGTask> tasks) {
+        if (tasks.isEmpty()) {
+            return tasks;
+        }
+        Mapper mapper = new MorphiaService().getMorphia().getMapper();
+        BulkWriteOperation bulk = getCollection().initializeUnorderedBulkOperation();
+        for (LGTask task : tasks) {
+            bulk.insert(mapper.toDBObject(task));
+        }
+        try {
+            bulk.execute();
+            return tasks;
+        }
+        catch (BulkWriteException e) { //errors point at the failed tasks by their index in the batch
+            Set<Integer> failed = new HashSet<>();
+            for (BulkWriteError error : e.getWriteErrors()) {
+                failed.add(error.getIndex());
+            }
+            List<LGTask> inserted = new ArrayList<>(tasks.size() - failed.size());
+            for (int i = 0; i < tasks.size(); i++) {
+                if (!failed.contains(i)) {
+                    inserted.add(tasks.get(i));
+                }
+            }
+            return inserted;
+        }
+    }
     public static void main(final String[] args) {
         String taskId = "9881d398-1ce2-4c7e-8309-1d4e07ff0a26";
         MorphiaService ms = new MorphiaService();
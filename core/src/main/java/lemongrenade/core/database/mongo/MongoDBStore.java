@@ -22,7 +22,9 @@ import org.slf4j.LoggerFactory;
 
 import java.util.*;
 
+import static com.mongodb.client.model.Filters.and;
 import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.exists;
 import static com.mongodb.client.model.Projections.include;
 
 public class MongoDBStore {
@@ -34,6 +36,7 @@ public class MongoDBStore {
     static private MongoCollection<Document> jobs;
     static private MongoCollection<Document> tasks;
     static private MongoCollection<Document> dbValues;
+    static private MongoCollection<Document> jobConfigs;
 
     static {
         open();
@@ -52,6 +55,7 @@ public class MongoDBStore {
             jobs = db.getCollection("jobs");
             tasks = db.getCollection("tasks");
             dbValues = db.getCollection("dbValues");
+            jobConfigs = db.getCollection("jobConfigs");
         }
     }
 
@@ -66,6 +70,7 @@ public class MongoDBStore {
                 jobs = null;
                 tasks = null;
                 dbValues = null;
+                jobConfigs = null;
             }
         }
         catch(Exception e) {
@@ -79,6 +84,22 @@ public class MongoDBStore {
     public static void deleteJob(String jobId) {
         open();
         deleteItem(jobs, "_id", jobId);
+        deleteMany(jobConfigs, "jobId", jobId);
+    }
+
+    //Keeps a version of a job's config under its content hash (see JobConfigCache). Saving it again changes nothing.
+    public static void saveJobConfigVersion(String jobId, String hash, String config) {
+        open();//ensure connection is open
+        jobConfigs.updateOne(eq("_id", jobId + "/" + hash),
+                new Document("$setOnInsert", new Document("jobId", jobId).append("config", config)),
+                new UpdateOptions().upsert(true));
+    }
+
+    //A job config version saved by saveJobConfigVersion, null if there is none
+    public static String getJobConfigVersion(String jobId, String hash) {
+        open();//ensure connection is open
+        Document doc = jobConfigs.find(eq("_id", jobId + "/" + hash)).first();
+        return doc == null ? null : doc.getString("config");
     }
 
     public static void deleteTask(String taskId) {deleteItem(tasks, "_id", taskId);}
@@ -383,6 +404,67 @@ public class MongoDBStore {
         appendToDocument("jobs", jobId, key, update);
     }
 
+    //Raises 'key' of the job to 'value' unless it is already higher. Atomic, so concurrent writers never lower it.
+    public static void maxToJob(String jobId, String key, Object value) {
+        updateDocument("jobs", jobId, new Document("$max", new Document(key, value)));
+    }
+
+    //Adds to the counters under 'field' of a job with one atomic $inc. A job without the field is left alone.
+    public static void incrementJobCounters(String jobId, String field, Map<String, Integer> deltas) {
+        if (deltas.isEmpty()) {
+            return;
+        }
+        open();//ensure connection is open
+        Document inc = new Document();
+        for (Map.Entry<String, Integer> delta : deltas.entrySet()) {
+            inc.put(field + "." + delta.getKey(), delta.getValue());
+        }
+        jobs.updateOne(and(eq("_id", jobId), exists(field)), new Document("$inc", inc));
+    }
+
+    /**
+     * Adds new tasks to a job with one update: $set of 'set' and $inc of the counters under 'field'. A job without the
+     * counters is left without them, it only gets the $set with a second update.
+     */
+    public static void addTasksToJob(String jobId, BasicDBObject set, String field, Map<String, Integer> deltas) {
+        open();//ensure connection is open
+        Document update = new Document("$set", set);
+        if (!deltas.isEmpty()) {
+            Document inc = new Document();
+            for (Map.Entry<String, Integer> delta : deltas.entrySet()) {
+                inc.put(field + "." + delta.getKey(), delta.getValue());
+            }
+            update.append("$inc", inc);
+            if (jobs.updateOne(and(eq("_id", jobId), exists(field)), update).getMatchedCount() > 0) {
+                return;
+            }
+            update.remove("$inc");
+        }
+        jobs.updateOne(eq("_id", jobId), update);
+    }
+
+    //Number of tasks of a job in each status, counted in the tasks collection
+    public static Map<Integer, Integer> countTasksByStatus(String jobId) {
+        open();//ensure connection is open
+        Map<Integer, Integer> counts = new HashMap<>();
+        for (Document group : tasks.aggregate(Arrays.asList(
+                new Document("$match", new Document("jobId", jobId)),
+                new Document("$group", new Document("_id", "$status").append("count", new Document("$sum", 1)))))) {
+            counts.put(((Number) group.get("_id")).intValue(), ((Number) group.get("count")).intValue());
+        }
+        return counts;
+    }
+
+    //ids of every job
+    public static List<String> getJobIds() {
+        open();//ensure connection is open
+        List<String> ids = new ArrayList<>();
+        for (Document doc : jobs.find().projection(include("_id"))) {
+            ids.add(doc.get("_id").toString());
+        }
+        return ids;
+    }
+
     //Updates a job if it exists; else creates a new job with update
     public static void updateJob(String jobId, String key, Object update) throws CodecConfigurationException {
         open();//ensure connection is open
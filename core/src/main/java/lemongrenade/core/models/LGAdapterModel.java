@@ -1,5 +1,6 @@
 package lemongrenade.core.models;
 
+import lemongrenade.core.util.LGProperties;
 import org.json.JSONObject;
 import org.mongodb.morphia.annotations.Embedded;
 import org.mongodb.morphia.annotations.Entity;
@@ -16,6 +17,11 @@ public class LGAdapterModel {
     public final static int  STATUS_DEGRADED = 3; // Up but having problems or running slowly
     public final static int  STATUS_OFFLINE  = 4; // Heartbeat fell below threshold and considered to be offline
 
+    // 'adapter.dispatch'. private: each adapter instance consumes its own queue (getUniqueName()) and the coordinator
+    // picks an instance for every task. shared: every instance of an adapter type consumes one durable queue
+    // (getSharedQueueName()), so a task goes to whichever instance has capacity first.
+    public final static boolean SHARED_DISPATCH = LGProperties.get("adapter.dispatch", "private").equalsIgnoreCase("shared");
+
     @Id
     private String id;          // Requrired UUID format
     @Indexed
@@ -68,6 +74,10 @@ public class LGAdapterModel {
     public String getId() { return id;}
     public String getName() { return name;}
     public String getUniqueName() { return name+"-"+id; }
+    public String getSharedQueueName() { return getSharedQueueName(name); }
+    public static String getSharedQueueName(String adapterName) { return adapterName+"-shared"; }
+    //Queue the coordinator sends this adapter's tasks to
+    public String getQueueName() { return SHARED_DISPATCH ? getSharedQueueName() : getUniqueName(); }
     public String getGraphQuery() { return graphQuery;  }
     public int    getGraphDepth() { return graphDepth;  }
     public int    getMaxNodesPerTask() { return maxNodesPerTask; }
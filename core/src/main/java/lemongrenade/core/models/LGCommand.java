@@ -1,6 +1,5 @@
 package lemongrenade.core.models;
 
-import org.apache.storm.shade.org.apache.commons.lang.SerializationUtils;
 import org.json.JSONArray;
 import org.json.JSONObject;
 import java.io.Serializable;
@@ -43,13 +42,15 @@ public class LGCommand implements Serializable {
 
     public int getCmd()      { return this.cmd; }
     public String getJobId() { return this.jobId;}
+    public int getTtl()      { return this.ttl; }
     public int getPriority() { return this.priority; }
     public void setPriority(int priority) { this.priority = priority; }
     public ArrayList<String> getAdapterList() { return this.adapterList; }
     public LGPayload getSeedPayload() { return this.seedPayload; }
 
+    //Reads both the LGWireFormat binary form and the legacy java serialized form
     public static LGCommand deserialize(byte[] serialized) {
-        return (LGCommand) SerializationUtils.deserialize(serialized);
+        return LGWireFormat.decodeCommand(serialized);
     }
 
     /**
@@ -109,7 +110,7 @@ public class LGCommand implements Serializable {
      * @return Returns this class as byte[]
      */
     public byte[] toByteArray() {
-        return SerializationUtils.serialize(this);
+        return LGWireFormat.encode(this);
     }
 
 }
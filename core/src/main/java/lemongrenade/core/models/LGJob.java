@@ -85,6 +85,9 @@ public class LGJob {
     public final static long HOUR = MINUTE*60;
     public final static long DAY = HOUR*24;
     private final static String DOT_CODE = "%2E";
+    public final static String TASK_COUNTS = "taskCounts";
+    public final static int[] TASK_STATES = {LGTask.TASK_STATUS_PROCESSING, LGTask.TASK_STATUS_COMPLETE,
+            LGTask.TASK_STATUS_FAILED, LGTask.TASK_STATUS_REPLAYED, LGTask.TASK_STATUS_DROPPED};
 
     @Id
     private String jobId;
@@ -107,10 +110,14 @@ public class LGJob {
     private long lastTaskTime;
     private int coordinatorId;
     private String jobConfig;
+    private transient boolean jobConfigModified = false; // jobConfig was changed on this object but not saved to mongo
     private String reason;
     private long expireDate;
     private long resetDate;
     private int graphActivity;  // MAX maxGraphId that we know about for job, which gives us a relative graph size
+    // Number of tasks in each state (LGTask.getStatusString), kept up to date with $inc on every task transition.
+    // null for jobs created before the counters existed; those are counted from taskMap until TaskCountRepair runs.
+    private Map<String, Integer> taskCounts;
     private String lg_type;
 
     public LGJob() {
@@ -136,6 +143,7 @@ public class LGJob {
     public LGJob(String jobId) {
         this();
         this.jobId = jobId;
+        this.taskCounts = newTaskCounts(); //only new jobs, jobs loaded by morphia keep what is stored
     }
 
     public LGJob(String jobId, ArrayList<String> approvedAdapterNameList, JSONObject jobConfig) {
@@ -207,8 +215,12 @@ public class LGJob {
 
     public void setJobConfig(String jobConfig) {
         this.jobConfig = jobConfig;
+        this.jobConfigModified = true;
     }
 
+    public boolean isJobConfigModified() { return this.jobConfigModified; }
+    public void setJobConfigSaved() { this.jobConfigModified = false; }
+
     /**
      * Approved lemongrenade.adapters are lemongrenade.adapters that this job is allowed to run (we give permission
      * to run at create time.) If this list is empty, it's not allowed to run on any lemongrenade.adapters.
@@ -343,7 +355,73 @@ public class LGJob {
 
     public void addTask(LGTask task) {
         lastTaskTime = System.currentTimeMillis();
-        taskMap.put(task.getTaskId(), task);
+        LGTask old = taskMap.put(task.getTaskId(), task);
+        if (old != null) {
+            countTask(old.getStatus(), -1);
+        }
+        countTask(task.getStatus(), 1);
+    }
+
+    //Zero for every state. A map with entries, so morphia stores it and the $inc's have something to add to
+    public static Map<String, Integer> newTaskCounts() {
+        Map<String, Integer> counts = new HashMap<>();
+        for (int state : TASK_STATES) {
+            counts.put(LGTask.getStatusString(state), 0);
+        }
+        return counts;
+    }
+
+    public boolean hasTaskCounts() {
+        return taskCounts != null;
+    }
+
+    public Map<String, Integer> getTaskCounts() {
+        return taskCounts;
+    }
+
+    public void setTaskCounts(Map<String, Integer> taskCounts) {
+        this.taskCounts = taskCounts;
+    }
+
+    //Keeps the counters on this object in step with the stored ones. Does nothing for jobs without counters.
+    public void countTask(int status, int delta) {
+        if (taskCounts != null) {
+            taskCounts.merge(LGTask.getStatusString(status), delta, Integer::sum);
+        }
+    }
+
+    /**
+     * @param status LGTask status
+     * @return number of tasks in the given state
+     */
+    @Transient
+    public int getTaskCount(int status) {
+        if (taskCounts != null) {
+            Integer count = taskCounts.get(LGTask.getStatusString(status));
+            return count == null ? 0 : count;
+        }
+        if (taskMap == null) {
+            return 0;
+        }
+        int count = 0;
+        for(Map.Entry<String,LGTask> entry : taskMap.entrySet()) {
+            if (entry.getValue().getStatus() == status) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @param mongoJob job document as JSON
+     * @param status LGTask status
+     * @return number of tasks in the given state from the job's counters, null if the job has none
+     */
+    public static Integer getTaskCount(JSONObject mongoJob, int status) {
+        if (mongoJob == null || !mongoJob.has(TASK_COUNTS)) {
+            return null;
+        }
+        return mongoJob.getJSONObject(TASK_COUNTS).optInt(LGTask.getStatusString(status), 0);
     }
 
     /**
@@ -376,17 +454,7 @@ public class LGJob {
      */
     @Transient
     public int getActiveTaskCount() {
-        if (taskMap == null) {
-            return 0;
-        }
-        int activeCount = 0;
-        for(Map.Entry<String,LGTask> entry : taskMap.entrySet()) {
-            LGTask t = entry.getValue();
-            if (t.getStatus() == LGTask.TASK_STATUS_PROCESSING) {
-                activeCount++;
-            }
-        }
-        return activeCount;
+        return getTaskCount(LGTask.TASK_STATUS_PROCESSING);
     }
 
     public static int getActiveTaskCount(JSONObject tasks) {
@@ -412,7 +480,9 @@ public class LGJob {
         }
         if(taskMap.keySet().contains(taskId)) { //the given taskId is present
             LGTask task = taskMap.get(taskId);
+            countTask(task.getStatus(), -1);
             task.setStatus(status);
+            countTask(status, 1);
         }
     }
 
@@ -422,8 +492,26 @@ public class LGJob {
         }
         String taskId = task.getTaskId();
         if(taskMap.keySet().contains(taskId)) { //the given taskId is present
-            taskMap.put(taskId, task);
+            LGTask old = taskMap.put(taskId, task);
+            countTask(old.getStatus(), -1);
+            countTask(task.getStatus(), 1);
+        }
+    }
+
+    /**
+     * Keeps this object in step with a task moved from one status to another in mongo. Jobs loaded without their
+     * taskMap only hold the tasks added through them, the counters are moved either way.
+     * @param taskId String for task ID
+     * @param from LGTask status the task had
+     * @param to LGTask status the task has now
+     */
+    public void moveTask(String taskId, int from, int to) {
+        LGTask task = taskMap == null ? null : taskMap.get(taskId);
+        if (task != null) {
+            task.setStatus(to);
         }
+        countTask(from, -1);
+        countTask(to, 1);
     }
 
     /** Returns the number of tasks that are active, which is "status:FAILED".
@@ -432,17 +520,7 @@ public class LGJob {
      */
     @Transient
     public int getFailedTaskCount() {
-        if (taskMap == null) {
-            return 0;
-        }
-        int failed = 0;
-        for(Map.Entry<String,LGTask> entry : taskMap.entrySet()) {
-            LGTask t = entry.getValue();
-            if (t.getStatus() == LGTask.TASK_STATUS_FAILED) {
-                failed++;
-            }
-        }
-        return failed;
+        return getTaskCount(LGTask.TASK_STATUS_FAILED);
     }
 
     @Transient
@@ -470,7 +548,7 @@ public class LGJob {
     @Transient
     public void delTask(String taskId) {
         if (taskMap.containsKey(taskId)) {
-            taskMap.remove(taskId);
+            countTask(taskMap.remove(taskId).getStatus(), -1);
         }
     }
 
@@ -17,6 +17,8 @@ public class LGJobHistory {
     private int numberOfNewTasksGenerated;
     private String message;
     private String taskId;
+    private String batchId; //set when the task's response was posted to the graph together with others
+    private int batchSize;
 
     public LGJobHistory() {
     }
@@ -60,6 +62,12 @@ public class LGJobHistory {
     public void setGraphChanges(int graphChanges) { this.graphChanges = graphChanges; }
     public int getGraphMaxId() { return this.graphMaxId; }
     public void setGraphMaxId(int graphMaxId) { this.graphMaxId = graphMaxId; }
+    public String getBatchId() { return this.batchId; }
+    public int getBatchSize() { return this.batchSize; }
+    public void setBatch(String batchId, int batchSize) {
+        this.batchId = batchId;
+        this.batchSize = batchSize;
+    }
     public int getNumberOfNewTasksGenerated() { return this.numberOfNewTasksGenerated; }
     public void setNumberOfNewTasksGenerated(int numberOfNewTasksGenerated) {
         this.numberOfNewTasksGenerated = numberOfNewTasksGenerated;
@@ -96,6 +104,10 @@ public class LGJobHistory {
         jo.put("numberOfNewTasksGenerated", this.numberOfNewTasksGenerated);
         jo.put("message", this.message);
         jo.put("taskId", this.taskId);
+        if (this.batchId != null) {
+            jo.put("batchId", this.batchId);
+            jo.put("batchSize", this.batchSize);
+        }
         return jo;
     }
 }
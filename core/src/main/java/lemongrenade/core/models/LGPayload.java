@@ -1,7 +1,8 @@
 package lemongrenade.core.models;
 
+import lemongrenade.core.coordinator.JobConfigCache;
+import lemongrenade.core.util.JSONUtils;
 import lemongrenade.core.util.LGConstants;
-import org.apache.storm.shade.org.apache.commons.lang.SerializationUtils;
 import org.json.JSONArray;
 import org.json.JSONObject;
 import org.slf4j.Logger;
@@ -18,18 +19,60 @@ public class LGPayload implements Serializable {
     private String taskId;
     private JSONObject requests;
     private JSONObject responses;
+    //Request/response nodes and edges as received off the wire. Only decoded when first accessed, and written
+    //back out byte for byte by LGWireFormat if nothing ever touched them.
+    private transient LGWireFormat.Section rawRequests;
+    private transient LGWireFormat.Section rawResponses;
     private JSONObject jobConfig; //Settings for this entire job, including lemongrenade.adapters to limit the run to.
+    private String jobConfigHash; //Content hash of jobConfig. See JobConfigCache
+    private boolean jobConfigByReference = false; //Only jobConfigHash goes on the wire, receivers resolve it
     private String payloadType;
     private static final Logger log = LoggerFactory.getLogger(LGPayload.class);
 
     public JSONObject getRequests() {
-        return requests;
+        return requests();
     }
 
     public JSONObject getResponses() {
+        return responses();
+    }
+
+    private JSONObject requests() {
+        if(rawRequests != null) {
+            requests = rawRequests.decode();
+            rawRequests = null;
+        }
+        return requests;
+    }
+
+    private JSONObject responses() {
+        if(rawResponses != null) {
+            responses = rawResponses.decode();
+            rawResponses = null;
+        }
         return responses;
     }
 
+    //Used by LGWireFormat to hand over undecoded request/response sections
+    void setRawSections(LGWireFormat.Section rawRequests, LGWireFormat.Section rawResponses) {
+        this.rawRequests = rawRequests;
+        this.rawResponses = rawResponses;
+        this.requests = null;
+        this.responses = null;
+    }
+
+    LGWireFormat.Section getRawRequests() { return rawRequests; }
+    LGWireFormat.Section getRawResponses() { return rawResponses; }
+
+    //Counts are available without decoding the nodes
+    public int getRequestNodeCount() {
+        return rawRequests != null ? rawRequests.getNodeCount() : requests.getJSONArray("nodes").length();
+    }
+
+    public int getResponseNodeCount() {
+        return rawResponses != null ? rawResponses.getNodeCount() : responses.getJSONArray("nodes").length();
+    }
+
     public static JSONObject empty_nodes_edges() { //returns default response/request object
         JSONObject response =  new JSONObject().put("nodes", new JSONArray()).put("edges", new JSONArray());
         return response;
@@ -70,19 +113,20 @@ public class LGPayload implements Serializable {
         this.setJobConfig(jobConfig);
     }
 
+    //Reads both the LGWireFormat binary form and the legacy java serialized form
     public static LGPayload deserialize(byte[] serialized) {
-        return (LGPayload) SerializationUtils.deserialize(serialized);
+        return LGWireFormat.decodePayload(serialized);
     }
 
     public List<JSONObject> getRequestNodes() {
         List<JSONObject> obj = new ArrayList<>();
-        this.requests.getJSONArray("nodes").forEach(element -> obj.add((JSONObject) element));
+        requests().getJSONArray("nodes").forEach(element -> obj.add((JSONObject) element));
         return obj;
     }
 
     public List<JSONArray> getRequestEdges() {
         List<JSONArray> obj = new ArrayList<>();
-        this.requests.getJSONArray("edges").forEach(element -> obj.add((JSONArray) element));
+        requests().getJSONArray("edges").forEach(element -> obj.add((JSONArray) element));
         return obj;
     }
 
@@ -96,17 +140,17 @@ public class LGPayload implements Serializable {
 
     public List<JSONObject> getResponseNodes(){
         List<JSONObject> obj = new ArrayList<>();
-        this.responses.getJSONArray("nodes").forEach(element -> obj.add((JSONObject) element));
+        responses().getJSONArray("nodes").forEach(element -> obj.add((JSONObject) element));
         return obj;
     }
 
     public void updateResponseNodes (int index, JSONObject node) {
-        this.responses.getJSONArray("nodes").put(index, node);
+        responses().getJSONArray("nodes").put(index, node);
     }
 
     public List<JSONArray> getResponseEdges(){
         List<JSONArray> obj = new ArrayList<>();
-        this.responses.getJSONArray("edges").forEach(element -> obj.add((JSONArray) element));
+        responses().getJSONArray("edges").forEach(element -> obj.add((JSONArray) element));
         return obj;
     }
 
@@ -124,11 +168,11 @@ public class LGPayload implements Serializable {
     }
 
     public void addRequestNode(JSONObject node){
-        this.requests.getJSONArray("nodes").put(newJSONObject(node));
+        requests().getJSONArray("nodes").put(newJSONObject(node));
     }
 
     public void addRequestEdge(JSONObject sourceNode, JSONObject edge, JSONObject targetNode){
-        this.requests.getJSONArray("edges")
+        requests().getJSONArray("edges")
                 .put(new JSONArray()
                         .put(newJSONObject(sourceNode))
                         .put(newJSONObject(edge))
@@ -137,12 +181,12 @@ public class LGPayload implements Serializable {
     }
 
     public void addResponseNode(JSONObject node){
-        this.responses.getJSONArray("nodes")
+        responses().getJSONArray("nodes")
                 .put(newJSONObject(node));
     }
 
     public void addResponseEdge(JSONObject sourceMetadata, JSONObject edgeMetadata, JSONObject targetMetadata){
-        this.responses.getJSONArray("edges")
+        responses().getJSONArray("edges")
                 .put(new JSONArray()
                         .put(newJSONObject(sourceMetadata))
                         .put(newJSONObject(edgeMetadata))
@@ -154,8 +198,11 @@ public class LGPayload implements Serializable {
     // and we need a way to update it
     public void setJobId(String jobId) {
         this.jobId = jobId;
-        if (jobConfig.has("job_id")) {
-            jobConfig.put("job_id",jobId);
+        JSONObject config = getJobConfig();
+        if (config != null && config.has("job_id") && !jobId.equals(config.opt("job_id"))) {
+            JSONObject copy = JSONUtils.copy(config); //config is read-only, change a copy
+            copy.put("job_id",jobId);
+            setJobConfig(copy);
         }
     }
 
@@ -289,9 +336,9 @@ public class LGPayload implements Serializable {
         java.io.UTFDataFormatException. */
         out.writeUTF(this.jobId);
         out.writeUTF(this.taskId);
-        writeNodesAndEdges(out, this.requests);
-        writeNodesAndEdges(out, this.responses);
-        writeAny(out, this.jobConfig);
+        writeNodesAndEdges(out, requests());
+        writeNodesAndEdges(out, responses());
+        writeAny(out, getJobConfig());
         out.writeUTF(this.payloadType);
     }
 
@@ -300,12 +347,12 @@ public class LGPayload implements Serializable {
         this.taskId= in.readUTF();
         this.requests = readNodesAndEdges(in);
         this.responses = readNodesAndEdges(in);
-        this.jobConfig = readJSONObject(in);
+        setJobConfig(readJSONObject(in));
         this.payloadType = in.readUTF();
     }
 
     public byte[] toByteArray() {
-        return SerializationUtils.serialize(this);
+        return LGWireFormat.encode(this);
     }
 
     // ----- JSON CONVERSION METHODS -----
@@ -324,9 +371,9 @@ public class LGPayload implements Serializable {
         return new JSONObject()
                 .put("job_id", this.jobId)
                 .put("task_id", this.taskId)
-                .put("requests", this.requests)
-                .put("responses", this.responses)
-                .put("job_config", this.jobConfig)
+                .put("requests", requests())
+                .put("responses", responses())
+                .put("job_config", getJobConfig())
                 .put("payloadtype", this.payloadType)
                 .toString();
     }
@@ -385,11 +432,54 @@ public class LGPayload implements Serializable {
         test2.getRequestNodes().forEach(request -> System.out.println(request.toString()));
     }
 
+    /**
+     * Sets an inline job config. The payload keeps a read-only copy so its hash only has to be computed once.
+     * @param job_config JSONObject, later changes to it are not seen by the payload
+     */
     public void setJobConfig(JSONObject job_config) {
-         this.jobConfig = job_config;
+        this.jobConfig = job_config == null ? null : JSONUtils.readOnly(job_config);
+        this.jobConfigHash = null;
+        this.jobConfigByReference = false;
+    }
+
+    /**
+     * Attaches a job config that the receiver can look up by hash, so only the hash is sent over the wire.
+     * @param hash content hash from JobConfigCache
+     * @param job_config read-only job config matching the hash
+     */
+    public void setJobConfigByReference(String hash, JSONObject job_config) {
+        this.jobConfig = job_config;
+        this.jobConfigHash = hash;
+        this.jobConfigByReference = true;
+    }
+
+    //Used by LGWireFormat when a payload arrives with only the hash. The config is resolved on first use.
+    void setJobConfigReference(String hash) {
+        this.jobConfig = null;
+        this.jobConfigHash = hash;
+        this.jobConfigByReference = true;
     }
 
+    public boolean isJobConfigByReference() { return this.jobConfigByReference; }
+
+    //Returns the content hash of the job config, computing it if the payload didn't come with one
+    public String getJobConfigHash() {
+        if (jobConfigHash != null) {
+            return jobConfigHash;
+        }
+        JSONObject config = getJobConfig();
+        if (config == null) {
+            return null;
+        }
+        jobConfigHash = JobConfigCache.hash(config); //config is read-only, safe to keep
+        return jobConfigHash;
+    }
+
+    //Payloads sent by reference resolve their config through JobConfigCache. Those configs are read-only.
     public JSONObject getJobConfig() {
+        if (this.jobConfig == null && this.jobConfigHash != null) {
+            this.jobConfig = JobConfigCache.get(this.jobId, this.jobConfigHash);
+        }
         return this.jobConfig;
     }
 }
@@ -1,11 +1,15 @@
 package lemongrenade.core.models;
 
+import org.json.JSONArray;
 import org.json.JSONObject;
 import org.mongodb.morphia.annotations.Entity;
 import org.mongodb.morphia.annotations.Id;
 import org.mongodb.morphia.annotations.Indexed;
 
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.UUID;
 
 /**
@@ -25,6 +29,7 @@ public class LGTask  {
     @Indexed
     private String jobId;
     private String parentTaskId;
+    private List<String> parentTaskIds; // every parent when responses posted together made this task, parentTaskId is the last
     private String adapterId;
     private String adapterName;
     private long startTime;
@@ -34,6 +39,10 @@ public class LGTask  {
     private int currentGraphId;
     private int maxGraphId;
     private int nodePageIndex;  // which page of nodes was sent in this task. See coordinator for info
+    @Indexed
+    private String parkedBy;    // coordinator executor holding the task back, see DispatchBackpressure. Unset once sent
+    private String claimedBy;   // coordinator executor processing the task's response, see CompletionFilter
+    private long claimedAt;     // when claimedBy took its lease
     public LGTask() {
     }
 
@@ -74,6 +83,24 @@ public class LGTask  {
     public void setTaskId(String id) { taskId= id; }
     public String getParentTaskId() { return parentTaskId;}
     public void setParentTaskId(String id) { this.parentTaskId = id; }
+
+    /** @return ids of the tasks whose responses made this task, empty for a seed or retry */
+    public List<String> getParentTaskIds() {
+        if (parentTaskIds != null) {
+            return parentTaskIds;
+        }
+        return parentTaskId == null || parentTaskId.isEmpty() ? Collections.emptyList()
+                : Collections.singletonList(parentTaskId);
+    }
+
+    /**
+     * Sets the tasks whose responses, posted to the graph together, made this task. parentTaskId is set to the last.
+     * @param ids parent task ids, empty for none
+     */
+    public void setParentTaskIds(List<String> ids) {
+        this.parentTaskIds = ids.size() > 1 ? new ArrayList<>(ids) : null;
+        this.parentTaskId = ids.isEmpty() ? "" : ids.get(ids.size() - 1);
+    }
     public String getJobId() { return this.jobId; }
     public void setJobId(String jobId) { this.jobId = jobId;}
     public String getAdapterId() { return adapterId;}
@@ -91,6 +118,10 @@ public class LGTask  {
     public void setCurrentGraphId(int currentGraphId) { this.currentGraphId = currentGraphId; }
     public int  getMaxGraphId() { return this.maxGraphId; }
     public int  getNodePageIndex()   { return this.nodePageIndex; }
+    public String getParkedBy() { return this.parkedBy; }
+    public void setParkedBy(String parkedBy) { this.parkedBy = parkedBy; }
+    public String getClaimedBy() { return this.claimedBy; }
+    public long getClaimedAt() { return this.claimedAt; }
 
     /** */
     public String toString() {
@@ -116,6 +147,7 @@ public class LGTask  {
         return new JSONObject()
                 .put("task_id", this.taskId)
                 .put("parent_task_id", this.parentTaskId)
+                .put("parent_task_ids", new JSONArray(getParentTaskIds()))
                 .put("job_id",this.jobId)
                 .put("adapter_id",this.getAdapterId())
                 .put("adapter_name",this.getAdapterName())
@@ -130,6 +162,11 @@ public class LGTask  {
 
     /** */
     public String getStatusString() {
+        return getStatusString(status);
+    }
+
+    /** */
+    public static String getStatusString(int status) {
         switch (status) {
             case TASK_STATUS_COMPLETE:   return "complete";
             case TASK_STATUS_FAILED:     return "failed";
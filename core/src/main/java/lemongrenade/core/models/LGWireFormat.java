@@ -0,0 +1,653 @@
+package lemongrenade.core.models;
+
+import lemongrenade.core.database.blob.ClaimCheck;
+import lemongrenade.core.util.LGProperties;
+import org.apache.storm.shade.org.apache.commons.lang.SerializationUtils;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Binary wire format for LGPayload and LGCommand messages sent over RabbitMQ.
+ *
+ * Layout:
+ *   header   : 'L' 'G' version kind
+ *   strings  : varint count, then count * (varint length, UTF-8 bytes)
+ *   body     : kind specific fields. Every string (JSON keys and values included) is written as a
+ *              varint index into the string table, so repeated keys like "type"/"value" cost 1-2 bytes.
+ *
+ * Nodes and edges are written as length-prefixed records so a reader can skip over them without decoding.
+ * Decoded payloads keep their request/response sections as undecoded Sections until something asks for the
+ * nodes. A payload that is re-encoded without its nodes being touched copies those sections out verbatim; the
+ * writer is seeded with the original string table so the copied indexes stay valid.
+ *
+ * Version 2 adds a job config mode after the sections: 0 is followed by the config value, 1 by the config's
+ * content hash only, which the receiver resolves through JobConfigCache. Version 1 always carries the config.
+ *
+ * Readers accept every version up to WIRE_VERSION as well as the legacy java serialized form (0xACED header),
+ * so workers on the old and new format can share queues. Set 'wire.format=java' to keep writing the legacy
+ * format until every worker in a cluster has been upgraded, and 'wire.version' to hold writers at an older version.
+ */
+public final class LGWireFormat {
+    public final static byte MAGIC_0 = 'L';
+    public final static byte MAGIC_1 = 'G';
+    public final static byte WIRE_VERSION = 2;
+    public final static byte KIND_PAYLOAD = 1;
+    public final static byte KIND_COMMAND = 2;
+    public final static byte KIND_JSON    = 3;
+    public final static byte KIND_CLAIM   = 4;
+    public final static int  HEADER_LENGTH = 4;
+
+    private final static boolean WRITE_LEGACY = LGProperties.get("wire.format", "binary").equalsIgnoreCase("java");
+    private final static byte WRITE_VERSION = (byte) Math.max(1, Math.min(WIRE_VERSION,
+            LGProperties.getInteger("wire.version", WIRE_VERSION)));
+
+    // Job config modes (version 2+)
+    private final static int CONFIG_INLINE    = 0;
+    private final static int CONFIG_REFERENCE = 1;
+
+    // Value tags
+    private final static int T_NULL   = 0;
+    private final static int T_TRUE   = 1;
+    private final static int T_FALSE  = 2;
+    private final static int T_LONG   = 3;
+    private final static int T_DOUBLE = 4;
+    private final static int T_STRING = 5;
+    private final static int T_OBJECT = 6;
+    private final static int T_ARRAY  = 7;
+    private final static int T_BIGDEC = 8;
+    private final static int T_BIGINT = 9;
+
+    private LGWireFormat() {}
+
+    /** @return true if the bytes start with the legacy java serialization stream header */
+    public static boolean isLegacy(byte[] data) {
+        return data.length >= 2 && (data[0] & 0xFF) == 0xAC && (data[1] & 0xFF) == 0xED;
+    }
+
+    /** @return true if the bytes start with the LG binary header */
+    public static boolean isBinary(byte[] data) {
+        return data.length >= HEADER_LENGTH && data[0] == MAGIC_0 && data[1] == MAGIC_1;
+    }
+
+    //Claims stand in for payloads spilled to a BlobStore, see ClaimCheck
+    public static boolean isClaim(byte[] data) {
+        return isBinary(data) && data[3] == KIND_CLAIM;
+    }
+
+    // ----- PUBLIC ENCODE / DECODE -----
+    public static byte[] encode(LGPayload payload) {
+        if(WRITE_LEGACY) {
+            return SerializationUtils.serialize(payload);
+        }
+        Writer w = new Writer(sourceTable(payload));
+        writePayload(w, payload);
+        return w.toByteArray(KIND_PAYLOAD);
+    }
+
+    public static byte[] encode(LGCommand command) {
+        if(WRITE_LEGACY) {
+            return SerializationUtils.serialize(command);
+        }
+        Writer w = new Writer(command.getSeedPayload() == null ? null : sourceTable(command.getSeedPayload()));
+        writeCommand(w, command);
+        return w.toByteArray(KIND_COMMAND);
+    }
+
+    public static LGPayload decodePayload(byte[] data) {
+        if(isLegacy(data)) {
+            return (LGPayload) SerializationUtils.deserialize(data);
+        }
+        if(isClaim(data)) {
+            data = ClaimCheck.resolve(data);
+        }
+        Reader r = new Reader(data, 0, data.length, KIND_PAYLOAD);
+        return readPayload(r);
+    }
+
+    public static LGCommand decodeCommand(byte[] data) {
+        if(isLegacy(data)) {
+            return (LGCommand) SerializationUtils.deserialize(data);
+        }
+        Reader r = new Reader(data, 0, data.length, KIND_COMMAND);
+        return readCommand(r);
+    }
+
+    //Encodes a single JSONObject/JSONArray, e.g. a job config
+    public static byte[] encodeJson(Object value) {
+        Writer w = new Writer();
+        w.writeValue(value);
+        return w.toByteArray(KIND_JSON);
+    }
+
+    public static Object decodeJson(byte[] data) {
+        Reader r = new Reader(data, 0, data.length, KIND_JSON);
+        return r.readValue();
+    }
+
+    public static byte[] encodeClaim(String jobId, String ref, int length) {
+        Writer w = new Writer();
+        w.writeString(jobId);
+        w.writeString(ref);
+        w.writeVarLong(length);
+        return w.toByteArray(KIND_CLAIM);
+    }
+
+    //Returns the blob reference held by a claim
+    public static String decodeClaim(byte[] data) {
+        Reader r = new Reader(data, 0, data.length, KIND_CLAIM);
+        r.readString(); //jobId
+        return r.readString();
+    }
+
+    //Storm hands schemes a ByteBuffer that may not be backed by an exact-sized array
+    public static byte[] toBytes(ByteBuffer buffer) {
+        if(buffer.hasArray() && buffer.arrayOffset() == 0 && buffer.position() == 0
+                && buffer.remaining() == buffer.array().length) {
+            return buffer.array();
+        }
+        byte[] data = new byte[buffer.remaining()];
+        buffer.duplicate().get(data);
+        return data;
+    }
+
+    //String table of the message the payload was decoded from, if any of its sections are still undecoded
+    private static String[] sourceTable(LGPayload payload) {
+        if(payload.getRawRequests() != null) {
+            return payload.getRawRequests().strings;
+        }
+        if(payload.getRawResponses() != null) {
+            return payload.getRawResponses().strings;
+        }
+        return null;
+    }
+
+    // ----- PAYLOAD / COMMAND BODIES -----
+    private static void writePayload(Writer w, LGPayload payload) {
+        w.writeString(payload.getJobId());
+        w.writeString(payload.getTaskId());
+        w.writeString(payload.getPayloadType());
+        Section rawRequests = payload.getRawRequests();
+        if(rawRequests != null && rawRequests.strings == w.seed) {
+            w.writeSection(rawRequests);
+        }
+        else {
+            writeNodesAndEdges(w, payload.getRequests());
+        }
+        Section rawResponses = payload.getRawResponses();
+        if(rawResponses != null && rawResponses.strings == w.seed) {
+            w.writeSection(rawResponses);
+        }
+        else {
+            writeNodesAndEdges(w, payload.getResponses());
+        }
+        if(w.version < 2) {
+            w.writeValue(payload.getJobConfig());
+        }
+        else if(payload.isJobConfigByReference()) {
+            w.out.write(CONFIG_REFERENCE);
+            w.writeString(payload.getJobConfigHash());
+        }
+        else {
+            w.out.write(CONFIG_INLINE);
+            w.writeValue(payload.getJobConfig());
+        }
+    }
+
+    private static LGPayload readPayload(Reader r) {
+        String jobId = r.readString();
+        String taskId = r.readString();
+        String payloadType = r.readString();
+        Section requests = r.skipSection();
+        Section responses = r.skipSection();
+        int configMode = r.version < 2 ? CONFIG_INLINE : r.readByte();
+        LGPayload payload;
+        if(configMode == CONFIG_REFERENCE) {
+            payload = new LGPayload(jobId, taskId, null);
+            payload.setJobConfigReference(r.readString());
+        }
+        else if(configMode == CONFIG_INLINE) {
+            Object jobConfig = r.readValue();
+            payload = new LGPayload(jobId, taskId,
+                    jobConfig instanceof JSONObject ? (JSONObject) jobConfig : new JSONObject());
+        }
+        else {
+            throw new IllegalArgumentException("Unknown LG wire job config mode " + configMode + ".");
+        }
+        payload.setRawSections(requests, responses);
+        payload.setPayloadType(payloadType);
+        return payload;
+    }
+
+    private static void writeCommand(Writer w, LGCommand command) {
+        w.writeVarLong(command.getCmd());
+        w.writeString(command.getJobId());
+        w.writeVarLong(command.getTtl());
+        w.writeVarLong(command.getPriority());
+        List<String> adapters = command.getAdapterList();
+        if(adapters == null) {
+            w.writeVarInt(0);
+        }
+        else {
+            w.writeVarInt(adapters.size() + 1);
+            for(String adapter : adapters) {
+                w.writeString(adapter);
+            }
+        }
+        LGPayload seed = command.getSeedPayload();
+        w.out.write(seed == null ? 0 : 1);
+        if(seed != null) {
+            writePayload(w, seed);
+        }
+    }
+
+    private static LGCommand readCommand(Reader r) {
+        int cmd = (int) r.readVarLong();
+        String jobId = r.readString();
+        int ttl = (int) r.readVarLong();
+        int priority = (int) r.readVarLong();
+        ArrayList<String> adapters = null;
+        int count = r.readVarInt();
+        if(count > 0) {
+            adapters = new ArrayList<>(count - 1);
+            for(int i = 1; i < count; i++) {
+                adapters.add(r.readString());
+            }
+        }
+        LGPayload seed = null;
+        if(r.readByte() == 1) {
+            seed = readPayload(r);
+        }
+        return new LGCommand(cmd, jobId, ttl, priority, adapters, seed);
+    }
+
+    //nodes: count, then each node as a length-prefixed record. edges: count, then 3 length-prefixed records each.
+    private static void writeNodesAndEdges(Writer w, JSONObject nodesAndEdges) {
+        JSONArray nodes = nodesAndEdges != null && nodesAndEdges.has("nodes") ? nodesAndEdges.getJSONArray("nodes") : new JSONArray();
+        JSONArray edges = nodesAndEdges != null && nodesAndEdges.has("edges") ? nodesAndEdges.getJSONArray("edges") : new JSONArray();
+        w.writeVarInt(nodes.length());
+        for(int i = 0; i < nodes.length(); i++) {
+            w.writeRecord(nodes.get(i));
+        }
+        w.writeVarInt(edges.length());
+        for(int i = 0; i < edges.length(); i++) {
+            JSONArray edge = edges.getJSONArray(i);
+            w.writeRecord(edge.get(0));
+            w.writeRecord(edge.get(1));
+            w.writeRecord(edge.get(2));
+        }
+    }
+
+    private static JSONObject readNodesAndEdges(Reader r) {
+        JSONArray nodes = new JSONArray();
+        int nodeCount = r.readVarInt();
+        for(int i = 0; i < nodeCount; i++) {
+            nodes.put(r.readRecord());
+        }
+        JSONArray edges = new JSONArray();
+        int edgeCount = r.readVarInt();
+        for(int i = 0; i < edgeCount; i++) {
+            edges.put(new JSONArray()
+                    .put(r.readRecord())
+                    .put(r.readRecord())
+                    .put(r.readRecord()));
+        }
+        return new JSONObject().put("nodes", nodes).put("edges", edges);
+    }
+
+    /**
+     * An undecoded nodes/edges section of a message along with the string table needed to decode it.
+     */
+    static class Section {
+        final String[] strings;
+        final byte[] data;
+        final int offset;
+        final int length;
+        final int nodeCount;
+
+        Section(String[] strings, byte[] data, int offset, int length, int nodeCount) {
+            this.strings = strings;
+            this.data = data;
+            this.offset = offset;
+            this.length = length;
+            this.nodeCount = nodeCount;
+        }
+
+        int getNodeCount() { return nodeCount; }
+
+        JSONObject decode() {
+            return readNodesAndEdges(new Reader(strings, data, offset, length));
+        }
+    }
+
+    /**
+     * Encodes the message body while building the string table. The table is written ahead of the body once the
+     * body is complete.
+     */
+    static class Writer {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(1024);
+        final HashMap<String, Integer> index = new HashMap<>();
+        final List<String> strings = new ArrayList<>();
+        final String[] seed;
+        final byte version = WRITE_VERSION;
+
+        Writer() {
+            this(null);
+        }
+
+        //Starts the string table with the table of a decoded message so its raw sections can be copied as is
+        Writer(String[] seed) {
+            this.seed = seed;
+            if(seed != null) {
+                for(String s : seed) {
+                    intern(s);
+                }
+            }
+        }
+
+        byte[] toByteArray(byte kind) {
+            ByteArrayOutputStream result = new ByteArrayOutputStream(out.size() + strings.size() * 8 + 16);
+            result.write(MAGIC_0);
+            result.write(MAGIC_1);
+            result.write(version);
+            result.write(kind);
+            writeVarInt(result, strings.size());
+            for(String s : strings) {
+                byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+                writeVarInt(result, bytes.length);
+                result.write(bytes, 0, bytes.length);
+            }
+            byte[] body = out.toByteArray();
+            result.write(body, 0, body.length);
+            return result.toByteArray();
+        }
+
+        int intern(String s) {
+            Integer i = index.get(s);
+            if(i == null) {
+                i = strings.size();
+                strings.add(s);
+                index.put(s, i);
+            }
+            return i;
+        }
+
+        void writeString(String s) {
+            //index 0 is reserved for null
+            writeVarInt(s == null ? 0 : intern(s) + 1);
+        }
+
+        void writeSection(Section section) {
+            out.write(section.data, section.offset, section.length);
+        }
+
+        void writeVarInt(int value) { writeVarInt(out, value); }
+        void writeVarLong(long value) { writeVarLong(out, zigZag(value)); }
+
+        //Writes a value as a length-prefixed record
+        void writeRecord(Object value) {
+            ByteArrayOutputStream parent = out;
+            ByteArrayOutputStream record = new ByteArrayOutputStream(256);
+            out = record;
+            try {
+                writeValue(value);
+            }
+            finally {
+                out = parent;
+            }
+            writeVarInt(record.size());
+            byte[] bytes = record.toByteArray();
+            out.write(bytes, 0, bytes.length);
+        }
+
+        void writeValue(Object value) {
+            if(value == null || value == JSONObject.NULL) {
+                out.write(T_NULL);
+            }
+            else if(value instanceof Boolean) {
+                out.write((Boolean) value ? T_TRUE : T_FALSE);
+            }
+            else if(value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+                out.write(T_LONG);
+                writeVarLong(((Number) value).longValue());
+            }
+            else if(value instanceof Double || value instanceof Float) {
+                out.write(T_DOUBLE);
+                long bits = Double.doubleToLongBits(((Number) value).doubleValue());
+                for(int i = 7; i >= 0; i--) {
+                    out.write((int) (bits >>> (i * 8)));
+                }
+            }
+            else if(value instanceof BigDecimal) {
+                out.write(T_BIGDEC);
+                writeString(value.toString());
+            }
+            else if(value instanceof BigInteger) {
+                out.write(T_BIGINT);
+                writeString(value.toString());
+            }
+            else if(value instanceof JSONObject) {
+                JSONObject obj = (JSONObject) value;
+                out.write(T_OBJECT);
+                writeVarInt(obj.length());
+                Iterator<String> keys = obj.keys();
+                while(keys.hasNext()) {
+                    String key = keys.next();
+                    writeVarInt(intern(key));
+                    writeValue(obj.get(key));
+                }
+            }
+            else if(value instanceof JSONArray) {
+                JSONArray arr = (JSONArray) value;
+                out.write(T_ARRAY);
+                writeVarInt(arr.length());
+                for(int i = 0; i < arr.length(); i++) {
+                    writeValue(arr.get(i));
+                }
+            }
+            else {
+                out.write(T_STRING);
+                writeVarInt(intern(value.toString()));
+            }
+        }
+
+        static void writeVarInt(ByteArrayOutputStream out, int value) {
+            writeVarLong(out, value & 0xFFFFFFFFL);
+        }
+
+        static void writeVarLong(ByteArrayOutputStream out, long value) {
+            while((value & ~0x7FL) != 0) {
+                out.write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            out.write((int) value);
+        }
+
+        static long zigZag(long value) {
+            return (value << 1) ^ (value >> 63);
+        }
+    }
+
+    /**
+     * Reads a message produced by Writer. Validates the header and loads the string table on construction.
+     */
+    static class Reader {
+        final byte[] data;
+        final int end;
+        int pos;
+        final String[] strings;
+        final int version;
+
+        Reader(byte[] data, int offset, int length, byte expectedKind) {
+            this.data = data;
+            this.pos = offset;
+            this.end = offset + length;
+            if(length < HEADER_LENGTH || data[offset] != MAGIC_0 || data[offset + 1] != MAGIC_1) {
+                throw new IllegalArgumentException("Not an LG wire message.");
+            }
+            version = data[offset + 2];
+            if(version < 1 || version > WIRE_VERSION) {
+                throw new IllegalArgumentException("Unsupported LG wire version " + version + ". This worker reads up to " + WIRE_VERSION + ".");
+            }
+            if(data[offset + 3] != expectedKind) {
+                throw new IllegalArgumentException("Unexpected LG wire message kind " + data[offset + 3] + ", expected " + expectedKind + ".");
+            }
+            pos += HEADER_LENGTH;
+            int count = readVarInt();
+            if(count < 0 || count > end - pos) {
+                throw new IllegalArgumentException("Malformed LG wire string table.");
+            }
+            strings = new String[count];
+            for(int i = 0; i < count; i++) {
+                int len = readVarInt();
+                checkAvailable(len);
+                strings[i] = new String(data, pos, len, StandardCharsets.UTF_8);
+                pos += len;
+            }
+        }
+
+        //Reads a section of an already decoded message
+        Reader(String[] strings, byte[] data, int offset, int length) {
+            this.strings = strings;
+            this.data = data;
+            this.pos = offset;
+            this.end = offset + length;
+            this.version = WIRE_VERSION;
+        }
+
+        //Steps over a nodes/edges section without decoding it
+        Section skipSection() {
+            int start = pos;
+            int nodeCount = readVarInt();
+            for(int i = 0; i < nodeCount; i++) {
+                skipRecord();
+            }
+            int edgeCount = readVarInt();
+            for(int i = 0; i < edgeCount * 3; i++) {
+                skipRecord();
+            }
+            return new Section(strings, data, start, pos - start, nodeCount);
+        }
+
+        private void skipRecord() {
+            int length = readVarInt();
+            checkAvailable(length);
+            pos += length;
+        }
+
+        private void checkAvailable(int len) {
+            if(len < 0 || pos + len > end) {
+                throw new IllegalArgumentException("Truncated LG wire message.");
+            }
+        }
+
+        int readByte() {
+            checkAvailable(1);
+            return data[pos++] & 0xFF;
+        }
+
+        int readVarInt() {
+            return (int) readRawVarLong();
+        }
+
+        long readVarLong() {
+            long raw = readRawVarLong();
+            return (raw >>> 1) ^ -(raw & 1);
+        }
+
+        private long readRawVarLong() {
+            long result = 0;
+            int shift = 0;
+            while(shift < 64) {
+                int b = readByte();
+                result |= (long) (b & 0x7F) << shift;
+                if((b & 0x80) == 0) {
+                    return result;
+                }
+                shift += 7;
+            }
+            throw new IllegalArgumentException("Malformed varint in LG wire message.");
+        }
+
+        String readString() {
+            int i = readVarInt();
+            return i == 0 ? null : stringAt(i - 1);
+        }
+
+        private String stringAt(int i) {
+            if(i < 0 || i >= strings.length) {
+                throw new IllegalArgumentException("String index " + i + " out of range in LG wire message.");
+            }
+            return strings[i];
+        }
+
+        Object readRecord() {
+            int length = readVarInt();
+            checkAvailable(length);
+            int stop = pos + length;
+            Object value = readValue();
+            pos = stop;
+            return value;
+        }
+
+        Object readValue() {
+            int tag = readByte();
+            switch(tag) {
+                case T_NULL:
+                    return JSONObject.NULL;
+                case T_TRUE:
+                    return Boolean.TRUE;
+                case T_FALSE:
+                    return Boolean.FALSE;
+                case T_LONG: {
+                    long value = readVarLong();
+                    if(value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) {
+                        return (int) value;
+                    }
+                    return value;
+                }
+                case T_DOUBLE: {
+                    checkAvailable(8);
+                    long bits = 0;
+                    for(int i = 0; i < 8; i++) {
+                        bits = (bits << 8) | (data[pos++] & 0xFF);
+                    }
+                    return Double.longBitsToDouble(bits);
+                }
+                case T_STRING:
+                    return stringAt(readVarInt());
+                case T_BIGDEC:
+                    return new BigDecimal(readString());
+                case T_BIGINT:
+                    return new BigInteger(readString());
+                case T_OBJECT: {
+                    int count = readVarInt();
+                    JSONObject obj = new JSONObject();
+                    for(int i = 0; i < count; i++) {
+                        String key = stringAt(readVarInt());
+                        obj.put(key, readValue());
+                    }
+                    return obj;
+                }
+                case T_ARRAY: {
+                    int count = readVarInt();
+                    JSONArray arr = new JSONArray();
+                    for(int i = 0; i < count; i++) {
+                        arr.put(readValue());
+                    }
+                    return arr;
+                }
+            }
+            throw new IllegalArgumentException("Unknown value tag " + tag + " in LG wire message.");
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package lemongrenade.core.storm;
+
+import java.io.IOException;
+import java.util.BitSet;
+
+/**
+ * Coalesces acks for one channel into multiple=true acks.
+ *
+ * basicAck(tag, true) acks every delivery up to tag, so it can only be sent once every earlier delivery has been
+ * settled (acked or rejected). The tracker keeps a bit per delivery tag from the lowest unsettled tag (the watermark)
+ * up, and sends one multi-ack covering the settled prefix when 'batchSize' acks are pending or 'intervalMs' has
+ * passed since the oldest pending ack. Acks stuck behind an unsettled delivery are sent individually once there are
+ * 'maxBlocked' of them, so a slow tuple can't hold the prefetch window. maxBlocked has to stay well below the
+ * channel's prefetch, otherwise the broker stops delivering before it is reached; forPrefetch() derives it from the
+ * prefetch, and batchSize is capped at it. Call setPrefetch() whenever the channel's qos changes.
+ *
+ * Rejects are sent right away by the caller and only recorded here. Not thread safe; use from the spout thread.
+ */
+public class AckTracker {
+    private static final int REBASE_BITS = 4096;
+
+    public interface Sender {
+        void ack(long deliveryTag, boolean multiple) throws IOException;
+    }
+
+    private final Sender sender;
+    private final int requestedBatchSize;
+    private final long intervalNanos;
+    private int batchSize;
+    private int maxBlocked;
+    private long base = 1; //delivery tag of bit 0. Rabbit delivery tags start at 1 on every channel.
+    private long watermark = 1; //lowest delivery tag that hasn't been settled
+    private BitSet settled = new BitSet();
+    private BitSet unsent = new BitSet(); //acked locally, not yet sent to the broker
+    private int pending = 0;
+    private long oldestPending;
+    private long sent = 0;
+
+    public AckTracker(Sender sender, int batchSize, long intervalMs, int maxBlocked) {
+        this.sender = sender;
+        this.requestedBatchSize = batchSize;
+        this.intervalNanos = intervalMs * 1000000L;
+        setMaxBlocked(maxBlocked);
+    }
+
+    /**
+     * Tracker for a channel with the given prefetch: at most half the prefetch is held back behind an unsettled
+     * delivery, so the broker always has room to keep delivering.
+     * @param prefetch basic.qos of the channel, 0 or less for unlimited
+     */
+    public static AckTracker forPrefetch(Sender sender, int batchSize, long intervalMs, int prefetch) {
+        return new AckTracker(sender, batchSize, intervalMs, maxBlockedFor(prefetch, batchSize));
+    }
+
+    /**
+     * Re-derives the limits from a new prefetch and sends the blocked acks right away if there are now too many, so a
+     * lowered qos doesn't leave the channel waiting behind an unsettled delivery.
+     * @param prefetch basic.qos just set on the channel
+     */
+    public void setPrefetch(int prefetch) throws IOException {
+        setMaxBlocked(maxBlockedFor(prefetch, requestedBatchSize));
+        if(pending >= batchSize) {
+            flush();
+        }
+    }
+
+    private void setMaxBlocked(int maxBlocked) {
+        this.maxBlocked = Math.max(1, maxBlocked);
+        this.batchSize = Math.max(1, Math.min(requestedBatchSize, this.maxBlocked));
+    }
+
+    static int maxBlockedFor(int prefetch, int batchSize) {
+        return prefetch > 0 ? Math.max(1, prefetch / 2) : Math.max(1, batchSize);
+    }
+
+    public void ack(long deliveryTag) throws IOException {
+        if(!settle(deliveryTag)) {
+            return;
+        }
+        unsent.set((int) (deliveryTag - base));
+        if(pending++ == 0) {
+            oldestPending = System.nanoTime();
+        }
+        if(pending >= batchSize) {
+            flush();
+        }
+    }
+
+    //Records a delivery the caller has already rejected on the channel
+    public void rejected(long deliveryTag) {
+        settle(deliveryTag);
+    }
+
+    public void flushIfDue() throws IOException {
+        if(pending > 0 && System.nanoTime() - oldestPending >= intervalNanos) {
+            flush();
+        }
+    }
+
+    //Sends a multi-ack for the settled prefix, and individual acks if too many are blocked behind it
+    public void flush() throws IOException {
+        if(pending == 0) {
+            return;
+        }
+        int last = watermark > base ? unsent.previousSetBit((int) (watermark - 1 - base)) : -1;
+        if(last >= 0) {
+            sender.ack(base + last, true);
+            sent++;
+            pending -= unsent.get(0, last + 1).cardinality();
+            unsent.clear(0, last + 1);
+        }
+        if(pending >= maxBlocked) {
+            for(int i = unsent.nextSetBit(0); i >= 0; i = unsent.nextSetBit(i + 1)) {
+                sender.ack(base + i, false);
+                sent++;
+            }
+            unsent.clear();
+            pending = 0;
+        }
+        oldestPending = System.nanoTime();
+        rebase();
+    }
+
+    public int getMaxBlocked() {
+        return maxBlocked;
+    }
+
+    public int getPending() {
+        return pending;
+    }
+
+    //Number of basicAck calls made
+    public long getSent() {
+        return sent;
+    }
+
+    private boolean settle(long deliveryTag) {
+        if(deliveryTag < watermark) {
+            return false;
+        }
+        int index = (int) (deliveryTag - base);
+        if(settled.get(index)) {
+            return false;
+        }
+        settled.set(index);
+        if(deliveryTag == watermark) {
+            int next = settled.nextClearBit(index);
+            watermark = base + next;
+        }
+        return true;
+    }
+
+    //Drops bits below the watermark once nothing below it is waiting to be sent
+    private void rebase() {
+        int shift = (int) (watermark - base);
+        if(shift < REBASE_BITS || unsent.previousSetBit(shift - 1) >= 0) {
+            return;
+        }
+        settled = settled.get(shift, Math.max(shift, settled.length()));
+        unsent = unsent.get(shift, Math.max(shift, unsent.length()));
+        base = watermark;
+    }
+}
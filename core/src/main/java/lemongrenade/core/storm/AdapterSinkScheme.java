@@ -1,16 +1,31 @@
 package lemongrenade.core.storm;
 
 import org.apache.storm.tuple.Tuple;
-import io.latent.storm.rabbitmq.TupleToMessage;
+import lemongrenade.core.database.blob.ClaimCheck;
 import lemongrenade.core.models.LGPayload;
 import lemongrenade.core.util.LGConstants;
 
-public class AdapterSinkScheme extends TupleToMessage {
+import java.util.HashMap;
+import java.util.Map;
 
+public class AdapterSinkScheme extends EncodingSinkScheme {
+
+    @Override
+    protected byte[] serialize(Tuple tuple) {
+        LGPayload payload = (LGPayload) tuple.getValueByField(LGConstants.LG_PAYLOAD);
+        return ClaimCheck.spill(payload.getJobId(), payload.toByteArray());
+    }
+
+    //Lets a consumer log and retry a failed task without decoding the body (see RetryPolicy)
     @Override
-    protected byte[] extractBody(Tuple tuple) {
+    protected Map<String, Object> headers(Tuple tuple) {
         LGPayload payload = (LGPayload) tuple.getValueByField(LGConstants.LG_PAYLOAD);
-        return payload.toByteArray();
+        Map<String, Object> headers = new HashMap<>();
+        headers.put(RetryPolicy.JOB_ID, payload.getJobId());
+        if (payload.getTaskId() != null) {
+            headers.put(RetryPolicy.TASK_ID, payload.getTaskId());
+        }
+        return headers;
     }
 
     @Override
@@ -1,16 +1,16 @@
 package lemongrenade.core.storm;
 
 import org.apache.storm.tuple.Tuple;
-import io.latent.storm.rabbitmq.TupleToMessage;
+import lemongrenade.core.database.blob.ClaimCheck;
 import lemongrenade.core.models.LGPayload;
 import lemongrenade.core.util.LGConstants;
 
-public class CommandSinkScheme extends TupleToMessage {
+public class CommandSinkScheme extends EncodingSinkScheme {
 
     @Override
-    protected byte[] extractBody(Tuple tuple) {
+    protected byte[] serialize(Tuple tuple) {
         LGPayload payload = (LGPayload) tuple.getValueByField(LGConstants.LG_COMMAND);
-        return payload.toByteArray();
+        return ClaimCheck.spill(payload.getJobId(), payload.toByteArray());
     }
 
     @Override
@@ -0,0 +1,97 @@
+package lemongrenade.core.storm;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishes on one confirm-mode channel that the broker hasn't confirmed yet, keyed by publish sequence number.
+ *
+ * Each publish takes a permit from a semaphore shared by every window of the same ConfirmingPublisher lane, so a
+ * publisher never has more than the configured number of messages in flight. Permits are returned as the broker acks
+ * or nacks (singly or with 'multiple') or when the channel dies and the whole window is failed. Sequence numbers
+ * restart with every channel, which is why a reopened channel gets a fresh window.
+ */
+public class ConfirmWindow {
+    private final ConcurrentNavigableMap<Long, CompletableFuture<Void>> outstanding = new ConcurrentSkipListMap<>();
+    private final Semaphore permits;
+
+    public ConfirmWindow(Semaphore permits) {
+        this.permits = permits;
+    }
+
+    //Blocks until there is room in the window. Returns false if none opened up in time.
+    public boolean acquire(long timeoutMs) throws InterruptedException {
+        return permits.tryAcquire(timeoutMs, TimeUnit.MILLISECONDS);
+    }
+
+    //Gives back a permit taken by acquire() for a message that was never published
+    public void release() {
+        permits.release();
+    }
+
+    public CompletableFuture<Void> register(long seqNo) {
+        CompletableFuture<Void> confirm = new CompletableFuture<>();
+        outstanding.put(seqNo, confirm);
+        return confirm;
+    }
+
+    public int outstanding() {
+        return outstanding.size();
+    }
+
+    //Broker ack. Returns the number of publishes it confirmed.
+    public int confirmed(long seqNo, boolean multiple) {
+        List<CompletableFuture<Void>> done = remove(seqNo, multiple);
+        for (CompletableFuture<Void> confirm : done) {
+            confirm.complete(null);
+        }
+        return done.size();
+    }
+
+    //Broker nack, the messages were not enqueued. Returns the number of publishes it failed.
+    public int rejected(long seqNo, boolean multiple) {
+        List<CompletableFuture<Void>> done = remove(seqNo, multiple);
+        for (CompletableFuture<Void> confirm : done) {
+            confirm.completeExceptionally(new IOException("Broker rejected publish " + seqNo + "."));
+        }
+        return done.size();
+    }
+
+    //Channel closed; nothing outstanding on it will be confirmed.
+    public int failAll(Throwable cause) {
+        List<CompletableFuture<Void>> done = remove(Long.MAX_VALUE, true);
+        for (CompletableFuture<Void> confirm : done) {
+            confirm.completeExceptionally(cause);
+        }
+        return done.size();
+    }
+
+    //Permits are released before any future completes so a callback that publishes again can't deadlock the window
+    private List<CompletableFuture<Void>> remove(long seqNo, boolean multiple) {
+        List<CompletableFuture<Void>> done = new ArrayList<>();
+        if (multiple) {
+            for (Long key : outstanding.headMap(seqNo, true).keySet()) {
+                take(key, done);
+            }
+        }
+        else {
+            take(seqNo, done);
+        }
+        permits.release(done.size());
+        return done;
+    }
+
+    //Only the thread whose remove() succeeds completes the future, failAll() can race a broker ack
+    private void take(Long seqNo, List<CompletableFuture<Void>> done) {
+        CompletableFuture<Void> confirm = outstanding.remove(seqNo);
+        if (confirm != null) {
+            done.add(confirm);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package lemongrenade.core.storm;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Hands broker confirms back to a bolt's executor thread.
+ *
+ * Confirms complete on the rabbit connection's thread, which is shared by every lane and must never wait on storm.
+ * That thread only queues the outcome here. The bolt acks or fails the tuples by calling drain() from execute() and on
+ * ticks, so the output collector is only ever used by the executor.
+ *
+ * @param <T> tuple type, Tuple in the bolts
+ */
+public class ConfirmedTuples<T> {
+    private final ConcurrentLinkedQueue<Outcome<T>> done = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger waiting = new AtomicInteger();
+
+    private static class Outcome<T> {
+        final T tuple;
+        final Throwable error;
+
+        Outcome(T tuple, Throwable error) {
+            this.tuple = tuple;
+            this.error = error;
+        }
+    }
+
+    //Queues the tuple's outcome once the confirm completes. Never acks or fails anything itself.
+    public void track(T tuple, CompletableFuture<?> confirm) {
+        waiting.incrementAndGet();
+        confirm.whenComplete((ignored, error) -> done.add(new Outcome<>(tuple, error)));
+    }
+
+    /**
+     * Acks or fails every tuple whose confirm has completed. Call from the executor thread only.
+     * @param ack called for confirmed tuples
+     * @param fail called with the error for tuples the broker nacked or that were lost with their channel
+     * @return number of tuples handled
+     */
+    public int drain(Consumer<T> ack, BiConsumer<T, Throwable> fail) {
+        int count = 0;
+        Outcome<T> outcome;
+        while ((outcome = done.poll()) != null) {
+            waiting.decrementAndGet();
+            if (outcome.error == null) {
+                ack.accept(outcome.tuple);
+            }
+            else {
+                fail.accept(outcome.tuple, outcome.error);
+            }
+            count++;
+        }
+        return count;
+    }
+
+    //Tuples tracked but not drained yet
+    public int waiting() {
+        return waiting.get();
+    }
+}
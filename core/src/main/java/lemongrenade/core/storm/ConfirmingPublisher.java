@@ -0,0 +1,221 @@
+package lemongrenade.core.storm;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Address;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.ConfirmListener;
+import com.rabbitmq.client.ConnectionFactory;
+import lemongrenade.core.util.LGProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Publishes to RabbitMQ with asynchronous publisher confirms over a small pool of channels.
+ *
+ * publish() returns as soon as the message is written and hands back a future that completes when the broker confirms
+ * it, or fails when the broker nacks it or its channel closes first. Each channel ('rabbit.publish.channels') allows at
+ * most 'rabbit.publish.window' unconfirmed messages; publish() blocks while its channel's window is full, for up to
+ * 'rabbit.publish.timeout.ms'. Channels and the connection are reopened on the next publish after they close.
+ *
+ * The sink bolts each own a publisher. Code that publishes outside a topology (command bolt, SubmitToRabbitMQ,
+ * ExceptionWriter) shares one per JVM through shared(), on the RabbitConnectionManager.shared() connection.
+ */
+public class ConfirmingPublisher {
+    private static final Logger log = LoggerFactory.getLogger(ConfirmingPublisher.class);
+    public static final int CHANNELS = LGProperties.getInteger("rabbit.publish.channels", 2);
+    public static final int WINDOW = LGProperties.getInteger("rabbit.publish.window", 1000);
+    public static final long TIMEOUT_MS = LGProperties.getInteger("rabbit.publish.timeout.ms", 30000);
+    private static ConfirmingPublisher shared = null;
+
+    private final RabbitConnectionManager connections;
+    private final boolean ownsConnections;
+    private final Lane[] lanes;
+    private final AtomicInteger next = new AtomicInteger();
+    private volatile boolean closed = false;
+
+    //Publisher with a connection of its own
+    public ConfirmingPublisher(ConnectionFactory factory, Address[] addresses, int channels, int window) {
+        this(new RabbitConnectionManager(() -> addresses == null || addresses.length == 0
+                        ? factory.newConnection()
+                        : factory.newConnection(addresses),
+                1, LGProperties.getInteger("rabbit.reconnect.backoff.ms", 5000)), true, channels, window);
+    }
+
+    //Publisher on a managed connection. Its channels are its own, they are never returned to the pool.
+    public ConfirmingPublisher(RabbitConnectionManager connections, boolean ownsConnections, int channels, int window) {
+        this.connections = connections;
+        this.ownsConnections = ownsConnections;
+        this.lanes = new Lane[Math.max(1, channels)];
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i] = new Lane(Math.max(1, window));
+        }
+    }
+
+    //Publisher for the rabbit server in the LGProperties, shared by everything in this JVM
+    public static synchronized ConfirmingPublisher shared() {
+        if (shared == null || shared.closed) {
+            shared = new ConfirmingPublisher(RabbitConnectionManager.shared(), false, CHANNELS, WINDOW);
+        }
+        return shared;
+    }
+
+    /**
+     * @return future completed when the broker confirms the message
+     * @throws IOException if the message could not be written, or the window stayed full past the timeout
+     */
+    public CompletableFuture<Void> publish(String exchange, String routingKey, AMQP.BasicProperties props, byte[] body)
+            throws IOException {
+        if (closed) {
+            throw new IOException("Publisher is closed.");
+        }
+        Lane lane = lanes[(next.getAndIncrement() & Integer.MAX_VALUE) % lanes.length];
+        return lane.publish(exchange, routingKey, props, body);
+    }
+
+    //Publishes and waits for the confirm, for callers that must report the outcome of a single send
+    public void publishAndWait(String exchange, String routingKey, AMQP.BasicProperties props, byte[] body)
+            throws IOException {
+        CompletableFuture<Void> confirm = publish(exchange, routingKey, props, body);
+        try {
+            confirm.get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        }
+        catch (ExecutionException e) {
+            throw new IOException("Publish to '" + exchange + "/" + routingKey + "' was not confirmed.", e.getCause());
+        }
+        catch (TimeoutException e) {
+            throw new IOException("Timed out waiting for confirm of publish to '" + exchange + "/" + routingKey + "'.");
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for publish confirm.");
+        }
+    }
+
+    //Declares a durable queue. Messages sent to a missing queue are confirmed but dropped.
+    public void queueDeclare(String queue, Map<String, Object> args) throws IOException {
+        connections.withChannel(ch -> ch.queueDeclare(queue, true, false, false, args));
+    }
+
+    //Messages written but not yet confirmed, across all channels
+    public int outstanding() {
+        int total = 0;
+        for (Lane lane : lanes) {
+            total += lane.outstanding();
+        }
+        return total;
+    }
+
+    //Closes the channels, and the connection if this publisher opened it. Anything still unconfirmed is failed.
+    public void close() {
+        closed = true;
+        for (Lane lane : lanes) {
+            lane.close();
+        }
+        if (ownsConnections) {
+            connections.close();
+        }
+    }
+
+    //One confirm-mode channel and its window. Channel writes and sequence numbers are serialized by the lane lock.
+    private class Lane {
+        private final Semaphore permits;
+        private Channel channel = null;
+        private ConfirmWindow window;
+
+        Lane(int size) {
+            permits = new Semaphore(size);
+            window = new ConfirmWindow(permits);
+        }
+
+        CompletableFuture<Void> publish(String exchange, String routingKey, AMQP.BasicProperties props, byte[] body)
+                throws IOException {
+            try {
+                if (!window.acquire(TIMEOUT_MS)) {
+                    throw new IOException("Publish window stayed full for " + TIMEOUT_MS + "ms.");
+                }
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted waiting for room in the publish window.");
+            }
+            synchronized (this) {
+                ConfirmWindow current;
+                long seqNo;
+                try {
+                    open();
+                    current = window;
+                    seqNo = channel.getNextPublishSeqNo();
+                }
+                catch (IOException | RuntimeException e) {
+                    window.release();
+                    throw e;
+                }
+                CompletableFuture<Void> confirm = current.register(seqNo);
+                try {
+                    channel.basicPublish(exchange, routingKey, props, body);
+                }
+                catch (IOException | RuntimeException e) {
+                    current.rejected(seqNo, false);
+                    throw e;
+                }
+                return confirm;
+            }
+        }
+
+        int outstanding() {
+            return window.outstanding();
+        }
+
+        private void open() throws IOException {
+            if (channel != null && channel.isOpen()) {
+                return;
+            }
+            Channel ch = connections.connection().createChannel();
+            ch.confirmSelect();
+            ConfirmWindow fresh = new ConfirmWindow(permits);
+            ch.addConfirmListener(new ConfirmListener() {
+                @Override
+                public void handleAck(long deliveryTag, boolean multiple) {
+                    fresh.confirmed(deliveryTag, multiple);
+                }
+
+                @Override
+                public void handleNack(long deliveryTag, boolean multiple) {
+                    int count = fresh.rejected(deliveryTag, multiple);
+                    log.warn("Broker nacked " + count + " published message(s).");
+                }
+            });
+            ch.addShutdownListener(cause -> {
+                int count = fresh.failAll(cause);
+                if (count > 0) {
+                    log.warn("Publisher channel closed with " + count + " unconfirmed message(s): " + cause.getMessage());
+                }
+            });
+            window.failAll(new IOException("Publisher channel was replaced."));//normally already empty
+            window = fresh;
+            channel = ch;
+        }
+
+        synchronized void close() {
+            if (channel != null && channel.isOpen()) {
+                try {
+                    channel.close();
+                }
+                catch (Exception e) {
+                    log.info("Publisher channel already closed.");
+                }
+            }
+            channel = null;
+            window.failAll(new IOException("Publisher closed."));
+        }
+    }
+}
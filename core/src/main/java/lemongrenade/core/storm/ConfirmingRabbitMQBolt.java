@@ -0,0 +1,84 @@
+package lemongrenade.core.storm;
+
+import io.latent.storm.rabbitmq.config.ProducerConfig;
+import org.apache.storm.Config;
+import org.apache.storm.Constants;
+import org.apache.storm.task.OutputCollector;
+import org.apache.storm.task.TopologyContext;
+import org.apache.storm.topology.OutputFieldsDeclarer;
+import org.apache.storm.topology.base.BaseRichBolt;
+import org.apache.storm.tuple.Tuple;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+
+/**
+ * Rabbit sink that acks each tuple only once the broker has confirmed its message, and fails it if the broker nacks
+ * it or the channel closes first, so Storm replays anything that never made it into a queue.
+ *
+ * Publishes are pipelined through a ConfirmingPublisher: execute() returns after the write and the ack/fail happens
+ * once the confirm is in, on the next tuple or the next one second tick (see ConfirmedTuples). Takes the same
+ * ProducerConfig component configuration as the stock RabbitMQBolt.
+ */
+public class ConfirmingRabbitMQBolt extends BaseRichBolt {
+    private static final Logger log = LoggerFactory.getLogger(ConfirmingRabbitMQBolt.class);
+    private final EncodingSinkScheme scheme;
+    private transient ConfirmingPublisher publisher;
+    private transient OutputCollector collector;
+    private transient ConfirmedTuples<Tuple> confirmed;
+
+    public ConfirmingRabbitMQBolt(EncodingSinkScheme scheme) {
+        this.scheme = scheme;
+    }
+
+    @Override
+    public void prepare(Map stormConf, TopologyContext context, OutputCollector collector) {
+        this.collector = collector;
+        this.confirmed = new ConfirmedTuples<>();
+        ProducerConfig config = ProducerConfig.getFromStormConfig(stormConf);
+        publisher = new ConfirmingPublisher(config.getConnectionConfig().asConnectionFactory(),
+                config.getConnectionConfig().getHighAvailabilityHosts().toAddresses(),
+                ConfirmingPublisher.CHANNELS, ConfirmingPublisher.WINDOW);
+    }
+
+    //Ticks ack tuples confirmed since the last tuple came in
+    @Override
+    public Map<String, Object> getComponentConfiguration() {
+        Config conf = new Config();
+        conf.put(Config.TOPOLOGY_TICK_TUPLE_FREQ_SECS, 1);
+        return conf;
+    }
+
+    @Override
+    public void execute(Tuple tuple) {
+        confirmed.drain(collector::ack, (done, error) -> {
+            log.warn("Publish not confirmed, failing tuple. " + error.getMessage());
+            collector.fail(done);
+        });
+        if (tuple.getSourceComponent().equals(Constants.SYSTEM_COMPONENT_ID)
+                && tuple.getSourceStreamId().equals(Constants.SYSTEM_TICK_STREAM_ID)) {
+            return;
+        }
+        String exchange = scheme.exchange(tuple);
+        try {
+            confirmed.track(tuple, publisher.publish(exchange, scheme.routingKey(tuple), scheme.properties(tuple), scheme.body(tuple)));
+        }
+        catch (Exception e) {
+            log.error("Unable to publish to " + exchange + ". " + e.getMessage());
+            collector.fail(tuple);
+        }
+    }
+
+    @Override
+    public void cleanup() {
+        if (publisher != null) {
+            publisher.close();
+        }
+    }
+
+    @Override
+    public void declareOutputFields(OutputFieldsDeclarer declarer) {
+        //sink, emits nothing
+    }
+}
@@ -1,17 +1,21 @@
 package lemongrenade.core.storm;
 
 import org.apache.storm.tuple.Tuple;
+import lemongrenade.core.coordinator.CoordinatorShards;
+import lemongrenade.core.models.LGPayload;
 import lemongrenade.core.util.LGConstants;
 
 public class CoordinatorSinkScheme extends AdapterSinkScheme {
 
     @Override
     protected String determineExchangeName(Tuple tuple) {
-        return LGConstants.LEMONGRENADE_COORDINATOR;
+        return CoordinatorShards.exchange(LGConstants.LEMONGRENADE_COORDINATOR);
     }
 
+    //Routed by job id so every response for a job reaches the coordinator shard that owns it
     @Override
     protected String determineRoutingKey(Tuple tuple) {
-        return LGConstants.LEMONGRENADE_COORDINATOR;
+        LGPayload payload = (LGPayload) tuple.getValueByField(LGConstants.LG_PAYLOAD);
+        return CoordinatorShards.routingKey(LGConstants.LEMONGRENADE_COORDINATOR, payload.getJobId());
     }
 }
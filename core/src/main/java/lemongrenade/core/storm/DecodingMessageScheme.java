@@ -0,0 +1,60 @@
+package lemongrenade.core.storm;
+
+import io.latent.storm.rabbitmq.Message;
+import io.latent.storm.rabbitmq.MessageScheme;
+import lemongrenade.core.util.PayloadCodecs;
+import org.apache.storm.spout.Scheme;
+import org.apache.storm.task.TopologyContext;
+import org.apache.storm.tuple.Fields;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Wraps a Scheme so message bodies are decoded according to their AMQP content-encoding before being deserialized.
+ * Messages without a content-encoding are passed through as is.
+ */
+public class DecodingMessageScheme implements MessageScheme {
+    private final Scheme scheme;
+
+    public DecodingMessageScheme(Scheme scheme) {
+        this.scheme = scheme;
+    }
+
+    //MessageSchemes already see the whole message, so they are left to handle the encoding themselves
+    public static MessageScheme from(Scheme scheme) {
+        if (scheme instanceof MessageScheme) {
+            return (MessageScheme) scheme;
+        }
+        return new DecodingMessageScheme(scheme);
+    }
+
+    //Returns the decoded body of a message
+    public static byte[] getBody(Message message) {
+        String encoding = message instanceof Message.DeliveredMessage
+                ? ((Message.DeliveredMessage) message).getContentEncoding() : null;
+        return PayloadCodecs.decode(encoding, message.getBody());
+    }
+
+    @Override
+    public void open(Map config, TopologyContext context) {}
+
+    @Override
+    public void close() {}
+
+    @Override
+    public List<Object> deserialize(Message message) {
+        return scheme.deserialize(ByteBuffer.wrap(getBody(message)));
+    }
+
+    @Override
+    public List<Object> deserialize(ByteBuffer byteBuffer) {
+        return scheme.deserialize(byteBuffer);
+    }
+
+    @Override
+    public Fields getOutputFields() {
+        return scheme.getOutputFields();
+    }
+}
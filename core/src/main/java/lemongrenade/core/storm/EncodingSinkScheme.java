@@ -0,0 +1,66 @@
+package lemongrenade.core.storm;
+
+import com.rabbitmq.client.AMQP;
+import io.latent.storm.rabbitmq.TupleToMessage;
+import lemongrenade.core.util.PayloadCodecs;
+import org.apache.storm.tuple.Tuple;
+
+import java.util.Map;
+
+/**
+ * Base for sink schemes that serialize a tuple into a message body. Bodies over the configured threshold are
+ * compressed (see PayloadCodecs) and the codec is sent as the AMQP content-encoding.
+ *
+ * The public accessors let ConfirmingRabbitMQBolt publish the message itself, the rest of TupleToMessage is kept so
+ * the schemes still work with the stock RabbitMQBolt.
+ */
+public abstract class EncodingSinkScheme extends TupleToMessage {
+    private transient Tuple lastTuple;
+    private transient PayloadCodecs.Encoded lastEncoded;
+
+    //Serializes the tuple into an uncompressed message body
+    protected abstract byte[] serialize(Tuple tuple);
+
+    //Body and encoding are asked for separately, so keep the result for the tuple being sent
+    private PayloadCodecs.Encoded encode(Tuple tuple) {
+        if (tuple != lastTuple) {
+            lastEncoded = PayloadCodecs.encode(serialize(tuple));
+            lastTuple = tuple;
+        }
+        return lastEncoded;
+    }
+
+    @Override
+    protected final byte[] extractBody(Tuple tuple) {
+        return encode(tuple).body;
+    }
+
+    @Override
+    protected String specifyContentEncoding(Tuple tuple) {
+        return encode(tuple).encoding;
+    }
+
+    public String exchange(Tuple tuple) {
+        return determineExchangeName(tuple);
+    }
+
+    public String routingKey(Tuple tuple) {
+        return determineRoutingKey(tuple);
+    }
+
+    public byte[] body(Tuple tuple) {
+        return extractBody(tuple);
+    }
+
+    public AMQP.BasicProperties properties(Tuple tuple) {
+        return new AMQP.BasicProperties.Builder()
+                .contentEncoding(specifyContentEncoding(tuple))
+                .headers(headers(tuple))
+                .build();
+    }
+
+    //AMQP headers to send with the message, null for none
+    protected Map<String, Object> headers(Tuple tuple) {
+        return null;
+    }
+}
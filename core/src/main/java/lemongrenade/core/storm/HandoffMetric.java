@@ -0,0 +1,49 @@
+package lemongrenade.core.storm;
+
+import org.apache.storm.metric.api.IMetric;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reports how full RabbitMQConsumer's delivery buffers are and how long deliveries wait in them before the spout
+ * picks them up, plus how many deliveries (and body bytes) are waiting to be acked and the current total prefetch.
+ * Updated and read on the spout thread only.
+ */
+public class HandoffMetric implements IMetric {
+    private final RabbitMQConsumer consumer;
+    private long count;
+    private long totalNanos;
+    private long maxNanos;
+    private int maxOccupancy;
+
+    public HandoffMetric(RabbitMQConsumer consumer) {
+        this.consumer = consumer;
+    }
+
+    void record(long latencyNanos, int occupancy) {
+        count++;
+        totalNanos += latencyNanos;
+        maxNanos = Math.max(maxNanos, latencyNanos);
+        maxOccupancy = Math.max(maxOccupancy, occupancy);
+    }
+
+    @Override
+    public Object getValueAndReset() {
+        Map<String, Object> value = new HashMap<>();
+        value.put("occupancy", consumer.bufferedCount());
+        value.put("occupancy_max", maxOccupancy);
+        value.put("capacity", consumer.bufferCapacity());
+        value.put("prefetch", consumer.prefetchTotal());
+        value.put("handoffs", count);
+        value.put("latency_mean_us", count == 0 ? 0 : totalNanos / count / 1000);
+        value.put("latency_max_us", maxNanos / 1000);
+        value.put("inflight", consumer.getInFlight().size());
+        value.put("inflight_bytes", consumer.getInFlight().getLiveBytes());
+        count = 0;
+        totalNanos = 0;
+        maxNanos = 0;
+        maxOccupancy = 0;
+        return value;
+    }
+}
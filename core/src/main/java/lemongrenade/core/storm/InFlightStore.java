@@ -0,0 +1,114 @@
+package lemongrenade.core.storm;
+
+import io.latent.storm.rabbitmq.Message;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps what RabbitMQConsumer.fail needs to republish a delivery until it is acked: the routing metadata on heap
+ * and the body in an off-heap arena.
+ *
+ * Bodies are appended to a direct ByteBuffer. Removing an entry only drops its bookkeeping; when the arena fills up,
+ * live bodies are compacted into a new buffer sized for them. Not thread safe; use from the spout thread.
+ */
+public class InFlightStore {
+    private static final int INITIAL_CAPACITY = 1 << 20;
+
+    public static class InFlight {
+        public final String exchange;
+        public final String routingKey;
+        public final String contentType;
+        public final String contentEncoding;
+        public final Map<String, Object> headers;
+        public final long trackedAt; //System.nanoTime() when the spout took the delivery
+        private int offset;
+        private final int length;
+
+        InFlight(Message.DeliveredMessage message, int offset, int length) {
+            this.exchange = message.getExchange();
+            this.routingKey = message.getRoutingKey();
+            this.contentType = message.getContentType();
+            this.contentEncoding = message.getContentEncoding();
+            this.headers = message.getHeaders();
+            this.trackedAt = System.nanoTime();
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    private final HashMap<Long, InFlight> entries = new HashMap<>();
+    private ByteBuffer arena = ByteBuffer.allocateDirect(INITIAL_CAPACITY);
+    private int position = 0;
+    private long liveBytes = 0;
+
+    public void put(long id, Message.DeliveredMessage message) {
+        if(entries.containsKey(id)) {
+            return;
+        }
+        byte[] body = message.getBody();
+        reserve(body.length);
+        ByteBuffer target = arena.duplicate();
+        target.position(position);
+        target.put(body);
+        entries.put(id, new InFlight(message, position, body.length));
+        position += body.length;
+        liveBytes += body.length;
+    }
+
+    public InFlight get(long id) {
+        return entries.get(id);
+    }
+
+    public byte[] getBody(InFlight entry) {
+        byte[] body = new byte[entry.length];
+        ByteBuffer source = arena.duplicate();
+        source.position(entry.offset);
+        source.get(body);
+        return body;
+    }
+
+    public void remove(long id) {
+        InFlight entry = entries.remove(id);
+        if(entry != null) {
+            liveBytes -= entry.length;
+        }
+        if(entries.isEmpty()) {
+            position = 0;
+        }
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long getLiveBytes() {
+        return liveBytes;
+    }
+
+    public int getCapacity() {
+        return arena.capacity();
+    }
+
+    //Makes room for length more bytes, compacting live bodies into a right-sized arena when needed
+    private void reserve(int length) {
+        if(position + length <= arena.capacity()) {
+            return;
+        }
+        long needed = (liveBytes + length) * 2;
+        if(needed > Integer.MAX_VALUE) {
+            throw new IllegalStateException("In-flight messages exceed the maximum arena size.");
+        }
+        int capacity = Math.max(INITIAL_CAPACITY, (int) needed);
+        ByteBuffer compacted = ByteBuffer.allocateDirect(capacity);
+        for(InFlight entry : entries.values()) {
+            ByteBuffer source = arena.duplicate();
+            source.position(entry.offset).limit(entry.offset + entry.length);
+            entry.offset = compacted.position();
+            compacted.put(source);
+        }
+        position = compacted.position();
+        arena = compacted;
+    }
+}
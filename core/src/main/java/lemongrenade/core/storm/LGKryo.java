@@ -0,0 +1,111 @@
+package lemongrenade.core.storm;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import lemongrenade.core.models.LGCommand;
+import lemongrenade.core.models.LGPayload;
+import lemongrenade.core.models.LGWireFormat;
+import lemongrenade.core.util.JSONUtils;
+import lemongrenade.core.util.ReadOnlyJSONArray;
+import lemongrenade.core.util.ReadOnlyJSONObject;
+import org.apache.storm.Config;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Kryo serializers for the objects LemonGrenade passes between storm workers. Without these storm falls back on
+ * java serialization for LGPayload/LGCommand tuples, which is slow and produces large messages.
+ *
+ * All of them write the LGWireFormat bytes, so a payload whose nodes were never touched is passed along
+ * without being decoded.
+ */
+public class LGKryo {
+    private static final Logger log = LoggerFactory.getLogger(LGKryo.class);
+
+    /**
+     * Adds the LemonGrenade serializers to a topology config. Safe to call more than once on the same config.
+     * @param conf topology Config
+     */
+    public static void register(Map conf) {
+        Object current = conf.get(Config.TOPOLOGY_KRYO_REGISTER);
+        List<Object> registrations = new ArrayList<>();
+        if(current instanceof List) {
+            registrations.addAll((List) current);
+        }
+        else if(current != null) {
+            log.warn("Ignoring non-list value for " + Config.TOPOLOGY_KRYO_REGISTER + ": " + current);
+        }
+        add(registrations, LGPayload.class, PayloadSerializer.class);
+        add(registrations, LGCommand.class, CommandSerializer.class);
+        add(registrations, JSONObject.class, JSONSerializer.class);
+        add(registrations, JSONArray.class, JSONSerializer.class);
+        //kryo matches exact classes, so the shared read-only job configs need their own entries
+        add(registrations, ReadOnlyJSONObject.class, ReadOnlyJSONSerializer.class);
+        add(registrations, ReadOnlyJSONArray.class, ReadOnlyJSONSerializer.class);
+        conf.put(Config.TOPOLOGY_KRYO_REGISTER, registrations);
+    }
+
+    private static void add(List<Object> registrations, Class type, Class<? extends Serializer> serializer) {
+        Map<String, String> entry = Collections.singletonMap(type.getName(), serializer.getName());
+        if(!registrations.contains(entry)) {
+            registrations.add(entry);
+        }
+    }
+
+    private static void writeBytes(Output output, byte[] data) {
+        output.writeInt(data.length, true);
+        output.writeBytes(data);
+    }
+
+    private static byte[] readBytes(Input input) {
+        int length = input.readInt(true);
+        return input.readBytes(length);
+    }
+
+    public static class PayloadSerializer extends Serializer<LGPayload> {
+        @Override public void write(Kryo kryo, Output output, LGPayload payload) {
+            writeBytes(output, payload.toByteArray());
+        }
+
+        @Override public LGPayload read(Kryo kryo, Input input, Class<LGPayload> type) {
+            return LGPayload.deserialize(readBytes(input));
+        }
+    }
+
+    public static class CommandSerializer extends Serializer<LGCommand> {
+        @Override public void write(Kryo kryo, Output output, LGCommand command) {
+            writeBytes(output, command.toByteArray());
+        }
+
+        @Override public LGCommand read(Kryo kryo, Input input, Class<LGCommand> type) {
+            return LGCommand.deserialize(readBytes(input));
+        }
+    }
+
+    //Job configs and any other JSONObject/JSONArray values
+    public static class JSONSerializer extends Serializer<Object> {
+        @Override public void write(Kryo kryo, Output output, Object value) {
+            writeBytes(output, LGWireFormat.encodeJson(value));
+        }
+
+        @Override public Object read(Kryo kryo, Input input, Class<Object> type) {
+            return LGWireFormat.decodeJson(readBytes(input));
+        }
+    }
+
+    //Read-only job configs stay read-only on the receiving side
+    public static class ReadOnlyJSONSerializer extends JSONSerializer {
+        @Override public Object read(Kryo kryo, Input input, Class<Object> type) {
+            return JSONUtils.readOnlyValue(super.read(kryo, input, type));
+        }
+    }
+}
@@ -3,16 +3,11 @@ package lemongrenade.core.storm;
 import org.apache.storm.spout.Scheme;
 import org.apache.storm.spout.SpoutOutputCollector;
 import org.apache.storm.task.TopologyContext;
-import com.rabbitmq.client.Channel;
-import com.rabbitmq.client.Connection;
-import com.rabbitmq.client.ConnectionFactory;
 import lemongrenade.core.coordinator.CoordinatorTopology;
-import lemongrenade.core.util.LGProperties;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.util.*;
-import java.util.concurrent.TimeoutException;
 
 public class LGRabbitMQSpout extends lemongrenade.core.storm.RabbitMQSpout {
     private final Logger log = LoggerFactory.getLogger(getClass());
@@ -38,23 +33,24 @@ public class LGRabbitMQSpout extends lemongrenade.core.storm.RabbitMQSpout {
                      final SpoutOutputCollector collector){
         try {
             // Create the queue in rabbit if it doesn't already exist
-            ConnectionFactory factory = new ConnectionFactory();
-            factory.setRequestedHeartbeat(60);//set the heartbeat timeout to 60 seconds
-            factory.setHost(LGProperties.get("rabbit.hostname"));
-            Connection connection = factory.newConnection();
-            Channel channel = connection.createChannel();
-            channel.queueDeclare(queueName, true, false, false, CoordinatorTopology.dead_letter);
-            channel.exchangeDeclare(queueName, "fanout");
-            channel.queueBind(queueName, queueName, "");
-            channel.close();
-            connection.close();
+            // With shared dispatch the queue is shared by every instance of the adapter. The instance's own exchange is
+            // bound to it too, so tasks a coordinator still sends to this instance directly end up in the shared queue.
+            String privateExchange = adapterName + "-" + adapterId;
+            RabbitConnectionManager.shared().withChannel(channel -> {
+                channel.queueDeclare(queueName, true, false, false, CoordinatorTopology.dead_letter);
+                channel.exchangeDeclare(queueName, "fanout");
+                channel.queueBind(queueName, queueName, "");
+                if (!queueName.equals(privateExchange)) {
+                    channel.exchangeDeclare(privateExchange, "fanout");
+                    channel.queueBind(queueName, privateExchange, "");
+                }
+                return null;
+            });
 
             // Superclass logic to start consuming from rabbit
             super.open(config, context, collector);
         } catch (IOException e) {
             e.printStackTrace();
-        } catch (TimeoutException e) {
-            e.printStackTrace();
         }
     }
 
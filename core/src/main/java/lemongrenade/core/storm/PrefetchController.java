@@ -0,0 +1,119 @@
+package lemongrenade.core.storm;
+
+import lemongrenade.core.util.LGProperties;
+
+/**
+ * Picks the prefetch (basic.qos) of one consumer channel from how fast its deliveries are settled.
+ *
+ * Every 'rabbit.prefetch.adjust.ms' the settle rate and the mean time from handing a delivery to the spout until it
+ * is acked or failed are measured. By Little's law the channel needs rate * latency deliveries unacked to keep the
+ * topology busy; 'rabbit.prefetch.buffer.ms' worth of deliveries at that rate are added on top so the spout never
+ * waits on the broker. The result is kept within 'rabbit.prefetch.min' and 'rabbit.prefetch.max'. A fast adapter
+ * ends up with a deep prefetch, a slow one only holds what it can work through in about buffer.ms, so deliveries don't
+ * sit in its buffer until their tuples time out, and the rest stay in the queue for other instances.
+ *
+ * Rates are smoothed across intervals and the prefetch is only changed when it moves by more than a quarter, so qos
+ * isn't re-sent for noise. Not thread safe; use from the spout thread.
+ */
+public class PrefetchController {
+    private static final double SMOOTHING = 0.5;
+    private static final double DEADBAND = 0.25;
+
+    private final int min;
+    private final int max;
+    private final long bufferMs;
+    private final long intervalMs;
+    private int current;
+    private long intervalStart;
+    private int settled = 0;
+    private long latencyNanos = 0;
+    private int outstanding = 0;
+    private double rate = -1; //settled per second, smoothed. Negative until the first measurement
+    private double latencyMs = 0;
+
+    public PrefetchController(int min, int max, int initial, long bufferMs, long intervalMs, long now) {
+        this.min = Math.max(1, min);
+        this.max = Math.max(this.min, max);
+        this.bufferMs = bufferMs;
+        this.intervalMs = Math.max(1, intervalMs);
+        this.current = clamp(initial);
+        this.intervalStart = now;
+    }
+
+    public static PrefetchController fromProperties(int prefetchCount, long now) {
+        return new PrefetchController(LGProperties.getInteger("rabbit.prefetch.min", 1),
+                LGProperties.getInteger("rabbit.prefetch.max", prefetchCount), prefetchCount,
+                LGProperties.getInteger("rabbit.prefetch.buffer.ms", 1000),
+                LGProperties.getInteger("rabbit.prefetch.adjust.ms", 5000), now);
+    }
+
+    public static boolean isEnabled(int prefetchCount) {
+        return prefetchCount > 0 && Boolean.parseBoolean(LGProperties.get("rabbit.prefetch.adaptive", "true"));
+    }
+
+    public void delivered() {
+        outstanding++;
+    }
+
+    public void settled(long latencyNanos) {
+        settled++;
+        outstanding = Math.max(0, outstanding - 1);
+        this.latencyNanos += latencyNanos;
+    }
+
+    /**
+     * @return the prefetch the channel should use now, the current one unless an interval has passed and it moved
+     */
+    public int adjust(long now) {
+        long elapsed = now - intervalStart;
+        if (elapsed < intervalMs) {
+            return current;
+        }
+        int target = current;
+        if (settled > 0) {
+            double measured = settled * 1000.0 / elapsed;
+            double meanLatency = latencyNanos / 1e6 / settled;
+            rate = rate < 0 ? measured : SMOOTHING * measured + (1 - SMOOTHING) * rate;
+            latencyMs = latencyMs == 0 ? meanLatency : SMOOTHING * meanLatency + (1 - SMOOTHING) * latencyMs;
+            target = clamp((int) Math.ceil(rate * (latencyMs + bufferMs) / 1000.0));
+        }
+        else if (outstanding > 0) { //nothing finished in a whole interval: the adapter is slower than the buffer
+            target = clamp(current / 2);
+        }
+        settled = 0;
+        latencyNanos = 0;
+        intervalStart = now;
+        if (target != current && (target == min || target == max || Math.abs(target - current) > current * DEADBAND)) {
+            current = target;
+        }
+        return current;
+    }
+
+    //A reconnected channel starts with nothing outstanding
+    public void reset(long now) {
+        settled = 0;
+        latencyNanos = 0;
+        outstanding = 0;
+        intervalStart = now;
+    }
+
+    private int clamp(int value) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    public int getCurrent() {
+        return current;
+    }
+
+    public int getMax() {
+        return max;
+    }
+
+    public double getRate() {
+        return Math.max(0, rate);
+    }
+
+    public double getLatencyMs() {
+        return latencyMs;
+    }
+}
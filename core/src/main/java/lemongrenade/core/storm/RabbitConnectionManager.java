@@ -0,0 +1,196 @@
+package lemongrenade.core.storm;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+import lemongrenade.core.util.LGProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One long-lived RabbitMQ connection and a pool of idle channels on it.
+ *
+ * Code that only needs a channel for a moment (declaring queues, publishing an exception report, reading the dead
+ * letter queue) borrows one here instead of opening its own connection. The connection is health checked on every
+ * use and reopened after it closes, but no more often than every 'rabbit.reconnect.backoff.ms' so a broker outage
+ * doesn't turn into a connection storm; callers inside the backoff get an IOException straight away. At most
+ * 'rabbit.channel.pool' idle channels are kept, extra channels are closed when they are released.
+ *
+ * shared() is the per-JVM instance for the rabbit server in the LGProperties. Consuming spouts keep their own
+ * connections since they manage recovery of their consumers themselves.
+ */
+public class RabbitConnectionManager {
+    private static final Logger log = LoggerFactory.getLogger(RabbitConnectionManager.class);
+    private static RabbitConnectionManager shared = null;
+
+    //Opens a new connection. Lets tests run without a broker.
+    public interface Connector {
+        Connection connect() throws IOException, TimeoutException;
+    }
+
+    //Work done on a borrowed channel
+    public interface ChannelAction<T> {
+        T run(Channel channel) throws IOException;
+    }
+
+    private final Connector connector;
+    private final LinkedBlockingQueue<Channel> idle;
+    private final long backoffMs;
+    private final AtomicInteger opened = new AtomicInteger();
+    private volatile Connection connection = null;
+    private long lastAttempt = 0;
+
+    public RabbitConnectionManager(Connector connector, int poolSize, long backoffMs) {
+        this.connector = connector;
+        this.idle = new LinkedBlockingQueue<>(Math.max(1, poolSize));
+        this.backoffMs = backoffMs;
+    }
+
+    public static synchronized RabbitConnectionManager shared() {
+        if (shared == null) {
+            ConnectionFactory factory = new ConnectionFactory();
+            factory.setHost(LGProperties.get("rabbit.hostname"));
+            factory.setPort(LGProperties.getInteger("rabbit.port", ConnectionFactory.DEFAULT_AMQP_PORT));
+            if (LGProperties.get("rabbit.user") != null) {
+                factory.setUsername(LGProperties.get("rabbit.user"));
+                factory.setPassword(LGProperties.get("rabbit.password"));
+            }
+            factory.setRequestedHeartbeat(60);//set the heartbeat timeout to 60 seconds
+            shared = new RabbitConnectionManager(factory::newConnection,
+                    LGProperties.getInteger("rabbit.channel.pool", 8),
+                    LGProperties.getInteger("rabbit.reconnect.backoff.ms", 5000));
+        }
+        return shared;
+    }
+
+    /**
+     * @return the open connection, reconnecting if it has closed
+     * @throws IOException if rabbit can't be reached, or the last attempt failed less than the backoff ago
+     */
+    public Connection connection() throws IOException {
+        Connection current = connection;
+        if (current != null && current.isOpen()) {
+            return current;
+        }
+        synchronized (this) {
+            if (connection != null && connection.isOpen()) {
+                return connection;
+            }
+            discardIdle();
+            long now = System.currentTimeMillis();
+            if (connection == null && lastAttempt != 0 && now - lastAttempt < backoffMs) {
+                throw new IOException("RabbitMQ unavailable, not reconnecting for another "
+                        + (backoffMs - (now - lastAttempt)) + "ms.");
+            }
+            lastAttempt = now;
+            connection = null;
+            try {
+                Connection fresh = connector.connect();
+                opened.incrementAndGet();
+                fresh.addShutdownListener(cause -> {
+                    if (!cause.isInitiatedByApplication()) {
+                        log.warn("RabbitMQ connection lost: " + cause.getMessage());
+                    }
+                });
+                connection = fresh;
+                lastAttempt = 0;
+                log.info("Connected to rabbitmq: " + fresh);
+                return fresh;
+            }
+            catch (TimeoutException e) {
+                throw new IOException("Timeout connecting to rabbitmq.", e);
+            }
+        }
+    }
+
+    //An open channel from the pool, or a new one. Give it back with release().
+    public Channel borrow() throws IOException {
+        Connection current = connection();
+        Channel channel;
+        while ((channel = idle.poll()) != null) {
+            if (channel.isOpen() && channel.getConnection() == current) {
+                return channel;
+            }
+        }
+        return current.createChannel();
+    }
+
+    //Returns a channel to the pool. Closed channels are dropped, channels beyond the pool size are closed.
+    public void release(Channel channel) {
+        if (channel == null || !channel.isOpen()) {
+            return;
+        }
+        if (channel.getConnection() != connection || !idle.offer(channel)) {
+            closeQuietly(channel);
+        }
+    }
+
+    /**
+     * Runs an action on a pooled channel. A channel the action fails on is closed rather than returned, since a
+     * failed AMQP method usually leaves the channel unusable.
+     */
+    public <T> T withChannel(ChannelAction<T> action) throws IOException {
+        Channel channel = borrow();
+        boolean ok = false;
+        try {
+            T result = action.run(channel);
+            ok = true;
+            return result;
+        }
+        finally {
+            if (ok) {
+                release(channel);
+            }
+            else {
+                closeQuietly(channel);
+            }
+        }
+    }
+
+    //Number of connections opened so far
+    public int getConnectionsOpened() {
+        return opened.get();
+    }
+
+    public int getIdleChannels() {
+        return idle.size();
+    }
+
+    //Closes the connection. The manager stays usable and connects again on next use.
+    public synchronized void close() {
+        discardIdle();
+        if (connection != null && connection.isOpen()) {
+            try {
+                connection.close();
+            }
+            catch (Exception e) {
+                log.info("RabbitMQ connection already closed.");
+            }
+        }
+        connection = null;
+        lastAttempt = 0;
+    }
+
+    private void discardIdle() {
+        Channel channel;
+        while ((channel = idle.poll()) != null) {
+            closeQuietly(channel);
+        }
+    }
+
+    private static void closeQuietly(Channel channel) {
+        try {
+            if (channel.isOpen()) {
+                channel.close();
+            }
+        }
+        catch (Exception e) {
+            log.debug("Channel already closed.");
+        }
+    }
+}
@@ -5,28 +5,56 @@ import io.latent.storm.rabbitmq.Declarator;
 import io.latent.storm.rabbitmq.ErrorReporter;
 import io.latent.storm.rabbitmq.Message;
 import io.latent.storm.rabbitmq.config.ConnectionConfig;
+import lemongrenade.core.coordinator.CoordinatorShards;
 import lemongrenade.core.models.LGPayload;
 import lemongrenade.core.util.LGConstants;
+import lemongrenade.core.util.LGProperties;
+import lemongrenade.core.util.PayloadCodecs;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.io.Serializable;
 import java.util.HashMap;
-import java.util.Map;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * An abstraction on RabbitMQ client API to encapsulate interaction with RabbitMQ and de-couple Storm API from RabbitMQ API.
  *
+ * Deliveries are pushed by the client library into one SpscRing per channel and drained by the spout thread in
+ * nextMessage(), which never blocks. Delivery tags are only unique per channel, so the tags handed to the spout are
+ * composite: channel index and channel generation in the top 16 bits, the broker's tag below. Acks for a generation
+ * that has since been reconnected are dropped, the broker redelivers those messages anyway.
+ *
+ * Acks are coalesced per channel by an AckTracker into multiple=true acks ('rabbit.ack.batch' acks or
+ * 'rabbit.ack.interval.ms', whichever comes first). Until a delivery is settled, only what fail() needs to republish
+ * it is kept, in an InFlightStore with the body off-heap.
+ *
+ * Failed deliveries are retried through a ladder of TTL queues that dead-letter back into the work queue (see
+ * RetryPolicy), as long as the queue's RetryBudget allows.
+ *
+ * With 'rabbit.prefetch.adaptive' each channel's prefetch is retuned at runtime by a PrefetchController from how fast
+ * its deliveries are settled, between 'rabbit.prefetch.min' and 'rabbit.prefetch.max'.
+ *
  * @author peter@latent.io
  */
 public class RabbitMQConsumer implements Serializable {
     private final Logger log = LoggerFactory.getLogger(getClass());
-    public static final long MS_WAIT_FOR_MESSAGE = 1L;
+    private static final int TAG_BITS = 48;
+    private static final long TAG_MASK = (1L << TAG_BITS) - 1;
+    private static final int DEFAULT_BUFFER = 1024; //buffer per channel when prefetch is unlimited
+    private static final int ACK_BATCH = LGProperties.getInteger("rabbit.ack.batch", 64);
+    private static final int ACK_INTERVAL_MS = LGProperties.getInteger("rabbit.ack.interval.ms", 20);
 
-    public HashMap<Long, Object> messages;
+    private final InFlightStore inFlight = new InFlightStore();
     private final ConnectionFactory connectionFactory;
-    private final static int MAX_RETRIES = 3;
+    private final RetryPolicy retryPolicy = RetryPolicy.fromProperties();
+    private final Set<String> declaredRetryQueues = new HashSet<>();
+    private transient RetryBudget retryBudget;
+    private transient PrefetchController[] prefetch;
     private final Address[] highAvailabilityHosts;
     private final int prefetchCount;
     private final String queueName;
@@ -34,10 +62,16 @@ public class RabbitMQConsumer implements Serializable {
     private final Declarator declarator;
     private final ErrorReporter reporter;
     private final Logger logger;
+    private final int channelCount;
+    private final HandoffMetric metric;
     private Connection connection;
-    private Channel channel;
-    private QueueingConsumer consumer;
-    private String consumerTag;
+    private Channel[] channels;
+    private SpscRing<Message>[] buffers;
+    private String[] consumerTags;
+    private AckTracker[] trackers;
+    private volatile boolean consuming = false;
+    private volatile int generation = 0;
+    private int nextBuffer = 0;
 
     public RabbitMQConsumer(ConnectionConfig connectionConfig,
                             int prefetchCount,
@@ -45,48 +79,189 @@ public class RabbitMQConsumer implements Serializable {
                             boolean requeueOnFail,
                             Declarator declarator,
                             ErrorReporter errorReporter) {
-        this.messages = new HashMap<Long, Object>();
+        this(connectionConfig, prefetchCount, queueName, requeueOnFail, declarator, errorReporter, 1);
+    }
+
+    public RabbitMQConsumer(ConnectionConfig connectionConfig,
+                            int prefetchCount,
+                            String queueName,
+                            boolean requeueOnFail,
+                            Declarator declarator,
+                            ErrorReporter errorReporter,
+                            int channelCount) {
         this.connectionFactory = connectionConfig.asConnectionFactory();
         this.highAvailabilityHosts = connectionConfig.getHighAvailabilityHosts().toAddresses();
         this.prefetchCount = prefetchCount;
         this.queueName = queueName;
         this.requeueOnFail = requeueOnFail;
         this.declarator = declarator;
+        this.channelCount = Math.max(1, Math.min(channelCount, 255));
 
         this.reporter = errorReporter;
         this.logger = LoggerFactory.getLogger(RabbitMQConsumer.class);
+        this.metric = new HandoffMetric(this);
+        this.retryBudget = RetryBudget.forQueue(queueName);
+    }
+
+    public HandoffMetric getMetric() {
+        return metric;
     }
 
+    //Returns the next buffered delivery, or Message.NONE right away if there isn't one
     public Message nextMessage() {
         reinitIfNecessary();
-        if (consumerTag == null || consumer == null)
+        if (!consuming)
             return Message.NONE;
+        flushAcks(false);
+        adjustPrefetch();
+        SpscRing<Message>[] rings = buffers;
+        for (int i = 0; i < rings.length; i++) {
+            SpscRing<Message> ring = rings[nextBuffer];
+            nextBuffer = (nextBuffer + 1) % rings.length;
+            int occupancy = ring.size();
+            Message message = ring.poll();
+            if (message != null) {
+                metric.record(System.nanoTime() - ring.lastStamp(), occupancy);
+                return message;
+            }
+        }
+        return Message.NONE;
+    }
+
+    //Remembers a delivery handed to the spout until it is acked or failed
+    public void track(Message message) {
+        Message.DeliveredMessage delivered = (Message.DeliveredMessage) message;
+        inFlight.put(delivered.getDeliveryTag(), delivered);
+        PrefetchController[] controllers = prefetch;
+        if (controllers != null) {
+            int index = channelIndex(delivered.getDeliveryTag());
+            if (index >= 0)
+                controllers[index].delivered();
+        }
+    }
+
+    //Records that a tracked delivery was acked or rejected, for the prefetch controller of its channel
+    private void settle(long msgId) {
+        PrefetchController[] controllers = prefetch;
+        InFlightStore.InFlight entry = inFlight.get(msgId);
+        if (controllers == null || entry == null)
+            return;
+        int index = (int) (msgId >>> (TAG_BITS + 8));
+        if (((msgId >>> TAG_BITS) & 0xFF) == (generation & 0xFF) && index < controllers.length)
+            controllers[index].settled(System.nanoTime() - entry.trackedAt);
+    }
+
+    //Sends a new basic.qos on the channels whose controller picked a different prefetch. The channel's AckTracker is
+    //retuned first, so acks it holds back never fill a lowered prefetch.
+    private void adjustPrefetch() {
+        PrefetchController[] controllers = prefetch;
+        Channel[] current = channels;
+        AckTracker[] acks = trackers;
+        if (controllers == null || current == null)
+            return;
+        long now = System.currentTimeMillis();
         try {
-            QueueingConsumer.Delivery message = consumer.nextDelivery(MS_WAIT_FOR_MESSAGE);
-            return Message.forDelivery(message);
+            for (int i = 0; i < controllers.length && i < current.length; i++) {
+                int before = controllers[i].getCurrent();
+                int after = controllers[i].adjust(now);
+                if (after != before) {
+                    logger.info("Prefetch for " + queueName + " channel " + i + ": " + before + " -> " + after
+                            + " (" + String.format("%.1f", controllers[i].getRate()) + "/s, "
+                            + String.format("%.0f", controllers[i].getLatencyMs()) + "ms)");
+                    if (acks != null && i < acks.length)
+                        acks[i].setPrefetch(after);
+                    current[i].basicQos(after);
+                }
+            }
         } catch (ShutdownSignalException sse) {
             reset();
-            logger.error("Shutdown signal received while attempting to get next message.", sse);
+            logger.error("Shutdown signal received while attempting to set prefetch.", sse);
             reporter.reportError(sse);
-            return Message.NONE;
-        } catch (InterruptedException ie) {
-      /* nothing to do. timed out waiting for message */
-            logger.debug("Interrupted while waiting for message.", ie);
-            return Message.NONE;
-        } catch (ConsumerCancelledException cce) {
-      /* if the queue on the broker was deleted or node in the cluster containing the queue failed */
+        } catch (Exception e) {
+            logger.error("Could not set prefetch.", e);
+            reporter.reportError(e);
+        }
+    }
+
+    //Sum of the prefetch of every channel
+    int prefetchTotal() {
+        PrefetchController[] controllers = prefetch;
+        if (controllers == null)
+            return prefetchCount * channelCount;
+        int total = 0;
+        for (PrefetchController controller : controllers) {
+            total += controller.getCurrent();
+        }
+        return total;
+    }
+
+    InFlightStore getInFlight() {
+        return inFlight;
+    }
+
+    //Sends coalesced acks. With force=false only the trackers whose interval has passed are flushed.
+    private void flushAcks(boolean force) {
+        AckTracker[] current = trackers;
+        if (current == null)
+            return;
+        try {
+            for (AckTracker tracker : current) {
+                if (force)
+                    tracker.flush();
+                else
+                    tracker.flushIfDue();
+            }
+        } catch (ShutdownSignalException sse) {
             reset();
-            logger.error("Consumer got cancelled while attempting to get next message.", cce);
-            reporter.reportError(cce);
-            return Message.NONE;
+            logger.error("Shutdown signal received while attempting to ack messages.", sse);
+            reporter.reportError(sse);
+        } catch (Exception e) {
+            logger.error("Could not ack messages.", e);
+            reporter.reportError(e);
+        }
+    }
+
+    int bufferedCount() {
+        int count = 0;
+        SpscRing<Message>[] rings = buffers;
+        if (rings != null) {
+            for (SpscRing<Message> ring : rings) {
+                count += ring.size();
+            }
         }
+        return count;
+    }
+
+    int bufferCapacity() {
+        SpscRing<Message>[] rings = buffers;
+        return rings == null ? 0 : rings.length * rings[0].capacity();
+    }
+
+    private long compositeTag(int channel, int gen, long deliveryTag) {
+        return ((long) channel << (TAG_BITS + 8)) | ((long) (gen & 0xFF) << TAG_BITS) | (deliveryTag & TAG_MASK);
+    }
+
+    //Returns the channel index a composite tag was delivered on, or -1 if that channel has since been replaced
+    private int channelIndex(long msgId) {
+        int gen = (int) (msgId >>> TAG_BITS) & 0xFF;
+        int index = (int) (msgId >>> (TAG_BITS + 8));
+        if (gen != (generation & 0xFF) || channels == null || index >= channels.length) {
+            logger.warn("Dropping ack/reject for msgId " + msgId + " from a closed channel. It will be redelivered.");
+            return -1;
+        }
+        return index;
     }
 
     public void ack(Long msgId) {
         reinitIfNecessary();
-        messages.remove(msgId);
+        if (inFlight.get(msgId) != null)
+            budget().deposit();
+        settle(msgId);
+        inFlight.remove(msgId);
         try {
-            channel.basicAck(msgId, false);
+            int index = channelIndex(msgId);
+            if (index >= 0)
+                trackers[index].ack(msgId & TAG_MASK);
         } catch (ShutdownSignalException sse) {
             reset();
             logger.error("Shutdown signal received while attempting to ack message.", sse);
@@ -98,64 +273,81 @@ public class RabbitMQConsumer implements Serializable {
     }
 
     //Increment times-sent custom header. Shows the amount of times this message has been sent.
-    private HashMap<String, Object> getIncrementedHeader(Message.DeliveredMessage message) {
-        Map<String, Object> headers;
-        headers = message.getHeaders();
-        if(headers == null || headers.size() == 0)
-            headers = new HashMap<String, Object>();
-        if(!headers.containsKey("times-sent")) {
-            headers.put("times-sent", 1);
-        }
-        else {
-            int times = (int) headers.get("times-sent");
-            headers.put("times-sent", times+1);
+    private HashMap<String, Object> getIncrementedHeader(InFlightStore.InFlight message) {
+        HashMap<String, Object> headers = new HashMap<>();
+        if(message.headers != null)
+            headers.putAll(message.headers);
+        Object times = headers.get(RetryPolicy.TIMES_SENT);
+        headers.put(RetryPolicy.TIMES_SENT, times instanceof Number ? ((Number) times).intValue() + 1 : 1);
+        return headers;
+    }
+
+    private RetryBudget budget() {
+        if (retryBudget == null)
+            retryBudget = RetryBudget.forQueue(queueName);
+        return retryBudget;
+    }
+
+    //Declares the rung queue on first use. Rungs expire back into this consumer's queue.
+    private String retryQueue(long rung) throws IOException {
+        String name = RetryPolicy.queueName(queueName, rung);
+        if (!declaredRetryQueues.contains(name)) {
+            channels[0].queueDeclare(name, true, false, false, RetryPolicy.queueArgs(queueName, rung));
+            declaredRetryQueues.add(name);
         }
-        return (HashMap<String, Object>) headers;
+        return name;
     }
 
     /**
-     *  Fails are handled by allowing a message to be resent MAX_RETRIES. This counter is kept in the header
-     *  in "times-sent". If this message fails more than MAX_RETRIES, we 'dead-letter' this message, which
-     *  means we send the message to the 'dead-letter' queue where it will sit forever until it's cleared out
-     *  However, we must also send the payload back to the coordinator with a status of ERROR (and with a
-     *  possible error message) so that the coordinator can set the task and job status to ERROR. Otherwise, the
-     *  end user never knows about the problem and the job will appear to never finish.
+     *  Fails are handled by allowing a message to be resent MAX_RETRIES ('rabbit.retry.max'). This counter is kept
+     *  in the header in "times-sent". Retries wait out an exponential backoff in a TTL queue before they come back
+     *  (see RetryPolicy). If this message fails more than MAX_RETRIES, or the adapter's RetryBudget is spent, we
+     *  'dead-letter' this message, which means we send the message to the 'dead-letter' queue where it will sit
+     *  forever until it's cleared out. However, we must also send the payload back to the coordinator with a status
+     *  of ERROR (and with a possible error message) so that the coordinator can set the task and job status to ERROR.
+     *  Otherwise, the end user never knows about the problem and the job will appear to never finish.
      *
      */
-    public void fail(Long msgId) {//retry failures 2 times
+    public void fail(Long msgId) {
         try {
-            Message.DeliveredMessage message = (Message.DeliveredMessage) messages.get(msgId);
+            InFlightStore.InFlight message = inFlight.get(msgId);
+            byte[] original = inFlight.getBody(message);
             HashMap<String, Object> headers = getIncrementedHeader(message);
-            int times_sent = (int) headers.get("times-sent");
-            if(times_sent  < this.MAX_RETRIES) { //retry the message when it fails 2 times
-                message = (Message.DeliveredMessage) messages.get(msgId);
-                byte[] body = message.getBody();
-                LGPayload payload = LGPayload.deserialize(body);
-                String taskId = payload.getTaskId();
-                String jobId = payload.getJobId();
-                log.info("*** Task failed, but max retries not met. Retrying ("+(times_sent+1)+"/"+this.MAX_RETRIES+"). " +
-                        "RETRYING TaskId:"+taskId+" JobId:"+jobId);
+            int times_sent = (int) headers.get(RetryPolicy.TIMES_SENT);
+            if(times_sent < retryPolicy.getMaxRetries() && budget().tryRetry(System.currentTimeMillis())) {
+                //job and task ids come from the headers the sink sets, the body is passed through untouched
+                long delay = retryPolicy.delay(times_sent, ThreadLocalRandom.current());
+                String retryQueue = retryQueue(retryPolicy.rung(times_sent));
+                log.info("*** Task failed, but max retries not met. Retrying ("+(times_sent+1)+"/"+retryPolicy.getMaxRetries()
+                        +") in "+delay+"ms. RETRYING TaskId:"+headers.get(RetryPolicy.TASK_ID)
+                        +" JobId:"+headers.get(RetryPolicy.JOB_ID));
                 AMQP.BasicProperties properties = new AMQP.BasicProperties.Builder()
-                        .contentType(message.getContentType())
-                        .contentEncoding(message.getContentEncoding())
+                        .contentType(message.contentType)
+                        .contentEncoding(message.contentEncoding)
                         .headers(headers)
                         .priority(LGConstants.QUEUE_PRIORITY_ADAPTER_RESPONSE)
+                        .expiration(Long.toString(delay))
                         .build();
-                channel.basicPublish(message.getExchange(),message.getRoutingKey(), properties, message.getBody());
+                channels[0].basicPublish("", retryQueue, properties, original);
+                settle(msgId);
+                inFlight.remove(msgId); //a retry doesn't earn budget
                 ack(msgId);
             } else {
                 //First send a message to the coordinator
-                byte[] body = message.getBody();
                 try {
+                    byte[] body = PayloadCodecs.decode(message.contentEncoding, original);
                     LGPayload payload = LGPayload.deserialize(body);
                     String taskId = payload.getTaskId();
                     String jobId = payload.getJobId();
                     log.info("*** Sending task FAILED payload back to coordinator for processing. " +
                             "FAILED TaskId:"+taskId+" JobId:"+jobId);
                     payload.setPayloadType(LGConstants.LG_PAYLOAD_TYPE_ADAPTERRESPONSE_FAILURE);
-                    channel.basicPublish("", LGConstants.LEMONGRENADE_COORDINATOR
-                                , new AMQP.BasicProperties.Builder().priority(LGConstants.QUEUE_PRIORITY_ADAPTER_RESPONSE).build()
-                                , payload.toByteArray());
+                    PayloadCodecs.Encoded encoded = PayloadCodecs.encode(payload.toByteArray());
+                    channels[0].basicPublish(CoordinatorShards.exchange(LGConstants.LEMONGRENADE_COORDINATOR)
+                                , CoordinatorShards.routingKey(LGConstants.LEMONGRENADE_COORDINATOR, jobId)
+                                , new AMQP.BasicProperties.Builder().priority(LGConstants.QUEUE_PRIORITY_ADAPTER_RESPONSE)
+                                        .contentEncoding(encoded.encoding).build()
+                                , encoded.body);
                 } catch (Exception e) {
                     log.error("Failed to publish failure response to coordinator.");
                     e.printStackTrace();
@@ -166,13 +358,19 @@ public class RabbitMQConsumer implements Serializable {
             log.info("Error: Could not retrieve message! for msgID " + msgId.toString() + ".");
             e.printStackTrace();
         }
-        messages.remove(msgId);
+        inFlight.remove(msgId);
     }
 
     public void failWithRedelivery(Long msgId) {
         reinitIfNecessary();
         try {
-            channel.basicReject(msgId, true);
+            settle(msgId);
+            inFlight.remove(msgId);
+            int index = channelIndex(msgId);
+            if (index >= 0) {
+                channels[index].basicReject(msgId & TAG_MASK, true);
+                trackers[index].rejected(msgId & TAG_MASK);
+            }
         } catch (ShutdownSignalException sse) {
             reset();
             logger.error("Shutdown signal received while attempting to fail with redelivery.", sse);
@@ -186,7 +384,13 @@ public class RabbitMQConsumer implements Serializable {
     public void deadLetter(Long msgId) {
         reinitIfNecessary();
         try {
-            channel.basicReject(msgId, false);
+            settle(msgId);
+            inFlight.remove(msgId);
+            int index = channelIndex(msgId);
+            if (index >= 0) {
+                channels[index].basicReject(msgId & TAG_MASK, false);
+                trackers[index].rejected(msgId & TAG_MASK);
+            }
         } catch (ShutdownSignalException sse) {
             reset();
             logger.error("Shutdown signal received while attempting to fail with no redelivery.", sse);
@@ -197,18 +401,53 @@ public class RabbitMQConsumer implements Serializable {
         }
     }
 
+    @SuppressWarnings("unchecked")
     public void open() {
         try {
+            generation++;
             connection = createConnection();
-            channel = connection.createChannel();
-            if (prefetchCount > 0) {
-                logger.info("setting basic.qos / prefetch count to " + prefetchCount + " for " + queueName);
-                channel.basicQos(prefetchCount);
+            channels = new Channel[channelCount];
+            consumerTags = new String[channelCount];
+            AckTracker[] acks = new AckTracker[channelCount];
+            long now = System.currentTimeMillis();
+            if (PrefetchController.isEnabled(prefetchCount)) {
+                if (prefetch == null) {
+                    prefetch = new PrefetchController[channelCount];
+                    for (int i = 0; i < channelCount; i++) {
+                        prefetch[i] = PrefetchController.fromProperties(prefetchCount, now);
+                    }
+                }
+                else { //keep what was learned before the reconnect
+                    for (PrefetchController controller : prefetch) {
+                        controller.reset(now);
+                    }
+                }
+            }
+            //the broker never has more than the highest prefetch unacked deliveries per channel, so the buffer can't
+            //fill up
+            int capacity = prefetchCount <= 0 ? DEFAULT_BUFFER : prefetch == null ? prefetchCount
+                    : Math.max(prefetchCount, prefetch[0].getMax());
+            SpscRing<Message>[] rings = new SpscRing[channelCount];
+            for (int i = 0; i < channelCount; i++) {
+                rings[i] = new SpscRing<>(capacity);
             }
-            // run any declaration prior to queue consumption
-            declarator.execute(channel);
-            consumer = new QueueingConsumer(channel);
-            consumerTag = channel.basicConsume(queueName, isAutoAcking(), consumer);
+            buffers = rings;
+            for (int i = 0; i < channelCount; i++) {
+                Channel channel = connection.createChannel();
+                channels[i] = channel;
+                int qos = prefetch == null ? prefetchCount : prefetch[i].getCurrent();
+                acks[i] = AckTracker.forPrefetch(channel::basicAck, ACK_BATCH, ACK_INTERVAL_MS, qos);
+                if (prefetchCount > 0) {
+                    logger.info("setting basic.qos / prefetch count to " + qos + " for " + queueName);
+                    channel.basicQos(qos);
+                }
+                // run any declaration prior to queue consumption
+                if (i == 0)
+                    declarator.execute(channel);
+                consumerTags[i] = channel.basicConsume(queueName, isAutoAcking(), new BufferingConsumer(channel, i, generation, rings[i]));
+            }
+            trackers = acks;
+            consuming = true;
         } catch (Exception e) {
             logger.error("Could not open listener on queue:" + queueName +".");
             e.printStackTrace();
@@ -222,14 +461,22 @@ public class RabbitMQConsumer implements Serializable {
     }
 
     public void close() {
-        try {
-            if (channel != null && channel.isOpen()) {
-                if (consumerTag != null) channel.basicCancel(consumerTag);
-                channel.close();
+        if (consuming)
+            flushAcks(true);
+        consuming = false;
+        if (channels != null) {
+            for (int i = 0; i < channels.length; i++) {
+                Channel channel = channels[i];
+                try {
+                    if (channel != null && channel.isOpen()) {
+                        if (consumerTags[i] != null) channel.basicCancel(consumerTags[i]);
+                        channel.close();
+                    }
+                } catch (Exception e) {
+                    logger.debug("Error closing channel and/or cancelling consumer.", e);
+                    e.printStackTrace();
+                }
             }
-        } catch (Exception e) {
-            logger.debug("Error closing channel and/or cancelling consumer.", e);
-            e.printStackTrace();
         }
         try {
             if(connection != null && connection.isOpen()) {
@@ -240,25 +487,18 @@ public class RabbitMQConsumer implements Serializable {
             logger.debug("Error closing connection.", e);
             e.printStackTrace();
         }
-        try {
-            consumer.getChannel().close();
-        }
-        catch(Exception e) {
-            log.error("Error closing RabbitMQ consumer.");
-            e.printStackTrace();
-        }
-        consumer = null;
-        consumerTag = null;
-        channel = null;
+        consumerTags = null;
+        trackers = null;
+        channels = null;
         connection = null;
     }
 
     private void reset() {
-        consumerTag = null;
+        consuming = false;
     }
 
     private void reinitIfNecessary() {
-        if (consumerTag == null || consumer == null) {
+        if (!consuming) {
             close();
             open();
         }
@@ -278,6 +518,50 @@ public class RabbitMQConsumer implements Serializable {
         logger.info("Connected to rabbitmq: " + connection + " for " + queueName);
         return connection;
     }
-}
 
+    /**
+     * Receives pushed deliveries for one channel and hands them to the spout through that channel's ring. The client
+     * library calls this serially per channel, which keeps each ring single-producer.
+     */
+    private class BufferingConsumer extends DefaultConsumer {
+        private final int index;
+        private final int gen;
+        private final SpscRing<Message> ring;
+
+        BufferingConsumer(Channel channel, int index, int gen, SpscRing<Message> ring) {
+            super(channel);
+            this.index = index;
+            this.gen = gen;
+            this.ring = ring;
+        }
 
+        @Override
+        public void handleDelivery(String consumerTag, Envelope envelope, AMQP.BasicProperties properties, byte[] body) {
+            Envelope tagged = new Envelope(compositeTag(index, gen, envelope.getDeliveryTag()), envelope.isRedeliver(),
+                    envelope.getExchange(), envelope.getRoutingKey());
+            Message message = Message.forDelivery(new QueueingConsumer.Delivery(tagged, properties, body));
+            //only happens if prefetch is unlimited. Wait for the spout rather than dropping the delivery
+            while (!ring.offer(message)) {
+                if (gen != generation) {
+                    return; //channel was replaced, the broker will redeliver
+                }
+                LockSupport.parkNanos(100000);
+            }
+        }
+
+        @Override
+        public void handleCancel(String consumerTag) {
+            logger.error("Consumer for queue " + queueName + " was cancelled by the broker.");
+            reporter.reportError(new ConsumerCancelledException());
+            reset();
+        }
+
+        @Override
+        public void handleShutdownSignal(String consumerTag, ShutdownSignalException sig) {
+            if (!sig.isInitiatedByApplication()) {
+                logger.error("Shutdown signal received by consumer for queue " + queueName + ".", sig);
+                reset();
+            }
+        }
+    }
+}
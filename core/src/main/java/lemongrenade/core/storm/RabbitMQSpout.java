@@ -5,6 +5,7 @@ import io.latent.storm.rabbitmq.ErrorReporter;
 import io.latent.storm.rabbitmq.Message;
 import io.latent.storm.rabbitmq.MessageScheme;
 import io.latent.storm.rabbitmq.config.ConsumerConfig;
+import lemongrenade.core.util.LGProperties;
 import org.apache.storm.spout.Scheme;
 import org.apache.storm.spout.SpoutOutputCollector;
 import org.apache.storm.task.TopologyContext;
@@ -21,10 +22,14 @@ import java.util.Map;
  * A simple RabbitMQ spout that emits an anchored tuple stream (on the default stream). This can be used with
  * Storm's guaranteed message processing.
  *
+ * nextTuple drains whatever the consumer has buffered and returns without waiting, so Storm's spout wait strategy
+ * handles idling. 'rabbit.spout.channels' sets how many channels each spout consumes on.
+ *
  * @author peter@latent.io
  */
 public class RabbitMQSpout extends BaseRichSpout {
     private final Logger log = LoggerFactory.getLogger(RabbitMQSpout.class);
+    private static final int METRICS_INTERVAL = LGProperties.getInteger("rabbit.metrics.interval", 60);
     private final MessageScheme scheme;
     private final Declarator declarator;
     private transient Logger logger;
@@ -36,15 +41,15 @@ public class RabbitMQSpout extends BaseRichSpout {
     private String streamId;
 
     public RabbitMQSpout(Scheme scheme) {
-        this(MessageScheme.Builder.from(scheme), new Declarator.NoOp(),null);
+        this(DecodingMessageScheme.from(scheme), new Declarator.NoOp(),null);
     }
 
     public RabbitMQSpout(Scheme scheme, String streamId){
-        this(MessageScheme.Builder.from(scheme), new Declarator.NoOp(), streamId);
+        this(DecodingMessageScheme.from(scheme), new Declarator.NoOp(), streamId);
     }
 
     public RabbitMQSpout(Scheme scheme, Declarator declarator) {
-        this(MessageScheme.Builder.from(scheme), declarator,null);
+        this(DecodingMessageScheme.from(scheme), declarator,null);
     }
 
     public RabbitMQSpout(MessageScheme scheme, Declarator declarator) {
@@ -52,7 +57,7 @@ public class RabbitMQSpout extends BaseRichSpout {
     }
 
     public RabbitMQSpout(Scheme scheme, Declarator declarator, String streamId){
-        this(MessageScheme.Builder.from(scheme), declarator, streamId);
+        this(DecodingMessageScheme.from(scheme), declarator, streamId);
     }
 
     public RabbitMQSpout(MessageScheme scheme, Declarator declarator, String streamId){
@@ -76,6 +81,7 @@ public class RabbitMQSpout extends BaseRichSpout {
             consumer = loadConsumer(declarator, reporter, consumerConfig);
             scheme.open(config, context);
             consumer.open();
+            context.registerMetric("rabbit-handoff", consumer.getMetric(), METRICS_INTERVAL);
             prefetchCount = consumerConfig.getPrefetchCount();
             logger = LoggerFactory.getLogger(RabbitMQSpout.class);
             collector = spoutOutputCollector;
@@ -95,7 +101,8 @@ public class RabbitMQSpout extends BaseRichSpout {
                 config.getQueueName(),
                 config.isRequeueOnFail(),
                 declarator,
-                reporter);
+                reporter,
+                LGProperties.getInteger("rabbit.spout.channels", 1));
     }
 
     @Override public void close() {
@@ -181,7 +188,7 @@ public class RabbitMQSpout extends BaseRichSpout {
 
     protected long getDeliveryTag(Message message) {
         Long id = ((Message.DeliveredMessage) message).getDeliveryTag();
-        this.consumer.messages.put(id, message);
+        this.consumer.track(message);
         return id;
     }
 }
@@ -0,0 +1,62 @@
+package lemongrenade.core.storm;
+
+import lemongrenade.core.util.LGProperties;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Caps how much of an adapter's traffic can be retries.
+ *
+ * Every acked delivery earns 'rabbit.retry.budget.ratio' of a retry, and 'rabbit.retry.budget.min.per.sec' retries
+ * are earned per second regardless so an adapter with little traffic can still retry. Unused retries accumulate up to
+ * 'rabbit.retry.budget.burst'. A failure with no retry left in the budget is treated like one that ran out of
+ * attempts: it is dead-lettered and reported to the coordinator as failed. One budget is shared by every spout
+ * consuming the same queue in a worker.
+ */
+public class RetryBudget {
+    private static final ConcurrentHashMap<String, RetryBudget> BUDGETS = new ConcurrentHashMap<>();
+
+    private final double ratio;
+    private final double perSecond;
+    private final double burst;
+    private double tokens;
+    private long lastRefill;
+
+    public RetryBudget(double ratio, double perSecond, double burst, long now) {
+        this.ratio = ratio;
+        this.perSecond = perSecond;
+        this.burst = Math.max(1, burst);
+        this.tokens = this.burst;
+        this.lastRefill = now;
+    }
+
+    public static RetryBudget forQueue(String queueName) {
+        return BUDGETS.computeIfAbsent(queueName, name -> new RetryBudget(
+                Double.parseDouble(LGProperties.get("rabbit.retry.budget.ratio", "0.2")),
+                LGProperties.getInteger("rabbit.retry.budget.min.per.sec", 10),
+                LGProperties.getInteger("rabbit.retry.budget.burst", 100),
+                System.currentTimeMillis()));
+    }
+
+    //A delivery succeeded
+    public synchronized void deposit() {
+        tokens = Math.min(burst, tokens + ratio);
+    }
+
+    //Takes one retry from the budget if there is one
+    public synchronized boolean tryRetry(long now) {
+        if (now > lastRefill) {
+            tokens = Math.min(burst, tokens + (now - lastRefill) / 1000.0 * perSecond);
+            lastRefill = now;
+        }
+        if (tokens < 1) {
+            return false;
+        }
+        tokens--;
+        return true;
+    }
+
+    public synchronized double getAvailable() {
+        return tokens;
+    }
+}
@@ -0,0 +1,97 @@
+package lemongrenade.core.storm;
+
+import lemongrenade.core.util.LGProperties;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * When and how long to wait before a failed delivery is tried again.
+ *
+ * Retries wait in a ladder of TTL queues, one per delay in 'rabbit.retry.delays.ms', named {queue}.retry.{delay}.
+ * Messages expire out of them and are dead-lettered straight back into the work queue, so nothing holds a retry in
+ * memory and a failing dependency isn't hammered. Retry n waits 'rabbit.retry.base.ms' * 2^(n-1), capped at the
+ * longest rung, less up to 'rabbit.retry.jitter' of it so retries of a burst of failures don't all land together. The
+ * message goes to the shortest rung at least as long as the un-jittered delay with the jittered delay as its
+ * per-message expiration, so it never waits longer than its rung.
+ */
+public class RetryPolicy implements Serializable {
+    public static final String TIMES_SENT = "times-sent";
+    public static final String JOB_ID = "lg-job-id";
+    public static final String TASK_ID = "lg-task-id";
+
+    private final long[] ladder;
+    private final long baseMs;
+    private final double jitter;
+    private final int maxRetries;
+
+    public RetryPolicy(long[] ladder, long baseMs, double jitter, int maxRetries) {
+        this.ladder = ladder.clone();
+        Arrays.sort(this.ladder);
+        if (this.ladder.length == 0 || this.ladder[0] <= 0) {
+            throw new IllegalArgumentException("Retry delays must be positive: " + Arrays.toString(ladder));
+        }
+        this.baseMs = Math.max(1, baseMs);
+        this.jitter = Math.max(0, Math.min(1, jitter));
+        this.maxRetries = maxRetries;
+    }
+
+    public static RetryPolicy fromProperties() {
+        String[] delays = LGProperties.get("rabbit.retry.delays.ms", "1000,5000,30000,120000").split(",");
+        long[] ladder = new long[delays.length];
+        for (int i = 0; i < delays.length; i++) {
+            ladder[i] = Long.parseLong(delays[i].trim());
+        }
+        double jitter = Double.parseDouble(LGProperties.get("rabbit.retry.jitter", "0.25"));
+        return new RetryPolicy(ladder, LGProperties.getInteger("rabbit.retry.base.ms", 1000), jitter,
+                LGProperties.getInteger("rabbit.retry.max", 3));
+    }
+
+    //A delivery that has been sent this many times is retried while timesSent < max retries
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    public long[] getLadder() {
+        return ladder.clone();
+    }
+
+    //Un-jittered backoff before retry number 'attempt' (1 is the first retry)
+    public long backoff(int attempt) {
+        int shift = Math.max(0, Math.min(attempt - 1, 30));
+        return Math.min(ladder[ladder.length - 1], baseMs << shift);
+    }
+
+    //Backoff with jitter taken off, in (backoff * (1 - jitter), backoff]
+    public long delay(int attempt, Random random) {
+        long backoff = backoff(attempt);
+        return Math.max(1, backoff - (long) (random.nextDouble() * jitter * backoff));
+    }
+
+    //TTL of the queue a retry with this backoff waits in
+    public long rung(int attempt) {
+        long backoff = backoff(attempt);
+        for (long rung : ladder) {
+            if (rung >= backoff) {
+                return rung;
+            }
+        }
+        return ladder[ladder.length - 1];
+    }
+
+    public static String queueName(String queue, long rung) {
+        return queue + ".retry." + rung;
+    }
+
+    //Arguments of a rung queue: expire after the rung delay back into the work queue through the default exchange
+    public static Map<String, Object> queueArgs(String queue, long rung) {
+        Map<String, Object> args = new HashMap<>();
+        args.put("x-message-ttl", rung);
+        args.put("x-dead-letter-exchange", "");
+        args.put("x-dead-letter-routing-key", queue);
+        return args;
+    }
+}
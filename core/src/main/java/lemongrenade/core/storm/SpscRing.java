@@ -0,0 +1,67 @@
+package lemongrenade.core.storm;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded lock-free ring buffer for exactly one producer thread and one consumer thread.
+ *
+ * RabbitMQConsumer uses one per channel: the channel's delivery callback is the producer and the spout thread is the
+ * consumer. Each element carries the System.nanoTime() it was offered at so the consumer can measure handoff latency.
+ */
+public class SpscRing<T> {
+    private final Object[] items;
+    private final long[] stamps;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong(); //next index to poll, written by the consumer only
+    private final AtomicLong tail = new AtomicLong(); //next index to offer, written by the producer only
+    private long lastStamp;
+
+    public SpscRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1; //next power of two
+        items = new Object[size];
+        stamps = new long[size];
+        mask = size - 1;
+    }
+
+    public int capacity() {
+        return items.length;
+    }
+
+    //Approximate when called from a third thread
+    public int size() {
+        return (int) (tail.get() - head.get());
+    }
+
+    //Producer only. Returns false if the ring is full.
+    public boolean offer(T item) {
+        long t = tail.get();
+        if(t - head.get() >= items.length) {
+            return false;
+        }
+        int i = (int) t & mask;
+        items[i] = item;
+        stamps[i] = System.nanoTime();
+        tail.lazySet(t + 1); //publishes the slot to the consumer
+        return true;
+    }
+
+    //Consumer only. Returns null if the ring is empty.
+    @SuppressWarnings("unchecked")
+    public T poll() {
+        long h = head.get();
+        if(h >= tail.get()) {
+            return null;
+        }
+        int i = (int) h & mask;
+        T item = (T) items[i];
+        lastStamp = stamps[i];
+        items[i] = null;
+        head.lazySet(h + 1); //hands the slot back to the producer
+        return item;
+    }
+
+    //Consumer only. System.nanoTime() at which the last polled item was offered.
+    public long lastStamp() {
+        return lastStamp;
+    }
+}
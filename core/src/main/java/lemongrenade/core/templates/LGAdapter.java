@@ -1,5 +1,6 @@
 package lemongrenade.core.templates;
 
+import lemongrenade.core.models.LGAdapterModel;
 import lemongrenade.core.util.LGProperties;
 import org.apache.storm.Config;
 import org.apache.storm.LocalCluster;
@@ -78,7 +79,13 @@ public abstract class LGAdapter implements Serializable{
         return id.toString();
     }
 
+    //Queue this adapter consumes tasks from, shared by all instances of the adapter with shared dispatch
     public String getQueueName() {
+        return LGAdapterModel.SHARED_DISPATCH ? LGAdapterModel.getSharedQueueName(getAdapterName()) : getPrivateQueueName();
+    }
+
+    //Per-instance queue used with private dispatch. With shared dispatch only its exchange is kept, bound to the shared queue.
+    public String getPrivateQueueName() {
         return getAdapterName() +"-"+getAdapterId();
     }
 
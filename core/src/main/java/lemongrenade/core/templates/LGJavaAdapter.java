@@ -1,16 +1,19 @@
 package lemongrenade.core.templates;
 
 import com.rabbitmq.client.ConnectionFactory;
-import io.latent.storm.rabbitmq.RabbitMQBolt;
 import io.latent.storm.rabbitmq.config.*;
 import lemongrenade.core.coordinator.AdapterManager;
+import lemongrenade.core.coordinator.JobConfigCache;
 import lemongrenade.core.coordinator.JobManager;
 import lemongrenade.core.models.LGJob;
 import lemongrenade.core.models.LGJobError;
 import lemongrenade.core.models.LGPayload;
+import lemongrenade.core.storm.ConfirmingRabbitMQBolt;
 import lemongrenade.core.storm.CoordinatorSinkScheme;
+import lemongrenade.core.storm.LGKryo;
 import lemongrenade.core.storm.LGRabbitMQSpout;
-import lemongrenade.core.util.ExceptionWriter;
+import lemongrenade.core.util.ExceptionReporter;
+import lemongrenade.core.util.JSONUtils;
 import lemongrenade.core.util.LGConstants;
 import lemongrenade.core.util.LGProperties;
 import lemongrenade.core.util.StringScheme;
@@ -39,7 +42,7 @@ public abstract class LGJavaAdapter extends LGAdapter {
     private StormTopology TOPOLOGY = null;
     private BaseRichBolt ADAPTER_BOLT = null;
     private BaseBasicBolt HEARTBEAT_BOLT = null;
-    private RabbitMQBolt RABBIT_BOLT = null;
+    private ConfirmingRabbitMQBolt RABBIT_BOLT = null;
 
     public LGJavaAdapter(String id) {super(id);}
 
@@ -117,12 +120,14 @@ public abstract class LGJavaAdapter extends LGAdapter {
                 .addConfigurations(sinkConfig.asMap())
                 .shuffleGrouping(getAdapterName());
 
+        //Tuples carry LGPayload/LGCommand between workers; serialize them with kryo instead of java serialization
+        LGKryo.register(getConfig());
         TOPOLOGY = builder.createTopology();
         return TOPOLOGY;
     } //end getTopology
 
-    public RabbitMQBolt createRabbitBolt() {
-        RabbitMQBolt bolt = new RabbitMQBolt(new CoordinatorSinkScheme());
+    public ConfirmingRabbitMQBolt createRabbitBolt() {
+        ConfirmingRabbitMQBolt bolt = new ConfirmingRabbitMQBolt(new CoordinatorSinkScheme());
         return bolt;
     }
 
@@ -247,11 +252,7 @@ public abstract class LGJavaAdapter extends LGAdapter {
                                     +" for error:"+ex.getMessage());
                             ex.printStackTrace();//error handling here...
                             try {
-                                ExceptionWriter writer = new ExceptionWriter();
-                                String requests = payload.getRequestNodes().toString();
-                                writer.publishException(task_id, requests, ex);
-                                writer.channel.close();
-                                writer.connection.close();
+                                ExceptionReporter.shared().report(task_id, ExceptionReporter.render(payload.getRequestNodes()), ex);
                             } catch (Exception e) {
                                 log.error("Failure while writing adapter failure exception. job_id:"+job_id +"task_id:"+task_id);
                                 e.printStackTrace();
@@ -273,10 +274,7 @@ public abstract class LGJavaAdapter extends LGAdapter {
                     log.error("Adapter threw an exception: Failing Tuple: "+e.getMessage());
                     e.printStackTrace();
                     try {
-                        ExceptionWriter writer = new ExceptionWriter();
-                        String taskId = payload.getTaskId();
-                        String requests = payload.getRequestNodes().toString();
-                        writer.publishException(taskId, requests, e);
+                        ExceptionReporter.shared().report(payload.getTaskId(), ExceptionReporter.render(payload.getRequestNodes()), e);
                     } catch (Exception e2) {
                         e2.printStackTrace();
                     }
@@ -298,22 +296,38 @@ public abstract class LGJavaAdapter extends LGAdapter {
         void fail(Exception ex);
     }
 
+    /**
+     * Returns the job config as seen by this adapter: the generic config with the "adapters" section removed and this
+     * adapter's entries from it merged in. Views are cached per config version and shared, so the result is read-only.
+     * @param payload LGPayload being processed
+     * @return read-only JSONObject
+     */
     public JSONObject getJobConfig(LGPayload payload) {
+        String hash = payload.getJobConfigHash();
+        if(hash == null) {
+            return JSONUtils.readOnly(new JSONObject());
+        }
+        JSONObject view = JobConfigCache.getAdapterView(hash, this.getAdapterName());
+        if(view != null) {
+            return view;
+        }
         JSONObject generic_job_config = payload.getJobConfig();
-        JSONObject new_job_config = new JSONObject(payload.getJobConfig().toString());//create a deep copy of job_config
-        if(generic_job_config.has("adapters")) {
-            JSONObject adapters = new JSONObject(generic_job_config.get("adapters").toString());
-            new_job_config.remove("adapters");
-            if(adapters.has(this.getAdapterName())) {//adapters section has entries for this adapter
-                JSONObject unique = adapters.getJSONObject(this.getAdapterName());
-                Iterator<?> keys = unique.keys();
-                while(keys.hasNext()) {
-                    String key = keys.next().toString();
-                    new_job_config.put(key, unique.get(key));
-                }
+        JSONObject new_job_config = new JSONObject();
+        for(String key : generic_job_config.keySet()) {
+            if(!key.equals("adapters")) {
+                new_job_config.put(key, generic_job_config.get(key));
+            }
+        }
+        JSONObject adapters = generic_job_config.optJSONObject("adapters");
+        if(adapters != null && adapters.has(this.getAdapterName())) {//adapters section has entries for this adapter
+            JSONObject unique = adapters.getJSONObject(this.getAdapterName());
+            Iterator<?> keys = unique.keys();
+            while(keys.hasNext()) {
+                String key = keys.next().toString();
+                new_job_config.put(key, unique.get(key));
             }
         }
-        return new_job_config;
+        return JobConfigCache.putAdapterView(hash, this.getAdapterName(), new_job_config);
     }
 
     //Cleans up and closes bolts and topology
@@ -0,0 +1,76 @@
+package lemongrenade.core.util;
+
+import lemongrenade.core.storm.RetryPolicy;
+
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Picks dead-lettered messages to replay by job id, adapter and reason.
+ *
+ * The broker records every death of a message in its 'x-death' header, most recent first, with the queue it died in
+ * and why (rejected, expired, maxlen). The queue of the most recent death is where a replay goes back to. The adapter
+ * filter matches the start of that queue name (adapter queues are named after the adapter), the reason filter the
+ * reason of the most recent death. The job id comes from the header the sinks set, and only if a message doesn't
+ * have it from its body. A filter left null matches everything.
+ */
+public class DeadLetterFilter {
+    public static final String X_DEATH = "x-death";
+
+    private final String jobId;
+    private final String adapter;
+    private final String reason;
+
+    public DeadLetterFilter(String jobId, String adapter, String reason) {
+        this.jobId = jobId;
+        this.adapter = adapter == null ? null : adapter.toLowerCase();
+        this.reason = reason;
+    }
+
+    /**
+     * @param headers message headers
+     * @param bodyJobId reads the job id from the body, only called when needed
+     */
+    public boolean matches(Map<String, Object> headers, Supplier<String> bodyJobId) {
+        String queue = originalQueue(headers);
+        if (queue == null) {
+            return false; //not dead-lettered, nowhere to send it back to
+        }
+        if (adapter != null && !queue.toLowerCase().startsWith(adapter)) {
+            return false;
+        }
+        if (reason != null && !reason.equalsIgnoreCase(reason(headers))) {
+            return false;
+        }
+        if (jobId != null) {
+            Object header = headers.get(RetryPolicy.JOB_ID);
+            String messageJobId = header != null ? header.toString() : bodyJobId.get();
+            return jobId.equals(messageJobId);
+        }
+        return true;
+    }
+
+    //Queue the message was dead-lettered from, or null
+    public static String originalQueue(Map<String, Object> headers) {
+        Object queue = lastDeath(headers, "queue");
+        return queue == null ? null : queue.toString();
+    }
+
+    public static String reason(Map<String, Object> headers) {
+        Object reason = lastDeath(headers, "reason");
+        return reason == null ? null : reason.toString();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object lastDeath(Map<String, Object> headers, String field) {
+        if (headers == null || !(headers.get(X_DEATH) instanceof List)) {
+            return null;
+        }
+        List<Object> deaths = (List<Object>) headers.get(X_DEATH);
+        if (deaths.isEmpty() || !(deaths.get(0) instanceof Map)) {
+            return null;
+        }
+        return ((Map<String, Object>) deaths.get(0)).get(field);
+    }
+}
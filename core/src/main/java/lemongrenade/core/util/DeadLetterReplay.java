@@ -0,0 +1,228 @@
+package lemongrenade.core.util;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.DefaultConsumer;
+import com.rabbitmq.client.Envelope;
+import lemongrenade.core.models.LGPayload;
+import lemongrenade.core.storm.ConfirmingPublisher;
+import lemongrenade.core.storm.RabbitConnectionManager;
+import lemongrenade.core.storm.RetryPolicy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Sends dead-lettered messages back to the queues they died in, in bulk.
+ *
+ * The DeadLetter queue is consumed with a prefetch of 'deadletter.replay.prefetch' instead of one basicGet at a
+ * time. Messages matching the DeadLetterFilter are republished to their original queue, at most
+ * 'deadletter.replay.rate' a second, with their retry count reset. The rest are put back at the end of the DeadLetter
+ * queue. Publishes go through the shared ConfirmingPublisher, so many are in flight at once, and a dead letter is only
+ * acked once its copy is confirmed; a nacked copy leaves it in the DeadLetter queue. Only the messages that were in the
+ * queue when the replay started are looked at. Progress is logged every 'deadletter.replay.report.ms'.
+ *
+ * Usage: DeadLetterReplay [job=id] [adapter=name] [reason=rejected|expired|maxlen] [rate=n] [queue=DeadLetter]
+ */
+public class DeadLetterReplay {
+    private static final Logger log = LoggerFactory.getLogger(DeadLetterReplay.class);
+    private static final long IDLE_MS = 30000; //give up waiting for deliveries after this long
+
+    private final RabbitConnectionManager connections;
+    private final ConfirmingPublisher publisher;
+    private final String queue;
+    private final DeadLetterFilter filter;
+    private final int prefetch;
+    private final int rate;
+    private final long reportMs;
+
+    public static class Progress {
+        public final AtomicLong scanned = new AtomicLong();
+        public final AtomicLong replayed = new AtomicLong();
+        public final AtomicLong kept = new AtomicLong();
+        public final AtomicLong failed = new AtomicLong();
+        public long total;
+
+        @Override
+        public String toString() {
+            return "scanned:" + scanned.get() + "/" + total + " replayed:" + replayed.get() + " kept:" + kept.get()
+                    + " failed:" + failed.get();
+        }
+    }
+
+    private static class Delivery {
+        final long tag;
+        final AMQP.BasicProperties props;
+        final byte[] body;
+
+        Delivery(long tag, AMQP.BasicProperties props, byte[] body) {
+            this.tag = tag;
+            this.props = props;
+            this.body = body;
+        }
+    }
+
+    public DeadLetterReplay(RabbitConnectionManager connections, ConfirmingPublisher publisher, String queue,
+                            DeadLetterFilter filter, int prefetch, int rate, long reportMs) {
+        this.connections = connections;
+        this.publisher = publisher;
+        this.queue = queue;
+        this.filter = filter;
+        this.prefetch = Math.max(1, prefetch);
+        this.rate = rate;
+        this.reportMs = reportMs;
+    }
+
+    public Progress run() throws IOException, InterruptedException {
+        Progress progress = new Progress();
+        Channel channel = connections.connection().createChannel();
+        try {
+            GetDeadLetterMessages.declare(channel, queue);
+            progress.total = channel.queueDeclarePassive(queue).getMessageCount();
+            log.info("Replaying from " + queue + ": " + progress.total + " message(s)");
+            channel.basicQos(prefetch);
+            LinkedBlockingQueue<Delivery> deliveries = new LinkedBlockingQueue<>();
+            ConcurrentLinkedQueue<Long> acks = new ConcurrentLinkedQueue<>();
+            ConcurrentLinkedQueue<Long> requeues = new ConcurrentLinkedQueue<>();
+            String consumerTag = channel.basicConsume(queue, false, new DefaultConsumer(channel) {
+                @Override
+                public void handleDelivery(String tag, Envelope envelope, AMQP.BasicProperties props, byte[] body) {
+                    deliveries.add(new Delivery(envelope.getDeliveryTag(), props, body));
+                }
+            });
+
+            long intervalNanos = rate > 0 ? 1000000000L / rate : 0;
+            long nextSend = System.nanoTime();
+            long lastReport = System.currentTimeMillis();
+            long lastDelivery = lastReport;
+            while (progress.scanned.get() < progress.total) {
+                settle(channel, acks, requeues);
+                long now = System.currentTimeMillis();
+                if (now - lastReport >= reportMs) {
+                    log.info("Replay progress: " + progress);
+                    lastReport = now;
+                }
+                Delivery delivery = deliveries.poll(100, TimeUnit.MILLISECONDS);
+                if (delivery == null) {
+                    if (now - lastDelivery > IDLE_MS) {
+                        log.warn("No deliveries from " + queue + " for " + IDLE_MS + "ms, stopping.");
+                        break;
+                    }
+                    continue;
+                }
+                lastDelivery = now;
+                progress.scanned.incrementAndGet();
+                Map<String, Object> headers = delivery.props.getHeaders();
+                CompletableFuture<Void> confirm;
+                AtomicLong counter;
+                if (filter.matches(headers, () -> jobId(delivery))) {
+                    if (intervalNanos > 0) {
+                        long wait = nextSend - System.nanoTime();
+                        if (wait > 0) {
+                            LockSupport.parkNanos(wait);
+                        }
+                        nextSend = Math.max(nextSend, System.nanoTime() - intervalNanos) + intervalNanos;
+                    }
+                    confirm = publisher.publish("", DeadLetterFilter.originalQueue(headers), replayProps(delivery.props),
+                            delivery.body);
+                    counter = progress.replayed;
+                }
+                else { //to the back of the dead letter queue
+                    confirm = publisher.publish("", queue, delivery.props, delivery.body);
+                    counter = progress.kept;
+                }
+                confirm.whenComplete((ignored, error) -> {
+                    if (error == null) {
+                        counter.incrementAndGet();
+                        acks.add(delivery.tag);
+                    }
+                    else {
+                        progress.failed.incrementAndGet();
+                        requeues.add(delivery.tag);
+                    }
+                });
+            }
+            channel.basicCancel(consumerTag);
+            long deadline = System.currentTimeMillis() + ConfirmingPublisher.TIMEOUT_MS;
+            while (progress.replayed.get() + progress.kept.get() + progress.failed.get() < progress.scanned.get()
+                    && System.currentTimeMillis() < deadline) {
+                settle(channel, acks, requeues);
+                Thread.sleep(10);
+            }
+            settle(channel, acks, requeues);
+            log.info("Replay done: " + progress);
+            return progress;
+        }
+        finally {
+            try {
+                if (channel.isOpen()) {
+                    channel.close(); //anything not acked goes back to the dead letter queue
+                }
+            }
+            catch (Exception e) {
+                log.debug("Error closing replay channel.", e);
+            }
+        }
+    }
+
+    //Acks dead letters whose copies were confirmed and returns those whose copies weren't
+    private static void settle(Channel channel, ConcurrentLinkedQueue<Long> acks, ConcurrentLinkedQueue<Long> requeues)
+            throws IOException {
+        Long tag;
+        while ((tag = acks.poll()) != null) {
+            channel.basicAck(tag, false);
+        }
+        while ((tag = requeues.poll()) != null) {
+            channel.basicNack(tag, false, true);
+        }
+    }
+
+    //Original properties without the death history, and with a fresh set of retries
+    private static AMQP.BasicProperties replayProps(AMQP.BasicProperties props) {
+        Map<String, Object> headers = props.getHeaders() == null ? new HashMap<>() : new HashMap<>(props.getHeaders());
+        headers.remove(DeadLetterFilter.X_DEATH);
+        headers.remove("x-first-death-queue");
+        headers.remove("x-first-death-reason");
+        headers.remove("x-first-death-exchange");
+        headers.put(RetryPolicy.TIMES_SENT, 0);
+        return props.builder().headers(headers).expiration(null).build();
+    }
+
+    private static String jobId(Delivery delivery) {
+        try {
+            return LGPayload.deserialize(PayloadCodecs.decode(delivery.props.getContentEncoding(), delivery.body)).getJobId();
+        }
+        catch (Exception e) {
+            return null;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            String[] pair = arg.split("=", 2);
+            options.put(pair[0].replaceFirst("^--", ""), pair.length > 1 ? pair[1] : "");
+        }
+        DeadLetterFilter filter = new DeadLetterFilter(options.get("job"), options.get("adapter"), options.get("reason"));
+        int rate = options.containsKey("rate") ? Integer.parseInt(options.get("rate"))
+                : LGProperties.getInteger("deadletter.replay.rate", 500);
+        DeadLetterReplay replay = new DeadLetterReplay(RabbitConnectionManager.shared(), ConfirmingPublisher.shared(),
+                options.getOrDefault("queue", LGConstants.DEADLETTER_QUEUE), filter,
+                LGProperties.getInteger("deadletter.replay.prefetch", 500), rate,
+                LGProperties.getInteger("deadletter.replay.report.ms", 5000));
+        Progress progress = replay.run();
+        System.out.println("Done. " + progress);
+        ConfirmingPublisher.shared().close();
+        RabbitConnectionManager.shared().close();
+        System.exit(progress.failed.get() == 0 ? 0 : 1);
+    }
+}
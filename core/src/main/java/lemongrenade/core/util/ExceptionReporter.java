@@ -0,0 +1,296 @@
+package lemongrenade.core.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.*;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reports adapter exceptions to the Exceptions exchange off the processing threads.
+ *
+ * report() only puts the exception on a queue and returns. The queue is bounded by the estimated heap size of the
+ * reports ('exceptions.queue.mb'), so a burst of failures with big requests can't pile up; a report that doesn't fit
+ * is dropped and counted. Reports hold the task id and a rendering of the requests made by the caller, cut to
+ * 'exceptions.requests.max.chars' (see render), never the payload itself. A background thread collects reports for
+ * 'exceptions.window.ms', merges those with the same exception class and stack trace into one record with a count and
+ * the ids of (up to MAX_TASK_IDS of) the tasks that hit it, and sends the records. Stack traces are only rendered for
+ * the first report of each kind, on the background thread. The number of dropped reports is sent as a record of its
+ * own.
+ *
+ * Records are the HashMap<String, String> ExceptionWriter reads, with 'count', 'taskIds', 'firstSeen' and 'lastSeen'
+ * added.
+ */
+public class ExceptionReporter {
+    private static final Logger log = LoggerFactory.getLogger(ExceptionReporter.class);
+    public static final int MAX_TASK_IDS = 20;
+    //Longest rendering of a report's requests that is kept
+    public static final int MAX_REQUEST_CHARS = LGProperties.getInteger("exceptions.requests.max.chars", 4096);
+    //Heap estimate of a report besides its strings, and of each stack frame
+    private static final int REPORT_BYTES = 256;
+    private static final int FRAME_BYTES = 64;
+    private static ExceptionReporter shared = null;
+
+    public interface Sink {
+        void send(HashMap<String, String> record) throws Exception;
+    }
+
+    private static class Report {
+        final String taskId;
+        final String requests;
+        final Throwable error;
+        final long time;
+        final long bytes;
+
+        Report(String taskId, String requests, Throwable error, long time) {
+            this.taskId = taskId;
+            this.requests = requests;
+            this.error = error;
+            this.time = time;
+            this.bytes = estimate(taskId, requests, error);
+        }
+
+        //Same class, same frames and same cause class make the same kind of error; messages usually carry ids
+        List<Object> fingerprint() {
+            List<Object> key = new ArrayList<>();
+            key.add(error.getClass().getName());
+            key.add(Arrays.asList(error.getStackTrace()));
+            key.add(error.getCause() == null ? null : error.getCause().getClass().getName());
+            return key;
+        }
+    }
+
+    private static class Group {
+        final Report first;
+        final LinkedHashSet<String> taskIds = new LinkedHashSet<>();
+        int count = 0;
+        long lastSeen;
+
+        Group(Report first) {
+            this.first = first;
+        }
+
+        void add(Report report) {
+            count++;
+            lastSeen = report.time;
+            if (report.taskId != null && taskIds.size() < MAX_TASK_IDS) {
+                taskIds.add(report.taskId);
+            }
+        }
+    }
+
+    private final LinkedBlockingQueue<Report> queue = new LinkedBlockingQueue<>();
+    private final AtomicLong queuedBytes = new AtomicLong();
+    private final long maxBytes;
+    private final Sink sink;
+    private final long windowMs;
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong sent = new AtomicLong();
+    private volatile Thread worker = null;
+
+    public ExceptionReporter(Sink sink, long maxBytes, long windowMs) {
+        this.sink = sink;
+        this.maxBytes = Math.max(1, maxBytes);
+        this.windowMs = Math.max(1, windowMs);
+    }
+
+    //Reporter publishing through ExceptionWriter, shared by everything in this JVM
+    public static synchronized ExceptionReporter shared() {
+        if (shared == null) {
+            shared = new ExceptionReporter(ExceptionWriter::send,
+                    LGProperties.getInteger("exceptions.queue.mb", 16) * 1024L * 1024L,
+                    LGProperties.getInteger("exceptions.window.ms", 5000));
+            shared.start();
+        }
+        return shared;
+    }
+
+    /**
+     * Queues an exception report without waiting.
+     * @param requests rendering of the task's requests, e.g. from render(). Cut to MAX_REQUEST_CHARS.
+     * @return false if the queue was full and the report was dropped
+     */
+    public boolean report(String taskId, String requests, Throwable error) {
+        Report report = new Report(taskId, truncate(requests, MAX_REQUEST_CHARS), error, System.currentTimeMillis());
+        if (queuedBytes.addAndGet(report.bytes) <= maxBytes) {
+            queue.add(report);
+            return true;
+        }
+        queuedBytes.addAndGet(-report.bytes);
+        dropped.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Renders requests (e.g. a payload's request nodes) as a JSON array, one at a time until MAX_REQUEST_CHARS, so a
+     * big payload is never rendered in full for a report.
+     * @return rendering, ending in the number of items left out if it was cut
+     */
+    public static String render(List<?> items) {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < items.size(); i++) {
+            if (sb.length() >= MAX_REQUEST_CHARS) {
+                sb.append("... ").append(items.size() - i).append(" more");
+                break;
+            }
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(items.get(i));
+        }
+        return truncate(sb.append(']').toString(), MAX_REQUEST_CHARS);
+    }
+
+    static String truncate(String s, int maxChars) {
+        if (s == null || s.length() <= maxChars) {
+            return s;
+        }
+        return s.substring(0, maxChars) + "... (" + (s.length() - maxChars) + " more chars)";
+    }
+
+    //Rough heap size of a queued report
+    static long estimate(String taskId, String requests, Throwable error) {
+        long bytes = REPORT_BYTES + FRAME_BYTES * error.getStackTrace().length;
+        bytes += 2L * ((taskId == null ? 0 : taskId.length()) + (requests == null ? 0 : requests.length()));
+        return bytes;
+    }
+
+    /**
+     * Sends everything queued so far, one record per kind of error plus one for the reports dropped since the last
+     * flush.
+     * @return records sent
+     */
+    public int flush() {
+        return flush(null);
+    }
+
+    private int flush(Report head) {
+        List<Report> reports = new ArrayList<>();
+        if (head != null) {
+            reports.add(head);
+        }
+        queue.drainTo(reports);
+        for (Report report : reports) {
+            if (report != head) {
+                queuedBytes.addAndGet(-report.bytes);
+            }
+        }
+        LinkedHashMap<List<Object>, Group> groups = new LinkedHashMap<>();
+        for (Report report : reports) {
+            groups.computeIfAbsent(report.fingerprint(), key -> new Group(report)).add(report);
+        }
+        int count = 0;
+        for (Group group : groups.values()) {
+            count += send(record(group));
+        }
+        long lost = dropped.getAndSet(0);
+        if (lost > 0) {
+            log.warn("Dropped " + lost + " exception report(s), the report queue was full.");
+            HashMap<String, String> record = new HashMap<>();
+            record.put("cause", "ExceptionReporter: " + lost + " exception report(s) dropped, the report queue was full");
+            record.put("count", Long.toString(lost));
+            record.put("lastSeen", Long.toString(System.currentTimeMillis()));
+            count += send(record);
+        }
+        return count;
+    }
+
+    private int send(HashMap<String, String> record) {
+        try {
+            sink.send(record);
+            sent.incrementAndGet();
+            return 1;
+        }
+        catch (Exception e) {
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            log.error("Unable to send exception report: " + e.getMessage());
+            return 0;
+        }
+    }
+
+    private static HashMap<String, String> record(Group group) {
+        Report first = group.first;
+        HashMap<String, String> map = new HashMap<>();
+        map.put("taskId", first.taskId);
+        map.put("requests", first.requests);
+        map.put("cause", first.error.toString());
+        map.put("detailmessage", first.error.getMessage());
+        StringWriter sw = new StringWriter();
+        first.error.printStackTrace(new PrintWriter(sw));
+        map.put("stackTrace", sw.toString());
+        map.put("count", Integer.toString(group.count));
+        map.put("taskIds", String.join(",", group.taskIds));
+        map.put("firstSeen", Long.toString(first.time));
+        map.put("lastSeen", Long.toString(group.lastSeen));
+        return map;
+    }
+
+    //Starts the background thread that flushes every window
+    public synchronized void start() {
+        if (worker != null) {
+            return;
+        }
+        worker = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                Report head = null;
+                try {
+                    head = queue.poll(1, TimeUnit.SECONDS);
+                    if (head != null) {
+                        queuedBytes.addAndGet(-head.bytes);
+                    }
+                    if (head == null) {
+                        if (dropped.get() > 0) {
+                            flush();
+                        }
+                        continue;
+                    }
+                    Thread.sleep(windowMs); //let the rest of a storm arrive so it is merged
+                    flush(head);
+                }
+                catch (InterruptedException e) {
+                    if (head != null) {
+                        flush(head);
+                    }
+                    break;
+                }
+                catch (Exception e) {
+                    log.error("Exception reporter failed: " + e.getMessage());
+                }
+            }
+            flush();
+        }, "exception-reporter");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    //Stops the background thread after sending what is queued
+    public synchronized void close() throws InterruptedException {
+        if (worker != null) {
+            worker.interrupt();
+            worker.join(windowMs + 1000);
+            worker = null;
+        }
+    }
+
+    public int getQueued() {
+        return queue.size();
+    }
+
+    public long getQueuedBytes() {
+        return queuedBytes.get();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public long getSent() {
+        return sent.get();
+    }
+}
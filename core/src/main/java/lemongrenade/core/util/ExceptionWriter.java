@@ -1,14 +1,18 @@
 package lemongrenade.core.util;
 
+import lemongrenade.core.storm.ConfirmingPublisher;
+import lemongrenade.core.storm.RabbitConnectionManager;
 import org.apache.storm.shade.org.apache.commons.lang.SerializationUtils;
-import java.io.PrintWriter;
-import java.io.StringWriter;
 import java.util.HashMap;
 
 public class ExceptionWriter extends GetDeadLetterMessages {
 
+    private static final String EXCEPTIONS = "Exceptions";
+    private static volatile boolean declared = false;
+
     public ExceptionWriter() throws Exception {
-        super("Exceptions");
+        super(EXCEPTIONS);
+        declared = true;
     }
 
 //    public void publishException(Exception e) {
@@ -20,20 +24,33 @@ public class ExceptionWriter extends GetDeadLetterMessages {
 //    }
 
     public void publishException(String taskId, String requests, Exception e) {
-        try {
-            HashMap<String, String> map = new HashMap();
-            map.put("taskId", taskId);
-            map.put("requests", requests);
-            map.put("cause", e.toString());
-            map.put("detailmessage", e.getMessage());
-            StringWriter sw = new StringWriter();
-            PrintWriter pw = new PrintWriter(sw);
-            e.printStackTrace(pw);
-            map.put("stackTrace", sw.toString());
-            channel.basicPublish("Exceptions", "", null, SerializationUtils.serialize(map));
-        } catch (Exception e1) {
-            e1.printStackTrace();
+        report(taskId, requests, e);
+    }
+
+    /**
+     * Queues an adapter exception for the shared ExceptionReporter, which sends it to the Exceptions exchange in the
+     * background. Never waits on rabbit.
+     */
+    public static void report(String taskId, String requests, Exception e) {
+        ExceptionReporter.shared().report(taskId, requests, e);
+    }
+
+    //Publishes one exception record over the shared connection, declaring the exchange on first use
+    static void send(HashMap<String, String> record) throws Exception {
+        if (!declared) {
+            RabbitConnectionManager.shared().withChannel(channel -> {
+                declare(channel, EXCEPTIONS);
+                return null;
+            });
+            declared = true;
         }
+        ConfirmingPublisher.shared().publish(EXCEPTIONS, "", null, SerializationUtils.serialize(record))
+                .whenComplete((ignored, error) -> {
+                    if (error != null) {
+                        System.err.println("Exception report for task " + record.get("taskId") + " was not confirmed: "
+                                + error.getMessage());
+                    }
+                });
     }
 
     @Override
@@ -3,6 +3,7 @@ package lemongrenade.core.util;
 import com.rabbitmq.client.*;
 import io.latent.storm.rabbitmq.config.ConnectionConfig;
 import lemongrenade.core.models.LGPayload;
+import lemongrenade.core.storm.RabbitConnectionManager;
 import lemongrenade.core.templates.LGAdapter;
 import org.apache.storm.Config;
 import java.io.IOException;
@@ -28,16 +29,24 @@ public class GetDeadLetterMessages {
 
     public GetDeadLetterMessages(String queueName) throws Exception {
         this.queueName = queueName;
-        factory = new ConnectionFactory();
-        factory.setHost(rabbitmq_host);
-        connection = factory.newConnection();
-        channel = connection.createChannel();
+        channel = RabbitConnectionManager.shared().borrow();
+        connection = channel.getConnection();
 
         //Add Dead letter queue
+        declare(channel, queueName);
+        consumer = new QueueingConsumer(channel);
+    }
+
+    public static void declare(Channel channel, String queueName) throws IOException {
         channel.exchangeDeclare(queueName, "fanout", true);
         channel.queueDeclare(queueName, true, false, false, null);
         channel.queueBind(queueName, queueName, "");
-        consumer = new QueueingConsumer(channel);
+    }
+
+    //Gives the channel back to the shared pool. The connection is shared and stays open.
+    public void close() {
+        RabbitConnectionManager.shared().release(channel);
+        channel = null;
     }
 
     public void rePublish(GetResponse response) {
@@ -59,7 +68,7 @@ public class GetDeadLetterMessages {
     }
 
     public void printResponse(GetResponse response) {
-        byte[] body = response.getBody();
+        byte[] body = PayloadCodecs.decode(response.getProps().getContentEncoding(), response.getBody());
         printBody(body);
     }
 
@@ -31,6 +31,41 @@ public class JSONUtils {
         return diff;
     }
 
+    /**
+     * Returns a read-only deep copy of the input. Inputs that are already read-only are returned as is.
+     * @param json JSONObject to copy
+     * @return ReadOnlyJSONObject
+     */
+    public static JSONObject readOnly(JSONObject json) {
+        if (json instanceof ReadOnlyJSONObject) {
+            return json;
+        }
+        return new ReadOnlyJSONObject(json);
+    }
+
+    /**
+     * Returns a read-only deep copy of a JSONObject or JSONArray. Other values and read-only inputs are returned as is.
+     * @param value JSON value
+     * @return read-only value
+     */
+    public static Object readOnlyValue(Object value) {
+        if (value instanceof ReadOnlyJSONObject || value instanceof ReadOnlyJSONArray) {
+            return value;
+        }
+        if (value instanceof JSONObject) {
+            return new ReadOnlyJSONObject((JSONObject) value);
+        }
+        if (value instanceof JSONArray) {
+            return new ReadOnlyJSONArray((JSONArray) value);
+        }
+        return value;
+    }
+
+    //Returns a modifiable deep copy of the input
+    public static JSONObject copy(JSONObject json) {
+        return new JSONObject(json.toString());
+    }
+
     public static JSONObject apply(JSONObject json, JSONObject patch){
         JSONObject response = new JSONObject();
         for (String attr: json.keySet()){
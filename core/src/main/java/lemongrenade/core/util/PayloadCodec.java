@@ -0,0 +1,20 @@
+package lemongrenade.core.util;
+
+import java.io.IOException;
+
+/**
+ * Compression codec for message bodies sent over RabbitMQ. The name is sent as the AMQP content-encoding so the
+ * receiving spout knows how to decode the body.
+ *
+ * gzip and deflate are built in. Other codecs can be added by implementing this interface and listing the class in
+ * META-INF/services/lemongrenade.core.util.PayloadCodec. Select one with 'payload.compression'. See PayloadCodecs.
+ */
+public interface PayloadCodec {
+
+    //Value sent in the AMQP content-encoding header, e.g. "gzip"
+    String getName();
+
+    byte[] encode(byte[] data) throws IOException;
+
+    byte[] decode(byte[] data) throws IOException;
+}
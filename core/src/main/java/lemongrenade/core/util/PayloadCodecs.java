@@ -0,0 +1,192 @@
+package lemongrenade.core.util;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Registry of PayloadCodecs and the compression stage used by the rabbit sink schemes.
+ *
+ * Bodies smaller than 'payload.compression.threshold' bytes are sent as is. Larger bodies are compressed with the
+ * codec named by 'payload.compression' (none, gzip, deflate or the name of a PayloadCodec service) and the codec name
+ * is sent as the content-encoding. Messages without a content-encoding are read as is, so producers that don't
+ * compress keep working. Readers decode every registered codec regardless of 'payload.compression', so enable it
+ * only after every worker has been upgraded.
+ */
+public class PayloadCodecs {
+    private static final Logger log = LoggerFactory.getLogger(PayloadCodecs.class);
+    public static final String IDENTITY = "identity";
+
+    private static final Map<String, PayloadCodec> CODECS = new HashMap<>();
+    private static final int THRESHOLD = LGProperties.getInteger("payload.compression.threshold", 16384);
+    private static final int LEVEL = LGProperties.getInteger("payload.compression.level", Deflater.DEFAULT_COMPRESSION);
+
+    static {
+        register(new GzipCodec(LEVEL));
+        register(new DeflateCodec(LEVEL));
+        for (PayloadCodec codec : ServiceLoader.load(PayloadCodec.class)) {
+            log.info("Registering payload codec '" + codec.getName() + "'.");
+            register(codec);
+        }
+    }
+
+    private static final PayloadCodec DEFAULT = configured(LGProperties.get("payload.compression", "none"));
+
+    //A body ready to send and the content-encoding to send it with (null when not compressed)
+    public static class Encoded {
+        public final byte[] body;
+        public final String encoding;
+
+        Encoded(byte[] body, String encoding) {
+            this.body = body;
+            this.encoding = encoding;
+        }
+    }
+
+    public static void register(PayloadCodec codec) {
+        CODECS.put(codec.getName().toLowerCase(), codec);
+    }
+
+    /**
+     * @param name content-encoding name
+     * @return the codec, or null for none/identity
+     * @throws IllegalArgumentException if no codec is registered under the name
+     */
+    public static PayloadCodec lookup(String name) {
+        if (name == null || name.isEmpty() || name.equalsIgnoreCase("none") || name.equalsIgnoreCase(IDENTITY)) {
+            return null;
+        }
+        PayloadCodec codec = CODECS.get(name.toLowerCase());
+        if (codec == null) {
+            throw new IllegalArgumentException("Unknown payload encoding '" + name + "'.");
+        }
+        return codec;
+    }
+
+    private static PayloadCodec configured(String name) {
+        try {
+            return lookup(name);
+        }
+        catch (IllegalArgumentException e) {
+            log.error("Unknown payload.compression '" + name + "'. Sending payloads uncompressed.");
+            return null;
+        }
+    }
+
+    /**
+     * Compresses a body with the configured codec if it is at least the configured threshold.
+     * @param data serialized message
+     * @return Encoded body and content-encoding
+     */
+    public static Encoded encode(byte[] data) {
+        return encode(data, DEFAULT, THRESHOLD);
+    }
+
+    public static Encoded encode(byte[] data, PayloadCodec codec, int threshold) {
+        if (codec == null || data.length < threshold) {
+            return new Encoded(data, null);
+        }
+        try {
+            byte[] compressed = codec.encode(data);
+            if (compressed.length < data.length) {
+                return new Encoded(compressed, codec.getName());
+            }
+        }
+        catch (IOException e) {
+            log.warn("Unable to " + codec.getName() + " encode payload. Sending it uncompressed.", e);
+        }
+        return new Encoded(data, null);
+    }
+
+    /**
+     * @param encoding AMQP content-encoding of the message, may be null
+     * @param body message body
+     * @return decoded body
+     */
+    public static byte[] decode(String encoding, byte[] body) {
+        PayloadCodec codec = lookup(encoding);
+        if (codec == null) {
+            return body;
+        }
+        try {
+            return codec.decode(body);
+        }
+        catch (IOException e) {
+            throw new IllegalArgumentException("Unable to " + encoding + " decode payload.", e);
+        }
+    }
+
+    private static byte[] copy(InputStream in, int sizeHint) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(sizeHint);
+        IOUtils.copy(in, out);
+        in.close();
+        return out.toByteArray();
+    }
+
+    private static byte[] finish(OutputStream stream, ByteArrayOutputStream out, byte[] data) throws IOException {
+        stream.write(data);
+        stream.close();
+        return out.toByteArray();
+    }
+
+    public static class GzipCodec implements PayloadCodec {
+        private final int level;
+
+        public GzipCodec(int level) {
+            this.level = level;
+        }
+
+        @Override public String getName() { return "gzip"; }
+
+        @Override public byte[] encode(byte[] data) throws IOException {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 4 + 64);
+            GZIPOutputStream gzip = new GZIPOutputStream(out, 8192) {
+                { def.setLevel(level); }
+            };
+            return finish(gzip, out, data);
+        }
+
+        @Override public byte[] decode(byte[] data) throws IOException {
+            return copy(new GZIPInputStream(new ByteArrayInputStream(data), 8192), data.length * 4);
+        }
+    }
+
+    public static class DeflateCodec implements PayloadCodec {
+        private final int level;
+
+        public DeflateCodec(int level) {
+            this.level = level;
+        }
+
+        @Override public String getName() { return "deflate"; }
+
+        @Override public byte[] encode(byte[] data) throws IOException {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 4 + 64);
+            Deflater deflater = new Deflater(level);
+            try {
+                return finish(new DeflaterOutputStream(out, deflater, 8192), out, data);
+            }
+            finally {
+                deflater.end();
+            }
+        }
+
+        @Override public byte[] decode(byte[] data) throws IOException {
+            return copy(new InflaterInputStream(new ByteArrayInputStream(data)), data.length * 4);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package lemongrenade.core.util;
+
+import org.json.JSONArray;
+
+import java.util.Iterator;
+
+/**
+ * A JSONArray that throws UnsupportedOperationException on any modification. See ReadOnlyJSONObject.
+ */
+public class ReadOnlyJSONArray extends JSONArray {
+    private boolean locked = false;
+
+    ReadOnlyJSONArray(JSONArray source) {
+        super();
+        for (int i = 0; i < source.length(); i++) {
+            super.put(JSONUtils.readOnlyValue(source.get(i)));
+        }
+        locked = true;
+    }
+
+    private void check() {
+        if (locked) {
+            throw new UnsupportedOperationException("JSONArray is read-only. Copy it before modifying.");
+        }
+    }
+
+    @Override public JSONArray put(Object value) {
+        check();
+        return super.put(value);
+    }
+
+    @Override public JSONArray put(int index, Object value) {
+        check();
+        return super.put(index, value);
+    }
+
+    @Override public Object remove(int index) {
+        check();
+        return super.remove(index);
+    }
+
+    //Iterates the backing list, so its remove() has to be refused as well
+    @Override public Iterator<Object> iterator() {
+        Iterator<Object> iterator = super.iterator();
+        if (!locked) {
+            return iterator;
+        }
+        return new Iterator<Object>() {
+            @Override public boolean hasNext() { return iterator.hasNext(); }
+            @Override public Object next() { return iterator.next(); }
+            @Override public void remove() { check(); }
+        };
+    }
+}
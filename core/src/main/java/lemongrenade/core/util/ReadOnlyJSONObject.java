@@ -0,0 +1,50 @@
+package lemongrenade.core.util;
+
+import org.json.JSONObject;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Set;
+
+/**
+ * A JSONObject that throws UnsupportedOperationException on any modification. Nested objects and arrays are
+ * read-only as well. Used to hand out shared, cached job configs without copying them for every caller.
+ *
+ * Build one with JSONUtils.readOnly(JSONObject). Call JSONUtils.copy(...) for a modifiable copy.
+ */
+public class ReadOnlyJSONObject extends JSONObject {
+    private boolean locked = false;
+
+    ReadOnlyJSONObject(JSONObject source) {
+        super();
+        for (String key : source.keySet()) {
+            super.put(key, JSONUtils.readOnlyValue(source.get(key)));
+        }
+        locked = true;
+    }
+
+    private void check() {
+        if (locked) {
+            throw new UnsupportedOperationException("JSONObject is read-only. Copy it before modifying.");
+        }
+    }
+
+    @Override public JSONObject put(String key, Object value) {
+        check();
+        return super.put(key, value);
+    }
+
+    @Override public Object remove(String key) {
+        check();
+        return super.remove(key);
+    }
+
+    //The key set is a live view of the object, so it can't be handed out modifiable either
+    @Override public Set<String> keySet() {
+        return locked ? Collections.unmodifiableSet(super.keySet()) : super.keySet();
+    }
+
+    @Override public Iterator<String> keys() {
+        return keySet().iterator();
+    }
+}
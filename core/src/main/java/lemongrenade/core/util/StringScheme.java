@@ -4,6 +4,7 @@ import org.apache.storm.spout.Scheme;
 import org.apache.storm.tuple.Fields;
 import org.apache.storm.tuple.Values;
 import lemongrenade.core.models.LGPayload;
+import lemongrenade.core.models.LGWireFormat;
 import java.nio.ByteBuffer;
 import java.util.List;
 
@@ -15,7 +16,7 @@ public class StringScheme implements Scheme {
 
     @Override
     public List<Object> deserialize(ByteBuffer byteBuffer) {
-        LGPayload payload = LGPayload.deserialize(byteBuffer.array());
+        LGPayload payload = LGPayload.deserialize(LGWireFormat.toBytes(byteBuffer));
         return new Values(payload.getJobId(), payload);
     }
 
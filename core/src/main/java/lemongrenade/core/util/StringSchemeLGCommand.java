@@ -1,6 +1,7 @@
 package lemongrenade.core.util;
 
 import lemongrenade.core.models.LGCommand;
+import lemongrenade.core.models.LGWireFormat;
 import org.apache.storm.spout.Scheme;
 import org.apache.storm.tuple.Fields;
 import org.apache.storm.tuple.Values;
@@ -15,7 +16,7 @@ public class StringSchemeLGCommand implements Scheme{
 
     @Override
     public List<Object> deserialize(ByteBuffer byteBuffer) {
-        LGCommand cmd = LGCommand.deserialize(byteBuffer.array());
+        LGCommand cmd = LGCommand.deserialize(LGWireFormat.toBytes(byteBuffer));
         return new Values(cmd.getJobId(), cmd);
     }
 
@@ -0,0 +1,66 @@
+package lemongrenade.core.util;
+
+import lemongrenade.core.coordinator.JobManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Rebuilds the per-job task counters (LGJob.TASK_COUNTS) from the tasks collection.
+ *
+ * The coordinator keeps the counters with an $inc on every task transition and decides a job is finished when its
+ * PROCESSING counter reaches 0. Run this to give jobs created before the counters existed a set of their own (until
+ * then they are counted from their taskMap) or to fix counters that drifted, e.g. after tasks were edited by hand.
+ * Rebuilding a job that is still running can race with its transitions, so prefer to run it on idle jobs. Progress is
+ * logged every 'taskcount.repair.report.every' jobs.
+ *
+ * Usage: TaskCountRepair [jobId ...]   (no ids: every job)
+ */
+public class TaskCountRepair {
+    private static final Logger log = LoggerFactory.getLogger(TaskCountRepair.class);
+
+    /**
+     * @param jobIds jobs to rebuild
+     * @return number of jobs whose counters were rebuilt
+     */
+    public static int repair(List<String> jobIds) {
+        int reportEvery = Math.max(1, LGProperties.getInteger("taskcount.repair.report.every", 1000));
+        int repaired = 0;
+        int missing = 0;
+        int failed = 0;
+        for (int i = 0; i < jobIds.size(); i++) {
+            String jobId = jobIds.get(i);
+            try {
+                Map<String, Integer> counts = JobManager.rebuildTaskCounts(jobId);
+                if (counts == null) {
+                    log.warn("No job:" + jobId);
+                    missing++;
+                }
+                else {
+                    log.debug("Job:" + jobId + " task counts:" + counts);
+                    repaired++;
+                }
+            }
+            catch (Exception e) {
+                log.error("Unable to rebuild task counts for job:" + jobId + " Error:" + e.getMessage());
+                failed++;
+            }
+            if ((i + 1) % reportEvery == 0) {
+                log.info("Repair progress: " + (i + 1) + "/" + jobIds.size());
+            }
+        }
+        log.info("Repair done: repaired:" + repaired + " missing:" + missing + " failed:" + failed);
+        return repaired;
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<String> jobIds = args.length > 0 ? Arrays.asList(args) : JobManager.getJobIds();
+        int repaired = repair(jobIds);
+        System.out.println("Done. Rebuilt task counts for " + repaired + "/" + jobIds.size() + " job(s).");
+        JobManager.close();
+        System.exit(repaired == jobIds.size() ? 0 : 1);
+    }
+}
@@ -92,6 +92,10 @@ public class AdapterManagerTest extends TestCase {
         String id2= am.findBestAdapterByAdapterName("testadapter2");
         assertEquals(id2,"002");
 
+        // Tasks go to the instance's own queue unless adapter.dispatch=shared
+        String expectedQueue = LGAdapterModel.SHARED_DISPATCH ? "testadapter1-shared" : "testadapter1-001";
+        assertEquals(expectedQueue, am.getAdapterQueueNameById("001"));
+
         JSONObject diff = new JSONObject("{\"type\":\"id\",\"value\":\"e2ec2796-8d5f-404d-83dd-f839b8d3874c\",\"hello\":\"world\"}");
         List adapterList= am.buildUniqueAdapterListBasedOnRequiredKeys(diff);
         assertEquals(adapterList.get(0), "002");
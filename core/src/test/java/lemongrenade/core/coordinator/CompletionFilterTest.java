@@ -0,0 +1,164 @@
+package lemongrenade.core.coordinator;
+
+import lemongrenade.core.models.LGTask;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class CompletionFilterTest {
+    private static final long LEASE_MS = 1000;
+    private final Map<String, Task> tasks = new HashMap<>();
+    private final AtomicInteger lookups = new AtomicInteger();
+    private long now = 10000;
+
+    private static class Task {
+        final String jobId = "job";
+        int status;
+        String claimedBy;
+        long claimedAt;
+
+        Task(int status) {
+            this.status = status;
+        }
+    }
+
+    //Stand-in for the conditional updates on the task documents, see LGTaskDAOImpl.claim/unclaim
+    private CompletionFilter.Claims claims(String owner) {
+        return new CompletionFilter.Claims() {
+            @Override public CompletionFilter.Claim claim(String jobId, String taskId) {
+                lookups.incrementAndGet();
+                Task task = tasks.get(taskId);
+                if (task == null) {
+                    return CompletionFilter.Claim.UNKNOWN;
+                }
+                if (!task.jobId.equals(jobId)) {
+                    return CompletionFilter.Claim.FOREIGN;
+                }
+                if (task.status != LGTask.TASK_STATUS_PROCESSING) {
+                    return CompletionFilter.Claim.FINISHED;
+                }
+                if (task.claimedBy != null && !task.claimedBy.equals(owner) && task.claimedAt >= now - LEASE_MS) {
+                    return CompletionFilter.Claim.HELD;
+                }
+                task.claimedBy = owner;
+                task.claimedAt = now;
+                return CompletionFilter.Claim.CLAIMED;
+            }
+
+            @Override public void release(String taskId) {
+                Task task = tasks.get(taskId);
+                if (task != null && owner.equals(task.claimedBy) && task.status == LGTask.TASK_STATUS_PROCESSING) {
+                    task.claimedBy = null;
+                }
+            }
+        };
+    }
+
+    private CompletionFilter filter(String owner) {
+        return new CompletionFilter(claims(owner), 100);
+    }
+
+    @Test public void testCopiesOfAResponseInFlightAreDropped() throws Exception {
+        tasks.put("task", new Task(LGTask.TASK_STATUS_PROCESSING));
+        CompletionFilter filter = filter("0:coordinator:0");
+        assert filter.accept("job", "task");
+        assert !filter.accept("job", "task");
+        assert !filter.accept("job", "task");
+        assert tasks.get("task").status == LGTask.TASK_STATUS_PROCESSING; //the claim doesn't change the status
+        assert lookups.get() == 1; //copies were dropped from memory
+        assert filter.getDuplicates() == 2;
+    }
+
+    @Test public void testCopyAtAnotherExecutorIsDroppedWhileClaimed() throws Exception {
+        tasks.put("task", new Task(LGTask.TASK_STATUS_PROCESSING));
+        CompletionFilter first = filter("0:coordinator:0");
+        CompletionFilter other = filter("0:coordinator:1");
+        assert first.accept("job", "task");
+        assert !other.accept("job", "task");
+        assert !other.accept("job", "task"); //still held, so asked again
+        assert lookups.get() == 3;
+        assert (long) other.getValueAndReset().get("held") == 2;
+    }
+
+    @Test public void testCopiesOfAFinishedTaskAreDropped() throws Exception {
+        tasks.put("task", new Task(LGTask.TASK_STATUS_PROCESSING));
+        CompletionFilter filter = filter("0:coordinator:0");
+        assert filter.accept("job", "task");
+        tasks.get("task").status = LGTask.TASK_STATUS_COMPLETE; //graph work done
+        filter.finish("task", true);
+        assert tasks.get("task").claimedBy != null; //nothing extra written on success
+        assert !filter.accept("job", "task");
+        assert !filter.accept("job", "task");
+        assert !filter("0:coordinator:1").accept("job", "task");
+        assert lookups.get() == 3; //the second copy was dropped from memory
+    }
+
+    @Test public void testExpiredClaimIsTakenOver() throws Exception {
+        tasks.put("task", new Task(LGTask.TASK_STATUS_PROCESSING));
+        assert filter("0:coordinator:0").accept("job", "task"); //worker dies before the graph work is done
+        CompletionFilter other = filter("0:coordinator:1");
+        assert !other.accept("job", "task");
+        now += LEASE_MS + 1;
+        assert other.accept("job", "task"); //the replay
+        assert tasks.get("task").claimedBy.equals("0:coordinator:1");
+    }
+
+    @Test public void testRestartedExecutorReclaimsItsTasks() throws Exception {
+        tasks.put("task", new Task(LGTask.TASK_STATUS_PROCESSING));
+        assert filter("0:coordinator:0").accept("job", "task"); //worker dies before the graph work is done
+        assert filter("0:coordinator:0").accept("job", "task"); //same task index after the restart, no waiting on the lease
+    }
+
+    @Test public void testFailedProcessingReleasesTheClaim() throws Exception {
+        tasks.put("task", new Task(LGTask.TASK_STATUS_PROCESSING));
+        CompletionFilter filter = filter("0:coordinator:0");
+        assert filter.accept("job", "task");
+        filter.finish("task", false); //nothing was written
+        assert tasks.get("task").claimedBy == null;
+        assert filter("0:coordinator:1").accept("job", "task");
+        assert (long) filter.getValueAndReset().get("released") == 1;
+    }
+
+    @Test public void testFinishOfACopyThatWasNotAcceptedIsIgnored() throws Exception {
+        tasks.put("task", new Task(LGTask.TASK_STATUS_PROCESSING));
+        CompletionFilter filter = filter("0:coordinator:0");
+        filter.finish("task", false);
+        assert (long) filter.getValueAndReset().get("released") == 0;
+    }
+
+    @Test public void testReplayedTaskResponsesAreDropped() throws Exception {
+        tasks.put("task", new Task(LGTask.TASK_STATUS_REPLAYED));
+        assert !filter("0:coordinator:0").accept("job", "task");
+    }
+
+    @Test public void testResponseForATaskOfAnotherJobIsDropped() throws Exception {
+        tasks.put("task", new Task(LGTask.TASK_STATUS_PROCESSING));
+        CompletionFilter filter = filter("0:coordinator:0");
+        assert !filter.accept("other-job", "task");
+        assert tasks.get("task").claimedBy == null;
+        assert filter.accept("job", "task");
+    }
+
+    @Test public void testUnknownTasksAndSeedsPass() throws Exception {
+        CompletionFilter filter = filter("0:coordinator:0");
+        assert filter.accept("job", "seed");
+        assert filter.accept("job", "seed");
+        assert filter.accept("job", null);
+        assert filter.accept("job", "");
+        assert filter.getDuplicates() == 0;
+    }
+
+    @Test public void testRecentSetIsBounded() throws Exception {
+        CompletionFilter filter = new CompletionFilter(claims("0:coordinator:0"), 10);
+        for (int i = 0; i < 1000; i++) {
+            tasks.put("task-" + i, new Task(LGTask.TASK_STATUS_COMPLETE));
+            assert !filter.accept("job", "task-" + i);
+        }
+        assert (int) filter.getValueAndReset().get("recent") == 10;
+        lookups.set(0);
+        assert !filter.accept("job", "task-0"); //forgotten, but the claim still fails
+        assert lookups.get() == 1;
+    }
+}
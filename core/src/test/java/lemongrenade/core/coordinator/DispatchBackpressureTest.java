@@ -0,0 +1,105 @@
+package lemongrenade.core.coordinator;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+public class DispatchBackpressureTest {
+
+    //Producer far faster than the adapter: the queue never goes past the high watermark and nothing is lost
+    @Test public void testQueueDepthStaysBoundedUnderLoad() throws Exception {
+        long[] depth = {0};
+        DispatchBackpressure<Integer> backpressure = new DispatchBackpressure<>(queue -> depth[0], 1000, 500, 250);
+        int sent = 0;
+        int delivered = 0;
+        int consumed = 0;
+        long maxDepth = 0;
+        int task = 0;
+        for (long now = 0; now < 120000; now += 100) {
+            if (now < 5000) { //2000 new tasks every 100ms, spread over 10 jobs
+                for (int i = 0; i < 2000; i++, task++) {
+                    if (backpressure.tryAcquire("adapter", now)) {
+                        depth[0]++;
+                        sent++;
+                    }
+                    else {
+                        backpressure.park("adapter", "job-" + (task % 10), task);
+                    }
+                }
+            }
+            if (now % 1000 == 0) { //tick
+                for (List<Integer> released : backpressure.release(now).values()) {
+                    depth[0] += released.size();
+                    delivered += released.size();
+                }
+            }
+            maxDepth = Math.max(maxDepth, depth[0]);
+            long take = Math.min(depth[0], 100); //adapter handles 1000 a second
+            depth[0] -= take;
+            consumed += take;
+        }
+        assert maxDepth <= 1000 : maxDepth;
+        assert backpressure.getParked() == 0;
+        assert sent + delivered == task;
+        assert consumed == task;
+    }
+
+    @Test public void testParkedJobsAreReleasedInTurn() throws Exception {
+        long[] depth = {10};
+        DispatchBackpressure<String> backpressure = new DispatchBackpressure<>(queue -> depth[0], 10, 5, 0);
+        assert !backpressure.tryAcquire("adapter", 0);
+        for (int i = 0; i < 100; i++) {
+            backpressure.park("adapter", "big", "big-" + i);
+        }
+        backpressure.park("adapter", "small", "small-0");
+
+        depth[0] = 8; //drained a little, but not down to the low watermark
+        assert backpressure.release(1).isEmpty();
+
+        depth[0] = 7;
+        assert backpressure.release(2).isEmpty(); //still blocked
+        depth[0] = 5;
+        List<String> released = backpressure.release(3).get("adapter");
+        assert released.size() == 5;
+        assert released.get(0).equals("big-0");
+        assert released.get(1).equals("small-0");
+        assert released.get(2).equals("big-1");
+        assert backpressure.getParked("adapter") == 96;
+    }
+
+    @Test public void testNewTasksDoNotOvertakeParkedOnes() throws Exception {
+        long[] depth = {10};
+        DispatchBackpressure<String> backpressure = new DispatchBackpressure<>(queue -> depth[0], 10, 5, 0);
+        assert !backpressure.tryAcquire("adapter", 0);
+        backpressure.park("adapter", "job", "first");
+        depth[0] = 0;
+        assert !backpressure.tryAcquire("adapter", 1);
+        assert backpressure.tryAcquire("other-adapter", 1);
+        assert backpressure.release(2).get("adapter").get(0).equals("first");
+        assert backpressure.tryAcquire("adapter", 3);
+    }
+
+    @Test public void testStoppedJobIsForgotten() throws Exception {
+        DispatchBackpressure<String> backpressure = new DispatchBackpressure<>(queue -> 100, 10, 5, 0);
+        backpressure.park("a", "stopped", "1");
+        backpressure.park("b", "stopped", "2");
+        backpressure.park("b", "running", "3");
+        assert backpressure.removeJob("stopped").size() == 2;
+        assert backpressure.getParked() == 1;
+        assert backpressure.getParked("b") == 1;
+        Map<String, Object> metric = backpressure.getValueAndReset();
+        assert metric.get("parked").equals(1);
+        assert metric.get("deferrals").equals(3L);
+    }
+
+    @Test public void testDisabledNeverParksOrSamples() throws Exception {
+        DispatchBackpressure<String> backpressure = new DispatchBackpressure<>(queue -> {
+            throw new IOException("not sampled");
+        }, 0, 0, 0);
+        for (int i = 0; i < 1000; i++) {
+            assert backpressure.tryAcquire("adapter", i);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package lemongrenade.core.coordinator;
+
+import lemongrenade.core.models.LGAdapterModel;
+import lemongrenade.core.models.LGJob;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class DispatchPlanCacheTest {
+    private final List<LGAdapterModel> registry = new ArrayList<>();
+    private final AtomicInteger reads = new AtomicInteger();
+    private final AtomicInteger builds = new AtomicInteger();
+
+    private List<LGAdapterModel> read() {
+        reads.incrementAndGet();
+        return new ArrayList<>(registry);
+    }
+
+    //Stand-in for DispatchPlan.build: one target per registered adapter, all on the adapter's own query
+    private DispatchPlan build(LGJob job, List<LGAdapterModel> adapters) {
+        builds.incrementAndGet();
+        Map<String, List<DispatchPlan.Target>> targets = new HashMap<>();
+        for (LGAdapterModel a : adapters) {
+            targets.computeIfAbsent(a.getGraphQuery(), key -> new ArrayList<>())
+                    .add(new DispatchPlan.Target(a.getId(), a.getName(), a.getMaxNodesPerTask()));
+        }
+        return new DispatchPlan(targets);
+    }
+
+    private DispatchPlanCache cache(long ttlMs) {
+        return new DispatchPlanCache(this::read, this::build, 10, ttlMs);
+    }
+
+    private LGJob job(String jobId) {
+        return new LGJob(jobId, new ArrayList<>(Collections.singletonList("helloworld")), new JSONObject().put("depth", 2));
+    }
+
+    @Test public void testPlanIsReusedWithinTtl() throws Exception {
+        registry.add(new LGAdapterModel("1", "helloworld", "n()", 0, 0, new JSONObject()));
+        DispatchPlanCache cache = cache(1000);
+        LGJob job = job("job");
+        DispatchPlan first = cache.get(job, 0);
+        assert cache.get(job, 500) == first;
+        assert cache.get(job, 999) == first;
+        assert builds.get() == 1 && reads.get() == 1;
+        Map<String, Object> metric = cache.getValueAndReset();
+        assert (long) metric.get("hits") == 2 && (long) metric.get("builds") == 1;
+    }
+
+    @Test public void testSharedQueryIsPlannedOnce() throws Exception {
+        registry.add(new LGAdapterModel("1", "helloworld", "n()", 0, 0, new JSONObject()));
+        registry.add(new LGAdapterModel("2", "plusbang", "n()", 0, 5, new JSONObject()));
+        registry.add(new LGAdapterModel("3", "other", "e()", 0, 0, new JSONObject()));
+        DispatchPlan plan = cache(1000).get(job("job"), 0);
+        assert plan.getQueries().size() == 2;
+        assert plan.getTargets("n()").size() == 2;
+        assert plan.getTargets("e()").get(0).getAdapterId().equals("3");
+        assert plan.getTargets("n(type~/x/)").isEmpty();
+        assert plan.getTargetCount() == 3;
+    }
+
+    @Test public void testConfigOrAdapterChangeRebuildsPlan() throws Exception {
+        registry.add(new LGAdapterModel("1", "helloworld", "n()", 0, 0, new JSONObject()));
+        DispatchPlanCache cache = cache(60000);
+        LGJob job = job("job");
+        DispatchPlan first = cache.get(job, 0);
+        job.setJobConfig(new JSONObject().put("depth", 3).toString());
+        DispatchPlan second = cache.get(job, 1);
+        assert second != first;
+        job.addApprovedAdapter("plusbang");
+        assert cache.get(job, 2) != second;
+        assert builds.get() == 3 && reads.get() == 1;
+    }
+
+    @Test public void testRegistryChangeRebuildsEveryPlan() throws Exception {
+        registry.add(new LGAdapterModel("1", "helloworld", "n()", 0, 0, new JSONObject()));
+        DispatchPlanCache cache = cache(1000);
+        LGJob a = job("a");
+        LGJob b = job("b");
+        DispatchPlan planA = cache.get(a, 0);
+        cache.get(b, 0);
+        registry.get(0).setStatus(LGAdapterModel.STATUS_OFFLINE);
+        assert cache.get(a, 999) == planA; //not read again yet
+        DispatchPlan newA = cache.get(a, 1000);
+        assert newA != planA;
+        cache.get(b, 1001);
+        assert builds.get() == 4 && reads.get() == 2;
+        assert (long) cache.getValueAndReset().get("registryChanges") == 1;
+    }
+
+    @Test public void testUnchangedRegistryKeepsPlans() throws Exception {
+        LGAdapterModel adapter = new LGAdapterModel("1", "helloworld", "n()", 0, 0, new JSONObject());
+        registry.add(adapter);
+        DispatchPlanCache cache = cache(1000);
+        LGJob job = job("job");
+        DispatchPlan first = cache.get(job, 0);
+        adapter.setTaskCount(adapter.getTaskCount() + 10); //task counts don't change a plan
+        registry.clear();
+        registry.addAll(Arrays.asList(adapter));
+        assert cache.get(job, 5000) == first;
+        assert reads.get() == 2 && builds.get() == 1;
+    }
+
+    @Test public void testInvalidateDropsPlan() throws Exception {
+        registry.add(new LGAdapterModel("1", "helloworld", "n()", 0, 0, new JSONObject()));
+        DispatchPlanCache cache = cache(60000);
+        LGJob job = job("job");
+        DispatchPlan first = cache.get(job, 0);
+        cache.invalidate("job");
+        assert cache.size() == 0;
+        assert cache.get(job, 1) != first;
+    }
+}
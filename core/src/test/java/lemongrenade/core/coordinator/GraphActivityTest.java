@@ -0,0 +1,60 @@
+package lemongrenade.core.coordinator;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class GraphActivityTest {
+    private final Map<String, Integer> stored = new HashMap<>();
+    private int writes = 0;
+
+    //Stand-in for the $max update of the job document
+    private void write(String jobId, int activity) {
+        writes++;
+        stored.merge(jobId, activity, Math::max);
+    }
+
+    @Test public void testActivityIsWrittenOnFlushOnly() throws Exception {
+        GraphActivity activity = new GraphActivity(this::write, 10, 5000, 0);
+        assert activity.record("job", 10) == 10;
+        assert activity.record("job", 25) == 25;
+        assert activity.record("job", 20) == 25; //never goes back
+        assert writes == 0;
+        assert activity.flush(4999) == 0;
+        assert activity.flush(5000) == 1;
+        assert stored.get("job") == 25;
+        assert activity.flush(10000) == 0; //nothing moved
+        assert writes == 1;
+    }
+
+    @Test public void testZeroIntervalWritesEveryChange() throws Exception {
+        GraphActivity activity = new GraphActivity(this::write, 10, 0, 0);
+        activity.record("job", 10);
+        activity.record("job", 10);
+        activity.record("job", 11);
+        assert writes == 2;
+        assert stored.get("job") == 11;
+    }
+
+    @Test public void testStoredValueIsFoldedIn() throws Exception {
+        GraphActivity activity = new GraphActivity(this::write, 10, 5000, 0);
+        activity.record("job", 30);
+        assert activity.get("job", 0) == 30; //job reloaded from mongo before the flush
+        assert activity.get("job", 40) == 40; //written by another coordinator
+        assert activity.getDirty() == 0;
+        assert activity.get("other", 7) == 7;
+    }
+
+    @Test public void testEvictedValueIsWrittenFirst() throws Exception {
+        GraphActivity activity = new GraphActivity(this::write, 2, 60000, 0);
+        activity.record("a", 1);
+        activity.record("b", 2);
+        activity.record("c", 3);
+        assert writes == 1 && stored.get("a") == 1;
+        activity.flush("b");
+        assert stored.get("b") == 2;
+        assert activity.flushAll() == 1 && stored.get("c") == 3;
+        assert (long) activity.getValueAndReset().get("writes") == 3;
+    }
+}
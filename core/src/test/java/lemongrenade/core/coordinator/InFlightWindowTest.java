@@ -0,0 +1,111 @@
+package lemongrenade.core.coordinator;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+public class InFlightWindowTest {
+    private final List<String> log = new ArrayList<>();
+
+    @Test public void testCallbacksRunOnlyWhenDrained() throws Exception {
+        InFlightWindow window = new InFlightWindow(4, 100);
+        CompletableFuture<String> call = new CompletableFuture<>();
+        window.submit("job", () -> window.start("job", () -> call, (result, error) -> log.add(result)));
+        call.complete("posted"); //completes on another thread in the coordinator
+        assert log.isEmpty();
+        assert window.drain() == 1;
+        assert log.size() == 1 && log.get(0).equals("posted");
+        assert !window.isBusy("job");
+    }
+
+    @Test public void testOpenWindowRunsCallbacksWhenCallsComplete() throws Exception {
+        InFlightWindow window = new InFlightWindow(4, 100);
+        window.open("callbacks");
+        try {
+            CompletableFuture<String> call = new CompletableFuture<>();
+            synchronized (window) { //the bolt holds the lock while it handles a tuple
+                window.submit("job", () -> window.start("job", () -> call, (result, error) -> log.add(result)));
+                call.complete("posted");
+                Thread.sleep(50);
+                assert log.isEmpty();
+            }
+            assert window.awaitIdle(1000); //no drain(), the window's thread ran the callback
+            assert log.size() == 1 && log.get(0).equals("posted");
+        }
+        finally {
+            window.close();
+        }
+    }
+
+    @Test public void testWorkForABusyJobWaitsInOrder() throws Exception {
+        InFlightWindow window = new InFlightWindow(4, 100);
+        CompletableFuture<String> post = new CompletableFuture<>();
+        CompletableFuture<String> query = new CompletableFuture<>();
+        window.submit("job", () -> window.start("job", () -> post, (result, error) -> {
+            log.add("post");
+            window.start("job", () -> query, (r, e) -> log.add("query"));
+        }));
+        window.submit("job", () -> log.add("second"));
+        window.submit("other", () -> log.add("other"));
+        assert log.size() == 1 && log.get(0).equals("other"); //other jobs don't wait
+        post.complete("");
+        window.drain();
+        assert window.isBusy("job");
+        query.complete("");
+        window.drain();
+        assert log.get(1).equals("post") && log.get(2).equals("query") && log.get(3).equals("second");
+        assert !window.isBusy("job");
+    }
+
+    @Test public void testCallsBeyondCapacityWaitForASlot() throws Exception {
+        InFlightWindow window = new InFlightWindow(1, 100);
+        CompletableFuture<String> first = new CompletableFuture<>();
+        CompletableFuture<String> second = new CompletableFuture<>();
+        List<String> started = new ArrayList<>();
+        window.submit("a", () -> window.start("a", () -> { started.add("a"); return first; }, (r, e) -> log.add("a")));
+        window.submit("b", () -> window.start("b", () -> { started.add("b"); return second; }, (r, e) -> log.add("b")));
+        assert started.size() == 1 && window.getInFlight() == 1;
+        first.complete("");
+        window.drain();
+        assert started.size() == 2 && window.getInFlight() == 1;
+        second.complete("");
+        window.drain();
+        assert log.size() == 2 && window.getInFlight() == 0;
+    }
+
+    @Test public void testFailedCallStillReachesItsCallback() throws Exception {
+        InFlightWindow window = new InFlightWindow(2, 100);
+        List<Throwable> errors = new ArrayList<>();
+        window.submit("job", () -> window.start("job", () -> { throw new IllegalStateException("down"); },
+                (result, error) -> errors.add(error)));
+        window.drain();
+        assert errors.size() == 1 && errors.get(0).getMessage().equals("down");
+        assert !window.isBusy("job");
+        assert window.awaitIdle(10);
+    }
+
+    @Test public void testSubmitWaitsForRoomWhenTooMuchIsWaiting() throws Exception {
+        InFlightWindow window = new InFlightWindow(4, 1);
+        CompletableFuture<String> post = new CompletableFuture<>();
+        window.submit("job", () -> window.start("job", () -> post, (result, error) -> log.add("post")));
+        window.submit("job", () -> log.add("second"));
+        assert window.getWaiting() == 1;
+        Thread lemongraph = new Thread(() -> {
+            try {
+                Thread.sleep(50);
+            }
+            catch (InterruptedException e) {
+                return;
+            }
+            post.complete("");
+        });
+        lemongraph.start();
+        window.submit("job", () -> log.add("third")); //waits for the post instead of queueing a second piece of work
+        lemongraph.join();
+        assert log.size() == 3 && log.get(0).equals("post") && log.get(1).equals("second") && log.get(2).equals("third");
+        assert window.getWaiting() == 0 && !window.isBusy("job");
+        assert (long) window.getValueAndReset().get("stalls") == 1;
+    }
+}
@@ -0,0 +1,78 @@
+package lemongrenade.core.coordinator;
+
+import lemongrenade.core.models.LGJob;
+import lemongrenade.core.models.LGPayload;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+public class JobConfigCacheTest {
+    private final Map<String, String> saved = new HashMap<>();
+    private int saves = 0;
+
+    @Before public void setUp() {
+        JobConfigCache.clear();
+        JobConfigCache.setStore(new JobConfigCache.Store() {
+            @Override public void save(String jobId, String hash, String config) {
+                saves++;
+                saved.put(jobId + "/" + hash, config);
+            }
+
+            @Override public String load(String jobId, String hash) {
+                return saved.get(jobId + "/" + hash);
+            }
+        });
+    }
+
+    @After public void tearDown() {
+        JobConfigCache.clear();
+    }
+
+    private LGJob job(JSONObject config) {
+        LGJob job = new LGJob("job", new ArrayList<>(Collections.singletonList("helloworld")), config);
+        job.setJobConfigSaved();
+        return job;
+    }
+
+    private LGPayload send(LGJob job) {
+        LGPayload payload = new LGPayload(job.getJobId());
+        JobConfigCache.setJobConfig(payload, job);
+        return payload;
+    }
+
+    @Test public void testEachVersionIsSavedOnce() throws Exception {
+        LGJob job = job(new JSONObject().put("depth", 2));
+        String hash = send(job).getJobConfigHash();
+        send(job);
+        assert saves == 1;
+        assert new JSONObject(saved.get("job/" + hash)).getInt("depth") == 2;
+    }
+
+    @Test public void testTaskKeepsItsConfigAfterTheJobConfigChanged() throws Exception {
+        LGJob job = job(new JSONObject().put("depth", 2));
+        String before = send(job).getJobConfigHash();
+        job.setJobConfig(new JSONObject().put("depth", 5).toString());
+        job.setJobConfigSaved();
+        JobConfigCache.invalidate("job");
+        String after = send(job).getJobConfigHash();
+        assert !before.equals(after);
+        JobConfigCache.clear(); //a worker that has seen neither version
+        assert JobConfigCache.get("job", before).getInt("depth") == 2;
+        assert JobConfigCache.get("job", after).getInt("depth") == 5;
+    }
+
+    @Test public void testModifiedConfigIsSentInFull() throws Exception {
+        LGJob job = job(new JSONObject().put("depth", 2));
+        job.setJobConfig(new JSONObject().put("depth", 3).toString()); //not written to mongo
+        LGPayload payload = send(job);
+        assert !payload.isJobConfigByReference();
+        assert payload.getJobConfig().getInt("depth") == 3;
+        assert saves == 0;
+    }
+}
@@ -12,6 +12,7 @@ import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
 
 public class JobManagerTest extends TestCase {
@@ -57,6 +58,48 @@ public class JobManagerTest extends TestCase {
         assertFalse(jm.doesJobExist(job.getJobId()));
     }
 
+    @Test public void testAddTasksToJobInOneBatch() {
+        JobManager jm = new JobManager();
+        LGJob job = new LGJob(UUID.randomUUID().toString(), new ArrayList<String>(), new JSONObject());
+        jm.addJob(job);
+        jm.setStatus(job, LGJob.STATUS_PROCESSING);
+        ArrayList<LGTask> tasks = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            tasks.add(new LGTask(job, "0001", "adapter1", 1, "", 0, 0, i));
+        }
+        jm.addTasksToJob(job, tasks);
+        assertEquals(job.getTaskCount(), 100);
+
+        job = jm.getJob(job.getJobId());
+        assertEquals(job.getTaskCount(), 100);
+        assertEquals(job.getActiveTaskCount(), 100);
+        assertTrue(job.getLastTaskTime() > 0);
+        assertNotNull(jm.getTask(tasks.get(99).getTaskId()));
+        jm.setStatus(job, LGJob.STATUS_FINISHED);
+        jm.deleteJob(job);
+    }
+
+    @Test public void testTasksThatCannotBeInsertedAreLeftOut() {
+        JobManager jm = new JobManager();
+        LGJob job = new LGJob(UUID.randomUUID().toString(), new ArrayList<String>(), new JSONObject());
+        jm.addJob(job);
+        jm.setStatus(job, LGJob.STATUS_PROCESSING);
+        ArrayList<LGTask> tasks = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            tasks.add(new LGTask(job, "0001", "adapter1", 1, "", 0, 0, i));
+        }
+        tasks.get(2).setTaskId(tasks.get(0).getTaskId()); //duplicate key
+        List<LGTask> added = jm.addTasksToJob(job, tasks);
+        assertEquals(added.size(), 2);
+        assertSame(added.get(1), tasks.get(1));
+
+        job = jm.getJob(job.getJobId());
+        assertEquals(job.getTaskCount(), 2);
+        assertEquals(job.getActiveTaskCount(), 2);
+        jm.setStatus(job, LGJob.STATUS_FINISHED);
+        jm.deleteJob(job);
+    }
+
     @Test public void testJobIsFinishedWhenTaskFails() {
         JobManager jm = new JobManager();
         JSONObject jobConfig = new JSONObject();
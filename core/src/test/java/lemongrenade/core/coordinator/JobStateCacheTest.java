@@ -0,0 +1,75 @@
+package lemongrenade.core.coordinator;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class JobStateCacheTest {
+    private final Map<String, String> store = new HashMap<>();
+    private final AtomicInteger reads = new AtomicInteger();
+
+    //Stand-in for reading the job from mongo; a new object per read, like the DAO
+    private String load(String jobId) {
+        reads.incrementAndGet();
+        String job = store.get(jobId);
+        return job == null ? null : new String(job);
+    }
+
+    @Test public void testJobIsReadOnceWithinTtl() throws Exception {
+        store.put("job", "PROCESSING");
+        JobStateCache<String> cache = new JobStateCache<>(this::load, 10, 1000);
+        String first = cache.get("job", 0);
+        assert first.equals("PROCESSING");
+        assert cache.get("job", 500) == first; //same object, changes made through it are kept
+        assert cache.get("job", 999) == first;
+        assert reads.get() == 1;
+    }
+
+    @Test public void testExpiredEntryIsReloaded() throws Exception {
+        store.put("job", "PROCESSING");
+        JobStateCache<String> cache = new JobStateCache<>(this::load, 10, 1000);
+        cache.get("job", 0);
+        store.put("job", "STOPPED");
+        assert cache.get("job", 1000).equals("STOPPED");
+        assert reads.get() == 2;
+    }
+
+    @Test public void testInvalidateForcesReload() throws Exception {
+        store.put("job", "PROCESSING");
+        JobStateCache<String> cache = new JobStateCache<>(this::load, 10, 60000);
+        cache.get("job", 0);
+        store.put("job", "STOPPED"); //e.g. a STOP command
+        cache.invalidate("job");
+        assert cache.get("job", 1).equals("STOPPED");
+        assert (long) cache.getValueAndReset().get("invalidations") == 1;
+    }
+
+    @Test public void testMissingJobIsNotCached() throws Exception {
+        JobStateCache<String> cache = new JobStateCache<>(this::load, 10, 60000);
+        assert cache.get("job", 0) == null;
+        assert cache.size() == 0;
+        store.put("job", "NEW");
+        assert cache.get("job", 1).equals("NEW");
+    }
+
+    @Test public void testLeastRecentlyUsedJobIsEvicted() throws Exception {
+        store.put("a", "A");
+        store.put("b", "B");
+        store.put("c", "C");
+        JobStateCache<String> cache = new JobStateCache<>(this::load, 2, 60000);
+        cache.get("a", 0);
+        cache.get("b", 0);
+        cache.get("a", 1); //b is now the eldest
+        cache.get("c", 2);
+        assert cache.size() == 2;
+        reads.set(0);
+        cache.get("a", 3);
+        assert reads.get() == 0;
+        cache.get("b", 3);
+        assert reads.get() == 1;
+        Map<String, Object> metric = cache.getValueAndReset();
+        assert (long) metric.get("hits") == 2 && (long) metric.get("misses") == 4;
+    }
+}
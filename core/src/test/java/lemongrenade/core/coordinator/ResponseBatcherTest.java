@@ -0,0 +1,49 @@
+package lemongrenade.core.coordinator;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class ResponseBatcherTest {
+    @Test public void testFullBatchIsHandedBack() throws Exception {
+        ResponseBatcher<String> batcher = new ResponseBatcher<>(3, 1000);
+        assert batcher.add("job", "a", 0) == null;
+        assert batcher.add("other", "x", 0) == null;
+        assert batcher.add("job", "b", 1) == null;
+        List<String> batch = batcher.add("job", "c", 2);
+        assert batch.equals(Arrays.asList("a", "b", "c"));
+        assert batcher.getQueued() == 1;
+        assert batcher.add("job", "d", 3) == null; //a new batch
+        assert batcher.getQueued() == 2;
+    }
+
+    @Test public void testBatchesAreDueAfterWaiting() throws Exception {
+        ResponseBatcher<String> batcher = new ResponseBatcher<>(10, 100);
+        batcher.add("first", "a", 0);
+        batcher.add("second", "b", 50);
+        batcher.add("first", "c", 60);
+        assert batcher.due(99).isEmpty();
+        LinkedHashMap<String, List<String>> due = batcher.due(100);
+        assert due.size() == 1;
+        assert due.get("first").equals(Arrays.asList("a", "c"));
+        due = batcher.due(150);
+        assert due.get("second").equals(Arrays.asList("b"));
+        assert batcher.getQueued() == 0;
+    }
+
+    @Test public void testDrainHandsBackEverything() throws Exception {
+        ResponseBatcher<String> batcher = new ResponseBatcher<>(10, 60000);
+        batcher.add("first", "a", 0);
+        batcher.add("second", "b", 0);
+        LinkedHashMap<String, List<String>> all = batcher.drain();
+        assert all.size() == 2;
+        assert batcher.getQueued() == 0;
+        assert batcher.due(Long.MAX_VALUE).isEmpty();
+        Map<String, Object> metric = batcher.getValueAndReset();
+        assert (long) metric.get("batches") == 2 && (long) metric.get("responses") == 2;
+        assert (long) metric.get("full") == 0;
+    }
+}
@@ -0,0 +1,69 @@
+package lemongrenade.core.database.blob;
+
+import lemongrenade.core.models.LGPayload;
+import lemongrenade.core.models.LGWireFormat;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+
+public class ClaimCheckTest {
+    private static final String JOB_ID = "11111111-1111-1111-1111-111111111111";
+    private File root;
+
+    @Before public void setUp() throws Exception {
+        root = Files.createTempDirectory("blobs").toFile();
+        ClaimCheck.setStore(new FileBlobStore(root.getPath()));
+    }
+
+    @After public void tearDown() {
+        ClaimCheck.deleteJob(JOB_ID);
+        ClaimCheck.setStore(null);
+        root.delete();
+    }
+
+    private static LGPayload buildPayload(int nodes) {
+        LGPayload payload = new LGPayload(JOB_ID, "task-1", new JSONObject().put("depth", 3));
+        for(int i = 0; i < nodes; i++) {
+            payload.addResponseNode(new JSONObject().put("type", "id").put("value", "node" + i));
+        }
+        return payload;
+    }
+
+    @Test public void testSpillAndResolve() {
+        byte[] data = buildPayload(1000).toByteArray();
+        byte[] claim = ClaimCheck.spill(JOB_ID, data, 1024);
+        assert LGWireFormat.isClaim(claim);
+        assert claim.length < 128;
+        assert new File(root, JOB_ID).list().length == 1;
+        LGPayload copy = LGPayload.deserialize(claim);
+        assert copy.getResponseNodeCount() == 1000;
+        assert copy.getResponseNodes().get(999).getString("value").equals("node999");
+    }
+
+    @Test public void testSmallPayloadIsSentWhole() {
+        byte[] data = buildPayload(1).toByteArray();
+        assert ClaimCheck.spill(JOB_ID, data, 1024) == data;
+        assert ClaimCheck.spill(JOB_ID, data, 0) == data;
+        assert !new File(root, JOB_ID).exists();
+    }
+
+    @Test public void testDeleteJob() {
+        ClaimCheck.spill(JOB_ID, buildPayload(1000).toByteArray(), 1024);
+        ClaimCheck.deleteJob(JOB_ID);
+        assert !new File(root, JOB_ID).exists();
+    }
+
+    @Test public void testReferenceCannotEscapeRoot() {
+        try {
+            ClaimCheck.resolve(LGWireFormat.encodeClaim(JOB_ID, "../" + JOB_ID + "/x", 10));
+            assert false;
+        }
+        catch(IllegalArgumentException e) {
+            assert e.getMessage().contains("Invalid");
+        }
+    }
+}
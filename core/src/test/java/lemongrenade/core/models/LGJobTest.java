@@ -189,4 +189,61 @@ public class LGJobTest {
         MongoDBStore.deleteJob(TEST_ID);
     }
 
-}
\ No newline at end of file
+    @Test public void testTaskCountsFollowTransitions() {
+        LGJob job = new LGJob("0000");
+        assert job.hasTaskCounts();
+        LGTask first = new LGTask();
+        first.setTaskId("first");
+        first.setStatus(LGTask.TASK_STATUS_PROCESSING);
+        LGTask second = new LGTask();
+        second.setTaskId("second");
+        second.setStatus(LGTask.TASK_STATUS_PROCESSING);
+        job.addTask(first);
+        job.addTask(second);
+        assert job.getActiveTaskCount() == 2;
+
+        job.updateTaskStatus("first", LGTask.TASK_STATUS_FAILED);
+        assert job.getActiveTaskCount() == 1;
+        assert job.getFailedTaskCount() == 1;
+
+        job.updateTaskStatus("first", LGTask.TASK_STATUS_REPLAYED);
+        job.updateTaskStatus("second", LGTask.TASK_STATUS_COMPLETE);
+        assert job.getActiveTaskCount() == 0;
+        assert job.getFailedTaskCount() == 0;
+        assert job.getTaskCount(LGTask.TASK_STATUS_COMPLETE) == 1;
+        assert job.getTaskCount(LGTask.TASK_STATUS_REPLAYED) == 1;
+
+        job.delTask("second");
+        assert job.getTaskCount(LGTask.TASK_STATUS_COMPLETE) == 0;
+    }
+
+    @Test public void testMoveTaskCountsTasksTheJobDoesNotHold() {
+        LGJob job = new LGJob("0000"); //as read without its taskMap
+        job.getTaskCounts().put("processing", 2);
+        job.moveTask("elsewhere", LGTask.TASK_STATUS_PROCESSING, LGTask.TASK_STATUS_COMPLETE);
+        assert job.getActiveTaskCount() == 1;
+        assert job.getTaskCount(LGTask.TASK_STATUS_COMPLETE) == 1;
+
+        LGTask held = new LGTask();
+        held.setTaskId("held");
+        held.setStatus(LGTask.TASK_STATUS_PROCESSING);
+        job.addTask(held);
+        job.moveTask("held", LGTask.TASK_STATUS_PROCESSING, LGTask.TASK_STATUS_FAILED);
+        assert held.getStatus() == LGTask.TASK_STATUS_FAILED;
+        assert job.getActiveTaskCount() == 1;
+        assert job.getFailedTaskCount() == 1;
+    }
+
+    @Test public void testJobWithoutTaskCountsIsCountedFromTaskMap() {
+        LGJob job = new LGJob(); //as morphia builds a job stored before the counters existed
+        LGTask task = new LGTask();
+        task.setTaskId("task");
+        task.setStatus(LGTask.TASK_STATUS_PROCESSING);
+        job.addTask(task);
+        assert !job.hasTaskCounts();
+        assert job.getActiveTaskCount() == 1;
+        assert LGJob.getTaskCount(new JSONObject(), LGTask.TASK_STATUS_PROCESSING) == null;
+        assert LGJob.getTaskCount(new JSONObject().put(LGJob.TASK_COUNTS, new JSONObject().put("processing", 3)),
+                LGTask.TASK_STATUS_PROCESSING) == 3;
+    }
+}
@@ -0,0 +1,187 @@
+package lemongrenade.core.models;
+
+import lemongrenade.core.coordinator.JobConfigCache;
+import lemongrenade.core.util.JSONUtils;
+import lemongrenade.core.util.LGConstants;
+import org.apache.storm.shade.org.apache.commons.lang.SerializationUtils;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+public class LGWireFormatTest {
+
+    private static LGPayload buildPayload() {
+        JSONObject jobConfig = new JSONObject()
+                .put("job_id", "11111111-1111-1111-1111-111111111111")
+                .put("depth", 3)
+                .put("ttl", 86400000000L)
+                .put("ratio", 0.5)
+                .put("debug", true)
+                .put("missing", JSONObject.NULL)
+                .put("adapters", new JSONObject().put("HelloWorld", new JSONObject().put("key", "value")));
+        LGPayload payload = new LGPayload("11111111-1111-1111-1111-111111111111", "task-1", jobConfig);
+        for(int i = 0; i < 50; i++) {
+            payload.addRequestNode(new JSONObject().put("type", "id").put("value", "node" + i).put("LG:METADATA", new JSONObject()));
+        }
+        JSONObject node = new JSONObject().put("type", "id").put("value", "\u00fcn\u00efc\u00f8d\u00e9");
+        payload.addResponseNode(node);
+        payload.addResponseEdge(node, new JSONObject().put("type", "edge").put("value", "link"),
+                new JSONObject().put("type", "id").put("value", "other"));
+        payload.setPayloadType(LGConstants.LG_PAYLOAD_TYPE_COMMAND);
+        return payload;
+    }
+
+    @Test public void testPayloadRoundTrip() {
+        LGPayload payload = buildPayload();
+        byte[] data = payload.toByteArray();
+        assert LGWireFormat.isBinary(data);
+        assert data[2] == LGWireFormat.WIRE_VERSION;
+        LGPayload copy = LGPayload.deserialize(data);
+        assert copy.getJobId().equals(payload.getJobId());
+        assert copy.getTaskId().equals(payload.getTaskId());
+        assert copy.getPayloadType().equals(LGConstants.LG_PAYLOAD_TYPE_COMMAND);
+        assert copy.getRequestNodes().size() == 50;
+        assert copy.getRequestNodes().get(49).getString("value").equals("node49");
+        assert copy.getResponseNodes().get(0).getString("value").equals("\u00fcn\u00efc\u00f8d\u00e9");
+        assert copy.getResponseEdges().size() == 1;
+        assert copy.getResponseEdges().get(0).getJSONObject(1).getString("value").equals("link");
+        JSONObject config = copy.getJobConfig();
+        assert config.getInt("depth") == 3;
+        assert config.getLong("ttl") == 86400000000L;
+        assert config.getDouble("ratio") == 0.5;
+        assert config.getBoolean("debug");
+        assert config.get("missing") == JSONObject.NULL;
+        assert config.getJSONObject("adapters").getJSONObject("HelloWorld").getString("key").equals("value");
+    }
+
+    @Test public void testKeysAreInterned() {
+        LGPayload payload = buildPayload();
+        byte[] binary = payload.toByteArray();
+        byte[] legacy = SerializationUtils.serialize(payload);
+        assert binary.length < legacy.length;
+    }
+
+    @Test public void testLegacyPayloadIsReadable() {
+        LGPayload payload = buildPayload();
+        byte[] legacy = SerializationUtils.serialize(payload);
+        assert LGWireFormat.isLegacy(legacy);
+        LGPayload copy = LGPayload.deserialize(legacy);
+        assert copy.getJobId().equals(payload.getJobId());
+        assert copy.getRequestNodes().size() == 50;
+    }
+
+    @Test public void testCommandRoundTrip() {
+        ArrayList<String> adapters = new ArrayList<>();
+        adapters.add("HelloWorld");
+        adapters.add("PlusBang");
+        LGCommand cmd = new LGCommand(LGCommand.COMMAND_TYPE_NEW, "22222222-2222-2222-2222-222222222222", 3600, 5, adapters, buildPayload());
+        byte[] data = cmd.toByteArray();
+        assert data[3] == LGWireFormat.KIND_COMMAND;
+        LGCommand copy = LGCommand.deserialize(LGWireFormat.toBytes(ByteBuffer.wrap(data)));
+        assert copy.getCmd() == LGCommand.COMMAND_TYPE_NEW;
+        assert copy.getJobId().equals(cmd.getJobId());
+        assert copy.getTtl() == 3600;
+        assert copy.getPriority() == 5;
+        assert copy.getAdapterList().equals(adapters);
+        assert copy.getSeedPayload().getRequestNodes().size() == 50;
+    }
+
+    @Test public void testNewerVersionIsRejected() {
+        byte[] data = buildPayload().toByteArray();
+        data[2] = (byte) (LGWireFormat.WIRE_VERSION + 1);
+        try {
+            LGPayload.deserialize(data);
+            assert false;
+        }
+        catch(IllegalArgumentException e) {
+            assert e.getMessage().contains("version");
+        }
+    }
+
+    @Test public void testBadStringIndexIsRejected() {
+        //one interned string, then a string value pointing past the table
+        byte[] data = {LGWireFormat.MAGIC_0, LGWireFormat.MAGIC_1, LGWireFormat.WIRE_VERSION, LGWireFormat.KIND_PAYLOAD, 1, 1, 'a', 5, 3};
+        LGWireFormat.Reader reader = new LGWireFormat.Reader(data, 0, data.length, LGWireFormat.KIND_PAYLOAD);
+        try {
+            reader.readValue();
+            assert false;
+        }
+        catch(IllegalArgumentException e) {
+            assert e.getMessage().contains("out of range");
+        }
+    }
+
+    @Test public void testSlicedBuffer() {
+        byte[] data = buildPayload().toByteArray();
+        byte[] padded = new byte[data.length + 10];
+        System.arraycopy(data, 0, padded, 5, data.length);
+        ByteBuffer buffer = ByteBuffer.wrap(padded, 5, data.length).slice();
+        LGPayload copy = LGPayload.deserialize(LGWireFormat.toBytes(buffer));
+        assert copy.getTaskId().equals("task-1");
+        assert new JSONArray().put(copy.getResponseNodes().get(0)).length() == 1;
+    }
+
+    @Test public void testUntouchedNodesAreReEmittedAsIs() {
+        byte[] data = buildPayload().toByteArray();
+        LGPayload copy = LGPayload.deserialize(data);
+        assert copy.getRequestNodeCount() == 50;
+        assert copy.getResponseNodeCount() == 1;
+        assert copy.getRawRequests() != null && copy.getRawResponses() != null;
+        copy.setTaskId("task-1");
+        assert java.util.Arrays.equals(copy.toByteArray(), data);
+    }
+
+    @Test public void testTouchedNodesAreReEncoded() {
+        LGPayload copy = LGPayload.deserialize(buildPayload().toByteArray());
+        copy.addResponseNode(new JSONObject().put("type", "id").put("value", "added"));
+        assert copy.getRawRequests() != null;
+        assert copy.getRawResponses() == null;
+        LGPayload again = LGPayload.deserialize(copy.toByteArray());
+        assert again.getResponseNodeCount() == 2;
+        assert again.getResponseNodes().get(1).getString("value").equals("added");
+        assert again.getRequestNodes().get(0).getString("value").equals("node0");
+        assert again.getRequestEdges().size() == 0;
+    }
+
+    @Test public void testJobConfigByReference() {
+        LGPayload payload = buildPayload();
+        JSONObject config = JSONUtils.readOnly(payload.getJobConfig());
+        String hash = JobConfigCache.hash(config);
+        payload.setJobConfigByReference(hash, config);
+        byte[] data = payload.toByteArray();
+        assert data.length < buildPayload().toByteArray().length;
+        LGPayload copy = LGPayload.deserialize(data);
+        assert copy.isJobConfigByReference();
+        assert copy.getJobConfigHash().equals(hash);
+        assert java.util.Arrays.equals(copy.toByteArray(), data);
+    }
+
+    @Test public void testInlineConfigIsHashedOnce() {
+        JSONObject config = new JSONObject().put("depth", 3);
+        LGPayload payload = new LGPayload("job", "task", config);
+        config.put("depth", 4);
+        assert payload.getJobConfig().getInt("depth") == 3;
+        assert payload.getJobConfigHash() == payload.getJobConfigHash();
+        LGPayload copy = LGPayload.deserialize(payload.toByteArray());
+        assert !copy.isJobConfigByReference();
+        assert copy.getJobConfigHash() == copy.getJobConfigHash();
+        assert copy.getJobConfigHash().equals(payload.getJobConfigHash());
+        try {
+            copy.getJobConfig().put("depth", 5);
+            assert false;
+        }
+        catch(UnsupportedOperationException e) {}
+        copy.setJobId("other");
+        assert copy.getJobId().equals("other");
+    }
+
+    @Test public void testConfigHashIgnoresKeyOrder() {
+        JSONObject a = new JSONObject().put("a", 1).put("b", new JSONObject().put("c", "d").put("e", 2));
+        JSONObject b = new JSONObject().put("b", new JSONObject().put("e", 2).put("c", "d")).put("a", 1);
+        assert JobConfigCache.hash(a).equals(JobConfigCache.hash(b));
+        assert !JobConfigCache.hash(a).equals(JobConfigCache.hash(b.put("a", 2)));
+    }
+}
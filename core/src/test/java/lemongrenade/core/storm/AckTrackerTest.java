@@ -0,0 +1,162 @@
+package lemongrenade.core.storm;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+
+public class AckTrackerTest {
+    private final List<String> sent = new ArrayList<>();
+
+    private AckTracker tracker(int batch, int maxBlocked) {
+        return new AckTracker((tag, multiple) -> sent.add(tag + (multiple ? "*" : "")), batch, 1000, maxBlocked);
+    }
+
+    @Test public void testContiguousAcksAreCoalesced() throws Exception {
+        AckTracker acks = tracker(100, 1000);
+        for(long tag = 1; tag <= 1000; tag++) {
+            acks.ack(tag);
+        }
+        acks.flush();
+        assert sent.size() == 10;
+        assert sent.get(9).equals("1000*");
+        assert acks.getPending() == 0;
+    }
+
+    @Test public void testOutOfOrderAcksWaitForTheGap() throws Exception {
+        AckTracker acks = tracker(100, 1000);
+        acks.ack(2);
+        acks.ack(3);
+        acks.flush();
+        assert sent.isEmpty();
+        acks.ack(1);
+        acks.flush();
+        assert sent.size() == 1 && sent.get(0).equals("3*");
+    }
+
+    @Test public void testRejectedTagsCloseTheGap() throws Exception {
+        AckTracker acks = tracker(100, 1000);
+        acks.ack(1);
+        acks.rejected(2);
+        acks.ack(3);
+        acks.rejected(4);
+        acks.flush();
+        assert sent.size() == 1 && sent.get(0).equals("3*"); //never multi-ack a rejected tag
+    }
+
+    @Test public void testBlockedAcksAreSentIndividually() throws Exception {
+        AckTracker acks = tracker(100, 3);
+        acks.ack(2);
+        acks.ack(3);
+        acks.ack(4);
+        acks.flush();
+        assert sent.size() == 3 && sent.get(0).equals("2");
+        acks.ack(1);
+        acks.flush();
+        assert sent.size() == 4 && sent.get(3).equals("1*");
+    }
+
+    @Test public void testDuplicatesAreIgnored() throws Exception {
+        AckTracker acks = tracker(100, 1000);
+        acks.ack(1);
+        acks.ack(1);
+        acks.flush();
+        acks.ack(1);
+        acks.flush();
+        assert sent.size() == 1;
+    }
+
+    @Test public void testLongRunRebases() throws Exception {
+        AckTracker acks = tracker(64, 1000);
+        for(long tag = 1; tag <= 100000; tag += 2) {
+            acks.ack(tag + 1);
+            acks.ack(tag);
+        }
+        acks.flush();
+        assert sent.get(sent.size() - 1).equals("100000*");
+        assert acks.getSent() == sent.size();
+        assert sent.size() < 100000 / 60;
+    }
+
+    //Stand-in for a channel: delivers while fewer than 'prefetch' deliveries are unacked
+    private static class Broker {
+        int prefetch;
+        final TreeSet<Long> unacked = new TreeSet<>();
+        long nextTag = 1;
+
+        Broker(int prefetch) {
+            this.prefetch = prefetch;
+        }
+
+        void ack(long tag, boolean multiple) {
+            if (multiple) {
+                unacked.headSet(tag, true).clear();
+            }
+            else {
+                unacked.remove(tag);
+            }
+        }
+
+        List<Long> deliver() {
+            List<Long> delivered = new ArrayList<>();
+            while (unacked.size() < prefetch) {
+                unacked.add(nextTag);
+                delivered.add(nextTag++);
+            }
+            return delivered;
+        }
+    }
+
+    @Test public void testSlowDeliveryDoesNotStallASmallPrefetch() throws Exception {
+        Broker broker = new Broker(10); //smaller than the ack batch
+        AckTracker acks = AckTracker.forPrefetch(broker::ack, 64, 60000, broker.prefetch);
+        int handled = 0;
+        for (int round = 0; round < 1000 && handled < 1000; round++) {
+            List<Long> delivered = broker.deliver();
+            assert !delivered.isEmpty(); //the broker always has room to deliver
+            for (long tag : delivered) {
+                if (tag != 1) { //tag 1 never settles
+                    acks.ack(tag);
+                    handled++;
+                }
+            }
+        }
+        assert handled >= 1000;
+        assert broker.unacked.first() == 1;
+    }
+
+    @Test public void testMaxBlockedStaysBelowPrefetch() throws Exception {
+        assert AckTracker.maxBlockedFor(1, 64) == 1;
+        assert AckTracker.maxBlockedFor(10, 64) == 5;
+        assert AckTracker.maxBlockedFor(1000, 64) == 500;
+        assert AckTracker.maxBlockedFor(0, 64) == 64; //unlimited prefetch
+    }
+
+    @Test public void testLoweredPrefetchDoesNotStallBehindSlowDelivery() throws Exception {
+        PrefetchController controller = new PrefetchController(4, 100, 100, 0, 1000, 0);
+        Broker broker = new Broker(controller.getCurrent());
+        AckTracker acks = AckTracker.forPrefetch(broker::ack, 64, 60000, broker.prefetch);
+        for (long tag : broker.deliver()) {
+            controller.delivered();
+            if (tag != 1) { //tag 1 never settles
+                acks.ack(tag);
+                controller.settled(1000000L);
+            }
+        }
+        assert acks.getPending() > 0; //held back behind tag 1, fewer than half the old prefetch
+        int qos = controller.adjust(1000); //~99/s at 1ms: a much lower prefetch
+        assert qos < 10;
+        acks.setPrefetch(qos);
+        broker.prefetch = qos;
+        assert acks.getMaxBlocked() == Math.max(1, qos / 2);
+        for (int round = 0; round < 100; round++) {
+            List<Long> delivered = broker.deliver();
+            assert !delivered.isEmpty(); //the acks held back for the old prefetch were sent
+            for (long tag : delivered) {
+                acks.ack(tag);
+            }
+        }
+        assert broker.unacked.first() == 1;
+    }
+}
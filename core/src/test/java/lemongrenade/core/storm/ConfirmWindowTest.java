@@ -0,0 +1,62 @@
+package lemongrenade.core.storm;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+
+public class ConfirmWindowTest {
+
+    private CompletableFuture<Void> publish(ConfirmWindow window, long seqNo) throws Exception {
+        assert window.acquire(0);
+        return window.register(seqNo);
+    }
+
+    @Test public void testWindowBlocksUntilConfirmed() throws Exception {
+        ConfirmWindow window = new ConfirmWindow(new Semaphore(2));
+        CompletableFuture<Void> first = publish(window, 1);
+        CompletableFuture<Void> second = publish(window, 2);
+        assert !window.acquire(0);
+
+        assert window.confirmed(1, false) == 1;
+        assert first.isDone() && !first.isCompletedExceptionally();
+        assert !second.isDone();
+        assert window.acquire(0);
+    }
+
+    @Test public void testMultipleAckConfirmsEverythingUpToTag() throws Exception {
+        ConfirmWindow window = new ConfirmWindow(new Semaphore(10));
+        CompletableFuture<Void> first = publish(window, 1);
+        CompletableFuture<Void> second = publish(window, 2);
+        CompletableFuture<Void> third = publish(window, 3);
+
+        assert window.confirmed(2, true) == 2;
+        assert first.isDone() && second.isDone() && !third.isDone();
+        assert window.outstanding() == 1;
+        assert window.confirmed(2, true) == 0; //duplicate confirm is ignored
+    }
+
+    @Test public void testNackFailsTheFuture() throws Exception {
+        ConfirmWindow window = new ConfirmWindow(new Semaphore(10));
+        CompletableFuture<Void> first = publish(window, 1);
+        CompletableFuture<Void> second = publish(window, 2);
+
+        assert window.rejected(2, false) == 1;
+        assert second.isCompletedExceptionally();
+        assert !first.isDone();
+    }
+
+    @Test public void testFailAllReturnsEveryPermit() throws Exception {
+        Semaphore permits = new Semaphore(3);
+        ConfirmWindow window = new ConfirmWindow(permits);
+        CompletableFuture<Void> first = publish(window, 1);
+        CompletableFuture<Void> second = publish(window, 2);
+        CompletableFuture<Void> third = publish(window, 3);
+
+        assert window.failAll(new IOException("closed")) == 3;
+        assert first.isCompletedExceptionally() && second.isCompletedExceptionally() && third.isCompletedExceptionally();
+        assert permits.availablePermits() == 3;
+        assert window.outstanding() == 0;
+    }
+}
@@ -0,0 +1,43 @@
+package lemongrenade.core.storm;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+public class ConfirmedTuplesTest {
+
+    @Test public void testOutcomesWaitForDrain() throws Exception {
+        ConfirmedTuples<String> confirmed = new ConfirmedTuples<>();
+        List<String> acked = new ArrayList<>();
+        List<String> failed = new ArrayList<>();
+        CompletableFuture<Void> first = new CompletableFuture<>();
+        CompletableFuture<Void> second = new CompletableFuture<>();
+        CompletableFuture<Void> third = new CompletableFuture<>();
+        confirmed.track("first", first);
+        confirmed.track("second", second);
+        confirmed.track("third", third);
+
+        Thread listener = new Thread(() -> { //completes like the connection's confirm thread would
+            first.complete(null);
+            second.completeExceptionally(new IOException("nack"));
+        });
+        listener.start();
+        listener.join();
+        assert acked.isEmpty() && failed.isEmpty();
+        assert confirmed.waiting() == 3;
+
+        assert confirmed.drain(acked::add, (tuple, error) -> failed.add(tuple)) == 2;
+        assert acked.size() == 1 && acked.get(0).equals("first");
+        assert failed.size() == 1 && failed.get(0).equals("second");
+        assert confirmed.waiting() == 1;
+
+        assert confirmed.drain(acked::add, (tuple, error) -> failed.add(tuple)) == 0;
+        third.complete(null);
+        assert confirmed.drain(acked::add, (tuple, error) -> failed.add(tuple)) == 1;
+        assert acked.get(1).equals("third");
+        assert confirmed.waiting() == 0;
+    }
+}
@@ -0,0 +1,75 @@
+package lemongrenade.core.storm;
+
+import lemongrenade.core.models.LGCommand;
+import lemongrenade.core.models.LGPayload;
+import lemongrenade.core.util.JSONUtils;
+import lemongrenade.core.util.ReadOnlyJSONArray;
+import lemongrenade.core.util.ReadOnlyJSONObject;
+import org.apache.storm.Config;
+import org.apache.storm.serialization.KryoValuesDeserializer;
+import org.apache.storm.serialization.KryoValuesSerializer;
+import org.apache.storm.tuple.Values;
+import org.apache.storm.utils.Utils;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+public class LGKryoTest {
+
+    //Storm defaults with java serialization turned off, so anything not registered fails to serialize
+    private static Map getConfig() {
+        Map conf = Utils.readDefaultConfig();
+        conf.put(Config.TOPOLOGY_FALL_BACK_ON_JAVA_SERIALIZATION, false);
+        LGKryo.register(conf);
+        return conf;
+    }
+
+    @Test public void testTupleRoundTrip() {
+        Map conf = getConfig();
+        JSONObject jobConfig = new JSONObject().put("depth", 3).put("adapters", new JSONObject().put("HelloWorld", new JSONObject()));
+        LGPayload payload = new LGPayload("11111111-1111-1111-1111-111111111111", "task-1", jobConfig);
+        payload.addRequestNode(new JSONObject().put("type", "id").put("value", "node"));
+        ArrayList<String> adapters = new ArrayList<>();
+        adapters.add("HelloWorld");
+        LGCommand command = new LGCommand(LGCommand.COMMAND_TYPE_NEW, payload.getJobId(), 0, 1, adapters, payload);
+
+        byte[] data = new KryoValuesSerializer(conf).serialize(new Values(payload.getJobId(), payload, command, jobConfig));
+        List<Object> values = new KryoValuesDeserializer(conf).deserialize(data);
+
+        assert values.get(0).equals(payload.getJobId());
+        LGPayload payloadCopy = (LGPayload) values.get(1);
+        assert payloadCopy.getTaskId().equals("task-1");
+        assert payloadCopy.getRequestNodes().get(0).getString("value").equals("node");
+        LGCommand commandCopy = (LGCommand) values.get(2);
+        assert commandCopy.getAdapterList().get(0).equals("HelloWorld");
+        assert commandCopy.getSeedPayload().getJobConfig().getInt("depth") == 3;
+        JSONObject configCopy = (JSONObject) values.get(3);
+        assert configCopy.getJSONObject("adapters").has("HelloWorld");
+    }
+
+    @Test public void testReadOnlyRoundTrip() {
+        Map conf = getConfig();
+        JSONObject config = JSONUtils.readOnly(new JSONObject().put("depth", 3).put("list", new JSONArray().put("a")));
+        Object list = JSONUtils.readOnlyValue(new JSONArray().put(1).put("b"));
+
+        byte[] data = new KryoValuesSerializer(conf).serialize(new Values(config, list));
+        List<Object> values = new KryoValuesDeserializer(conf).deserialize(data);
+
+        assert values.get(0) instanceof ReadOnlyJSONObject;
+        assert ((JSONObject) values.get(0)).getInt("depth") == 3;
+        assert ((JSONObject) values.get(0)).getJSONArray("list") instanceof ReadOnlyJSONArray;
+        assert values.get(1) instanceof ReadOnlyJSONArray;
+        assert ((JSONArray) values.get(1)).getString(1).equals("b");
+    }
+
+    @Test public void testRegisterIsIdempotent() {
+        Map conf = getConfig();
+        int count = ((List) conf.get(Config.TOPOLOGY_KRYO_REGISTER)).size();
+        LGKryo.register(conf);
+        assert ((List) conf.get(Config.TOPOLOGY_KRYO_REGISTER)).size() == count;
+    }
+}
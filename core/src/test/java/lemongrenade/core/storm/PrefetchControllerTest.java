@@ -0,0 +1,70 @@
+package lemongrenade.core.storm;
+
+import org.junit.Test;
+
+public class PrefetchControllerTest {
+    private static final long MS = 1000000L;
+
+    //Runs an adapter taking latencyMs per delivery with 'workers' in parallel on an always full queue for 'seconds'
+    private int run(PrefetchController controller, long latencyMs, int workers, int seconds) {
+        double capacity = 0;
+        int outstanding = 0;
+        for (long now = 100; now <= seconds * 1000; now += 100) {
+            while (outstanding < controller.getCurrent()) { //the broker tops the channel up to its prefetch
+                controller.delivered();
+                outstanding++;
+            }
+            capacity += workers * 100.0 / latencyMs;
+            int settled = (int) Math.min(outstanding, Math.floor(capacity));
+            capacity = Math.min(capacity - settled, workers); //idle workers don't save up
+            for (int i = 0; i < settled; i++) {
+                controller.settled(latencyMs * MS);
+            }
+            outstanding -= settled;
+            controller.adjust(now);
+        }
+        return controller.getCurrent();
+    }
+
+    @Test public void testFastAdapterGrowsToMax() throws Exception {
+        PrefetchController controller = new PrefetchController(1, 2000, 10, 1000, 1000, 0);
+        assert run(controller, 2, 8, 30) == 2000; //wants 4000 a second * 1.002s
+    }
+
+    @Test public void testSlowAdapterShrinksToWhatItCanWorkThrough() throws Exception {
+        PrefetchController controller = new PrefetchController(1, 5000, 1000, 1000, 1000, 0);
+        int prefetch = run(controller, 500, 1, 60);
+        //2 a second, 0.5s each plus 1s of buffer: about 3 deliveries
+        assert prefetch >= 2 && prefetch <= 4 : prefetch;
+    }
+
+    @Test public void testStalledChannelBacksOff() throws Exception {
+        PrefetchController controller = new PrefetchController(1, 1000, 1000, 1000, 1000, 0);
+        for (int i = 0; i < 10; i++) {
+            controller.delivered();
+        }
+        assert controller.adjust(1000) == 500;
+        assert controller.adjust(2000) == 250;
+        for (int i = 3; i < 20; i++) {
+            controller.adjust(i * 1000);
+        }
+        assert controller.getCurrent() == 1;
+    }
+
+    @Test public void testSmallChangesAreIgnored() throws Exception {
+        PrefetchController controller = new PrefetchController(1, 1000, 100, 1000, 1000, 0);
+        for (int i = 0; i < 110; i++) { //110 a second at ~0 latency wants 110, within the dead band
+            controller.delivered();
+            controller.settled(0);
+        }
+        assert controller.adjust(1000) == 100;
+        assert controller.adjust(1500) == 100; //not an interval yet
+    }
+
+    @Test public void testIdleChannelKeepsItsPrefetch() throws Exception {
+        PrefetchController controller = new PrefetchController(1, 1000, 200, 1000, 1000, 0);
+        for (int i = 1; i <= 10; i++) {
+            assert controller.adjust(i * 1000) == 200;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package lemongrenade.core.storm;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class RabbitConnectionManagerTest {
+    private final AtomicInteger channelsCreated = new AtomicInteger();
+    private final List<AtomicBoolean> connectionStates = new ArrayList<>();
+
+    //In-memory stand-ins for a broker connection and its channels
+    private synchronized Connection fakeConnection() {
+        AtomicBoolean open = new AtomicBoolean(true);
+        connectionStates.add(open);
+        Connection[] self = new Connection[1];
+        self[0] = (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{Connection.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "isOpen": return open.get();
+                        case "close": open.set(false); return null;
+                        case "createChannel": return fakeChannel(self[0], open);
+                        case "toString": return "fake-connection";
+                        default: return null;
+                    }
+                });
+        return self[0];
+    }
+
+    private Channel fakeChannel(Connection connection, AtomicBoolean connectionOpen) {
+        channelsCreated.incrementAndGet();
+        AtomicBoolean open = new AtomicBoolean(true);
+        return (Channel) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{Channel.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "isOpen": return open.get() && connectionOpen.get();
+                        case "close": open.set(false); return null;
+                        case "getConnection": return connection;
+                        case "hashCode": return System.identityHashCode(proxy);
+                        case "equals": return proxy == args[0];
+                        default: return null;
+                    }
+                });
+    }
+
+    @Test public void testConnectionCountStaysConstantUnderFailureBurst() throws Exception {
+        RabbitConnectionManager manager = new RabbitConnectionManager(this::fakeConnection, 4, 1000);
+        AtomicInteger reported = new AtomicInteger();
+        List<Thread> adapters = new ArrayList<>();
+        for (int t = 0; t < 16; t++) {
+            Thread adapter = new Thread(() -> {
+                for (int i = 0; i < 500; i++) { //each failure publishes an exception report
+                    try {
+                        manager.withChannel(channel -> {
+                            channel.basicPublish("Exceptions", "", null, new byte[16]);
+                            return reported.incrementAndGet();
+                        });
+                    }
+                    catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+            adapters.add(adapter);
+            adapter.start();
+        }
+        for (Thread adapter : adapters) {
+            adapter.join();
+        }
+        assert reported.get() == 16 * 500;
+        assert manager.getConnectionsOpened() == 1;
+        assert manager.getIdleChannels() <= 4;
+        assert channelsCreated.get() < 16 * 500;
+    }
+
+    @Test public void testReconnectsAfterConnectionLoss() throws Exception {
+        RabbitConnectionManager manager = new RabbitConnectionManager(this::fakeConnection, 4, 1000);
+        Channel first = manager.borrow();
+        manager.release(first);
+        connectionStates.get(0).set(false); //broker dropped the connection
+
+        Channel second = manager.borrow();
+        assert second != first;
+        assert second.isOpen();
+        assert manager.getConnectionsOpened() == 2;
+    }
+
+    @Test public void testFailingBrokerIsNotHammered() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        RabbitConnectionManager manager = new RabbitConnectionManager(() -> {
+            attempts.incrementAndGet();
+            throw new IOException("connection refused");
+        }, 4, 60000);
+        for (int i = 0; i < 100; i++) {
+            try {
+                manager.connection();
+                assert false;
+            }
+            catch (IOException expected) {
+            }
+        }
+        assert attempts.get() == 1;
+    }
+
+    @Test public void testFailedChannelIsNotReturnedToPool() throws Exception {
+        RabbitConnectionManager manager = new RabbitConnectionManager(this::fakeConnection, 4, 1000);
+        try {
+            manager.withChannel(channel -> {
+                throw new IOException("PRECONDITION_FAILED");
+            });
+            assert false;
+        }
+        catch (IOException expected) {
+        }
+        assert manager.getIdleChannels() == 0;
+    }
+}
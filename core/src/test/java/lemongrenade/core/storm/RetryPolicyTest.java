@@ -0,0 +1,77 @@
+package lemongrenade.core.storm;
+
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.Random;
+
+public class RetryPolicyTest {
+    private final RetryPolicy policy = new RetryPolicy(new long[]{30000, 1000, 5000}, 1000, 0.25, 5);
+
+    @Test public void testBackoffDoublesUpToTheLongestRung() throws Exception {
+        assert policy.backoff(1) == 1000;
+        assert policy.backoff(2) == 2000;
+        assert policy.backoff(3) == 4000;
+        assert policy.backoff(5) == 16000;
+        assert policy.backoff(6) == 30000;
+        assert policy.backoff(100) == 30000;
+    }
+
+    @Test public void testRungIsShortestQueueCoveringTheBackoff() throws Exception {
+        assert policy.rung(1) == 1000;
+        assert policy.rung(2) == 5000;
+        assert policy.rung(3) == 5000;
+        assert policy.rung(4) == 30000;
+        assert policy.rung(9) == 30000;
+    }
+
+    @Test public void testJitterStaysWithinTheRung() throws Exception {
+        Random random = new Random(42);
+        boolean spread = false;
+        for (int attempt = 1; attempt <= 6; attempt++) {
+            long first = policy.delay(attempt, random);
+            for (int i = 0; i < 1000; i++) {
+                long delay = policy.delay(attempt, random);
+                assert delay <= policy.backoff(attempt) && delay <= policy.rung(attempt);
+                assert delay >= policy.backoff(attempt) * 0.75;
+                spread |= delay != first;
+            }
+        }
+        assert spread;
+    }
+
+    @Test public void testRungQueueExpiresIntoTheWorkQueue() throws Exception {
+        Map<String, Object> args = RetryPolicy.queueArgs("adapter-queue", 5000);
+        assert RetryPolicy.queueName("adapter-queue", 5000).equals("adapter-queue.retry.5000");
+        assert args.get("x-message-ttl").equals(5000L);
+        assert args.get("x-dead-letter-exchange").equals("");
+        assert args.get("x-dead-letter-routing-key").equals("adapter-queue");
+    }
+
+    @Test public void testBudgetLimitsRetriesToShareOfTraffic() throws Exception {
+        RetryBudget budget = new RetryBudget(0.1, 0, 5, 0);
+        int retries = 0;
+        while (budget.tryRetry(0)) {
+            retries++;
+        }
+        assert retries == 5; //the burst
+
+        for (int i = 0; i < 100; i++) {
+            budget.deposit();
+        }
+        retries = 0;
+        while (budget.tryRetry(0)) {
+            retries++;
+        }
+        assert retries == 5; //10% of 100 successes, capped at the burst
+    }
+
+    @Test public void testBudgetRefillsOverTime() throws Exception {
+        RetryBudget budget = new RetryBudget(0.1, 2, 10, 0);
+        while (budget.tryRetry(0)) {
+        }
+        assert !budget.tryRetry(0);
+        assert budget.tryRetry(500); //one retry earned after half a second
+        assert !budget.tryRetry(500);
+    }
+}
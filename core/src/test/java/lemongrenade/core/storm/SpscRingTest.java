@@ -0,0 +1,55 @@
+package lemongrenade.core.storm;
+
+import org.junit.Test;
+
+public class SpscRingTest {
+
+    @Test public void testCapacityIsPowerOfTwo() {
+        assert new SpscRing<Integer>(1000).capacity() == 1024;
+        assert new SpscRing<Integer>(1024).capacity() == 1024;
+        assert new SpscRing<Integer>(0).capacity() == 2;
+    }
+
+    @Test public void testFullAndEmpty() {
+        SpscRing<Integer> ring = new SpscRing<>(4);
+        assert ring.poll() == null;
+        for(int i = 0; i < 4; i++) {
+            assert ring.offer(i);
+        }
+        assert !ring.offer(4);
+        assert ring.size() == 4;
+        assert ring.poll() == 0;
+        assert ring.offer(4);
+        for(int i = 1; i <= 4; i++) {
+            assert ring.poll() == i;
+        }
+        assert ring.poll() == null;
+        assert ring.size() == 0;
+    }
+
+    @Test public void testHandoffBetweenThreads() throws Exception {
+        final int count = 1000000;
+        final SpscRing<Integer> ring = new SpscRing<>(64);
+        Thread producer = new Thread(() -> {
+            for(int i = 0; i < count; i++) {
+                while(!ring.offer(i)) {
+                    Thread.yield();
+                }
+            }
+        });
+        producer.start();
+        int expected = 0;
+        while(expected < count) {
+            Integer item = ring.poll();
+            if(item == null) {
+                Thread.yield();
+                continue;
+            }
+            assert item == expected;
+            assert ring.lastStamp() <= System.nanoTime();
+            expected++;
+        }
+        producer.join();
+        assert ring.poll() == null;
+    }
+}
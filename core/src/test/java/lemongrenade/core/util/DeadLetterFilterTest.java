@@ -0,0 +1,71 @@
+package lemongrenade.core.util;
+
+import lemongrenade.core.storm.RetryPolicy;
+import org.junit.Test;
+
+import java.util.*;
+
+public class DeadLetterFilterTest {
+
+    private static Map<String, Object> deadLetter(String queue, String reason, String jobId) {
+        Map<String, Object> headers = new HashMap<>();
+        List<Object> deaths = new ArrayList<>();
+        Map<String, Object> last = new HashMap<>();
+        last.put("queue", queue);
+        last.put("reason", reason);
+        deaths.add(last);
+        Map<String, Object> earlier = new HashMap<>(); //an earlier trip through a retry rung
+        earlier.put("queue", queue + ".retry.1000");
+        earlier.put("reason", "expired");
+        deaths.add(earlier);
+        headers.put(DeadLetterFilter.X_DEATH, deaths);
+        if (jobId != null) {
+            headers.put(RetryPolicy.JOB_ID, jobId);
+        }
+        return headers;
+    }
+
+    @Test public void testOriginalQueueIsTheMostRecentDeath() throws Exception {
+        Map<String, Object> headers = deadLetter("HelloWorld-1234", "rejected", "job");
+        assert DeadLetterFilter.originalQueue(headers).equals("HelloWorld-1234");
+        assert DeadLetterFilter.reason(headers).equals("rejected");
+        assert DeadLetterFilter.originalQueue(new HashMap<>()) == null;
+        assert DeadLetterFilter.originalQueue(null) == null;
+    }
+
+    @Test public void testEmptyFilterMatchesAnyDeadLetter() throws Exception {
+        DeadLetterFilter filter = new DeadLetterFilter(null, null, null);
+        assert filter.matches(deadLetter("HelloWorld-1234", "rejected", null), () -> null);
+        assert !filter.matches(new HashMap<>(), () -> null); //never dead-lettered, nowhere to go back to
+    }
+
+    @Test public void testFiltersByAdapterAndReason() throws Exception {
+        DeadLetterFilter filter = new DeadLetterFilter(null, "helloworld", "rejected");
+        assert filter.matches(deadLetter("HelloWorld-1234", "rejected", null), () -> null);
+        assert !filter.matches(deadLetter("HelloWorld-1234", "expired", null), () -> null);
+        assert !filter.matches(deadLetter("Curl-1234", "rejected", null), () -> null);
+    }
+
+    @Test public void testJobIdReadsTheBodyOnlyWithoutHeader() throws Exception {
+        DeadLetterFilter filter = new DeadLetterFilter("job-1", null, null);
+        int[] decoded = {0};
+        assert filter.matches(deadLetter("HelloWorld-1234", "rejected", "job-1"), () -> {
+            decoded[0]++;
+            return "job-2";
+        });
+        assert !filter.matches(deadLetter("HelloWorld-1234", "rejected", "job-2"), () -> "job-1");
+        assert decoded[0] == 0;
+        assert filter.matches(deadLetter("HelloWorld-1234", "rejected", null), () -> {
+            decoded[0]++;
+            return "job-1";
+        });
+        assert decoded[0] == 1;
+    }
+
+    @Test public void testNothingIsDecodedWhenAnotherFilterFails() throws Exception {
+        DeadLetterFilter filter = new DeadLetterFilter("job-1", "curl", null);
+        assert !filter.matches(deadLetter("HelloWorld-1234", "rejected", null), () -> {
+            throw new AssertionError("body decoded");
+        });
+    }
+}
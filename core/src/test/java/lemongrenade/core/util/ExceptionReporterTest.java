@@ -0,0 +1,105 @@
+package lemongrenade.core.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+public class ExceptionReporterTest {
+    private final List<HashMap<String, String>> sent = new ArrayList<>();
+
+    private static Exception failure(String message) {
+        return new IllegalStateException(message); //same frames every call
+    }
+
+    @Test public void testSameStackTraceIsMergedWithCount() throws Exception {
+        ExceptionReporter reporter = new ExceptionReporter(sent::add, 100000000, 1000);
+        for (int i = 0; i < 500; i++) {
+            reporter.report("task-" + i, "requests-" + i, failure("bad node " + i));
+        }
+        reporter.report("other", "other-requests", new NullPointerException());
+        assert reporter.flush() == 2;
+        HashMap<String, String> merged = sent.get(0);
+        assert merged.get("count").equals("500");
+        assert merged.get("taskId").equals("task-0");
+        assert merged.get("taskIds").split(",").length == ExceptionReporter.MAX_TASK_IDS;
+        assert merged.get("requests").equals("requests-0");
+        assert merged.get("stackTrace").contains("IllegalStateException: bad node 0");
+        assert sent.get(1).get("count").equals("1");
+    }
+
+    @Test public void testFullQueueDropsAndAccounts() throws Exception {
+        long size = ExceptionReporter.estimate("task", "", failure("storm"));
+        ExceptionReporter reporter = new ExceptionReporter(sent::add, 10 * size, 1000);
+        int accepted = 0;
+        for (int i = 0; i < 100; i++) {
+            if (reporter.report("task", "", failure("storm"))) {
+                accepted++;
+            }
+        }
+        assert accepted == 10;
+        assert reporter.getDropped() == 90;
+        assert reporter.flush() == 2;
+        assert sent.get(0).get("count").equals("10");
+        assert sent.get(1).get("count").equals("90");
+        assert reporter.getDropped() == 0;
+        assert reporter.getQueuedBytes() == 0;
+    }
+
+    @Test public void testQueueIsBoundedByBytes() throws Exception {
+        String big = new String(new char[ExceptionReporter.MAX_REQUEST_CHARS]).replace('\0', 'x');
+        long bigSize = ExceptionReporter.estimate("task", big, failure("storm"));
+        ExceptionReporter reporter = new ExceptionReporter(sent::add, bigSize * 3 / 2, 1000);
+        assert reporter.report("task", big, failure("storm"));
+        assert !reporter.report("task", big, failure("storm")); //a second big one doesn't fit
+        assert reporter.report("task", "small", failure("storm")); //a small one still does
+        assert reporter.getQueued() == 2 && reporter.getDropped() == 1;
+        reporter.flush();
+        assert reporter.getQueuedBytes() == 0;
+    }
+
+    @Test public void testRequestsAreCutWhenReported() throws Exception {
+        List<String> nodes = new ArrayList<>();
+        for (int i = 0; i < 100000; i++) {
+            nodes.add("{\"type\":\"node\",\"value\":\"" + i + "\"}");
+        }
+        String rendered = ExceptionReporter.render(nodes);
+        assert rendered.length() < ExceptionReporter.MAX_REQUEST_CHARS + 100;
+        assert rendered.startsWith("[{\"type\":\"node\",\"value\":\"0\"},");
+        assert ExceptionReporter.render(nodes.subList(0, 2)).equals("[" + nodes.get(0) + "," + nodes.get(1) + "]");
+
+        String huge = new String(new char[ExceptionReporter.MAX_REQUEST_CHARS * 10]).replace('\0', 'x');
+        ExceptionReporter reporter = new ExceptionReporter(sent::add, 100000000, 1000);
+        reporter.report("task", huge, failure("storm"));
+        reporter.flush();
+        assert sent.get(0).get("requests").length() < ExceptionReporter.MAX_REQUEST_CHARS + 100;
+    }
+
+    @Test public void testReportNeverWaitsOnTheSink() throws Exception {
+        ExceptionReporter reporter = new ExceptionReporter(record -> Thread.sleep(1000), 100000000, 100); //a slow broker
+        reporter.start();
+        long start = System.nanoTime();
+        for (int i = 0; i < 100000; i++) {
+            reporter.report("task", null, failure("storm"));
+        }
+        assert System.nanoTime() - start < 5000000000L;
+        reporter.close();
+    }
+
+    @Test public void testBackgroundThreadSendsAfterTheWindow() throws Exception {
+        List<HashMap<String, String>> records = new java.util.concurrent.CopyOnWriteArrayList<>();
+        ExceptionReporter reporter = new ExceptionReporter(records::add, 100000000, 50);
+        reporter.start();
+        for (int i = 0; i < 5; i++) {
+            reporter.report("task-" + i, null, failure("storm"));
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        while (records.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        reporter.close();
+        assert records.size() == 1;
+        assert records.get(0).get("count").equals("5");
+    }
+}
@@ -5,6 +5,8 @@ import org.json.JSONArray;
 import org.json.JSONObject;
 import org.junit.Test;
 
+import java.util.Iterator;
+
 public class JSONUtilsTest extends TestCase {
 
     /** */
@@ -66,6 +68,51 @@ public class JSONUtilsTest extends TestCase {
         System.out.println(result4.toString());
     }
 
-}
+    /** */
+    @Test
+    public void testReadOnly() {
+        JSONObject config = new JSONObject()
+                .put("depth", 3)
+                .put("adapters", new JSONObject().put("HelloWorld", new JSONObject().put("key", "value")))
+                .put("list", new JSONArray().put("a"));
+        JSONObject readOnly = JSONUtils.readOnly(config);
+        assertEquals(config.toString(), readOnly.toString());
+        assertSame(readOnly, JSONUtils.readOnly(readOnly));
+        try {
+            readOnly.put("depth", 4);
+            fail();
+        } catch (UnsupportedOperationException e) {}
+        try {
+            readOnly.getJSONObject("adapters").getJSONObject("HelloWorld").remove("key");
+            fail();
+        } catch (UnsupportedOperationException e) {}
+        try {
+            readOnly.getJSONArray("list").put("b");
+            fail();
+        } catch (UnsupportedOperationException e) {}
+        try {
+            readOnly.keySet().remove("depth");
+            fail();
+        } catch (UnsupportedOperationException e) {}
+        try {
+            Iterator<String> keys = readOnly.keys();
+            keys.next();
+            keys.remove();
+            fail();
+        } catch (UnsupportedOperationException e) {}
+        try {
+            Iterator<Object> items = readOnly.getJSONArray("list").iterator();
+            items.next();
+            items.remove();
+            fail();
+        } catch (UnsupportedOperationException e) {}
+        assertEquals(3, readOnly.length());
 
+        JSONObject copy = JSONUtils.copy(readOnly);
+        copy.put("depth", 4);
+        copy.getJSONObject("adapters").put("PlusBang", new JSONObject());
+        assertEquals(3, readOnly.getInt("depth"));
+        assertFalse(readOnly.getJSONObject("adapters").has("PlusBang"));
+    }
 
+}
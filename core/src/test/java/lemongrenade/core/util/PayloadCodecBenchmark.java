@@ -0,0 +1,48 @@
+package lemongrenade.core.util;
+
+import java.util.zip.Deflater;
+
+/**
+ * Reports compression ratio against encode/decode time for each codec and level on payloads shaped like adapter
+ * responses. Not run as part of the test suite. Run with:
+ *   mvn -pl core test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=lemongrenade.core.util.PayloadCodecBenchmark
+ */
+public class PayloadCodecBenchmark {
+    private static final int WARMUP = 20;
+    private static final int ITERATIONS = 50;
+
+    public static void main(String[] args) throws Exception {
+        int[] sizes = {10, 100, 1000, 10000};
+        int[] levels = {Deflater.BEST_SPEED, Deflater.DEFAULT_COMPRESSION, Deflater.BEST_COMPRESSION};
+        System.out.println(String.format("%-8s %-6s %6s %12s %12s %7s %10s %10s",
+                "codec", "level", "nodes", "raw bytes", "enc bytes", "ratio", "enc MB/s", "dec MB/s"));
+        for (int nodes : sizes) {
+            byte[] data = PayloadCodecsTest.buildPayload(nodes);
+            for (int level : levels) {
+                report(new PayloadCodecs.GzipCodec(level), level, nodes, data);
+                report(new PayloadCodecs.DeflateCodec(level), level, nodes, data);
+            }
+        }
+    }
+
+    private static void report(PayloadCodec codec, int level, int nodes, byte[] data) throws Exception {
+        byte[] encoded = null;
+        for (int i = 0; i < WARMUP; i++) {
+            codec.decode(codec.encode(data));
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            encoded = codec.encode(data);
+        }
+        long encodeNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            codec.decode(encoded);
+        }
+        long decodeNanos = System.nanoTime() - start;
+        double mb = (double) data.length * ITERATIONS / (1024 * 1024);
+        System.out.println(String.format("%-8s %-6d %6d %12d %12d %6.1fx %10.1f %10.1f",
+                codec.getName(), level, nodes, data.length, encoded.length, (double) data.length / encoded.length,
+                mb / (encodeNanos / 1e9), mb / (decodeNanos / 1e9)));
+    }
+}
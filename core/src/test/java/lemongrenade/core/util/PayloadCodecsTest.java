@@ -0,0 +1,60 @@
+package lemongrenade.core.util;
+
+import lemongrenade.core.models.LGPayload;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+public class PayloadCodecsTest {
+
+    //A payload shaped like a large adapter response
+    static byte[] buildPayload(int nodes) {
+        LGPayload payload = new LGPayload("11111111-1111-1111-1111-111111111111", "task-1", new JSONObject().put("depth", 3));
+        for (int i = 0; i < nodes; i++) {
+            JSONObject node = new JSONObject()
+                    .put("type", "host")
+                    .put("value", "host" + i + ".example.com")
+                    .put("ip", "10.0." + (i / 256) % 256 + "." + i % 256)
+                    .put("LG:METADATA", new JSONObject().put("adapter", "HelloWorld").put("seen", 1500000000000L + i));
+            payload.addResponseNode(node);
+            payload.addResponseEdge(node, new JSONObject().put("type", "edge").put("value", "resolves"),
+                    new JSONObject().put("type", "ip").put("value", node.getString("ip")));
+        }
+        return payload.toByteArray();
+    }
+
+    @Test public void testRoundTrip() {
+        byte[] data = buildPayload(1000);
+        for (String name : new String[] {"gzip", "deflate"}) {
+            PayloadCodecs.Encoded encoded = PayloadCodecs.encode(data, PayloadCodecs.lookup(name), 1024);
+            assert encoded.encoding.equals(name);
+            assert encoded.body.length < data.length;
+            assert Arrays.equals(PayloadCodecs.decode(encoded.encoding, encoded.body), data);
+        }
+    }
+
+    @Test public void testBelowThresholdIsNotCompressed() {
+        byte[] data = buildPayload(1);
+        PayloadCodecs.Encoded encoded = PayloadCodecs.encode(data, PayloadCodecs.lookup("gzip"), data.length + 1);
+        assert encoded.encoding == null;
+        assert encoded.body == data;
+    }
+
+    @Test public void testUnencodedIsPassedThrough() {
+        byte[] data = buildPayload(1);
+        assert PayloadCodecs.decode(null, data) == data;
+        assert PayloadCodecs.decode("identity", data) == data;
+        assert LGPayload.deserialize(PayloadCodecs.decode(null, data)).getResponseNodeCount() == 1;
+    }
+
+    @Test public void testUnknownEncodingIsRejected() {
+        try {
+            PayloadCodecs.decode("br", new byte[] {1, 2, 3});
+            assert false;
+        }
+        catch (IllegalArgumentException e) {
+            assert e.getMessage().contains("br");
+        }
+    }
+}